@@ -25,15 +25,62 @@ import cx.ath.rtubio.javalib.pojos.FileHelper;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.io.File;
+import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.humsat.demo.gssw.sensorlocator.alert.AlertCSVWriter;
+import org.humsat.demo.gssw.sensorlocator.alert.AlertEngine;
+import org.humsat.demo.gssw.sensorlocator.alert.AlertListener;
+import org.humsat.demo.gssw.sensorlocator.archive.ArchiveReader;
+import org.humsat.demo.gssw.sensorlocator.archive.ColumnArchive;
+import org.humsat.demo.gssw.sensorlocator.cache.ResultCache;
 import org.humsat.demo.gssw.sensorlocator.csv.CSVHelper;
+import org.humsat.demo.gssw.sensorlocator.csv.RecordLogReader;
+import org.humsat.demo.gssw.sensorlocator.csv.RecordLogWriter;
+import org.humsat.demo.gssw.sensorlocator.csv.SensorDataMerger;
+import org.humsat.demo.gssw.sensorlocator.csv.SensorDataReader;
+import org.humsat.demo.gssw.sensorlocator.csv.SensorDataSource;
+import org.humsat.demo.gssw.sensorlocator.kml.AlertKMLWriter;
+import org.humsat.demo.gssw.sensorlocator.kml.HeatmapKMLWriter;
 import org.humsat.demo.gssw.sensorlocator.kml.KMLNode;
+import org.humsat.demo.gssw.sensorlocator.kml.KMLUpdateWriter;
+import org.humsat.demo.gssw.sensorlocator.data.DataField;
+import org.humsat.demo.gssw.sensorlocator.data.DecimalFormatter;
 import org.humsat.demo.gssw.sensorlocator.data.SensorData;
-import org.humsat.demo.gssw.sensorlocator.kml.SimpleKMLWriter;
+import org.humsat.demo.gssw.sensorlocator.dedup.FrameDeduplicator;
+import org.humsat.demo.gssw.sensorlocator.geofence.Geofence;
+import org.humsat.demo.gssw.sensorlocator.heatmap.Heatmap;
+import org.humsat.demo.gssw.sensorlocator.index.SpatialIndex;
+import org.humsat.demo.gssw.sensorlocator.index.TimeIndex;
+import org.humsat.demo.gssw.sensorlocator.kml.ParallelKMLWriter;
+import org.humsat.demo.gssw.sensorlocator.kml.TrackKMLWriter;
+import org.humsat.demo.gssw.sensorlocator.kml.WindowKMLWriter;
+import org.humsat.demo.gssw.sensorlocator.output.DataSink;
+import org.humsat.demo.gssw.sensorlocator.output.OutputSink;
+import org.humsat.demo.gssw.sensorlocator.output.OutputSinks;
+import org.humsat.demo.gssw.sensorlocator.pipeline.Pipeline;
+import org.humsat.demo.gssw.sensorlocator.pipeline.StagedRunner;
+import org.humsat.demo.gssw.sensorlocator.sort.ExternalSorter;
+import org.humsat.demo.gssw.sensorlocator.track.Track;
+import org.humsat.demo.gssw.sensorlocator.stats.SensorStatistics;
+import org.humsat.demo.gssw.sensorlocator.stats.WindowAggregator;
+import org.humsat.demo.gssw.sensorlocator.stats.WindowCSVWriter;
+import org.humsat.demo.gssw.sensorlocator.stats.WindowListener;
 
 /**
  * Main application class.
@@ -49,21 +96,51 @@ public class SensorLocator
     protected File outputFile = null;
     /** Intermediate CSV file generated with the required columns. */
     protected File intFile = null;
+    /** Options given through the command line, (name, value). */
+    protected Map<String, String> options = new HashMap<String, String>();
+    /** Sensor selected through the --sensor option, ALL_SENSORS for all. */
+    protected int sensor = Pipeline.ALL_SENSORS;
+    /** Lower limit of the timestamps of the selected sensor (--from). */
+    protected int from = Integer.MIN_VALUE;
+    /** Upper limit of the timestamps of the selected sensor (--to). */
+    protected int to = Integer.MAX_VALUE;
     
     /**
      * Main class constructor. This class must be instantiated by either of the
      * running methods available (either from the command line "main()" or 
      * from other methods like, for example, a launcher method for a servlet).
+     * No file is created until the conversion runs; for embedding the
+     * conversions in-process, see Pipeline.
      */
     public SensorLocator(File inputFile, File outputFile) throws IOException
+        { this(inputFile, outputFile, new HashMap<String, String>()); }
+    
+    /**
+     * Constructor that also configures the CLI options; the selection of the
+     * sensor and the range of time (--sensor, --from and --to) is parsed
+     * once, here.
+     * 
+     * @param inputFile The input file.
+     * @param outputFile The output file.
+     * @param options The CLI options, (name, value).
+     * @throws IllegalArgumentException In case the selection is not valid.
+     */
+    public SensorLocator
+            (   File inputFile, File outputFile,
+                final Map<String, String> options   )
+        throws IOException
     {
     
         this.inputFile = inputFile;
         this.outputFile = outputFile;
+        this.options = options;
         
-        this.intFile
-            = FileHelper.makeOutputFile(CSVHelper.getCSVIntermediateFilename
-                                            (inputFile.getName()), true);
+        if ( this.getOption(__SENSOR_OPTION) != null )
+        {
+            this.sensor = this.getIntOption(__SENSOR_OPTION, -1);
+            this.from = this.getIntOption(__FROM_OPTION, Integer.MIN_VALUE);
+            this.to = this.getIntOption(__TO_OPTION, Integer.MAX_VALUE);
+        }
         
     }
 
@@ -83,24 +160,65 @@ public class SensorLocator
         
         for ( SensorData sd_i : sensors )
         {
-            try
-                { l.add(KMLNode.createKMLNode(sd_i)); }
-            catch(Exception ex)
-            {
-                Logger.getLogger(SensorLocator.class.getName())
-                        .log(Level.WARNING, "Could not create KML node for, " 
-                                            + "sensor data object = {0}"
-                                                , sd_i);
-                Logger.getLogger(SensorLocator.class.getName())
-                        .log(Level.WARNING, ex.getMessage(), ex);
-                continue;
-            }
+            KMLNode k_i = createKMLNode(sd_i);
+            if ( k_i != null ) { l.add(k_i); }
         }
         
         return(l);
         
     }
     
+    /**
+     * Static method that transforms a SensorData object into a KML node,
+     * logging the problem in case it cannot be transformed.
+     * 
+     * @param sensor The SensorData object to be transformed.
+     * @return The KML node, 'null' in case it could not be created.
+     */
+    public static KMLNode createKMLNode(final SensorData sensor)
+    {
+        
+        try
+            { return(KMLNode.createKMLNode(sensor)); }
+        catch(Exception ex)
+        {
+            Logger.getLogger(SensorLocator.class.getName())
+                    .log(Level.WARNING, "Could not create KML node for, " 
+                                        + "sensor data object = {0}"
+                                            , sensor);
+            Logger.getLogger(SensorLocator.class.getName())
+                    .log(Level.WARNING, ex.getMessage(), ex);
+            return(null);
+        }
+        
+    }
+    
+    /**
+     * Static method that returns a copy of the given list of SensorData
+     * objects sorted by timestamp (stable, so readings with the same
+     * timestamp keep their original order).
+     * 
+     * @param sensors List with the SensorData objects to be sorted.
+     * @return The sorted copy of the list.
+     */
+    protected static List<SensorData> sortByTimestamp
+            (final List<SensorData> sensors)
+    {
+        
+        List<SensorData> ordered = new ArrayList<SensorData>(sensors);
+        Collections.sort(ordered, new Comparator<SensorData>()
+        {
+            @Override
+            public int compare(SensorData a, SensorData b)
+            {
+                return( ( a.getTimestamp() < b.getTimestamp() ) ? -1 :
+                        ( a.getTimestamp() > b.getTimestamp() ) ? 1 : 0 );
+            }
+        });
+        return(ordered);
+        
+    }
+    
     /**
      * Transforms a list of SensorData objects into a list of lines, each line
      * containing the data of the SensorData objects.
@@ -125,9 +243,104 @@ public class SensorLocator
     /** 2 arguments are required for this application. */
     public final static int __ARGS_LEN = 2;
     
+    /** Prefix of the optional CLI arguments. */
+    public final static String __OPTION_PREFIX = "--";
+    /** Separator between the name and the value of an optional argument. */
+    public final static String __OPTION_SEPARATOR = "=";
+    
+    /** Option for also writing the changes as a KML update to a file. */
+    public final static String __UPDATE_OPTION = "update";
+    /** Option for selecting the output format (kml, geojson or ndjson). */
+    public final static String __FORMAT_OPTION = "format";
+    /** Option for selecting the number of threads for rendering output. */
+    public final static String __THREADS_OPTION = "threads";
+    /** Option for selecting the number of decimals of the coordinates. */
+    public final static String __COORDINATE_DECIMALS_OPTION
+            = "coordinate-decimals";
+    /** Option for selecting the number of decimals of the values. */
+    public final static String __VALUE_DECIMALS_OPTION = "value-decimals";
+    /** Option for keeping only the sensors inside of a bounding box. */
+    public final static String __BBOX_OPTION = "bbox";
+    /** Option for keeping only the sensors near a given point. */
+    public final static String __NEAR_OPTION = "near";
+    /** Option for keeping only the sensors inside of the given polygons. */
+    public final static String __GEOFENCE_OPTION = "geofence";
+    /** Option for reading only the records of the given sensor. */
+    public final static String __SENSOR_OPTION = "sensor";
+    /** Option for reading only the records since the given timestamp. */
+    public final static String __FROM_OPTION = "from";
+    /** Option for reading only the records until the given timestamp. */
+    public final static String __TO_OPTION = "to";
+    /** Option for writing the statistics of the sensors to a CSV file. */
+    public final static String __STATISTICS_OPTION = "statistics";
+    /** Option for writing the windowed statistics to a CSV or KML file. */
+    public final static String __WINDOWS_OPTION = "windows";
+    /** Option for the size and the slide of the windows, in seconds. */
+    public final static String __WINDOW_OPTION = "window";
+    /** Option for the allowed lateness of the readings, in seconds. */
+    public final static String __LATENESS_OPTION = "lateness";
+    /** Option for the Unix time (s) of the timestamp 0 of the sensors. */
+    public final static String __EPOCH_OPTION = "epoch";
+    /** Option for evaluating the alert rules of the given file. */
+    public final static String __ALERTS_OPTION = "alerts";
+    /** Option for writing the alerts to a CSV or KML file. */
+    public final static String __ALERTS_OUTPUT_OPTION = "alerts-output";
+    /** Option for dropping the duplicated frames (max. hashes in memory). */
+    public final static String __DEDUP_OPTION = "dedup";
+    /** Option for merging other inputs with the main one by timestamp. */
+    public final static String __MERGE_OPTION = "merge";
+    /** Option for writing simplified tracks (tolerance in meters). */
+    public final static String __TRACKS_OPTION = "tracks";
+    /** Option for writing a heatmap of a value (CODE[.INDEX]). */
+    public final static String __HEATMAP_OPTION = "heatmap";
+    /** Option for the width of the heatmap, in pixels. */
+    public final static String __HEATMAP_SIZE_OPTION = "heatmap-size";
+    /** Option for sorting by sensor and timestamp (memory budget, MB). */
+    public final static String __SORT_OPTION = "sort";
+    /** Option for running the stages in threads (queue capacity, batches). */
+    public final static String __STAGED_OPTION = "staged";
+    /** Option for reusing the documents kept in the given directory. */
+    public final static String __CACHE_OPTION = "cache";
+    /** Option for the limit of the size of the cache, in MB. */
+    public final static String __CACHE_SIZE_OPTION = "cache-size";
+    /** Option for the executor of the daemons (platform or virtual). */
+    public final static String __EXECUTOR_OPTION = "executor";
+    /** Separator of the files given through the --merge option. */
+    public final static String MERGE_SEPARATOR = ",";
+    
+    /** Options that require all the sensor data to be kept in memory. */
+    public final static String[] __BATCH_OPTIONS =
+        {   __UPDATE_OPTION, __BBOX_OPTION, __NEAR_OPTION, __GEOFENCE_OPTION,
+            __STATISTICS_OPTION, __ALERTS_OPTION, __TRACKS_OPTION,
+            __HEATMAP_OPTION   };
+    
+    /** Default size of the windows, in seconds. */
+    public final static long DEFAULT_WINDOW_SIZE = 3600L;
+    /** Extension of the KML files. */
+    public final static String KML_EXTENSION = ".kml";
+    /** Default file for the alerts. */
+    public final static String DEFAULT_ALERTS_OUTPUT = "alerts.csv";
+    
     /** Wrong arguments exception message. */
     public final static String __WRONG_ARGS_EX
-            = "Wrong arguments, usage: SensorLocator.jar input.csv output.kml";
+            = "Wrong arguments, usage: SensorLocator.jar "
+                + "[--format=kml|geojson|ndjson|int|archive|statistics] "
+                + "[--threads=N] "
+                + "[--coordinate-decimals=N] [--value-decimals=N] "
+                + "[--bbox=minLat,minLon,maxLat,maxLon] "
+                + "[--near=lat,lon,meters] [--geofence=polygons.wkt] "
+                + "[--sensor=ID [--from=T1] [--to=T2]] [--dedup[=N]] "
+                + "[--merge=input2.csv,input3.csv,...] [--sort[=MB]] "
+                + "[--staged[=batches]] "
+                + "[--cache=directory [--cache-size=MB]] "
+                + "[--statistics=summary.csv] "
+                + "[--windows=windows.csv|windows.kml [--window=size[,slide]] "
+                + "[--lateness=seconds] [--epoch=seconds]] "
+                + "[--alerts=rules.txt "
+                + "[--alerts-output=alerts.csv|alerts.kml]] "
+                + "[--tracks=meters] "
+                + "[--heatmap=CODE[.INDEX] [--heatmap-size=pixels]] "
+                + "[--update=update.kml] input.csv output.kml";
     
     /**
      * Static method that creates a SensorLocator object with the data provided
@@ -140,21 +353,993 @@ public class SensorLocator
             throws Exception
     {
         
-        if ( ( args == null ) || ( args.length != __ARGS_LEN ) )
+        if ( args == null )
+            { throw(new Exception(__WRONG_ARGS_EX)); }
+        
+        Map<String, String> options = new HashMap<String, String>();
+        List<String> files = new ArrayList<String>();
+        
+        for ( String a_i : args )
+        {
+            
+            if ( a_i.startsWith(__OPTION_PREFIX) == false )
+                { files.add(a_i); continue; }
+            
+            String option = a_i.substring(__OPTION_PREFIX.length());
+            int sep = option.indexOf(__OPTION_SEPARATOR);
+            
+            if ( sep < 0 )
+                { options.put(option, ""); }
+            else
+                { options.put(  option.substring(0, sep),
+                                option.substring(sep + 1)   ); }
+            
+        }
+        
+        if ( files.size() != __ARGS_LEN )
             { throw(new Exception(__WRONG_ARGS_EX)); }
         
         File in_f = cx.ath.rtubio.javalib.pojos.FileHelper
-                        .checkInputFile(args[0]);
+                        .checkInputFile(files.get(0));
         File out_f = cx.ath.rtubio.javalib.pojos.FileHelper
-                        .makeOutputFile(args[1], true);
+                        .makeOutputFile(files.get(1), true);
+        
+        return(new SensorLocator(in_f, out_f, options));
+    
+    }
+    
+    /**
+     * Returns the value of the given CLI option.
+     * 
+     * @param name Name of the option.
+     * @return The value of the option, 'null' in case it was not given.
+     */
+    public String getOption(final String name)
+        { return(this.options.get(name)); }
+    
+    /**
+     * Returns the value of the given CLI option as an integer.
+     * 
+     * @param name Name of the option.
+     * @param defaultValue Value to be returned if the option was not given.
+     * @return The value of the option.
+     * @throws IllegalArgumentException In case the value is not an integer.
+     */
+    public int getIntOption(final String name, final int defaultValue)
+    {
+        
+        String value = this.options.get(name);
+        if ( value == null ) { return(defaultValue); }
+        
+        try
+            { return(Integer.parseInt(value)); }
+        catch(NumberFormatException ex)
+        {
+            throw(new IllegalArgumentException("Option --" + name 
+                                                + " must be an integer, "
+                                                + "value = " + value));
+        }
+        
+    }
+    
+    /**
+     * Returns the value of the given CLI option as a list of comma separated
+     * decimal numbers.
+     * 
+     * @param name Name of the option.
+     * @param length Number of values that the option must have.
+     * @return The values of the option, 'null' in case it was not given.
+     * @throws IllegalArgumentException In case the value is not valid.
+     */
+    public double[] getDoublesOption(final String name, final int length)
+    {
+        
+        String value = this.options.get(name);
+        if ( value == null ) { return(null); }
+        
+        String[] fields = value.split(",");
+        if ( fields.length != length )
+            { throw(new IllegalArgumentException("Option --" + name
+                                                + " must have " + length
+                                                + " values, value = "
+                                                + value)); }
+        
+        double[] values = new double[length];
+        
+        try
+        {
+            for ( int i = 0; i < length; i++ )
+                { values[i] = Double.parseDouble(fields[i].trim()); }
+        }
+        catch(NumberFormatException ex)
+        {
+            throw(new IllegalArgumentException("Option --" + name
+                                                + " must be a list of numbers, "
+                                                + "value = " + value));
+        }
+        
+        return(values);
+        
+    }
+    
+    /**
+     * Reads the sensor data from the input file. In case a sensor is selected
+     * through the --sensor CLI option, only its records within the range of
+     * time given by the --from and --to options are read, seeking them
+     * through the time index of the input file (built and persisted next to
+     * the input file in case it is not available yet). In case the --merge
+     * option is given, the records of all the inputs are merged by timestamp
+     * instead (see SensorDataMerger).
+     * 
+     * @return The sensor data read.
+     * @throws IOException In case any IO problem occurs.
+     */
+    public List<SensorData> readSensorData()
+        throws IOException
+    {
+        
+        FrameDeduplicator dedup = this.createDeduplicator();
+        
+        try
+        {
+            
+            if ( this.getOption(__MERGE_OPTION) != null )
+            {
+                List<SensorData> l = new ArrayList<SensorData>();
+                SensorDataMerger merger = new SensorDataMerger
+                                            (this.getInputFiles(), dedup);
+                try
+                {
+                    SensorData sd = null;
+                    while ( ( sd = merger.read() ) != null )
+                        { if ( this.isSelected(sd) == true ) { l.add(sd); } }
+                }
+                finally
+                    { merger.close(); }
+                return(l);
+            }
+            
+            if ( this.getOption(__SENSOR_OPTION) != null )
+                { return(TimeIndex.open(this.inputFile).query
+                            (this.inputFile, this.sensor, this.from, this.to,
+                                dedup)); }
+            
+            // The time index is built while reading, for the next --sensor
+            // queries (not when deduplicating, since the duplicated frames
+            // would be missing from it).
+            TimeIndex index = ( ( dedup == null )
+                    && ( TimeIndex.isIndexed(this.inputFile) == false ) ) ?
+                        new TimeIndex() : null;
+            List<SensorData> l = CSVHelper.readSensorData
+                                            (this.inputFile, index, dedup);
+            if ( index != null ) { this.saveTimeIndex(index); }
+            return(l);
+            
+        }
+        finally
+            { this.closeDeduplicator(dedup); }
+        
+    }
+    
+    /**
+     * Persists the given time index of the input file next to it; a failure
+     * is logged, since the index is only needed by later runs.
+     * 
+     * @param index The time index, already sealed.
+     */
+    protected void saveTimeIndex(final TimeIndex index)
+    {
+        File file = TimeIndex.getIndexFile(this.inputFile);
+        try
+            { index.save(file); }
+        catch(IOException ex)
+        {
+            Logger.getLogger(SensorLocator.class.getName())
+                    .log(Level.WARNING, "Could not save time index, f = {0}: "
+                                        + "{1}", new Object[]
+                                            { file, ex.getMessage() });
+        }
+    }
+    
+    /**
+     * Reads the records of all the inputs (merged by timestamp, see
+     * SensorDataMerger) and writes them through the output sink as they are
+     * read, without keeping them in memory. In case the --sort option is
+     * given, the records go through an external sort by (sensor id,
+     * timestamp) before being written; in case the --staged option is given,
+     * reading, decoding and writing run in their own threads (see
+     * StagedRunner). In case the --cache option is given, the document of a
+     * single input is reused from the cache if possible (see ResultCache).
+     * A single input can also be a columnar archive (see ColumnArchive).
+     * In case the --windows option is given, the selected records are also
+     * aggregated in windows of time, written as they close.
+     * Only valid in case no batch option is given (see isStreaming()).
+     * 
+     * @throws IOException In case any IO problem occurs.
+     */
+    public void writeStreamingOutput()
+        throws IOException
+    {
+        
+        ResultCache cache = this.createCache();
+        List<File> inputs = this.getInputFiles();
+        boolean archive = ( inputs.size() == 1 )
+                && ( ColumnArchive.isArchive(inputs.get(0)) == true );
+        
+        if ( ( cache != null ) && ( inputs.size() == 1 ) && ( archive == false )
+                && ( this.getOption(__SORT_OPTION) == null )
+                && ( this.getOption(__WINDOWS_OPTION) == null ) )
+        {
+            Pipeline pipeline = this.createPipeline();
+            FileChannel out = FileChannel.open(this.outputFile.toPath(),
+                                        StandardOpenOption.CREATE,
+                                        StandardOpenOption.WRITE,
+                                        StandardOpenOption.TRUNCATE_EXISTING);
+            try
+            {
+                boolean hit = cache.run(pipeline, inputs.get(0), out);
+                Logger.getLogger(SensorLocator.class.getName())
+                        .log(Level.INFO, ( hit == true ) ?
+                                "Copied from the cache" : "Converted, cached");
+            }
+            finally
+                { out.close(); }
+            return;
+        }
+        
+        FrameDeduplicator dedup = this.createDeduplicator();
+        ExternalSorter sorter = this.createSorter();
+        SensorDataSource source = null;
+        OutputStream os = null;
+        OutputStream windows_os = null;
+        
+        try
+        {
+            
+            // The windows are aggregated in the order the records are read,
+            // before the sorter (if any) groups them by sensor.
+            WindowAggregator windows = null;
+            windows_os = this.openWindowsOutput();
+            if ( windows_os != null )
+                { windows = this.createWindowAggregator(windows_os); }
+            Pipeline pipeline = this.createPipeline
+                                    (( sorter == null ) ? windows : null);
+            
+            // A single input is read directly, so that the staged runs can
+            // decode its lines in their own stage.
+            if ( archive == true )
+                { source = new ArchiveReader(inputs.get(0)); }
+            else if ( ( inputs.size() == 1 ) && ( sorter == null ) )
+                { source = new SensorDataReader(inputs.get(0), dedup); }
+            else
+                { source = new SensorDataMerger(inputs, dedup); }
+            
+            if ( sorter != null )
+            {
+                SensorData sd = null;
+                while ( ( sd = source.read() ) != null )
+                {
+                    if ( this.isSelected(sd) == false ) { continue; }
+                    sorter.add(sd);
+                    if ( windows != null ) { windows.add(sd); }
+                }
+                sorter.sort();
+            }
+            
+            os = new BufferedOutputStream(new FileOutputStream
+                        (this.outputFile), OutputSinks.FILE_BUFFER_SIZE);
+            Pipeline.Result result = pipeline.run
+                            (( sorter != null ) ? sorter : source, os);
+            
+            Logger.getLogger(SensorLocator.class.getName())
+                                .log(Level.INFO, "Streamed {0} records"
+                                                    , result.getWritten());
+            if ( windows != null ) { this.endWindows(windows); }
+            
+        }
+        finally
+        {
+            if ( os != null ) { os.close(); }
+            if ( windows_os != null ) { windows_os.close(); }
+            if ( source != null ) { source.close(); }
+            if ( sorter != null ) { sorter.close(); }
+            this.closeDeduplicator(dedup);
+        }
         
-        return(new SensorLocator(in_f, out_f));
+    }
     
+    /**
+     * Checks whether the records can be written as they are read, that is, if
+     * the --merge, the --sort, the --staged or the --cache option is given
+     * and none of the batch options.
+     * 
+     * @return 'true' in case the records can be streamed.
+     */
+    public boolean isStreaming()
+    {
+        
+        if ( ( this.getOption(__MERGE_OPTION) == null )
+                && ( this.getOption(__SORT_OPTION) == null )
+                && ( this.getOption(__STAGED_OPTION) == null )
+                && ( this.getOption(__CACHE_OPTION) == null ) )
+            { return(false); }
+        for ( String o_i : __BATCH_OPTIONS )
+            { if ( this.getOption(o_i) != null ) { return(false); } }
+        return(true);
+        
+    }
+    
+    /**
+     * Sorts the given sensor data by (sensor id, timestamp) through an
+     * external sort, in case the --sort CLI option is given.
+     * 
+     * @param sensors The sensor data to be sorted.
+     * @return The sorted sensor data, the same list in case the option was
+     *          not given.
+     * @throws IOException In case the runs cannot be written or read.
+     */
+    public List<SensorData> sortSensorData(final List<SensorData> sensors)
+        throws IOException
+    {
+        
+        ExternalSorter sorter = this.createSorter();
+        if ( sorter == null ) { return(sensors); }
+        
+        List<SensorData> l = new ArrayList<SensorData>(sensors.size());
+        
+        try
+        {
+            for ( SensorData sd_i : sensors ) { sorter.add(sd_i); }
+            sorter.sort();
+            SensorData sd = null;
+            while ( ( sd = sorter.read() ) != null ) { l.add(sd); }
+        }
+        finally
+            { sorter.close(); }
+        
+        Logger.getLogger(SensorLocator.class.getName())
+                            .log(Level.INFO, "Sorted {0} records in {1} runs"
+                                                , new Object[]
+                                                    {   sorter.getRecords(),
+                                                        sorter.getRuns()  });
+        return(l);
+        
+    }
+    
+    /**
+     * Creates the external sorter in case the --sort CLI option is given;
+     * its value is the memory budget of the runs, in MB.
+     * 
+     * @return The sorter, 'null' in case the option is not given.
+     */
+    protected ExternalSorter createSorter()
+    {
+        
+        String budget = this.getOption(__SORT_OPTION);
+        if ( budget == null ) { return(null); }
+        
+        return(new ExternalSorter
+                    (   ( budget.isEmpty() == true ) ?
+                            ExternalSorter.DEFAULT_MEMORY_BUDGET :
+                            this.getIntOption(__SORT_OPTION, 0) * 1024L * 1024L,
+                        Math.max(1, this.getIntOption(__THREADS_OPTION, 1)),
+                        null    ));
+        
+    }
+    
+    /**
+     * Creates the cache of the documents in case the --cache option is given,
+     * limited by the --cache-size option (MB).
+     * 
+     * @return The cache, 'null' in case the option is not given.
+     * @throws IOException In case the cache cannot be loaded.
+     */
+    protected ResultCache createCache()
+        throws IOException
+    {
+        
+        String directory = this.getOption(__CACHE_OPTION);
+        if ( ( directory == null ) || ( directory.isEmpty() == true ) )
+            { return(null); }
+        
+        return(new ResultCache
+                    (   new File(directory),
+                        ( this.getOption(__CACHE_SIZE_OPTION) == null ) ?
+                            ResultCache.DEFAULT_MAX_SIZE :
+                            this.getIntOption(__CACHE_SIZE_OPTION, 0)
+                                * 1024L * 1024L ));
+        
+    }
+    
+    /**
+     * Returns the input files: the main input file followed by the files
+     * given through the --merge CLI option.
+     * 
+     * @return List with the input files.
+     * @throws IOException In case any input file does not exist.
+     */
+    public List<File> getInputFiles()
+        throws IOException
+    {
+        
+        List<File> inputs = new ArrayList<File>();
+        inputs.add(this.inputFile);
+        
+        String merge = this.getOption(__MERGE_OPTION);
+        if ( merge == null ) { return(inputs); }
+        
+        for ( String f_i : merge.split(MERGE_SEPARATOR) )
+        {
+            if ( f_i.trim().isEmpty() == true ) { continue; }
+            inputs.add(cx.ath.rtubio.javalib.pojos.FileHelper
+                            .checkInputFile(f_i.trim()));
+        }
+        
+        return(inputs);
+        
+    }
+    
+    /**
+     * Checks whether the given sensor data is within the sensor and the range
+     * of time given through the --sensor, --from and --to CLI options.
+     * 
+     * @param sensor The sensor data.
+     * @return 'true' in case it is selected.
+     */
+    protected boolean isSelected(final SensorData sensor)
+    {
+        
+        if ( this.getOption(__SENSOR_OPTION) == null ) { return(true); }
+        
+        return( ( sensor.getSensorId() == this.sensor )
+                && ( sensor.getTimestamp() >= this.from )
+                && ( sensor.getTimestamp() <= this.to ) );
+        
+    }
+    
+    /**
+     * Creates the deduplicator of the frames in case the --dedup CLI option is
+     * given; its value is the maximum number of hashes kept in memory before
+     * spilling them to disk.
+     * 
+     * @return The deduplicator, 'null' in case the option is not given.
+     */
+    protected FrameDeduplicator createDeduplicator()
+    {
+        
+        String limit = this.getOption(__DEDUP_OPTION);
+        if ( limit == null ) { return(null); }
+        
+        return(new FrameDeduplicator
+                    (   ( limit.isEmpty() == true ) ?
+                            FrameDeduplicator.DEFAULT_MEMORY_LIMIT :
+                            this.getIntOption(__DEDUP_OPTION, 0),
+                        null    ));
+        
+    }
+    
+    /**
+     * Closes the given deduplicator, logging the duplicated frames found.
+     * 
+     * @param dedup The deduplicator, it can be 'null'.
+     * @throws IOException In case its runs cannot be closed.
+     */
+    protected void closeDeduplicator(final FrameDeduplicator dedup)
+        throws IOException
+    {
+        
+        if ( dedup == null ) { return; }
+        dedup.close();
+        Logger.getLogger(SensorLocator.class.getName())
+                    .log(Level.INFO, "Duplicated frames: {0}", dedup);
+        
+    }
+    
+    /**
+     * Aggregates the values of the given sensor data and writes the summary
+     * to the CSV file given through the --statistics CLI option.
+     * 
+     * @param sensors The sensor data to be aggregated.
+     * @return The statistics, 'null' in case the option was not given.
+     * @throws IOException In case the summary cannot be written.
+     */
+    public SensorStatistics writeStatistics(final List<SensorData> sensors)
+        throws IOException
+    {
+        
+        String summary = this.getOption(__STATISTICS_OPTION);
+        if ( summary == null ) { return(null); }
+        
+        int threads = Math.max(1, this.getIntOption(__THREADS_OPTION, 1));
+        SensorStatistics statistics
+                = SensorStatistics.aggregate(sensors, threads);
+        statistics.writeCSV(FileHelper.makeOutputFile(summary, true));
+        
+        Logger.getLogger(SensorLocator.class.getName())
+                            .log(Level.INFO, "Statistics written to {0}"
+                                                , summary);
+        return(statistics);
+        
+    }
+    
+    /**
+     * Aggregates the values of the given sensor data in windows of time and
+     * writes them to the file given through the --windows CLI option (see
+     * createWindowAggregator()). The readings are given to the aggregator in
+     * the order they were read, the windows are written as they close.
+     * 
+     * @param sensors The sensor data to be aggregated.
+     * @throws IOException In case the windows cannot be written.
+     */
+    public void writeWindows(final List<SensorData> sensors)
+        throws IOException
+    {
+        
+        OutputStream os = this.openWindowsOutput();
+        if ( os == null ) { return; }
+        
+        try
+        {
+            WindowAggregator aggregator = this.createWindowAggregator(os);
+            for ( SensorData sd_i : sensors ) { aggregator.add(sd_i); }
+            this.endWindows(aggregator);
+        }
+        finally
+            { os.close(); }
+        
+    }
+    
+    /**
+     * Opens the file given through the --windows CLI option.
+     * 
+     * @return The output stream, 'null' in case the option is not given.
+     * @throws IOException In case the file cannot be created.
+     */
+    protected OutputStream openWindowsOutput()
+        throws IOException
+    {
+        
+        String output = this.getOption(__WINDOWS_OPTION);
+        if ( output == null ) { return(null); }
+        
+        return(new BufferedOutputStream(new FileOutputStream
+                            (FileHelper.makeOutputFile(output, true)),
+                        OutputSinks.FILE_BUFFER_SIZE));
+        
+    }
+    
+    /**
+     * Creates the aggregator of the windows of time, which writes each window
+     * to the given output as soon as it is closed: one time-span placemark
+     * per window if the extension of the file given through the --windows
+     * CLI option is ".kml", CSV lines otherwise. The size and the slide of
+     * the windows are given through the --window option (one hour tumbling
+     * windows by default), and the allowed lateness through the --lateness
+     * option; the readings need not be sorted, only the ones older than the
+     * lateness with respect to the newest one are dropped.
+     * 
+     * @param os Output for the windows, the document is started.
+     * @return The aggregator.
+     * @throws IOException In case the document cannot be started.
+     */
+    public WindowAggregator createWindowAggregator(final OutputStream os)
+        throws IOException
+    {
+        
+        long size = DEFAULT_WINDOW_SIZE;
+        long slide = DEFAULT_WINDOW_SIZE;
+        String window = this.getOption(__WINDOW_OPTION);
+        
+        if ( window != null )
+        {
+            double[] w = this.getDoublesOption(__WINDOW_OPTION,
+                                    ( window.indexOf(',') < 0 ) ? 1 : 2);
+            size = (long) w[0];
+            slide = ( w.length > 1 ) ? (long) w[1] : size;
+        }
+        
+        String output = this.getOption(__WINDOWS_OPTION);
+        WindowListener listener = null;
+        
+        if ( ( output != null )
+                && ( output.toLowerCase().endsWith(KML_EXTENSION) == true ) )
+        {
+            WindowKMLWriter kml = new WindowKMLWriter
+                        (   this.getIntOption(__EPOCH_OPTION, 0) * 1000L,
+                            this.createDecimalFormatter()   );
+            kml.begin(os);
+            listener = kml;
+        }
+        else
+            { listener = new WindowCSVWriter(new OutputStreamWriter(os)); }
+        
+        return(new WindowAggregator
+                    (   size, slide, this.getIntOption(__LATENESS_OPTION, 0),
+                        listener    ));
+        
+    }
+    
+    /**
+     * Closes the windows still open and ends their document; the output is
+     * not closed.
+     * 
+     * @param aggregator The aggregator created by createWindowAggregator().
+     * @throws IOException In case the windows cannot be written.
+     */
+    public void endWindows(final WindowAggregator aggregator)
+        throws IOException
+    {
+        
+        aggregator.flush();
+        
+        if ( aggregator.getListener() instanceof WindowKMLWriter )
+            { ((WindowKMLWriter) aggregator.getListener()).end(); }
+        else
+            { ((WindowCSVWriter) aggregator.getListener()).flush(); }
+        
+        Logger.getLogger(SensorLocator.class.getName())
+                            .log(Level.INFO, "Windows written to {0}, {1} "
+                                    + "late readings dropped"
+                                    , new Object[]
+                                        {   this.getOption(__WINDOWS_OPTION),
+                                            aggregator.getDropped()    });
+        
+    }
+    
+    /**
+     * Evaluates the alert rules of the file given through the --alerts CLI
+     * option over the given sensor data, in timestamp order, and writes the
+     * raised alerts to the file given through the --alerts-output option: a
+     * KML file with an "Alerts" folder if its extension is ".kml", a CSV file
+     * otherwise ("alerts.csv" by default).
+     * 
+     * @param sensors The sensor data to be evaluated.
+     * @return The engine used, 'null' if no rules were given.
+     * @throws IOException In case the rules cannot be read or the alerts
+     *                      cannot be written.
+     */
+    public AlertEngine writeAlerts(final List<SensorData> sensors)
+        throws IOException
+    {
+        
+        String rules = this.getOption(__ALERTS_OPTION);
+        if ( rules == null ) { return(null); }
+        
+        String output = this.getOption(__ALERTS_OUTPUT_OPTION);
+        if ( output == null ) { output = DEFAULT_ALERTS_OUTPUT; }
+        
+        File out_f = FileHelper.makeOutputFile(output, true);
+        AlertKMLWriter kml = null;
+        Writer csv = null;
+        AlertListener listener = null;
+        
+        if ( output.toLowerCase().endsWith(KML_EXTENSION) == true )
+        {
+            kml = new AlertKMLWriter(this.createDecimalFormatter());
+            listener = kml;
+        }
+        else
+        {
+            csv = new BufferedWriter(new FileWriter(out_f));
+            listener = new AlertCSVWriter(csv);
+        }
+        
+        AlertEngine engine = null;
+        
+        try
+        {
+            engine = AlertEngine.createAlertEngine(new File(rules), listener);
+            for ( SensorData sd_i : SensorLocator.sortByTimestamp(sensors) )
+                { engine.evaluate(sd_i); }
+            if ( kml != null ) { kml.writeXML(out_f); }
+        }
+        finally
+            { if ( csv != null ) { csv.close(); } }
+        
+        Logger.getLogger(SensorLocator.class.getName())
+                            .log(Level.INFO, "Alerts ({0}) written to {1}"
+                                                , new Object[]
+                                                    { engine, output });
+        return(engine);
+        
+    }
+    
+    /**
+     * Keeps only the sensor data inside of the polygons of the WKT file given
+     * through the --geofence CLI option.
+     * 
+     * @param sensors The sensor data to be filtered.
+     * @return The sensor data inside of the geofence, in the original order.
+     * @throws IOException In case the WKT file cannot be read.
+     */
+    public List<SensorData> filterGeofence(final List<SensorData> sensors)
+        throws IOException
+    {
+        
+        String polygons = this.getOption(__GEOFENCE_OPTION);
+        if ( polygons == null ) { return(sensors); }
+        
+        Geofence geofence = Geofence.createGeofence
+                                        (FileHelper.checkInputFile(polygons));
+        Logger.getLogger(SensorLocator.class.getName())
+                            .log(Level.INFO, "Geofence: {0}", geofence);
+        
+        return(geofence.filter(sensors));
+        
+    }
+    
+    /**
+     * Keeps only the KML nodes inside of the region selected through the CLI
+     * options (--bbox and/or --near). Nodes are looked up through a spatial
+     * index, so that the region is cut without scanning all the positions.
+     * 
+     * @param nodes The KML nodes to be filtered.
+     * @return The KML nodes inside of the region, in the original order.
+     */
+    public List<KMLNode> filterRegion(final List<KMLNode> nodes)
+    {
+        
+        double[] bbox = this.getDoublesOption(__BBOX_OPTION, 4);
+        double[] near = this.getDoublesOption(__NEAR_OPTION, 3);
+        
+        if ( ( bbox == null ) && ( near == null ) ) { return(nodes); }
+        
+        int threads = Math.max(1, this.getIntOption(__THREADS_OPTION, 1));
+        SpatialIndex<KMLNode> index
+                = SpatialIndex.createSpatialIndex(nodes, threads);
+        Set<KMLNode> selected = null;
+        
+        if ( bbox != null )
+        {
+            selected = new HashSet<KMLNode>
+                (index.queryBox(bbox[0], bbox[1], bbox[2], bbox[3]));
+        }
+        
+        if ( near != null )
+        {
+            Set<KMLNode> found = new HashSet<KMLNode>
+                                (index.queryRadius(near[0], near[1], near[2]));
+            if ( selected == null )
+                { selected = found; }
+            else
+                { selected.retainAll(found); }
+        }
+        
+        List<KMLNode> result = new ArrayList<KMLNode>();
+        for ( KMLNode k_i : nodes )
+            { if ( selected.contains(k_i) == true ) { result.add(k_i); } }
+        
+        return(result);
+        
+    }
+    
+    /**
+     * Creates the formatter for the coordinates and the values with the
+     * number of decimals given through the CLI options. By default, the
+     * shortest representation of each value is kept.
+     * 
+     * @return The formatter.
+     */
+    public DecimalFormatter createDecimalFormatter()
+    {
+        return(new DecimalFormatter
+                (   this.getIntOption(__COORDINATE_DECIMALS_OPTION,
+                                        DecimalFormatter.SHORTEST),
+                    this.getIntOption(__VALUE_DECIMALS_OPTION,
+                                        DecimalFormatter.SHORTEST)  ));
+    }
+    
+    /**
+     * Creates the pipeline configured through the CLI options: output
+     * format, threads, decimals, sensor and time filter, region (--bbox,
+     * --near and --geofence), deduplication and staged runs.
+     * 
+     * @return The pipeline.
+     * @throws IOException In case the geofence cannot be read.
+     */
+    public Pipeline createPipeline()
+        throws IOException
+        { return(this.createPipeline(null)); }
+    
+    /**
+     * Creates the pipeline for the options of this object, giving the
+     * selected records to the given aggregator of windows.
+     * 
+     * @param windows The aggregator, 'null' for none.
+     * @return The pipeline.
+     * @throws IOException In case the geofence cannot be read.
+     */
+    public Pipeline createPipeline(final WindowAggregator windows)
+        throws IOException
+    {
+        
+        String format = this.getOption(__FORMAT_OPTION);
+        Pipeline.Builder builder = Pipeline.builder()
+                .format(( format == null ) ? OutputSinks.KML_FORMAT : format)
+                .threads(Math.max(1, this.getIntOption(__THREADS_OPTION, 1)))
+                .formatter(this.createDecimalFormatter());
+        
+        if ( this.getOption(__SENSOR_OPTION) != null )
+            { builder.sensor(this.sensor, this.from, this.to); }
+        
+        double[] bbox = this.getDoublesOption(__BBOX_OPTION, 4);
+        if ( bbox != null )
+            { builder.boundingBox(bbox[0], bbox[1], bbox[2], bbox[3]); }
+        double[] near = this.getDoublesOption(__NEAR_OPTION, 3);
+        if ( near != null ) { builder.near(near[0], near[1], near[2]); }
+        
+        String polygons = this.getOption(__GEOFENCE_OPTION);
+        if ( polygons != null )
+            { builder.geofence(Geofence.createGeofence
+                                    (FileHelper.checkInputFile(polygons))); }
+        
+        String limit = this.getOption(__DEDUP_OPTION);
+        if ( limit != null )
+            { builder.dedup(( limit.isEmpty() == true ) ?
+                                FrameDeduplicator.DEFAULT_MEMORY_LIMIT :
+                                this.getIntOption(__DEDUP_OPTION, 0)); }
+        
+        String capacity = this.getOption(__STAGED_OPTION);
+        if ( capacity != null )
+            { builder.staged(( capacity.isEmpty() == true ) ?
+                                StagedRunner.DEFAULT_CAPACITY :
+                                this.getIntOption(__STAGED_OPTION, 0)); }
+        
+        return(builder.windows(windows).build());
+        
+    }
+    
+    /**
+     * Writes the given KML nodes as the complete document to the output file
+     * and, to the file given through the --update CLI option, as an update of
+     * the previously published output targeted to the complete document, so
+     * that only the placemarks that changed are sent to the map clients that
+     * already loaded it. The state of the published placemarks is kept next
+     * to the output file.
+     * 
+     * @param nodes The KML nodes to be published.
+     * @throws IOException In case any problem occurs while reading the state
+     *                      or writing the documents.
+     */
+    protected void writeKMLUpdate(final List<KMLNode> nodes)
+        throws IOException
+    {
+        
+        String option = this.getOption(__UPDATE_OPTION);
+        if ( option.isEmpty() == true )
+            { throw(new IllegalArgumentException("Option --"
+                                                + __UPDATE_OPTION
+                                                + " requires a file.")); }
+        
+        File update = FileHelper.makeOutputFile(option, true);
+        File state = new File(KMLUpdateWriter.getStateFilename
+                                    (this.outputFile.getAbsolutePath()));
+        
+        KMLUpdateWriter kuw = new KMLUpdateWriter
+                    (KMLUpdateWriter.getTargetHref(update, this.outputFile));
+        kuw.loadState(state);
+        kuw.addKMLNodes(nodes);
+        kuw.writeDocument(this.outputFile);
+        kuw.writeUpdate(update);
+        kuw.saveState(state);
+        
+        Logger.getLogger(SensorLocator.class.getName())
+                .log(Level.INFO, "KML update, created = {0}, changed = {1}, "
+                                    + "deleted = {2}"
+                                    , new Object[] {  kuw.getCreated(),
+                                                      kuw.getChanged(),
+                                                      kuw.getDeleted()  });
+        
+    }
+    
+    /**
+     * Writes the given KML nodes as one simplified track per sensor (see
+     * TrackKMLWriter), with the tolerance in meters given through the
+     * --tracks CLI option. The tracks are gx:Track geometries in case the
+     * --epoch option is given, LineString geometries otherwise.
+     * 
+     * @param nodes The KML nodes.
+     * @throws IOException In case the output cannot be written.
+     */
+    protected void writeTracks(final List<KMLNode> nodes)
+        throws IOException
+    {
+        
+        double tolerance = this.getDoublesOption(__TRACKS_OPTION, 1)[0];
+        List<Track> tracks = Track.createTracks(nodes);
+        int kept = 0;
+        for ( Track t_i : tracks ) { kept += t_i.simplify(tolerance); }
+        
+        TrackKMLWriter tkw = new TrackKMLWriter
+                    (   ( this.getOption(__EPOCH_OPTION) == null ) ?
+                            TrackKMLWriter.NO_EPOCH :
+                            this.getIntOption(__EPOCH_OPTION, 0) * 1000L,
+                        this.createDecimalFormatter()   );
+        tkw.addTracks(tracks);
+        tkw.writeXML(this.outputFile);
+        
+        Logger.getLogger(SensorLocator.class.getName())
+                .log(Level.INFO, "Tracks = {0}, vertices = {1}, kept = {2}"
+                                    , new Object[] {  tracks.size(),
+                                                      nodes.size(), kept  });
+        
+    }
+    
+    /**
+     * Writes a heatmap of the value given through the --heatmap CLI option
+     * ("CODE[.INDEX]", index 0 by default): a PNG image and a PNG legend next
+     * to the output file, referenced from the output KML file as a
+     * GroundOverlay and a ScreenOverlay. The width of the image is given
+     * through the --heatmap-size option.
+     * 
+     * @param sensors The sensor data.
+     * @throws IOException In case the output cannot be written.
+     */
+    protected void writeHeatmap(final List<SensorData> sensors)
+        throws IOException
+    {
+        
+        String value = this.getOption(__HEATMAP_OPTION);
+        int dot = value.indexOf('.');
+        String code = ( dot < 0 ) ? value : value.substring(0, dot);
+        int index = 0;
+        
+        try
+            { if ( dot >= 0 ) { index = Integer.parseInt
+                                            (value.substring(dot + 1)); } }
+        catch(NumberFormatException ex)
+        {
+            throw(new IllegalArgumentException("Option --" + __HEATMAP_OPTION
+                                + " must be CODE[.INDEX], value = " + value));
+        }
+        
+        int width = this.getIntOption(__HEATMAP_SIZE_OPTION,
+                                        Heatmap.DEFAULT_WIDTH);
+        Heatmap heatmap = Heatmap.createHeatmap(sensors, code, index, width);
+        if ( heatmap == null )
+            { throw(new IllegalArgumentException("No readings with value = "
+                                                    + value)); }
+        
+        heatmap.smooth(Math.max(1, width / 64),
+                        Math.max(1, this.getIntOption(__THREADS_OPTION, 1)));
+        float[] range = heatmap.getRange();
+        
+        String base = this.outputFile.getName();
+        if ( base.toLowerCase().endsWith(KML_EXTENSION) == true )
+            { base = base.substring(0, base.length()
+                                        - KML_EXTENSION.length()); }
+        String image = base + "." + Heatmap.IMAGE_FORMAT;
+        String legend = base + "-legend." + Heatmap.IMAGE_FORMAT;
+        File dir = this.outputFile.getAbsoluteFile().getParentFile();
+        
+        Heatmap.writeImage(heatmap.render(range[0], range[1]),
+                            new File(dir, image));
+        Heatmap.writeImage(Heatmap.renderLegend
+                                (   HeatmapKMLWriter.LEGEND_WIDTH,
+                                    HeatmapKMLWriter.LEGEND_HEIGHT  ),
+                            new File(dir, legend));
+        
+        HeatmapKMLWriter hkw = new HeatmapKMLWriter
+                                        (this.createDecimalFormatter());
+        hkw.addHeatmap(heatmap, DataField.NAMES_PER_CODE.get(code) + " ("
+                                + DataField.VALUES_PER_CODE.get(code)
+                                                .get(index) + ")",
+                        range[0], range[1], image, legend);
+        hkw.writeXML(this.outputFile);
+        
+        Logger.getLogger(SensorLocator.class.getName())
+                .log(Level.INFO, "Heatmap {0}x{1} of {2} readings written to "
+                                    + "{3}"
+                                    , new Object[] {  heatmap.getWidth(),
+                                                      heatmap.getHeight(),
+                                                      heatmap.getReadings(),
+                                                      image });
+        
     }
     
     /**
      * This method filters the input file as configured for this object and
-     * writes the results in the given file as CSV text.
+     * writes the results in the intermediate file (see RecordLog).
      * 
      * @return List with the SensorData objects that contain the information
      *          related with the sensors.
@@ -168,13 +1353,19 @@ public class SensorLocator
         
         List<SensorData> s_data = CSVHelper.readSensorData(this.inputFile);
         Logger.getLogger(SensorLocator.class.getName())
-                .log(Level.INFO, "Step 1/3: filterCSVLines() = {0}", s_data);
+                .log(Level.FINE, "Step 1/3: filterCSVLines() = {0}", s_data);
+        
+        if ( this.intFile == null )
+        {
+            this.intFile = FileHelper.makeOutputFile
+                                (CSVHelper.getCSVIntermediateFilename
+                                        (this.inputFile.getName()), true);
+        }
         
-        List<String> lines = getLines(s_data);
         Logger.getLogger(SensorLocator.class.getName())
-                .log(Level.INFO, "Step 2/3: getLines() = {0}", lines);
+                .log(Level.INFO, "Step 2/3: lines = {0}", s_data.size());
         
-        SensorLocator.writeTextFile(this.intFile, lines);
+        SensorLocator.writeIntermediateFile(this.intFile, s_data);
         Logger.getLogger(SensorLocator.class.getName())
                 .log(Level.INFO, "Step 3/3: intermediate file written, f = {0}"
                                     , this.intFile.getAbsolutePath());
@@ -193,6 +1384,16 @@ public class SensorLocator
      * @param args Set of args given from the command line.
      */
     public static void main(String[] args)
+        { System.exit(SensorLocator.run(args)); }
+    
+    /**
+     * Runs the application with the given command line arguments, without
+     * exiting the JVM.
+     * 
+     * @param args Set of args given from the command line.
+     * @return The exit status: 0 on success, -1 in case of error.
+     */
+    public static int run(String[] args)
     {
         
         try
@@ -202,23 +1403,69 @@ public class SensorLocator
                                 .log(Level.INFO, "Checking arguments...");
             SensorLocator sl = SensorLocator.createSensorLocator(args);
             
-            Logger.getLogger(SensorLocator.class.getName())
+            if ( sl.isStreaming() == true )
+            {
+                Logger.getLogger(SensorLocator.class.getName())
+                                .log(Level.INFO, "Streaming sensor data...");
+                sl.writeStreamingOutput();
+            }
+            else
+            {
+                
+                Logger.getLogger(SensorLocator.class.getName())
                                 .log(Level.INFO, "Reading sensor data...");
-            List<SensorData> sensors = CSVHelper.readSensorData(sl.inputFile);
-            List<KMLNode> k_nodes = SensorLocator.createKMLNodes(sensors);
-            
-            Logger.getLogger(SensorLocator.class.getName())
-                                .log(Level.INFO, ">>>>> KML nodes\n{0}\n<<<<<"
+                List<SensorData> sensors = sl.readSensorData();
+                sensors = sl.filterGeofence(sensors);
+                sl.writeWindows(sensors);
+                sensors = sl.sortSensorData(sensors);
+                SensorStatistics statistics = sl.writeStatistics(sensors);
+                sl.writeAlerts(sensors);
+                List<KMLNode> k_nodes = sl.filterRegion
+                                    (SensorLocator.createKMLNodes(sensors));
+                
+                Logger.getLogger(SensorLocator.class.getName())
+                                .log(Level.FINE, ">>>>> KML nodes\n{0}\n<<<<<"
                                                     , k_nodes);
-            
-            SimpleKMLWriter skw = new SimpleKMLWriter();
-            skw.addKMLNodes(k_nodes);
-            
-            Logger.getLogger(SensorLocator.class.getName())
-                                .log(Level.INFO, ">>>>> SKWriter \n{0}\n<<<<<"
-                                                    , skw);            
-            
-            skw.writeXML(sl.outputFile);
+                
+                if ( sl.getOption(__UPDATE_OPTION) != null )
+                    { sl.writeKMLUpdate(k_nodes); }
+                else if ( sl.getOption(__TRACKS_OPTION) != null )
+                    { sl.writeTracks(k_nodes); }
+                else if ( sl.getOption(__HEATMAP_OPTION) != null )
+                    { sl.writeHeatmap(sensors); }
+                else
+                {
+                    
+                    String format = sl.getOption(__FORMAT_OPTION);
+                    if ( format == null ) { format = OutputSinks.KML_FORMAT; }
+                    
+                    Logger.getLogger(SensorLocator.class.getName())
+                                .log(Level.INFO, "Writing {0} output..."
+                                                    , format);
+                    OutputSink sink = OutputSinks.createOutputSink
+                                (   format,
+                                    sl.getIntOption(__THREADS_OPTION, 1),
+                                    sl.createDecimalFormatter()    );
+                    // The statistics are written once per sensor, before
+                    // the placemarks.
+                    if ( ( statistics != null )
+                            && ( sink instanceof ParallelKMLWriter ) )
+                        { ((ParallelKMLWriter) sink)
+                                            .setStatistics(statistics); }
+                    
+                    // The data sinks keep the readings without a position,
+                    // unless a region is selected.
+                    if ( ( sink instanceof DataSink )
+                            && ( sl.getOption(__BBOX_OPTION) == null )
+                            && ( sl.getOption(__NEAR_OPTION) == null ) )
+                        { OutputSinks.writeData((DataSink) sink, sensors,
+                                                sl.outputFile); }
+                    else
+                        { OutputSinks.write(sink, k_nodes, sl.outputFile); }
+                    
+                }
+                
+            }
             
             Logger.getLogger(SensorLocator.class.getName())
                                 .log(Level.INFO, "Output written to {0}"
@@ -229,10 +1476,10 @@ public class SensorLocator
         {
             Logger.getLogger(SensorLocator.class.getName())
                                 .log(Level.SEVERE, ex.getMessage(), ex);
-            System.exit(-1);
+            return(-1);
         }
         
-        System.exit(0);
+        return(0);
         
     }
     
@@ -267,4 +1514,57 @@ public class SensorLocator
         
     }
     
+    /**
+     * Static method that writes the given SensorData objects in the
+     * intermediate file, a binary log of the decoded records (see RecordLog)
+     * that can be read back with readIntermediateFile().
+     * 
+     * @param file The file where the records will be written.
+     * @param list The SensorData objects to write.
+     * @throws IOException In case any problem occurs while writing.
+     */
+    public static void writeIntermediateFile
+            (File file, final List<SensorData> list)
+        throws IOException
+    {
+    
+        if ( file == null )
+            { throw(new NullPointerException("<file> is null.")); }
+        
+        if ( list == null )
+            { throw(new NullPointerException("<list> is null.")); }
+
+        RecordLogWriter log = new RecordLogWriter(new BufferedOutputStream
+                (new FileOutputStream(file), OutputSinks.FILE_BUFFER_SIZE));
+       
+        boolean done = false;
+        try
+        {
+            for ( SensorData sd_i : list ) { log.write(sd_i); }
+            log.finish();
+            done = true;
+        }
+        finally
+            { if ( done == true ) { log.close(); } else { log.abort(); } }
+        
+    }
+    
+    /**
+     * Static method that reads back the SensorData objects of the given
+     * intermediate file, without reading the original CSV file.
+     * 
+     * @param file The intermediate file.
+     * @return The SensorData objects, in the order they were written.
+     * @throws IOException In case any problem occurs while reading.
+     */
+    public static List<SensorData> readIntermediateFile(final File file)
+        throws IOException
+    {
+        RecordLogReader log = new RecordLogReader(file);
+        try
+            { return(log.readAll()); }
+        finally
+            { log.close(); }
+    }
+    
 }
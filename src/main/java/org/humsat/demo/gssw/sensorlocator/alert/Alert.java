@@ -0,0 +1,144 @@
+/**
+ * @file Alert.java
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ * @version 0.1
+ *
+ * @section LICENSE
+ *
+ * This file is part of SensorLocator.
+ * SensorLocator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SensorLocator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SensorLocator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.humsat.demo.gssw.sensorlocator.alert;
+
+import org.humsat.demo.gssw.sensorlocator.data.DataFieldConstants;
+
+/**
+ * Alert raised by a rule for a value measured by a sensor.
+ *
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ */
+public class Alert
+    implements DataFieldConstants
+{
+
+    /** Identifier of the sensor. */
+    protected int sensorId = -1;
+    /** Timestamp of the reading. */
+    protected int timestamp = -1;
+    /** Value that raised the alert. */
+    protected double value = 0.0;
+    /** Rule that raised the alert. */
+    protected AlertRule rule = null;
+    /** Latitude of the sensor, NaN if unknown. */
+    protected float latitude = Float.NaN;
+    /** Longitude of the sensor, NaN if unknown. */
+    protected float longitude = Float.NaN;
+
+    /**
+     * Main constructor.
+     *
+     * @param sensorId Identifier of the sensor.
+     * @param timestamp Timestamp of the reading.
+     * @param value Value that raised the alert.
+     * @param rule Rule that raised the alert.
+     * @param latitude Latitude of the sensor, NaN if unknown.
+     * @param longitude Longitude of the sensor, NaN if unknown.
+     */
+    public Alert
+            (   final int sensorId, final int timestamp, final double value,
+                final AlertRule rule,
+                final float latitude, final float longitude )
+    {
+        this.sensorId = sensorId;
+        this.timestamp = timestamp;
+        this.value = value;
+        this.rule = rule;
+        this.latitude = latitude;
+        this.longitude = longitude;
+    }
+
+    /**
+     * Getter for the identifier of the sensor.
+     *
+     * @return Identifier of the sensor.
+     */
+    public int getSensorId()
+        { return(this.sensorId); }
+
+    /**
+     * Getter for the timestamp of the reading.
+     *
+     * @return Timestamp of the reading.
+     */
+    public int getTimestamp()
+        { return(this.timestamp); }
+
+    /**
+     * Getter for the value that raised the alert.
+     *
+     * @return The value.
+     */
+    public double getValue()
+        { return(this.value); }
+
+    /**
+     * Getter for the rule that raised the alert.
+     *
+     * @return The rule.
+     */
+    public AlertRule getRule()
+        { return(this.rule); }
+
+    /**
+     * Getter for the latitude of the sensor.
+     *
+     * @return Latitude, NaN in case it is not known.
+     */
+    public float getLatitude()
+        { return(this.latitude); }
+
+    /**
+     * Getter for the longitude of the sensor.
+     *
+     * @return Longitude, NaN in case it is not known.
+     */
+    public float getLongitude()
+        { return(this.longitude); }
+
+    /**
+     * Getter for the name of the data field.
+     *
+     * @return Name of the data field.
+     */
+    public String getName()
+        { return(NAMES_PER_CODE.get(this.rule.code)); }
+
+    /**
+     * Getter for the units of the value.
+     *
+     * @return Units of the value.
+     */
+    public String getUnit()
+        { return(VALUES_PER_CODE.get(this.rule.code).get(this.rule.index)); }
+
+    @Override
+    public String toString()
+    {
+        return("sensor = " + this.sensorId + ", timestamp = "
+                    + this.timestamp + ", " + this.getName() + " = "
+                    + (float) this.value + " (" + this.getUnit()
+                    + "), rule = " + this.rule);
+    }
+
+}
@@ -0,0 +1,77 @@
+/**
+ * @file AlertCSVWriter.java
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ * @version 0.1
+ *
+ * @section LICENSE
+ *
+ * This file is part of SensorLocator.
+ * SensorLocator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SensorLocator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SensorLocator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.humsat.demo.gssw.sensorlocator.alert;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Alert listener that writes one CSV line per alert.
+ *
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ */
+public class AlertCSVWriter
+    implements AlertListener
+{
+
+    /** Header of the CSV output. */
+    public final static String CSV_HEADER
+            = "Timestamp,Sensor ID,Field,Unit,Value,Rule";
+    /** Separator of the fields of the CSV output. */
+    public final static char CSV_SEPARATOR = ',';
+
+    /** Writer for the output. */
+    protected Writer out = null;
+    /** Buffer for the lines. */
+    protected StringBuilder line = new StringBuilder(128);
+
+    /**
+     * Main constructor, it writes the header of the CSV output.
+     *
+     * @param out Writer for the output.
+     * @throws IOException In case an IO error occurs.
+     */
+    public AlertCSVWriter(final Writer out)
+        throws IOException
+    {
+        if ( out == null )
+            { throw(new NullPointerException("<out> is null.")); }
+        this.out = out;
+        this.out.write(CSV_HEADER);
+        this.out.write('\n');
+    }
+
+    @Override
+    public void alertRaised(final Alert alert)
+        throws IOException
+    {
+        this.line.setLength(0);
+        this.line.append(alert.getTimestamp()).append(CSV_SEPARATOR)
+            .append(alert.getSensorId()).append(CSV_SEPARATOR)
+            .append(alert.getName()).append(CSV_SEPARATOR)
+            .append(alert.getUnit()).append(CSV_SEPARATOR)
+            .append((float) alert.getValue()).append(CSV_SEPARATOR)
+            .append(alert.getRule()).append('\n');
+        this.out.append(this.line);
+    }
+
+}
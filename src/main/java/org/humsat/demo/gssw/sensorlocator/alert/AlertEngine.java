@@ -0,0 +1,354 @@
+/**
+ * @file AlertEngine.java
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ * @version 0.1
+ *
+ * @section LICENSE
+ *
+ * This file is part of SensorLocator.
+ * SensorLocator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SensorLocator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SensorLocator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.humsat.demo.gssw.sensorlocator.alert;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.humsat.demo.gssw.sensorlocator.data.DataField;
+import org.humsat.demo.gssw.sensorlocator.data.DataFieldConstants;
+import org.humsat.demo.gssw.sensorlocator.data.SensorData;
+import org.humsat.demo.gssw.sensorlocator.stats.SensorStatistics;
+import org.humsat.demo.gssw.sensorlocator.util.LongObjectHashMap;
+
+/**
+ * Engine that evaluates a set of alert rules over each reading. Rules are
+ * compiled once into one array per data field code, so evaluating a reading
+ * only touches the rules of the fields that it contains. SIGMA rules compare
+ * each value with an exponentially weighted baseline (mean and variance) of
+ * the same sensor, field and value, kept in a primitive-keyed map.
+ *
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ */
+public class AlertEngine
+    implements DataFieldConstants
+{
+
+    /** Default weight of the newest value within the baselines. */
+    public final static double DEFAULT_ALPHA = 0.1;
+    /** Default number of values before SIGMA rules are evaluated. */
+    public final static int DEFAULT_WARMUP = 5;
+    /** Prefix of the comment lines of the configuration file. */
+    public final static String COMMENT_PREFIX = "#";
+    /** Setting of the configuration file for the weight of the baselines. */
+    public final static String ALPHA_SETTING = "alpha";
+    /** Setting of the configuration file for the warm-up of the baselines. */
+    public final static String WARMUP_SETTING = "warmup";
+
+    /** Number of codes that can be compiled (ASCII). */
+    protected final static int CODES = 128;
+
+    /**
+     * Exponentially weighted baseline of a value.
+     */
+    protected static class Baseline
+    {
+        /** Weighted mean. */
+        protected double mean = 0.0;
+        /** Weighted variance. */
+        protected double variance = 0.0;
+        /** Number of values. */
+        protected long count = 0L;
+    }
+
+    /** Rules of each data field code, indexed by the code. */
+    protected AlertRule[][] rules = new AlertRule[CODES][];
+    /** Whether each value of each data field code has SIGMA rules. */
+    protected boolean[][] baselined = new boolean[CODES][];
+    /** Baselines, per (sensor id, field code, value index) key. */
+    protected LongObjectHashMap<Baseline> baselines
+            = new LongObjectHashMap<Baseline>();
+
+    /** Weight of the newest value within the baselines. */
+    protected double alpha = DEFAULT_ALPHA;
+    /** Number of values before SIGMA rules are evaluated. */
+    protected int warmup = DEFAULT_WARMUP;
+    /** Consumer of the alerts. */
+    protected AlertListener listener = null;
+
+    /** Number of readings evaluated. */
+    protected long readings = 0L;
+    /** Number of alerts raised. */
+    protected long alerts = 0L;
+
+    /**
+     * Main constructor, it compiles the given rules.
+     *
+     * @param rules The rules.
+     * @param alpha Weight of the newest value within the baselines.
+     * @param warmup Number of values before SIGMA rules are evaluated.
+     * @param listener Consumer of the alerts.
+     */
+    public AlertEngine
+            (   final List<AlertRule> rules, final double alpha,
+                final int warmup, final AlertListener listener  )
+    {
+
+        if ( listener == null )
+            { throw(new NullPointerException("<listener> is null.")); }
+        if ( ( alpha <= 0.0 ) || ( alpha > 1.0 ) )
+            { throw(new IllegalArgumentException("<alpha> = " + alpha
+                    + ", value not permitted. Must be in (0, 1].")); }
+
+        this.alpha = alpha;
+        this.warmup = Math.max(1, warmup);
+        this.listener = listener;
+
+        for ( AlertRule r_i : rules )
+        {
+
+            char c = r_i.code.charAt(0);
+            if ( ( r_i.code.length() != 1 ) || ( c >= CODES ) )
+                { throw(new IllegalArgumentException("Unsupported type = "
+                                                        + r_i.code)); }
+
+            AlertRule[] list = this.rules[c];
+            if ( list == null ) { list = new AlertRule[0]; }
+            list = Arrays.copyOf(list, list.length + 1);
+            list[list.length - 1] = r_i;
+            this.rules[c] = list;
+
+            if ( this.baselined[c] == null )
+                { this.baselined[c] = new boolean
+                                [VALUES_PER_CODE.get(r_i.code).size()]; }
+            if ( r_i.operator == AlertRule.SIGMA )
+                { this.baselined[c][r_i.index] = true; }
+
+        }
+
+    }
+
+    /**
+     * Evaluates all the rules over the values of the given reading, raising
+     * the corresponding alerts, and updates the baselines.
+     *
+     * @param sensor The reading.
+     * @throws IOException In case the listener fails.
+     */
+    public void evaluate(final SensorData sensor)
+        throws IOException
+    {
+
+        this.readings++;
+        List<DataField> fields = sensor.getDataFields();
+
+        for ( int f = 0; f < fields.size(); f++ )
+        {
+
+            DataField df = fields.get(f);
+            char c = df.type.charAt(0);
+            if ( ( c >= CODES ) || ( this.rules[c] == null ) ) { continue; }
+
+            List<String> units = VALUES_PER_CODE.get(df.type);
+            boolean[] baselined = this.baselined[c];
+
+            for ( AlertRule r_i : this.rules[c] )
+            {
+
+                Float v = df.values.get(r_i.index).get(units.get(r_i.index));
+                if ( v == null ) { continue; }
+
+                double mean = 0.0;
+                double stddev = 0.0;
+
+                if ( r_i.operator == AlertRule.SIGMA )
+                {
+                    Baseline b = this.baselines.get(SensorStatistics.key
+                                (sensor.getSensorId(), df.type, r_i.index));
+                    if ( ( b == null ) || ( b.count < this.warmup ) )
+                        { continue; }
+                    mean = b.mean;
+                    stddev = Math.sqrt(b.variance);
+                }
+
+                if ( r_i.matches(v.doubleValue(), mean, stddev) == true )
+                    { this.raise(sensor, r_i, v.doubleValue()); }
+
+            }
+
+            for ( int i = 0; i < baselined.length; i++ )
+            {
+                if ( baselined[i] == false ) { continue; }
+                Float v = df.values.get(i).get(units.get(i));
+                if ( v != null )
+                    { this.update(sensor.getSensorId(), df.type, i, v); }
+            }
+
+        }
+
+    }
+
+    /**
+     * Getter for the number of readings evaluated.
+     *
+     * @return Number of readings.
+     */
+    public long getReadings()
+        { return(this.readings); }
+
+    /**
+     * Getter for the number of alerts raised.
+     *
+     * @return Number of alerts.
+     */
+    public long getAlerts()
+        { return(this.alerts); }
+
+    @Override
+    public String toString()
+    {
+        return("readings = " + this.readings + ", alerts = " + this.alerts
+                    + ", baselines = " + this.baselines.size());
+    }
+
+    /**
+     * Updates the baseline of the given value with an exponentially weighted
+     * moving average and variance.
+     */
+    private void update
+            (   final int sensorId, final String code, final int index,
+                final double value  )
+    {
+
+        long k = SensorStatistics.key(sensorId, code, index);
+        Baseline b = this.baselines.get(k);
+
+        if ( b == null )
+        {
+            b = new Baseline();
+            b.mean = value;
+            b.count = 1;
+            this.baselines.put(k, b);
+            return;
+        }
+
+        double diff = value - b.mean;
+        double increment = this.alpha * diff;
+        b.mean += increment;
+        b.variance = ( 1.0 - this.alpha ) * ( b.variance + diff * increment );
+        b.count++;
+
+    }
+
+    /**
+     * Raises an alert, looking up the position of the sensor.
+     */
+    private void raise
+            (final SensorData sensor, final AlertRule rule, final double value)
+        throws IOException
+    {
+
+        float lat = Float.NaN;
+        float lon = Float.NaN;
+
+        for ( DataField df_i : sensor.getDataFields() )
+        {
+            if ( df_i.type.equalsIgnoreCase(POSITION_F_CODE) == true )
+            {
+                lat = df_i.values.get(LATITUDE_POSITION_INDEX)
+                                    .get(POSITION_VALUE_UNITS);
+                lon = df_i.values.get(LONGITUDE_POSITION_INDEX)
+                                    .get(POSITION_VALUE_UNITS);
+                break;
+            }
+        }
+
+        this.alerts++;
+        this.listener.alertRaised(new Alert(sensor.getSensorId(),
+                            sensor.getTimestamp(), value, rule, lat, lon));
+
+    }
+
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>> factory
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
+
+    /**
+     * Factory method that creates an engine with the rules of the given
+     * configuration file. Each line contains either a rule (see AlertRule)
+     * or a setting ("alpha 0.1" or "warmup 5"); empty lines and lines
+     * starting with '#' are ignored.
+     *
+     * @param config The configuration file.
+     * @param listener Consumer of the alerts.
+     * @return The engine.
+     * @throws FileNotFoundException In case the given file does not exist.
+     * @throws IOException In case any IO problem occurs.
+     * @throws IllegalArgumentException In case any line is not valid.
+     */
+    public static AlertEngine createAlertEngine
+            (final File config, final AlertListener listener)
+        throws FileNotFoundException, IOException
+    {
+
+        List<AlertRule> rules = new ArrayList<AlertRule>();
+        double alpha = DEFAULT_ALPHA;
+        int warmup = DEFAULT_WARMUP;
+        BufferedReader in = new BufferedReader(new FileReader(config));
+
+        try
+        {
+
+            String line = null;
+
+            while ( ( line = in.readLine() ) != null )
+            {
+
+                line = line.trim();
+                if ( ( line.isEmpty() == true )
+                        || ( line.startsWith(COMMENT_PREFIX) == true ) )
+                    { continue; }
+
+                String[] parts = line.split("\\s+");
+
+                try
+                {
+                    if ( parts[0].equalsIgnoreCase(ALPHA_SETTING) == true )
+                        { alpha = Double.parseDouble(parts[1]); }
+                    else if ( parts[0].equalsIgnoreCase(WARMUP_SETTING) )
+                        { warmup = Integer.parseInt(parts[1]); }
+                    else
+                        { rules.add(AlertRule.parseAlertRule(line)); }
+                }
+                catch(RuntimeException ex)
+                {
+                    throw(new IllegalArgumentException(config.getName()
+                                + ", wrong line = " + line + ", "
+                                + ex.getMessage()));
+                }
+
+            }
+
+        }
+        finally
+            { in.close(); }
+
+        return(new AlertEngine(rules, alpha, warmup, listener));
+
+    }
+
+}
@@ -0,0 +1,204 @@
+/**
+ * @file AlertRule.java
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ * @version 0.1
+ *
+ * @section LICENSE
+ *
+ * This file is part of SensorLocator.
+ * SensorLocator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SensorLocator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SensorLocator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.humsat.demo.gssw.sensorlocator.alert;
+
+import org.humsat.demo.gssw.sensorlocator.data.DataFieldConstants;
+
+/**
+ * Rule over one of the values of a data field. Rules are written as
+ * "CODE[.INDEX] OPERATOR VALUE"; e.g., "F > 250" (river level above 250),
+ * "H.0 < 6.5" (pH below 6.5) or "F sigma 3" (river level more than 3 standard
+ * deviations away from the recent history of the sensor).
+ *
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ */
+public class AlertRule
+    implements DataFieldConstants
+{
+
+    /** Value bigger than the threshold. */
+    public final static int GREATER = 0;
+    /** Value bigger than or equal to the threshold. */
+    public final static int GREATER_OR_EQUAL = 1;
+    /** Value smaller than the threshold. */
+    public final static int LESS = 2;
+    /** Value smaller than or equal to the threshold. */
+    public final static int LESS_OR_EQUAL = 3;
+    /** Value more than 'threshold' standard deviations from the baseline. */
+    public final static int SIGMA = 4;
+
+    /** Text of the operators, indexed by operator. */
+    public final static String[] OPERATORS = { ">", ">=", "<", "<=", "sigma" };
+
+    /** Code of the data field. */
+    protected String code = null;
+    /** Index of the value within the data field. */
+    protected int index = 0;
+    /** Operator of the rule. */
+    protected int operator = GREATER;
+    /** Threshold of the rule. */
+    protected double threshold = 0.0;
+    /** Text of the rule, as read. */
+    protected String text = null;
+
+    /**
+     * Main constructor.
+     *
+     * @param code Code of the data field.
+     * @param index Index of the value within the data field.
+     * @param operator Operator of the rule.
+     * @param threshold Threshold of the rule.
+     */
+    public AlertRule
+            (   final String code, final int index, final int operator,
+                final double threshold  )
+    {
+
+        if ( VALUES_PER_CODE.containsKey(code) == false )
+            { throw(new IllegalArgumentException("Unsupported type = "
+                                                    + code)); }
+        if ( ( index < 0 ) || ( index >= VALUES_PER_CODE.get(code).size() ) )
+            { throw(new IllegalArgumentException("<index> = " + index
+                    + ", value not permitted for type = " + code)); }
+        if ( ( operator < GREATER ) || ( operator > SIGMA ) )
+            { throw(new IllegalArgumentException("<operator> = " + operator
+                    + ", value not permitted.")); }
+
+        this.code = code;
+        this.index = index;
+        this.operator = operator;
+        this.threshold = threshold;
+        this.text = code + "." + index + " " + OPERATORS[operator] + " "
+                        + threshold;
+
+    }
+
+    /**
+     * Checks whether the given value matches this rule.
+     *
+     * @param value The value.
+     * @param mean Mean of the baseline, only for SIGMA rules.
+     * @param stddev Standard deviation of the baseline, only for SIGMA rules.
+     * @return 'true' in case the value raises an alert.
+     */
+    public boolean matches
+            (final double value, final double mean, final double stddev)
+    {
+        switch ( this.operator )
+        {
+            case GREATER:           return(value > this.threshold);
+            case GREATER_OR_EQUAL:  return(value >= this.threshold);
+            case LESS:              return(value < this.threshold);
+            case LESS_OR_EQUAL:     return(value <= this.threshold);
+            default:
+                return( ( stddev > 0.0 ) && ( Math.abs(value - mean)
+                                                > this.threshold * stddev ) );
+        }
+    }
+
+    /**
+     * Getter for the code of the data field.
+     *
+     * @return Code of the data field.
+     */
+    public String getCode()
+        { return(this.code); }
+
+    /**
+     * Getter for the index of the value within the data field.
+     *
+     * @return Index of the value.
+     */
+    public int getIndex()
+        { return(this.index); }
+
+    /**
+     * Getter for the operator of the rule.
+     *
+     * @return Operator of the rule.
+     */
+    public int getOperator()
+        { return(this.operator); }
+
+    /**
+     * Getter for the threshold of the rule.
+     *
+     * @return Threshold of the rule.
+     */
+    public double getThreshold()
+        { return(this.threshold); }
+
+    @Override
+    public String toString()
+        { return(this.text); }
+
+    /**
+     * Parses a rule.
+     *
+     * @param rule Text of the rule, "CODE[.INDEX] OPERATOR VALUE".
+     * @return The rule.
+     * @throws IllegalArgumentException In case the rule is not valid.
+     */
+    public static AlertRule parseAlertRule(final String rule)
+    {
+
+        String[] parts = rule.trim().split("\\s+");
+        if ( parts.length != 3 )
+            { throw(new IllegalArgumentException("Wrong rule, expected "
+                    + "\"CODE[.INDEX] OPERATOR VALUE\", rule = " + rule)); }
+
+        String code = parts[0];
+        int index = 0;
+        int dot = code.indexOf('.');
+
+        try
+        {
+
+            if ( dot >= 0 )
+            {
+                index = Integer.parseInt(code.substring(dot + 1));
+                code = code.substring(0, dot);
+            }
+
+            int operator = -1;
+            for ( int i = 0; i < OPERATORS.length; i++ )
+            {
+                if ( OPERATORS[i].equalsIgnoreCase(parts[1]) == true )
+                    { operator = i; break; }
+            }
+            if ( operator < 0 )
+                { throw(new IllegalArgumentException("Wrong operator = "
+                        + parts[1] + ", rule = " + rule)); }
+
+            return(new AlertRule(code, index, operator,
+                                    Double.parseDouble(parts[2])));
+
+        }
+        catch(NumberFormatException ex)
+        {
+            throw(new IllegalArgumentException("Wrong number, rule = "
+                                                + rule));
+        }
+
+    }
+
+}
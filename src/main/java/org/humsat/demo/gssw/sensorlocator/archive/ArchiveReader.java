@@ -0,0 +1,288 @@
+/**
+ * @file ArchiveReader.java
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ * @version 0.1
+ *
+ * @section LICENSE
+ *
+ * This file is part of SensorLocator.
+ * SensorLocator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SensorLocator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SensorLocator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.humsat.demo.gssw.sensorlocator.archive;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.humsat.demo.gssw.sensorlocator.csv.SensorDataSource;
+import org.humsat.demo.gssw.sensorlocator.data.SensorData;
+
+/**
+ * Reader of the columnar archive (see ColumnArchive). The file is memory
+ * mapped and only the blocks that may contain the readings asked for (by
+ * sensor id and range of time, see the index) are decompressed, one at a
+ * time. The readings are returned block after block, that is, grouped by
+ * sensor and sorted by timestamp within each block.
+ *
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ */
+public class ArchiveReader
+    implements SensorDataSource
+{
+
+    /** Channel of the archive. */
+    protected FileChannel channel = null;
+    /** Mapped archive. */
+    protected ByteBuffer buffer = null;
+    /** Number of records of the archive. */
+    protected long records = 0L;
+
+    /** Offsets of the blocks. */
+    protected int[] offsets = null;
+    /** Sensor id of each block. */
+    protected int[] sensors = null;
+    /** Number of records of each block. */
+    protected int[] counts = null;
+    /** Minimum timestamp of each block. */
+    protected int[] minTimestamps = null;
+    /** Maximum timestamp of each block. */
+    protected int[] maxTimestamps = null;
+
+    /** Block of the sequential reads, -1 before the first one. */
+    protected int block = -1;
+    /** Readings of the current block. */
+    protected List<SensorData> current = Collections.emptyList();
+    /** Next reading of the current block. */
+    protected int next = 0;
+
+    /**
+     * Main constructor, it maps the given archive and reads its index.
+     *
+     * @param file The archive.
+     * @throws IOException In case the file cannot be mapped or it is not a
+     *                      complete archive.
+     */
+    public ArchiveReader(final File file)
+        throws IOException
+    {
+
+        if ( file == null )
+            { throw(new NullPointerException("<file> is null.")); }
+
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+
+        try
+        {
+
+            long size = this.channel.size();
+            if ( size > Integer.MAX_VALUE )
+                { throw(new IOException("Archive too large to be mapped, "
+                                            + "file = " + file)); }
+            if ( size < ColumnArchive.HEADER_SIZE + ColumnArchive.FOOTER_SIZE )
+                { throw(new IOException("Not a complete archive, file = "
+                                            + file)); }
+
+            MappedByteBuffer mapped = this.channel.map
+                                (FileChannel.MapMode.READ_ONLY, 0L, size);
+            this.buffer = mapped;
+
+            int footer = (int) size - ColumnArchive.FOOTER_SIZE;
+            if ( ( mapped.getInt(0) != ColumnArchive.MAGIC )
+                    || ( mapped.getInt(footer + 20)
+                            != ColumnArchive.FOOTER_MAGIC ) )
+                { throw(new IOException("Not a complete archive, file = "
+                                            + file)); }
+
+            int index = (int) mapped.getLong(footer);
+            int blocks = mapped.getInt(footer + 8);
+            this.records = mapped.getLong(footer + 12);
+            if ( index + (long) blocks * ColumnArchive.INDEX_ENTRY_SIZE
+                    != footer )
+                { throw(new IOException("Corrupted index, file = " + file)); }
+
+            this.offsets = new int[blocks];
+            this.sensors = new int[blocks];
+            this.counts = new int[blocks];
+            this.minTimestamps = new int[blocks];
+            this.maxTimestamps = new int[blocks];
+            for ( int b = 0; b < blocks; b++ )
+            {
+                int e = index + b * ColumnArchive.INDEX_ENTRY_SIZE;
+                this.offsets[b] = (int) mapped.getLong(e);
+                this.sensors[b] = mapped.getInt(e + 12);
+                this.counts[b] = mapped.getInt(e + 16);
+                this.minTimestamps[b] = mapped.getInt(e + 20);
+                this.maxTimestamps[b] = mapped.getInt(e + 24);
+            }
+
+        }
+        catch(IOException | RuntimeException ex)
+            { this.channel.close(); throw(ex); }
+
+    }
+
+    /**
+     * Reads the next reading of the archive.
+     *
+     * @return The sensor data, 'null' at the end of the archive.
+     */
+    @Override
+    public SensorData read()
+    {
+        return(this.read(Integer.MIN_VALUE, Integer.MAX_VALUE,
+                            Integer.MIN_VALUE, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Reads the next reading of the archive within the given ranges of
+     * sensor ids and timestamps. The blocks out of the ranges are not
+     * decompressed.
+     *
+     * @param minSensor Lower limit of the sensor ids (inclusive).
+     * @param maxSensor Upper limit of the sensor ids (inclusive).
+     * @param from Lower limit of the timestamps (inclusive).
+     * @param to Upper limit of the timestamps (inclusive).
+     * @return The sensor data, 'null' at the end of the archive.
+     */
+    public SensorData read
+            (   final int minSensor, final int maxSensor,
+                final int from, final int to    )
+    {
+
+        while ( true )
+        {
+
+            if ( this.next == this.current.size() )
+            {
+                if ( ++this.block >= this.offsets.length )
+                    { this.block = this.offsets.length; return(null); }
+                if ( this.isOutside(this.block, minSensor, maxSensor,
+                                        from, to) == true )
+                    { continue; }
+                this.current = this.readBlock(this.block);
+                this.next = 0;
+            }
+
+            SensorData sd = this.current.get(this.next++);
+            if ( ( sd.getTimestamp() >= from ) && ( sd.getTimestamp() <= to ) )
+                { return(sd); }
+
+        }
+
+    }
+
+    /**
+     * Reads the readings of the given sensor within the given range of time,
+     * decompressing only the blocks that may contain them.
+     *
+     * @param sensorId The sensor id.
+     * @param from Lower limit of the timestamps (inclusive).
+     * @param to Upper limit of the timestamps (inclusive).
+     * @return The sensor data, sorted by timestamp within each block.
+     */
+    public List<SensorData> read
+            (final int sensorId, final int from, final int to)
+    {
+
+        List<SensorData> l = new ArrayList<SensorData>();
+
+        for ( int b = 0; b < this.offsets.length; b++ )
+        {
+            if ( this.isOutside(b, sensorId, sensorId, from, to) == true )
+                { continue; }
+            for ( SensorData sd_i : this.readBlock(b) )
+            {
+                if ( ( sd_i.getTimestamp() >= from )
+                        && ( sd_i.getTimestamp() <= to ) )
+                    { l.add(sd_i); }
+            }
+        }
+
+        return(l);
+
+    }
+
+    /**
+     * Reads all the readings of the archive.
+     *
+     * @return The sensor data, in the order of the archive.
+     */
+    public List<SensorData> readAll()
+    {
+        List<SensorData> l = new ArrayList<SensorData>((int) this.records);
+        for ( int b = 0; b < this.offsets.length; b++ )
+            { l.addAll(this.readBlock(b)); }
+        return(l);
+    }
+
+    /**
+     * Decompresses the given block.
+     *
+     * @param b The block.
+     * @return Its readings, sorted by timestamp.
+     */
+    public List<SensorData> readBlock(final int b)
+    {
+        return(ColumnArchive.decodeBlock
+                        (new BitInput(this.buffer, this.offsets[b]),
+                            this.counts[b], this.sensors[b]));
+    }
+
+    /**
+     * Checks whether the given block is out of the given ranges.
+     *
+     * @param b The block.
+     * @param minSensor Lower limit of the sensor ids (inclusive).
+     * @param maxSensor Upper limit of the sensor ids (inclusive).
+     * @param from Lower limit of the timestamps (inclusive).
+     * @param to Upper limit of the timestamps (inclusive).
+     * @return 'true' in case no reading of the block is within the ranges.
+     */
+    protected boolean isOutside
+            (   final int b, final int minSensor, final int maxSensor,
+                final int from, final int to    )
+    {
+        return( ( this.maxTimestamps[b] < from )
+                    || ( this.minTimestamps[b] > to )
+                    || ( this.sensors[b] < minSensor )
+                    || ( this.sensors[b] > maxSensor ) );
+    }
+
+    /**
+     * Getter for the number of records of the archive.
+     *
+     * @return The number of records.
+     */
+    public long getRecords()
+        { return(this.records); }
+
+    /**
+     * Getter for the number of blocks of the archive.
+     *
+     * @return The number of blocks.
+     */
+    public int getBlocks()
+        { return(this.offsets.length); }
+
+    @Override
+    public void close()
+        throws IOException
+        { this.channel.close(); }
+
+}
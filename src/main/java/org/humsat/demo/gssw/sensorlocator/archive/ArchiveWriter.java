@@ -0,0 +1,262 @@
+/**
+ * @file ArchiveWriter.java
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ * @version 0.1
+ *
+ * @section LICENSE
+ *
+ * This file is part of SensorLocator.
+ * SensorLocator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SensorLocator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SensorLocator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.humsat.demo.gssw.sensorlocator.archive;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.humsat.demo.gssw.sensorlocator.data.SensorData;
+
+/**
+ * Writer of the columnar archive (see ColumnArchive). The readings are kept
+ * per sensor until a block of that sensor is full, then the block is
+ * compressed and written; finish() writes the blocks not full yet, the
+ * index and the footer. The memory used is, at most, a block per sensor.
+ *
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ */
+public class ArchiveWriter
+    implements Closeable
+{
+
+    /** Order of the readings within a block. */
+    protected final static Comparator<SensorData> BY_TIMESTAMP
+            = new Comparator<SensorData>()
+    {
+        @Override
+        public int compare(final SensorData a, final SensorData b)
+            { return(Integer.compare(a.getTimestamp(), b.getTimestamp())); }
+    };
+
+    /** Output of the archive. */
+    protected DataOutputStream out = null;
+    /** Number of bytes written so far. */
+    protected long offset = 0L;
+    /** Number of records per block. */
+    protected int blockRecords = ColumnArchive.DEFAULT_BLOCK_RECORDS;
+
+    /** Readings not written yet, per sensor. */
+    protected Map<Integer, List<SensorData>> pending
+                            = new LinkedHashMap<Integer, List<SensorData>>();
+    /** Buffer of the blocks being compressed. */
+    protected BitOutput bits = new BitOutput(4096);
+
+    /** Offsets of the blocks. */
+    protected long[] offsets = new long[16];
+    /** Lengths of the blocks, in bytes. */
+    protected int[] lengths = new int[16];
+    /** Sensor id of each block. */
+    protected int[] sensors = new int[16];
+    /** Number of records of each block. */
+    protected int[] counts = new int[16];
+    /** Minimum timestamp of each block. */
+    protected int[] minTimestamps = new int[16];
+    /** Maximum timestamp of each block. */
+    protected int[] maxTimestamps = new int[16];
+    /** Number of blocks written. */
+    protected int blocks = 0;
+    /** Number of records. */
+    protected long records = 0L;
+    /** Flag that indicates whether the index and footer were written. */
+    protected boolean finished = false;
+
+    /**
+     * Main constructor, it writes the header.
+     *
+     * @param os Output stream of the archive (it should be buffered).
+     * @param blockRecords Number of records per block.
+     * @throws IOException In case the header cannot be written.
+     */
+    public ArchiveWriter(final OutputStream os, final int blockRecords)
+        throws IOException
+    {
+
+        if ( os == null )
+            { throw(new NullPointerException("<os> is null.")); }
+        if ( blockRecords <= 0 )
+            { throw(new IllegalArgumentException("<blockRecords> must be > 0,"
+                                            + " value = " + blockRecords)); }
+
+        this.out = new DataOutputStream(os);
+        this.blockRecords = blockRecords;
+
+        this.out.writeInt(ColumnArchive.MAGIC);
+        this.out.writeInt(blockRecords);
+        this.offset = ColumnArchive.HEADER_SIZE;
+
+    }
+
+    /**
+     * Constructor with DEFAULT_BLOCK_RECORDS records per block.
+     *
+     * @param os Output stream of the archive (it should be buffered).
+     * @throws IOException In case the header cannot be written.
+     */
+    public ArchiveWriter(final OutputStream os)
+        throws IOException
+        { this(os, ColumnArchive.DEFAULT_BLOCK_RECORDS); }
+
+    /**
+     * Adds the given reading to the block of its sensor, writing the block
+     * if it is full.
+     *
+     * @param sensor The sensor data.
+     * @throws IOException In case the block cannot be written.
+     */
+    public void write(final SensorData sensor)
+        throws IOException
+    {
+
+        if ( this.finished == true )
+            { throw(new IllegalStateException("Archive already finished.")); }
+
+        List<SensorData> l = this.pending.get(sensor.getSensorId());
+        if ( l == null )
+        {
+            l = new ArrayList<SensorData>();
+            this.pending.put(sensor.getSensorId(), l);
+        }
+        l.add(sensor);
+        this.records++;
+
+        if ( l.size() == this.blockRecords )
+        {
+            this.writeBlock(sensor.getSensorId(), l);
+            this.pending.remove(sensor.getSensorId());
+        }
+
+    }
+
+    /**
+     * Writes the pending blocks, the index and the footer and flushes the
+     * output, which is not closed. No more records can be written
+     * afterwards.
+     *
+     * @throws IOException In case the archive cannot be finished.
+     */
+    public void finish()
+        throws IOException
+    {
+
+        if ( this.finished == true ) { return; }
+        this.finished = true;
+
+        for ( Map.Entry<Integer, List<SensorData>> e_i
+                : this.pending.entrySet() )
+            { this.writeBlock(e_i.getKey(), e_i.getValue()); }
+        this.pending.clear();
+
+        for ( int b = 0; b < this.blocks; b++ )
+        {
+            this.out.writeLong(this.offsets[b]);
+            this.out.writeInt(this.lengths[b]);
+            this.out.writeInt(this.sensors[b]);
+            this.out.writeInt(this.counts[b]);
+            this.out.writeInt(this.minTimestamps[b]);
+            this.out.writeInt(this.maxTimestamps[b]);
+        }
+
+        this.out.writeLong(this.offset);
+        this.out.writeInt(this.blocks);
+        this.out.writeLong(this.records);
+        this.out.writeInt(ColumnArchive.FOOTER_MAGIC);
+        this.out.flush();
+
+    }
+
+    /**
+     * Finishes the archive and closes the output.
+     *
+     * @throws IOException In case the archive cannot be finished.
+     */
+    @Override
+    public void close()
+        throws IOException
+    {
+        try
+            { this.finish(); }
+        finally
+            { this.out.close(); }
+    }
+
+    /**
+     * Getter for the number of records written.
+     *
+     * @return The number of records.
+     */
+    public long getRecords()
+        { return(this.records); }
+
+    /**
+     * Getter for the number of blocks written so far.
+     *
+     * @return The number of blocks.
+     */
+    public int getBlocks()
+        { return(this.blocks); }
+
+    /**
+     * Compresses and writes the given readings as a block.
+     *
+     * @param sensorId Sensor id of the readings.
+     * @param block The readings.
+     * @throws IOException In case the block cannot be written.
+     */
+    protected void writeBlock(final int sensorId, final List<SensorData> block)
+        throws IOException
+    {
+
+        Collections.sort(block, BY_TIMESTAMP);
+        this.bits.reset();
+        ColumnArchive.encodeBlock(this.bits, block);
+
+        int b = this.blocks++;
+        if ( b == this.offsets.length )
+        {
+            this.offsets = Arrays.copyOf(this.offsets, b * 2);
+            this.lengths = Arrays.copyOf(this.lengths, b * 2);
+            this.sensors = Arrays.copyOf(this.sensors, b * 2);
+            this.counts = Arrays.copyOf(this.counts, b * 2);
+            this.minTimestamps = Arrays.copyOf(this.minTimestamps, b * 2);
+            this.maxTimestamps = Arrays.copyOf(this.maxTimestamps, b * 2);
+        }
+        this.offsets[b] = this.offset;
+        this.lengths[b] = this.bits.size();
+        this.sensors[b] = sensorId;
+        this.counts[b] = block.size();
+        this.minTimestamps[b] = block.get(0).getTimestamp();
+        this.maxTimestamps[b] = block.get(block.size() - 1).getTimestamp();
+
+        this.out.write(this.bits.getBytes(), 0, this.bits.size());
+        this.offset += this.bits.size();
+
+    }
+
+}
@@ -0,0 +1,98 @@
+/**
+ * @file BitInput.java
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ * @version 0.1
+ *
+ * @section LICENSE
+ *
+ * This file is part of SensorLocator.
+ * SensorLocator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SensorLocator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SensorLocator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.humsat.demo.gssw.sensorlocator.archive;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reader of the bits written by a BitOutput, from a region of a buffer.
+ *
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ */
+public class BitInput
+{
+
+    /** Buffer, read with absolute gets. */
+    protected ByteBuffer buffer = null;
+    /** Offset of the first byte of the bits. */
+    protected int offset = 0;
+    /** Number of bits read. */
+    protected long bits = 0L;
+
+    /**
+     * Main constructor.
+     *
+     * @param buffer The buffer, its position is not changed.
+     * @param offset Offset of the first byte of the bits.
+     */
+    public BitInput(final ByteBuffer buffer, final int offset)
+    {
+        this.buffer = buffer;
+        this.offset = offset;
+    }
+
+    /**
+     * Reads a single bit.
+     *
+     * @return The bit.
+     */
+    public boolean readBit()
+        { return(this.readBits(1) != 0L); }
+
+    /**
+     * Reads the given number of bits.
+     *
+     * @param n Number of bits, up to 64.
+     * @return The bits, as the least significant ones of the value.
+     */
+    public long readBits(final int n)
+    {
+
+        long value = 0L;
+        int remaining = n;
+
+        while ( remaining > 0 )
+        {
+            int b = this.buffer.get(this.offset + (int) ( this.bits >>> 3 ))
+                        & 0xff;
+            int available = 8 - (int) ( this.bits & 7 );
+            int k = Math.min(available, remaining);
+            value = ( value << k )
+                        | ( ( b >>> ( available - k ) ) & ( ( 1 << k ) - 1 ) );
+            this.bits += k;
+            remaining -= k;
+        }
+
+        return(value);
+
+    }
+
+    /**
+     * Reads the given number of bits as a signed (two's complement) value.
+     *
+     * @param n Number of bits, up to 64.
+     * @return The value.
+     */
+    public long readSigned(final int n)
+        { return(( this.readBits(n) << ( 64 - n ) ) >> ( 64 - n )); }
+
+}
@@ -0,0 +1,107 @@
+/**
+ * @file BitOutput.java
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ * @version 0.1
+ *
+ * @section LICENSE
+ *
+ * This file is part of SensorLocator.
+ * SensorLocator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SensorLocator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SensorLocator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.humsat.demo.gssw.sensorlocator.archive;
+
+import java.util.Arrays;
+
+/**
+ * Growable buffer of bits, written most significant bit first.
+ *
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ */
+public class BitOutput
+{
+
+    /** Bytes written, the last one may be incomplete. */
+    protected byte[] bytes = null;
+    /** Number of bits written. */
+    protected long bits = 0L;
+
+    /**
+     * Main constructor.
+     *
+     * @param capacity Initial capacity, in bytes.
+     */
+    public BitOutput(final int capacity)
+        { this.bytes = new byte[Math.max(1, capacity)]; }
+
+    /**
+     * Writes a single bit.
+     *
+     * @param bit The bit.
+     */
+    public void writeBit(final boolean bit)
+        { this.writeBits(( bit == true ) ? 1L : 0L, 1); }
+
+    /**
+     * Writes the given number of least significant bits of the given value.
+     *
+     * @param value The value.
+     * @param n Number of bits, up to 64.
+     */
+    public void writeBits(final long value, final int n)
+    {
+
+        int remaining = n;
+
+        while ( remaining > 0 )
+        {
+            int index = (int) ( this.bits >>> 3 );
+            if ( index == this.bytes.length )
+                { this.bytes = Arrays.copyOf(this.bytes, index * 2); }
+            int free = 8 - (int) ( this.bits & 7 );
+            int k = Math.min(free, remaining);
+            int chunk = (int) ( value >>> ( remaining - k ) )
+                            & ( ( 1 << k ) - 1 );
+            this.bytes[index] |= (byte) ( chunk << ( free - k ) );
+            this.bits += k;
+            remaining -= k;
+        }
+
+    }
+
+    /**
+     * Discards all the bits written, keeping the buffer.
+     */
+    public void reset()
+    {
+        Arrays.fill(this.bytes, 0, (int) ( ( this.bits + 7 ) >>> 3 ), (byte) 0);
+        this.bits = 0L;
+    }
+
+    /**
+     * Getter for the number of bytes written (the last one padded with 0s).
+     *
+     * @return The number of bytes.
+     */
+    public int size()
+        { return((int) ( ( this.bits + 7 ) >>> 3 )); }
+
+    /**
+     * Getter for the bytes written; only the first size() ones are valid.
+     *
+     * @return The buffer, not a copy.
+     */
+    public byte[] getBytes()
+        { return(this.bytes); }
+
+}
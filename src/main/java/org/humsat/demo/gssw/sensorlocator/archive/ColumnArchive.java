@@ -0,0 +1,539 @@
+/**
+ * @file ColumnArchive.java
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ * @version 0.1
+ *
+ * @section LICENSE
+ *
+ * This file is part of SensorLocator.
+ * SensorLocator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SensorLocator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SensorLocator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.humsat.demo.gssw.sensorlocator.archive;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.humsat.demo.gssw.sensorlocator.data.DataField;
+import org.humsat.demo.gssw.sensorlocator.data.SensorData;
+
+/**
+ * Layout of the columnar archive: the decoded readings of each sensor,
+ * compressed column by column as in Gorilla (Pelkonen et al., VLDB 2015),
+ * since most of the values (temperatures, levels, positions of fixed
+ * sensors) change slowly or do not change at all between readings.
+ *
+ *  header  MAGIC, records per block
+ *  block   readings of a single sensor sorted by timestamp, as a stream of
+ *          bits (see encodeBlock()) padded to a whole byte
+ *  index   per block: its offset and length, sensor id, number of records
+ *          and minimum and maximum timestamps
+ *  footer  offset of the index, number of blocks, number of records and
+ *          FOOTER_MAGIC
+ *
+ * The columns of a block, one after the other, are:
+ *
+ *  timestamps  the first one (32 bits), then the delta of the deltas: '0'
+ *              if 0, else '10', '110', '1110' or '1111' and the value in
+ *              7, 9, 12 or DOD_BITS bits
+ *  lengths     data length of each reading: '0' if it is the previous one
+ *              (0 for the first reading), else '1' and the length (32 bits)
+ *  shapes      data fields of each reading: '0' if they are the codes of
+ *              the previous reading, else '1', the number of fields and,
+ *              per field, its code and its number of values (8 bits each)
+ *  values      a column per field code, occurrence of the code within the
+ *              reading and index of the value, in order of appearance: the
+ *              first float (32 bits), then the XOR with the previous one: '0'
+ *              if 0, else '10' and its meaningful bits if they fit within
+ *              the previous ones, else '11', the number of leading zeros (5
+ *              bits), the number of meaningful bits minus one (5 bits) and
+ *              the meaningful bits
+ *  raw values  per field, '0' if its raw value is formatValues() of its
+ *              values without the ".0" of the integral ones ("42"), '10'
+ *              if it is formatValues() with them ("42.0"), else '11', its
+ *              length (16 bits) and its UTF-8 bytes
+ *
+ * Integers outside of the blocks are big-endian. The blocks are written as
+ * they fill up (see ArchiveWriter) and they can be read (decoded) one by
+ * one through the index (see ArchiveReader).
+ *
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ */
+public class ColumnArchive
+{
+
+    /** Magic number of the header ("SLA1"). */
+    public final static int MAGIC = 0x534c4131;
+    /** Magic number of the footer ("SLAF"). */
+    public final static int FOOTER_MAGIC = 0x534c4146;
+    /** Size of the header, in bytes. */
+    public final static int HEADER_SIZE = 8;
+    /** Size of an entry of the index, in bytes. */
+    public final static int INDEX_ENTRY_SIZE = 28;
+    /** Size of the footer, in bytes. */
+    public final static int FOOTER_SIZE = 24;
+    /** Default number of records per block. */
+    public final static int DEFAULT_BLOCK_RECORDS = 1024;
+    /** Bits of the largest deltas of deltas of the timestamps. */
+    public final static int DOD_BITS = 36;
+    /** Maximum length of the raw values, in bytes. */
+    public final static int MAX_RAW_LENGTH = 0xffff;
+
+    /**
+     * Values of a column of a block.
+     */
+    protected static class Column
+    {
+
+        /** Values. */
+        protected float[] values = new float[16];
+        /** Number of values. */
+        protected int size = 0;
+        /** Number of values already taken, while decoding. */
+        protected int taken = 0;
+
+        /**
+         * Appends the given value.
+         *
+         * @param value The value.
+         */
+        protected void add(final float value)
+        {
+            if ( this.size == this.values.length )
+                { this.values = Arrays.copyOf(this.values, this.size * 2); }
+            this.values[this.size++] = value;
+        }
+
+    }
+
+    /** Hidden constructor, only static methods. */
+    protected ColumnArchive() {}
+
+    /**
+     * Checks whether the given file is an archive, by its magic number.
+     *
+     * @param file The file.
+     * @return 'true' in case it starts with MAGIC.
+     * @throws IOException In case the file cannot be read.
+     */
+    public static boolean isArchive(final File file)
+        throws IOException
+    {
+        if ( file.length() < HEADER_SIZE + FOOTER_SIZE ) { return(false); }
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try
+            { return(in.readInt() == MAGIC); }
+        finally
+            { in.close(); }
+    }
+
+    /**
+     * Formats the given values as they are usually found in the raw values
+     * of the data fields ("18.77,-111.28", "42" or "42.0"), so that the raw
+     * values need not be kept.
+     *
+     * @param values The values.
+     * @param integral 'true' for writing the integral values without ".0".
+     * @return The values, separated by DataField.DATA_FIELD_SEPARATOR.
+     */
+    public static String formatValues
+            (final float[] values, final boolean integral)
+    {
+        StringBuilder sb = new StringBuilder();
+        for ( int i = 0; i < values.length; i++ )
+        {
+            if ( i > 0 ) { sb.append(DataField.DATA_FIELD_SEPARATOR); }
+            String v = Float.toString(values[i]);
+            sb.append(( ( integral == true ) && ( v.endsWith(".0") == true ) ) ?
+                            v.substring(0, v.length() - 2) : v);
+        }
+        return(sb.toString());
+    }
+
+    /**
+     * Encodes the readings of a block (see the layout above).
+     *
+     * @param out The output.
+     * @param block The readings, of a single sensor and sorted by timestamp.
+     */
+    public static void encodeBlock
+            (final BitOutput out, final List<SensorData> block)
+    {
+
+        long previous = block.get(0).getTimestamp();
+        long delta = 0L;
+        out.writeBits(previous, 32);
+        for ( int i = 1; i < block.size(); i++ )
+        {
+            long d = block.get(i).getTimestamp() - previous;
+            writeDeltaOfDelta(out, d - delta);
+            delta = d;
+            previous = block.get(i).getTimestamp();
+        }
+
+        int length = 0;
+        for ( SensorData sd_i : block )
+        {
+            boolean same = ( sd_i.getDataLength() == length );
+            out.writeBit(same == false);
+            if ( same == false ) { out.writeBits(sd_i.getDataLength(), 32); }
+            length = sd_i.getDataLength();
+        }
+
+        List<DataField> shape = null;
+        Map<String, Column> columns = new LinkedHashMap<String, Column>();
+        for ( SensorData sd_i : block )
+        {
+            List<DataField> fields = sd_i.getDataFields();
+            boolean same = isSameShape(shape, fields);
+            out.writeBit(same == false);
+            if ( same == false )
+            {
+                out.writeBits(fields.size(), 8);
+                for ( DataField df_i : fields )
+                {
+                    out.writeBits(df_i.type.charAt(0), 8);
+                    out.writeBits(df_i.values.size(), 8);
+                }
+            }
+            shape = fields;
+            for ( int f = 0; f < fields.size(); f++ )
+            {
+                DataField df = fields.get(f);
+                for ( int j = 0; j < df.values.size(); j++ )
+                {
+                    String key = columnKey(fields, f, j);
+                    Column c = columns.get(key);
+                    if ( c == null )
+                        { c = new Column(); columns.put(key, c); }
+                    c.add(df.values.get(j).values().iterator().next());
+                }
+            }
+        }
+
+        for ( Column c_i : columns.values() )
+            { writeFloats(out, c_i.values, c_i.size); }
+
+        for ( SensorData sd_i : block )
+        {
+            for ( DataField df_i : sd_i.getDataFields() )
+            {
+                float[] values = new float[df_i.values.size()];
+                for ( int j = 0; j < values.length; j++ )
+                {
+                    values[j] = df_i.values.get(j).values()
+                                                    .iterator().next();
+                }
+                boolean same = df_i.value.equals(formatValues(values, true));
+                out.writeBit(same == false);
+                if ( same == true ) { continue; }
+                same = df_i.value.equals(formatValues(values, false));
+                out.writeBit(same == false);
+                if ( same == true ) { continue; }
+                byte[] raw = df_i.value.getBytes(StandardCharsets.UTF_8);
+                if ( raw.length > MAX_RAW_LENGTH )
+                    { throw(new IllegalArgumentException("Raw value too long"
+                                            + ", length = " + raw.length)); }
+                out.writeBits(raw.length, 16);
+                for ( byte b_i : raw ) { out.writeBits(b_i, 8); }
+            }
+        }
+
+    }
+
+    /**
+     * Decodes the readings of a block (see the layout above).
+     *
+     * @param in The input, at the beginning of the block.
+     * @param records Number of readings of the block.
+     * @param sensorId Sensor id of the readings.
+     * @return The readings, sorted by timestamp.
+     */
+    public static List<SensorData> decodeBlock
+            (final BitInput in, final int records, final int sensorId)
+    {
+
+        int[] timestamps = new int[records];
+        timestamps[0] = (int) in.readBits(32);
+        long delta = 0L;
+        for ( int i = 1; i < records; i++ )
+        {
+            delta += readDeltaOfDelta(in);
+            timestamps[i] = (int) ( timestamps[i - 1] + delta );
+        }
+
+        int[] lengths = new int[records];
+        int length = 0;
+        for ( int i = 0; i < records; i++ )
+        {
+            if ( in.readBit() == true ) { length = (int) in.readBits(32); }
+            lengths[i] = length;
+        }
+
+        // Shapes as { code, number of values } per field.
+        int[][] shapes = new int[records][];
+        Map<String, Column> columns = new LinkedHashMap<String, Column>();
+        int[] shape = null;
+        for ( int i = 0; i < records; i++ )
+        {
+            if ( in.readBit() == true )
+            {
+                shape = new int[2 * (int) in.readBits(8)];
+                for ( int k = 0; k < shape.length; k++ )
+                    { shape[k] = (int) in.readBits(8); }
+            }
+            shapes[i] = shape;
+            for ( int f = 0; f < shape.length; f += 2 )
+            {
+                for ( int j = 0; j < shape[f + 1]; j++ )
+                {
+                    String key = columnKey(shape, f, j);
+                    Column c = columns.get(key);
+                    if ( c == null )
+                        { c = new Column(); columns.put(key, c); }
+                    c.size++;
+                }
+            }
+        }
+
+        for ( Column c_i : columns.values() )
+            { c_i.values = readFloats(in, c_i.size); }
+
+        List<SensorData> block = new ArrayList<SensorData>(records);
+        for ( int i = 0; i < records; i++ )
+        {
+            List<DataField> fields
+                        = new ArrayList<DataField>(shapes[i].length / 2);
+            for ( int f = 0; f < shapes[i].length; f += 2 )
+            {
+                float[] values = new float[shapes[i][f + 1]];
+                for ( int j = 0; j < values.length; j++ )
+                {
+                    Column c = columns.get(columnKey(shapes[i], f, j));
+                    values[j] = c.values[c.taken++];
+                }
+                String raw = null;
+                if ( in.readBit() == false )
+                    { raw = formatValues(values, true); }
+                else if ( in.readBit() == false )
+                    { raw = formatValues(values, false); }
+                else
+                {
+                    byte[] bytes = new byte[(int) in.readBits(16)];
+                    for ( int k = 0; k < bytes.length; k++ )
+                        { bytes[k] = (byte) in.readBits(8); }
+                    raw = new String(bytes, StandardCharsets.UTF_8);
+                }
+                fields.add(DataField.createDataField
+                        (String.valueOf((char) shapes[i][f]), raw, values));
+            }
+            block.add(SensorData.createSensorData
+                        (timestamps[i], sensorId, lengths[i], fields));
+        }
+
+        return(block);
+
+    }
+
+    /**
+     * Writes a delta of deltas of the timestamps.
+     *
+     * @param out The output.
+     * @param dod The delta of deltas.
+     */
+    protected static void writeDeltaOfDelta(final BitOutput out, final long dod)
+    {
+        if ( dod == 0L )
+            { out.writeBits(0L, 1); }
+        else if ( fits(dod, 7) == true )
+            { out.writeBits(0x2L, 2); out.writeBits(dod, 7); }
+        else if ( fits(dod, 9) == true )
+            { out.writeBits(0x6L, 3); out.writeBits(dod, 9); }
+        else if ( fits(dod, 12) == true )
+            { out.writeBits(0xeL, 4); out.writeBits(dod, 12); }
+        else
+            { out.writeBits(0xfL, 4); out.writeBits(dod, DOD_BITS); }
+    }
+
+    /**
+     * Reads a delta of deltas of the timestamps.
+     *
+     * @param in The input.
+     * @return The delta of deltas.
+     */
+    protected static long readDeltaOfDelta(final BitInput in)
+    {
+        if ( in.readBit() == false ) { return(0L); }
+        if ( in.readBit() == false ) { return(in.readSigned(7)); }
+        if ( in.readBit() == false ) { return(in.readSigned(9)); }
+        if ( in.readBit() == false ) { return(in.readSigned(12)); }
+        return(in.readSigned(DOD_BITS));
+    }
+
+    /**
+     * Checks whether the given value fits in the given number of bits, as a
+     * signed value.
+     *
+     * @param value The value.
+     * @param n The number of bits.
+     * @return 'true' in case it fits.
+     */
+    protected static boolean fits(final long value, final int n)
+        { return( ( value >= -( 1L << ( n - 1 ) ) )
+                    && ( value < ( 1L << ( n - 1 ) ) ) ); }
+
+    /**
+     * Writes a column of floats, XOR-ed with the previous ones.
+     *
+     * @param out The output.
+     * @param values The values.
+     * @param size The number of values.
+     */
+    protected static void writeFloats
+            (final BitOutput out, final float[] values, final int size)
+    {
+
+        int previous = Float.floatToRawIntBits(values[0]);
+        int leading = -1;
+        int trailing = 0;
+        out.writeBits(previous, 32);
+
+        for ( int i = 1; i < size; i++ )
+        {
+
+            int bits = Float.floatToRawIntBits(values[i]);
+            int xor = bits ^ previous;
+            previous = bits;
+
+            out.writeBit(xor != 0);
+            if ( xor == 0 ) { continue; }
+
+            int l = Integer.numberOfLeadingZeros(xor);
+            int t = Integer.numberOfTrailingZeros(xor);
+            if ( ( leading >= 0 ) && ( l >= leading ) && ( t >= trailing ) )
+            {
+                out.writeBit(false);
+                out.writeBits(xor >>> trailing, 32 - leading - trailing);
+            }
+            else
+            {
+                out.writeBit(true);
+                out.writeBits(l, 5);
+                out.writeBits(32 - l - t - 1, 5);
+                out.writeBits(xor >>> t, 32 - l - t);
+                leading = l;
+                trailing = t;
+            }
+
+        }
+
+    }
+
+    /**
+     * Reads a column of floats written by writeFloats().
+     *
+     * @param in The input.
+     * @param size The number of values.
+     * @return The values.
+     */
+    protected static float[] readFloats(final BitInput in, final int size)
+    {
+
+        float[] values = new float[size];
+        int previous = (int) in.readBits(32);
+        int leading = 0;
+        int trailing = 0;
+        values[0] = Float.intBitsToFloat(previous);
+
+        for ( int i = 1; i < size; i++ )
+        {
+            if ( in.readBit() == true )
+            {
+                if ( in.readBit() == true )
+                {
+                    leading = (int) in.readBits(5);
+                    trailing = 32 - leading - (int) in.readBits(5) - 1;
+                }
+                previous ^= (int) in.readBits(32 - leading - trailing)
+                                << trailing;
+            }
+            values[i] = Float.intBitsToFloat(previous);
+        }
+
+        return(values);
+
+    }
+
+    /**
+     * Checks whether the given data fields have the same codes and number of
+     * values.
+     *
+     * @param a Data fields, 'null' for none.
+     * @param b Data fields.
+     * @return 'true' in case they do.
+     */
+    protected static boolean isSameShape
+            (final List<DataField> a, final List<DataField> b)
+    {
+        if ( ( a == null ) || ( a.size() != b.size() ) ) { return(false); }
+        for ( int i = 0; i < a.size(); i++ )
+        {
+            if ( ( a.get(i).type.equals(b.get(i).type) == false )
+                    || ( a.get(i).values.size() != b.get(i).values.size() ) )
+                { return(false); }
+        }
+        return(true);
+    }
+
+    /**
+     * Key of the column of the given value of the given field.
+     *
+     * @param fields The data fields of the reading.
+     * @param f Index of the field.
+     * @param j Index of the value within the field.
+     * @return The key, code, occurrence of the code and index of the value.
+     */
+    protected static String columnKey
+            (final List<DataField> fields, final int f, final int j)
+    {
+        int[] shape = new int[2 * ( f + 1 )];
+        for ( int k = 0; k <= f; k++ )
+            { shape[2 * k] = fields.get(k).type.charAt(0); }
+        return(columnKey(shape, 2 * f, j));
+    }
+
+    /**
+     * Key of the column of the given value of the given field.
+     *
+     * @param shape Codes and number of values of the fields of the reading.
+     * @param f Index of the code of the field within the shape.
+     * @param j Index of the value within the field.
+     * @return The key, code, occurrence of the code and index of the value.
+     */
+    protected static String columnKey
+            (final int[] shape, final int f, final int j)
+    {
+        int occurrence = 0;
+        for ( int k = 0; k < f; k += 2 )
+            { if ( shape[k] == shape[f] ) { occurrence++; } }
+        return((char) shape[f] + "/" + occurrence + "/" + j);
+    }
+
+}
@@ -0,0 +1,576 @@
+/**
+ * @file ResultCache.java
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ * @version 0.1
+ *
+ * @section LICENSE
+ *
+ * This file is part of SensorLocator.
+ * SensorLocator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SensorLocator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SensorLocator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.humsat.demo.gssw.sensorlocator.cache;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Checksum;
+import org.humsat.demo.gssw.sensorlocator.output.OutputSinks;
+import org.humsat.demo.gssw.sensorlocator.pipeline.Pipeline;
+
+/**
+ * On-disk cache of the documents converted by the pipelines: an archive
+ * converted again with the same options (see Pipeline.getKey()), by the same
+ * path and with the same length and modification time, is copied from the
+ * cache instead of being decoded and rendered again.
+ *
+ * Lookups go only through the path, length and modification time of the
+ * input, remembered in the INDEX_FILE, so a hit does not read the input at
+ * all and the document is sent with FileChannel.transferTo (zero-copy, in
+ * case the output is a file or a socket). The documents themselves are
+ * stored by the contents of the input, identified by a 64 bit hash (CRC32C
+ * and CRC32, both computed by CPU instructions) plus their length, computed
+ * while the input is being converted so a miss reads the input only once:
+ * the same contents by another path are converted again, but stored once.
+ *
+ * The least recently used documents are evicted once the total size of the
+ * cache goes over its limit; the modification time of the documents keeps
+ * their use order between restarts.
+ *
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ */
+public class ResultCache
+{
+
+    /** Extension of the cached documents. */
+    public final static String ENTRY_EXTENSION = ".out";
+    /** Extension of the documents while they are being written. */
+    public final static String PARTIAL_EXTENSION = ".part";
+    /** File with the hashes of the inputs. */
+    public final static String INDEX_FILE = "index.properties";
+    /** Default limit of the total size of the documents, in bytes. */
+    public final static long DEFAULT_MAX_SIZE = 1024L * 1024L * 1024L;
+
+    /** Directory of the cache. */
+    protected File directory = null;
+    /** Limit of the total size of the documents, in bytes. */
+    protected long maxSize = DEFAULT_MAX_SIZE;
+    /** Total size of the documents, in bytes. */
+    protected long size = 0L;
+    /** Documents from the least to the most recently used, (name, size). */
+    protected LinkedHashMap<String, Long> entries
+                            = new LinkedHashMap<String, Long>(16, 0.75f, true);
+    /** Hashes of the inputs, (path|length|modified, hash). */
+    protected Properties index = new Properties();
+
+    /** Number of documents served from the cache. */
+    protected AtomicLong hits = new AtomicLong();
+    /** Number of documents converted. */
+    protected AtomicLong misses = new AtomicLong();
+
+    /**
+     * Main constructor, it loads the cache kept in the given directory (or
+     * creates it), evicting documents if needed.
+     *
+     * @param directory Directory of the cache.
+     * @param maxSize Limit of the total size of the documents, in bytes.
+     * @throws IOException In case the cache cannot be loaded.
+     */
+    public ResultCache(final File directory, final long maxSize)
+        throws IOException
+    {
+
+        if ( directory == null )
+            { throw(new NullPointerException("<directory> is null.")); }
+        if ( maxSize <= 0 )
+            { throw(new IllegalArgumentException("<maxSize> must be > 0, "
+                                                    + "value = " + maxSize)); }
+
+        this.directory = Files.createDirectories(directory.toPath()).toFile();
+        this.maxSize = maxSize;
+
+        File indexFile = new File(this.directory, INDEX_FILE);
+        if ( indexFile.isFile() == true )
+        {
+            InputStream in = new FileInputStream(indexFile);
+            try
+                { this.index.load(in); }
+            finally
+                { in.close(); }
+        }
+
+        File[] files = this.directory.listFiles();
+        Arrays.sort(files, new Comparator<File>()
+        {
+            @Override
+            public int compare(final File a, final File b)
+                { return(Long.compare(a.lastModified(), b.lastModified())); }
+        });
+        for ( File f_i : files )
+        {
+            if ( f_i.getName().endsWith(PARTIAL_EXTENSION) == true )
+                { Files.deleteIfExists(f_i.toPath()); }
+            else if ( f_i.getName().endsWith(ENTRY_EXTENSION) == true )
+            {
+                this.entries.put(f_i.getName(), f_i.length());
+                this.size += f_i.length();
+            }
+        }
+
+        this.evict();
+
+    }
+
+    /**
+     * Writes the document of the given pipeline for the given input to the
+     * given channel, from the cache if possible; otherwise, the input is
+     * converted and the document is kept in the cache.
+     *
+     * @param pipeline The pipeline.
+     * @param input The CSV file.
+     * @param out The output channel, it is not closed.
+     * @return 'true' in case the document was served from the cache.
+     * @throws IOException In case any IO problem occurs.
+     */
+    public boolean run
+            (   final Pipeline pipeline, final File input,
+                final WritableByteChannel out   )
+        throws IOException
+    {
+
+        if ( ( pipeline == null ) || ( input == null ) || ( out == null ) )
+            { throw(new NullPointerException("<pipeline>, <input> or <out> "
+                                                + "is null.")); }
+
+        String stat = getStatKey(input);
+        String options = hash(pipeline.getKey());
+
+        FileChannel cached = this.open(stat, options);
+        if ( cached != null )
+        {
+            try
+                { transfer(cached, out); }
+            finally
+                { cached.close(); }
+            this.hits.incrementAndGet();
+            return(true);
+        }
+
+        this.misses.incrementAndGet();
+        ContentHash hash = new ContentHash();
+        File partial = File.createTempFile
+                                ("entry", PARTIAL_EXTENSION, this.directory);
+
+        try
+        {
+
+            OutputStream os = new BufferedOutputStream
+                        (new TeeOutputStream(Channels.newOutputStream(out),
+                                            new FileOutputStream(partial)),
+                            OutputSinks.FILE_BUFFER_SIZE);
+            try
+            {
+                pipeline.run(new CheckedInputStream
+                                (new FileInputStream(input), hash), os);
+            }
+            finally
+                { os.close(); }
+
+            // An input modified while it was read is not indexed by path,
+            // since its hash may not match its current contents.
+            if ( stat.equals(getStatKey(input)) == false ) { stat = null; }
+            this.commit(stat, hash.toString(), options, partial);
+
+        }
+        finally
+            { Files.deleteIfExists(partial.toPath()); }
+
+        return(false);
+
+    }
+
+    /**
+     * Opens the cached document for the input with the given path, length
+     * and modification time, marking it as the most recently used.
+     *
+     * @param stat Path, length and modification time of the input.
+     * @param options Hash of the options of the pipeline.
+     * @return The channel of the document, 'null' in case it is not cached.
+     * @throws IOException In case the document cannot be opened.
+     */
+    protected synchronized FileChannel open
+            (final String stat, final String options)
+        throws IOException
+    {
+
+        String content = this.index.getProperty(stat);
+        if ( content == null ) { return(null); }
+
+        String name = getEntryName(content, options);
+        Long length = this.entries.get(name);
+        if ( length == null ) { return(null); }
+
+        File entry = new File(this.directory, name);
+        try
+        {
+            FileChannel channel = FileChannel.open
+                                    (entry.toPath(), StandardOpenOption.READ);
+            entry.setLastModified(System.currentTimeMillis());
+            return(channel);
+        }
+        catch(NoSuchFileException ex)
+        {
+            this.entries.remove(name);
+            this.size -= length;
+            return(null);
+        }
+
+    }
+
+    /**
+     * Moves a converted document into the cache, evicting the least recently
+     * used documents if needed.
+     *
+     * @param stat Path, length and modification time of the input, 'null' for
+     *              not indexing the input.
+     * @param content Hash of the contents of the input.
+     * @param options Hash of the options of the pipeline.
+     * @param partial File with the document.
+     * @throws IOException In case the document cannot be moved.
+     */
+    protected synchronized void commit
+            (   final String stat, final String content, final String options,
+                final File partial  )
+        throws IOException
+    {
+
+        if ( stat != null )
+        {
+            this.index.setProperty(stat, content);
+            this.saveIndex();
+        }
+
+        String name = getEntryName(content, options);
+        if ( this.entries.containsKey(name) == true ) { return; }
+
+        long length = partial.length();
+        Files.move(partial.toPath(), new File(this.directory, name).toPath(),
+                    StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        this.entries.put(name, length);
+        this.size += length;
+
+        this.evict();
+
+    }
+
+    /**
+     * Deletes the least recently used documents until the total size is
+     * within the limit, and the hashes of the inputs with no document left.
+     *
+     * @throws IOException In case a document cannot be deleted.
+     */
+    protected synchronized void evict()
+        throws IOException
+    {
+
+        if ( this.size <= this.maxSize ) { return; }
+
+        Iterator<Map.Entry<String, Long>> it = this.entries.entrySet()
+                                                                .iterator();
+        while ( ( this.size > this.maxSize ) && ( it.hasNext() == true ) )
+        {
+            Map.Entry<String, Long> e = it.next();
+            Files.deleteIfExists(new File(this.directory, e.getKey())
+                                                                .toPath());
+            this.size -= e.getValue();
+            it.remove();
+            Logger.getLogger(ResultCache.class.getName())
+                    .log(Level.FINE, "Evicted {0}", e.getKey());
+        }
+
+        Set<String> contents = new HashSet<String>();
+        for ( String n_i : this.entries.keySet() )
+            { contents.add(n_i.substring(0, n_i.lastIndexOf('-'))); }
+        List<String> stale = new ArrayList<String>();
+        for ( String s_i : this.index.stringPropertyNames() )
+        {
+            if ( contents.contains(this.index.getProperty(s_i)) == false )
+                { stale.add(s_i); }
+        }
+        for ( String s_i : stale ) { this.index.remove(s_i); }
+        this.saveIndex();
+
+    }
+
+    /**
+     * Writes the hashes of the inputs to the INDEX_FILE, replacing it
+     * atomically.
+     *
+     * @throws IOException In case the index cannot be written.
+     */
+    protected void saveIndex()
+        throws IOException
+    {
+
+        File partial = File.createTempFile
+                                (INDEX_FILE, PARTIAL_EXTENSION, this.directory);
+        OutputStream os = new FileOutputStream(partial);
+        try
+            { this.index.store(os, null); }
+        finally
+            { os.close(); }
+
+        Files.move(partial.toPath(),
+                    new File(this.directory, INDEX_FILE).toPath(),
+                    StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+
+    }
+
+    /**
+     * Getter for the number of documents served from the cache.
+     *
+     * @return The number of hits.
+     */
+    public long getHits()
+        { return(this.hits.get()); }
+
+    /**
+     * Getter for the number of documents converted.
+     *
+     * @return The number of misses.
+     */
+    public long getMisses()
+        { return(this.misses.get()); }
+
+    /**
+     * Getter for the total size of the documents.
+     *
+     * @return The size, in bytes.
+     */
+    public synchronized long getSize()
+        { return(this.size); }
+
+    /**
+     * Getter for the number of documents in the cache.
+     *
+     * @return The number of documents.
+     */
+    public synchronized int getEntries()
+        { return(this.entries.size()); }
+
+    @Override
+    public String toString()
+    {
+        return("directory = " + this.directory + ", size = " + this.getSize()
+                    + ", hits = " + this.getHits()
+                    + ", misses = " + this.getMisses());
+    }
+
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>> static
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
+
+    /**
+     * Returns the key of the given file in the INDEX_FILE: its path, length
+     * and modification time.
+     *
+     * @param input The file.
+     * @return The key.
+     * @throws IOException In case the attributes cannot be read.
+     */
+    public static String getStatKey(final File input)
+        throws IOException
+    {
+        BasicFileAttributes a = Files.readAttributes
+                                (input.toPath(), BasicFileAttributes.class);
+        return(input.getCanonicalPath() + "|" + a.size() + "|"
+                    + a.lastModifiedTime().toMillis());
+    }
+
+    /**
+     * Returns the name of the document for the given hashes.
+     *
+     * @param content Hash of the contents of the input.
+     * @param options Hash of the options of the pipeline.
+     * @return The name of the document.
+     */
+    public static String getEntryName
+            (final String content, final String options)
+        { return(content + "-" + options + ENTRY_EXTENSION); }
+
+    /**
+     * Hashes the given string.
+     *
+     * @param s The string.
+     * @return The hash, in hexadecimal.
+     */
+    public static String hash(final String s)
+    {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        ContentHash h = new ContentHash();
+        h.update(b, 0, b.length);
+        return(Long.toHexString(h.getValue()));
+    }
+
+    /**
+     * Copies the whole given file to the given channel.
+     *
+     * @param in The file.
+     * @param out The channel.
+     * @throws IOException In case any IO problem occurs.
+     */
+    protected static void transfer
+            (final FileChannel in, final WritableByteChannel out)
+        throws IOException
+    {
+        long length = in.size();
+        long position = 0L;
+        while ( position < length )
+            { position += in.transferTo(position, length - position, out); }
+    }
+
+    /**
+     * 64 bit hash of a stream of bytes (CRC32C and CRC32), plus its length.
+     */
+    public static class ContentHash
+        implements Checksum
+    {
+
+        /** CRC32C of the bytes. */
+        protected CRC32C crc32c = new CRC32C();
+        /** CRC32 of the bytes. */
+        protected CRC32 crc32 = new CRC32();
+        /** Number of bytes. */
+        protected long length = 0L;
+
+        @Override
+        public void update(final int b)
+            { this.crc32c.update(b); this.crc32.update(b); this.length++; }
+
+        @Override
+        public void update(final byte[] b, final int off, final int len)
+        {
+            this.crc32c.update(b, off, len);
+            this.crc32.update(b, off, len);
+            this.length += len;
+        }
+
+        @Override
+        public long getValue()
+        {
+            return(( this.crc32c.getValue() << 32 )
+                        | this.crc32.getValue());
+        }
+
+        @Override
+        public void reset()
+            { this.crc32c.reset(); this.crc32.reset(); this.length = 0L; }
+
+        /**
+         * Getter for the number of bytes hashed.
+         *
+         * @return The number of bytes.
+         */
+        public long getLength()
+            { return(this.length); }
+
+        @Override
+        public String toString()
+        {
+            return(String.format("%016x-%x", this.getValue(), this.length));
+        }
+
+    }
+
+    /**
+     * Output stream that writes to two streams; only the second one is
+     * closed.
+     */
+    protected static class TeeOutputStream
+        extends OutputStream
+    {
+
+        /** First stream, it is only flushed. */
+        protected OutputStream first = null;
+        /** Second stream. */
+        protected OutputStream second = null;
+
+        /**
+         * Main constructor.
+         *
+         * @param first First stream, it is only flushed.
+         * @param second Second stream.
+         */
+        public TeeOutputStream
+                (final OutputStream first, final OutputStream second)
+            { this.first = first; this.second = second; }
+
+        @Override
+        public void write(final int b)
+            throws IOException
+            { this.first.write(b); this.second.write(b); }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len)
+            throws IOException
+            { this.first.write(b, off, len); this.second.write(b, off, len); }
+
+        @Override
+        public void flush()
+            throws IOException
+            { this.first.flush(); this.second.flush(); }
+
+        @Override
+        public void close()
+            throws IOException
+        {
+            try
+                { this.first.flush(); }
+            finally
+                { this.second.close(); }
+        }
+
+    }
+
+}
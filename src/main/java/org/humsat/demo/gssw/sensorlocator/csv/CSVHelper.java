@@ -37,6 +37,8 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.humsat.demo.gssw.sensorlocator.SensorLocator;
 import org.humsat.demo.gssw.sensorlocator.data.SensorData;
+import org.humsat.demo.gssw.sensorlocator.dedup.FrameDeduplicator;
+import org.humsat.demo.gssw.sensorlocator.index.TimeIndex;
 
 /**
  * Class with static methods for helping in processing CSV files.
@@ -80,82 +82,168 @@ public class CSVHelper
      */
     public static List<SensorData> readSensorData(final File inputFile)
         throws FileNotFoundException, IOException
+        { return(readSensorData(inputFile, null)); }
+    
+    /**
+     * Method that applies a series of filters to the input CSV file in order
+     * to get a more simple CSV input file. It erases all columns that are not
+     * to be used through subsequent processing stages. While reading, the
+     * offset of each record is added to the given time index.
+     * 
+     * @param inputFile The input CSV file.
+     * @param index The time index to be built, 'null' for not building it.
+     * @return List of the lines selected without the columns.
+     */
+    public static List<SensorData> readSensorData
+            (final File inputFile, final TimeIndex index)
+        throws FileNotFoundException, IOException
+        { return(readSensorData(inputFile, index, null)); }
+    
+    /**
+     * Method that applies a series of filters to the input CSV file in order
+     * to get a more simple CSV input file. It erases all columns that are not
+     * to be used through subsequent processing stages. While reading, the
+     * offset of each record is added to the given time index and the frames
+     * already seen by the given deduplicator are skipped before decoding
+     * them.
+     * 
+     * @param inputFile The input CSV file.
+     * @param index The time index to be built, 'null' for not building it.
+     * @param dedup The deduplicator, 'null' for keeping all the frames.
+     * @return List of the lines selected without the columns.
+     */
+    public static List<SensorData> readSensorData
+            (   final File inputFile, final TimeIndex index,
+                final FrameDeduplicator dedup   )
+        throws FileNotFoundException, IOException
     {
         
-        BufferedReader in = new BufferedReader(new FileReader(inputFile));
-        String line = "";
+        SensorDataReader in = new SensorDataReader(inputFile, dedup);
+        SensorData sdi = null;
         List<SensorData> lines = new ArrayList<SensorData>();
-        Map<String, Integer> indexes = readSensorDataIndexes(inputFile);
-        int fields_required = getFieldsRequired(indexes);
         
-        System.out.println("req = " + fields_required 
-                            + ", indexes = " + indexes);
+        System.out.println("req = " + getFieldsRequired(in.getIndexes())
+                            + ", indexes = " + in.getIndexes());
         
-        while ( ( line = in.readLine() ) != null )
+        try
         {
             
-            line = line.replaceAll("[0-9]{2}:[0-9]{2}:[0-9]{2},[0-9]{2}", "");
-            //line = line.replaceAll("\"[0-9]{2}:[0-9]{2}:[0-9]{2},[0-9]{2}\"", "");
-            
-            if ( line.contains(LINE_FILTER) == false )
-            {
-                Logger.getLogger(SensorLocator.class.getName())
-                        .log(   Level.FINE,
-                                "No {0} data, skipping line = {1}"
-                                    , new Object[]{LINE_FILTER, line}   );
-                continue;
-            }
-            
-            String[] fields = line.split(CSV_FIELD_SEPARATOR);
-            
-            if ( ( fields == null ) || ( fields.length == 0 ) )
+            while ( ( sdi = in.read() ) != null )
             {
-                Logger.getLogger(SensorLocator.class.getName())
-                        .log(Level.FINE, "Empty line! Skipping...");
-                continue;
+                lines.add(sdi);
+                if ( index != null )
+                    { index.add(sdi.getSensorId(), sdi.getTimestamp(),
+                                in.getLineOffset()); }
             }
             
-            if ( fields.length < fields_required )
-            {
-                Logger.getLogger(SensorLocator.class.getName())
-                        .log(   Level.FINE,
-                                "Wrong line, fields = {0} < required = {1}. "
-                                    + "Skipping, line = {2}"
-                                    , new Object[]
-                                        {fields.length, fields_required, line});
-                continue;
-            }
-
-            List<String> line_i = selectFields(fields, indexes);
+        }
+        finally
+            { in.close(); }
+        
+        if ( index != null ) { index.seal(inputFile); }
+        return(lines);
+        
+    }
+    
+    /**
+     * Parses a line of the input CSV file.
+     * 
+     * @param line The line to be parsed.
+     * @param indexes Indexes of the columns with the sensor information.
+     * @param fields_required Minimum number of fields of a valid line.
+     * @return The sensor data of the line, 'null' in case the line does not
+     *          contain valid sensor data.
+     * @throws IOException In case the data of the sensor cannot be decoded.
+     */
+    public static SensorData parseSensorData
+        (   final String line, final Map<String, Integer> indexes,
+            final int fields_required   )
+        throws IOException
+        { return(parseSensorData(line, indexes, fields_required, null)); }
+    
+    /**
+     * Parses a line of the input CSV file, skipping it in case the given
+     * deduplicator already saw its frame. The check is done over the raw
+     * fields, before the payload is decoded.
+     * 
+     * @param line The line to be parsed.
+     * @param indexes Indexes of the columns with the sensor information.
+     * @param fields_required Minimum number of fields of a valid line.
+     * @param dedup The deduplicator, 'null' for keeping all the frames.
+     * @return The sensor data of the line, 'null' in case the line does not
+     *          contain valid sensor data or its frame is a duplicate.
+     * @throws IOException In case the data of the sensor cannot be decoded.
+     */
+    public static SensorData parseSensorData
+        (   final String line, final Map<String, Integer> indexes,
+            final int fields_required, final FrameDeduplicator dedup   )
+        throws IOException
+    {
+        
+        String l = line.replaceAll("[0-9]{2}:[0-9]{2}:[0-9]{2},[0-9]{2}", "");
+        //line = line.replaceAll("\"[0-9]{2}:[0-9]{2}:[0-9]{2},[0-9]{2}\"", "");
+        
+        if ( l.contains(LINE_FILTER) == false )
+        {
+            Logger.getLogger(SensorLocator.class.getName())
+                    .log(   Level.FINE,
+                            "No {0} data, skipping line = {1}"
+                                , new Object[]{LINE_FILTER, l}  );
+            return(null);
+        }
+        
+        String[] fields = l.split(CSV_FIELD_SEPARATOR);
+        
+        if ( ( fields == null ) || ( fields.length == 0 ) )
+        {
+            Logger.getLogger(SensorLocator.class.getName())
+                    .log(Level.FINE, "Empty line! Skipping...");
+            return(null);
+        }
+        
+        if ( fields.length < fields_required )
+        {
+            Logger.getLogger(SensorLocator.class.getName())
+                    .log(   Level.FINE,
+                            "Wrong line, fields = {0} < required = {1}. "
+                                + "Skipping, line = {2}"
+                                , new Object[]
+                                    {fields.length, fields_required, l});
+            return(null);
+        }
 
+        List<String> line_i = selectFields(fields, indexes);
+        
+        if ( ( dedup != null ) && ( dedup.isDuplicate
+                    (line_i.get(1), line_i.get(0), line_i.get(3)) == true ) )
+        {
             Logger.getLogger(SensorLocator.class.getName())
-                    .log(   Level.INFO,
-                            "fields#{0} >>> (selected) = {1}\n"
-                                , new Object[]{fields.length, line_i}   );
-            
-            try
-            {
-                Logger.getLogger(SensorLocator.class.getName())
-                        .log(Level.FINE, "Parsing line = {0}", line_i);
-                SensorData sdi = new SensorData
-                                        (   line_i.get(0), line_i.get(1), 
-                                            line_i.get(2), line_i.get(3)    );
-                lines.add(sdi);   
-            }
-            catch(IllegalArgumentException ex)
-            {
-                Logger.getLogger(SensorLocator.class.getName())
-                        .log(Level.WARNING, "Wrong format, "
-                            + "skipping line = {0}", line_i);
-                Logger.getLogger(SensorLocator.class.getName())
-                        .log(Level.WARNING, ex.getMessage(), ex);
-                continue;
-            }
-            
+                    .log(Level.FINE, "Duplicated frame, skipping line = {0}"
+                                        , line_i);
+            return(null);
         }
+
+        Logger.getLogger(SensorLocator.class.getName())
+                .log(   Level.INFO,
+                        "fields#{0} >>> (selected) = {1}\n"
+                            , new Object[]{fields.length, line_i}   );
         
-        in.close();
-        return(lines);
+        try
+        {
+            Logger.getLogger(SensorLocator.class.getName())
+                    .log(Level.FINE, "Parsing line = {0}", line_i);
+            return(new SensorData(  line_i.get(0), line_i.get(1), 
+                                    line_i.get(2), line_i.get(3)    ));
+        }
+        catch(IllegalArgumentException ex)
+        {
+            Logger.getLogger(SensorLocator.class.getName())
+                    .log(Level.WARNING, "Wrong format, "
+                        + "skipping line = {0}", line_i);
+            Logger.getLogger(SensorLocator.class.getName())
+                    .log(Level.WARNING, ex.getMessage(), ex);
+            return(null);
+        }
         
     }
     
@@ -172,14 +260,32 @@ public class CSVHelper
     protected static String getLine
         (final String[] fields, final String separator, final int[] selection)
     {
+        return(appendLine(new StringBuilder(), fields, separator, selection)
+                    .toString());
+    }
+    
+    /**
+     * Appends to the given buffer the line formatted for a CSV file using the
+     * set of elements from among the "fields" array indicated by the elements
+     * of the selection array.
+     * 
+     * @param buffer The buffer where to append the line.
+     * @param fields All the fields from which to make the selection.
+     * @param separator CSV fields separator.
+     * @param selection List of fields to be selected.
+     * @return The same buffer, for chaining calls.
+     */
+    protected static StringBuilder appendLine
+        (   final StringBuilder buffer, final String[] fields,
+            final String separator, final int[] selection   )
+    {
     
-        String buffer = "";
         int s = selection.length;
         
         for ( int i = 0; i < s; i++ )
         {
-            buffer += fields[selection[i]];
-            if ( i < ( s - 1 ) ) { buffer += separator; }
+            buffer.append(fields[selection[i]]);
+            if ( i < ( s - 1 ) ) { buffer.append(separator); }
         }
         
         return(buffer);
@@ -0,0 +1,155 @@
+/**
+ * @file CSVLineReader.java
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ * @version 0.1
+ *
+ * @section LICENSE
+ *
+ * This file is part of SensorLocator.
+ * SensorLocator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SensorLocator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SensorLocator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.humsat.demo.gssw.sensorlocator.csv;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Line reader that keeps track of the byte offset of each line within the
+ * input stream, so that lines can be located again later. Lines are ended by
+ * '\n', '\r' or "\r\n", like for java.io.BufferedReader.
+ *
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ */
+public class CSVLineReader
+{
+
+    /** Size of the read buffer. */
+    public final static int BUFFER_SIZE = 64 * 1024;
+
+    /** Input stream. */
+    protected InputStream in = null;
+    /** Read buffer. */
+    protected byte[] buffer = new byte[BUFFER_SIZE];
+    /** Number of valid bytes of the read buffer. */
+    protected int length = 0;
+    /** Position of the next byte to be read from the read buffer. */
+    protected int position = 0;
+    /** Offset of the stream for the first byte of the read buffer. */
+    protected long bufferOffset = 0L;
+    /** Offset of the stream for the last line read. */
+    protected long lineOffset = -1L;
+    /** Bytes of the line being read. */
+    protected byte[] line = new byte[1024];
+
+    /**
+     * Main constructor.
+     *
+     * @param in The input stream to be read, it is read in blocks so it does
+     *              not need to be buffered.
+     */
+    public CSVLineReader(final InputStream in)
+    {
+        if ( in == null )
+            { throw(new NullPointerException("<in> is null.")); }
+        this.in = in;
+    }
+
+    /**
+     * Reads the next line.
+     *
+     * @return The line without the line terminator, 'null' in case the end of
+     *          the stream has been reached.
+     * @throws IOException In case any IO problem occurs.
+     */
+    public String readLine()
+        throws IOException
+    {
+
+        int n = 0;
+
+        if ( ( this.position >= this.length ) && ( this.fill() == false ) )
+            { return(null); }
+
+        this.lineOffset = this.bufferOffset + this.position;
+
+        while ( true )
+        {
+
+            if ( ( this.position >= this.length ) && ( this.fill() == false ) )
+                { break; }
+
+            byte b = this.buffer[this.position++];
+
+            if ( b == '\n' ) { break; }
+            if ( b == '\r' )
+            {
+                if ( ( ( this.position < this.length ) || this.fill() )
+                        && ( this.buffer[this.position] == '\n' ) )
+                    { this.position++; }
+                break;
+            }
+
+            if ( n == this.line.length )
+                { this.line = Arrays.copyOf(this.line, n * 2); }
+            this.line[n++] = b;
+
+        }
+
+        return(new String(this.line, 0, n));
+
+    }
+
+    /**
+     * Getter for the byte offset of the last line read.
+     *
+     * @return The offset, -1 in case no line has been read yet.
+     */
+    public long getLineOffset()
+        { return(this.lineOffset); }
+
+    /**
+     * Closes the input stream.
+     *
+     * @throws IOException In case any IO problem occurs.
+     */
+    public void close()
+        throws IOException
+        { this.in.close(); }
+
+    /**
+     * Fills the read buffer with the next block of the stream.
+     *
+     * @return 'false' in case the end of the stream has been reached.
+     */
+    private boolean fill()
+        throws IOException
+    {
+
+        int read = 0;
+        this.bufferOffset += this.length;
+        this.position = 0;
+        this.length = 0;
+
+        while ( read == 0 )
+            { read = this.in.read(this.buffer, 0, this.buffer.length); }
+
+        if ( read < 0 ) { return(false); }
+
+        this.length = read;
+        return(true);
+
+    }
+
+}
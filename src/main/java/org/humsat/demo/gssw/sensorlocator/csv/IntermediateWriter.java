@@ -0,0 +1,68 @@
+/**
+ * @file IntermediateWriter.java
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ * @version 0.1
+ *
+ * @section LICENSE
+ *
+ * This file is part of SensorLocator.
+ * SensorLocator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SensorLocator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SensorLocator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.humsat.demo.gssw.sensorlocator.csv;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import org.humsat.demo.gssw.sensorlocator.data.SensorData;
+import org.humsat.demo.gssw.sensorlocator.kml.KMLNode;
+import org.humsat.demo.gssw.sensorlocator.output.DataSink;
+
+/**
+ * Output sink that writes the sensor data as one record of the intermediate
+ * file (see RecordLog), so that the intermediate output can be streamed like
+ * any other format; the readings without a position are also written, so
+ * that all of them can be read back.
+ *
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ */
+public class IntermediateWriter
+    implements DataSink
+{
+
+    /** Writer of the log of the current document. */
+    protected RecordLogWriter out = null;
+
+    @Override
+    public void begin(OutputStream os)
+        throws IOException
+        { this.out = new RecordLogWriter(os); }
+
+    @Override
+    public void write(SensorData sd)
+        throws IOException
+        { this.out.write(sd); }
+
+    @Override
+    public void write(KMLNode node)
+        throws IOException
+        { this.out.write(node.getParent()); }
+
+    @Override
+    public void end()
+        throws IOException
+        { this.out.finish(); }
+
+    @Override
+    public void abort() {}
+
+}
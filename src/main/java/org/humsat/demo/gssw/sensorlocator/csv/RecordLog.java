@@ -0,0 +1,179 @@
+/**
+ * @file RecordLog.java
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ * @version 0.1
+ *
+ * @section LICENSE
+ *
+ * This file is part of SensorLocator.
+ * SensorLocator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SensorLocator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SensorLocator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.humsat.demo.gssw.sensorlocator.csv;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.humsat.demo.gssw.sensorlocator.data.DataField;
+import org.humsat.demo.gssw.sensorlocator.data.SensorData;
+
+/**
+ * Layout of the intermediate file: a binary, append-only log of the sensor
+ * data already decoded, so that it can be read back (see RecordLogReader)
+ * without the CSV input and without decoding the hexadecimal frames again.
+ *
+ *  header  MAGIC, records per block
+ *  record  timestamp, sensor id (fixed, 4 bytes each), payload length and
+ *          payload: data length, number of fields and, per field, its code,
+ *          its raw value and its decoded values (floats)
+ *  index   per block: offset of its first record, number of records and
+ *          minimum and maximum timestamps and sensor ids
+ *  footer  offset of the index, number of blocks, number of records and
+ *          FOOTER_MAGIC
+ *
+ * Integers are big-endian; lengths and counts within the payload are
+ * varints (7 bits per byte, least significant group first). The records are
+ * written as they come (see RecordLogWriter), the index and the footer once
+ * the log is finished, so the log can also be streamed.
+ *
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ */
+public class RecordLog
+{
+
+    /** Magic number of the header ("SLG2"). */
+    public final static int MAGIC = 0x534c4732;
+    /** Magic number of the footer ("SLGF"). */
+    public final static int FOOTER_MAGIC = 0x534c4746;
+    /** Size of the header, in bytes. */
+    public final static int HEADER_SIZE = 8;
+    /** Size of an entry of the index, in bytes. */
+    public final static int INDEX_ENTRY_SIZE = 28;
+    /** Size of the footer, in bytes. */
+    public final static int FOOTER_SIZE = 24;
+    /** Default number of records per block. */
+    public final static int DEFAULT_BLOCK_RECORDS = 1024;
+
+    /** Hidden constructor, only static methods. */
+    protected RecordLog() {}
+
+    /**
+     * Writes the given value as a varint.
+     *
+     * @param out The output.
+     * @param value The value (negative values take 5 bytes).
+     * @return Number of bytes written.
+     * @throws IOException In case the value cannot be written.
+     */
+    public static int writeVarint(final DataOutput out, final int value)
+        throws IOException
+    {
+        int v = value;
+        int n = 1;
+        while ( ( v & ~0x7f ) != 0 )
+        {
+            out.writeByte(( v & 0x7f ) | 0x80);
+            v >>>= 7;
+            n++;
+        }
+        out.writeByte(v);
+        return(n);
+    }
+
+    /**
+     * Reads a varint from the current position of the given buffer.
+     *
+     * @param in The buffer.
+     * @return The value.
+     */
+    public static int readVarint(final ByteBuffer in)
+    {
+        int value = 0;
+        for ( int shift = 0; shift < 32; shift += 7 )
+        {
+            byte b = in.get();
+            value |= ( b & 0x7f ) << shift;
+            if ( b >= 0 ) { return(value); }
+        }
+        throw(new IllegalStateException("Varint too long at position = "
+                                            + in.position()));
+    }
+
+    /**
+     * Writes the payload of the record of the given sensor data.
+     *
+     * @param out The output.
+     * @param sensor The sensor data.
+     * @throws IOException In case the payload cannot be written.
+     */
+    public static void writePayload
+            (final DataOutput out, final SensorData sensor)
+        throws IOException
+    {
+
+        List<DataField> fields = sensor.getDataFields();
+        writeVarint(out, sensor.getDataLength());
+        writeVarint(out, fields.size());
+
+        for ( DataField df_i : fields )
+        {
+            byte[] value = df_i.value.getBytes(StandardCharsets.UTF_8);
+            out.writeByte(df_i.type.charAt(0));
+            writeVarint(out, value.length);
+            out.write(value);
+            writeVarint(out, df_i.values.size());
+            for ( Map<String, Float> v_i : df_i.values )
+                { out.writeFloat(v_i.values().iterator().next()); }
+        }
+
+    }
+
+    /**
+     * Reads the payload of a record from the current position of the given
+     * buffer.
+     *
+     * @param in The buffer.
+     * @param timestamp Timestamp of the record.
+     * @param sensorId Sensor id of the record.
+     * @return The sensor data.
+     */
+    public static SensorData readPayload
+            (final ByteBuffer in, final int timestamp, final int sensorId)
+    {
+
+        int dataLen = readVarint(in);
+        int n = readVarint(in);
+        List<DataField> fields = new ArrayList<DataField>(n);
+
+        for ( int i = 0; i < n; i++ )
+        {
+            String type = String.valueOf((char) in.get());
+            byte[] value = new byte[readVarint(in)];
+            in.get(value);
+            float[] values = new float[readVarint(in)];
+            for ( int j = 0; j < values.length; j++ )
+                { values[j] = in.getFloat(); }
+            fields.add(DataField.createDataField
+                    (type, new String(value, StandardCharsets.UTF_8), values));
+        }
+
+        return(SensorData.createSensorData
+                                    (timestamp, sensorId, dataLen, fields));
+
+    }
+
+}
@@ -0,0 +1,287 @@
+/**
+ * @file RecordLogReader.java
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ * @version 0.1
+ *
+ * @section LICENSE
+ *
+ * This file is part of SensorLocator.
+ * SensorLocator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SensorLocator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SensorLocator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.humsat.demo.gssw.sensorlocator.csv;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import org.humsat.demo.gssw.sensorlocator.data.SensorData;
+
+/**
+ * Reader of the intermediate file (see RecordLog). The file is memory
+ * mapped and the sensor data is rebuilt from the decoded values, so neither
+ * the CSV input nor its hexadecimal frames are read again. The sparse index
+ * of the blocks allows reading only the blocks within a range of time and
+ * of sensor ids.
+ *
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ */
+public class RecordLogReader
+    implements SensorDataSource
+{
+
+    /** Channel of the log. */
+    protected FileChannel channel = null;
+    /** Mapped log. */
+    protected ByteBuffer buffer = null;
+    /** Offset of the index, that is, the end of the records. */
+    protected int indexOffset = 0;
+    /** Number of records of the log. */
+    protected long records = 0L;
+
+    /** Offsets of the first record of each block. */
+    protected int[] offsets = null;
+    /** Number of records of each block. */
+    protected int[] counts = null;
+    /** Minimum timestamp of each block. */
+    protected int[] minTimestamps = null;
+    /** Maximum timestamp of each block. */
+    protected int[] maxTimestamps = null;
+    /** Minimum sensor id of each block. */
+    protected int[] minSensors = null;
+    /** Maximum sensor id of each block. */
+    protected int[] maxSensors = null;
+
+    /** Block of the sequential reads, -1 before the first one. */
+    protected int block = -1;
+    /** Records of the current block not read yet. */
+    protected int remaining = 0;
+
+    /**
+     * Main constructor, it maps the given log and reads its index.
+     *
+     * @param file The intermediate file.
+     * @throws IOException In case the file cannot be mapped or it is not a
+     *                      complete log.
+     */
+    public RecordLogReader(final File file)
+        throws IOException
+    {
+
+        if ( file == null )
+            { throw(new NullPointerException("<file> is null.")); }
+
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+
+        try
+        {
+
+            long size = this.channel.size();
+            if ( size > Integer.MAX_VALUE )
+                { throw(new IOException("Log too large to be mapped, file = "
+                                            + file)); }
+            if ( size < RecordLog.HEADER_SIZE + RecordLog.FOOTER_SIZE )
+                { throw(new IOException("Not a complete log, file = "
+                                            + file)); }
+
+            MappedByteBuffer mapped = this.channel.map
+                                (FileChannel.MapMode.READ_ONLY, 0L, size);
+            this.buffer = mapped;
+
+            int footer = (int) size - RecordLog.FOOTER_SIZE;
+            int magic = mapped.getInt(footer + 20);
+            if ( ( mapped.getInt(0) != RecordLog.MAGIC )
+                    || ( magic != RecordLog.FOOTER_MAGIC ) )
+                { throw(new IOException("Not a complete log, file = "
+                                            + file)); }
+
+            this.indexOffset = (int) mapped.getLong(footer);
+            int blocks = mapped.getInt(footer + 8);
+            this.records = mapped.getLong(footer + 12);
+            if ( this.indexOffset + (long) blocks * RecordLog.INDEX_ENTRY_SIZE
+                    != footer )
+                { throw(new IOException("Corrupted index, file = " + file)); }
+
+            this.offsets = new int[blocks];
+            this.counts = new int[blocks];
+            this.minTimestamps = new int[blocks];
+            this.maxTimestamps = new int[blocks];
+            this.minSensors = new int[blocks];
+            this.maxSensors = new int[blocks];
+            for ( int b = 0; b < blocks; b++ )
+            {
+                int e = this.indexOffset + b * RecordLog.INDEX_ENTRY_SIZE;
+                this.offsets[b] = (int) mapped.getLong(e);
+                this.counts[b] = mapped.getInt(e + 8);
+                this.minTimestamps[b] = mapped.getInt(e + 12);
+                this.maxTimestamps[b] = mapped.getInt(e + 16);
+                this.minSensors[b] = mapped.getInt(e + 20);
+                this.maxSensors[b] = mapped.getInt(e + 24);
+            }
+
+        }
+        catch(IOException | RuntimeException ex)
+            { this.channel.close(); throw(ex); }
+
+    }
+
+    /**
+     * Reads the next record of the log.
+     *
+     * @return The sensor data, 'null' at the end of the log.
+     */
+    @Override
+    public SensorData read()
+    {
+        return(this.read(Integer.MIN_VALUE, Integer.MAX_VALUE,
+                            Integer.MIN_VALUE, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Reads the next record of the log within the given ranges of sensor ids
+     * and timestamps. The blocks out of the ranges are skipped, as well as
+     * the payload of the records out of them.
+     *
+     * @param minSensor Lower limit of the sensor ids (inclusive).
+     * @param maxSensor Upper limit of the sensor ids (inclusive).
+     * @param from Lower limit of the timestamps (inclusive).
+     * @param to Upper limit of the timestamps (inclusive).
+     * @return The sensor data, 'null' at the end of the log.
+     */
+    public SensorData read
+            (   final int minSensor, final int maxSensor,
+                final int from, final int to    )
+    {
+
+        while ( true )
+        {
+
+            if ( this.remaining == 0 )
+            {
+                if ( ++this.block >= this.offsets.length )
+                    { this.block = this.offsets.length; return(null); }
+                if ( this.isOutside(this.block, minSensor, maxSensor,
+                                        from, to) == true )
+                    { continue; }
+                this.buffer.position(this.offsets[this.block]);
+                this.remaining = this.counts[this.block];
+            }
+
+            this.remaining--;
+            int ts = this.buffer.getInt();
+            int id = this.buffer.getInt();
+            int length = RecordLog.readVarint(this.buffer);
+            if ( ( ts < from ) || ( ts > to )
+                    || ( id < minSensor ) || ( id > maxSensor ) )
+                { this.buffer.position(this.buffer.position() + length); }
+            else
+                { return(RecordLog.readPayload(this.buffer, ts, id)); }
+
+        }
+
+    }
+
+    /**
+     * Reads the records with timestamps within the given range, reading only
+     * the blocks that may contain them (records of other times within those
+     * blocks are skipped without decoding their payload).
+     *
+     * @param from Lower limit of the timestamps (inclusive).
+     * @param to Upper limit of the timestamps (inclusive).
+     * @return The sensor data, in the order of the log.
+     */
+    public List<SensorData> read(final int from, final int to)
+    {
+
+        List<SensorData> l = new ArrayList<SensorData>();
+        ByteBuffer in = this.buffer.duplicate();
+
+        for ( int b = 0; b < this.offsets.length; b++ )
+        {
+
+            if ( this.isOutside(b, Integer.MIN_VALUE, Integer.MAX_VALUE,
+                                    from, to) == true )
+                { continue; }
+
+            in.position(this.offsets[b]);
+            for ( int i = 0; i < this.counts[b]; i++ )
+            {
+                int ts = in.getInt();
+                int id = in.getInt();
+                int length = RecordLog.readVarint(in);
+                if ( ( ts < from ) || ( ts > to ) )
+                    { in.position(in.position() + length); }
+                else
+                    { l.add(RecordLog.readPayload(in, ts, id)); }
+            }
+
+        }
+
+        return(l);
+
+    }
+
+    /**
+     * Reads all the records of the log.
+     *
+     * @return The sensor data, in the order of the log.
+     */
+    public List<SensorData> readAll()
+        { return(this.read(Integer.MIN_VALUE, Integer.MAX_VALUE)); }
+
+    /**
+     * Checks whether the given block is out of the given ranges.
+     *
+     * @param b The block.
+     * @param minSensor Lower limit of the sensor ids (inclusive).
+     * @param maxSensor Upper limit of the sensor ids (inclusive).
+     * @param from Lower limit of the timestamps (inclusive).
+     * @param to Upper limit of the timestamps (inclusive).
+     * @return 'true' in case no record of the block is within the ranges.
+     */
+    protected boolean isOutside
+            (   final int b, final int minSensor, final int maxSensor,
+                final int from, final int to    )
+    {
+        return( ( this.maxTimestamps[b] < from )
+                    || ( this.minTimestamps[b] > to )
+                    || ( this.maxSensors[b] < minSensor )
+                    || ( this.minSensors[b] > maxSensor ) );
+    }
+
+    /**
+     * Getter for the number of records of the log.
+     *
+     * @return The number of records.
+     */
+    public long getRecords()
+        { return(this.records); }
+
+    /**
+     * Getter for the number of blocks of the log.
+     *
+     * @return The number of blocks.
+     */
+    public int getBlocks()
+        { return(this.offsets.length); }
+
+    @Override
+    public void close()
+        throws IOException
+        { this.channel.close(); }
+
+}
@@ -0,0 +1,238 @@
+/**
+ * @file RecordLogWriter.java
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ * @version 0.1
+ *
+ * @section LICENSE
+ *
+ * This file is part of SensorLocator.
+ * SensorLocator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SensorLocator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SensorLocator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.humsat.demo.gssw.sensorlocator.csv;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import org.humsat.demo.gssw.sensorlocator.data.SensorData;
+
+/**
+ * Writer of the intermediate file (see RecordLog). The records are appended
+ * as they are written; the sparse index of the blocks is kept in memory
+ * (one entry per block) and written, together with the footer, by finish().
+ *
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ */
+public class RecordLogWriter
+    implements Closeable
+{
+
+    /** Output of the log. */
+    protected DataOutputStream out = null;
+    /** Number of bytes written so far. */
+    protected long offset = 0L;
+    /** Number of records per block. */
+    protected int blockRecords = RecordLog.DEFAULT_BLOCK_RECORDS;
+
+    /** Offsets of the first record of each block. */
+    protected long[] offsets = new long[16];
+    /** Number of records of each block. */
+    protected int[] counts = new int[16];
+    /** Minimum timestamp of each block. */
+    protected int[] minTimestamps = new int[16];
+    /** Maximum timestamp of each block. */
+    protected int[] maxTimestamps = new int[16];
+    /** Minimum sensor id of each block. */
+    protected int[] minSensors = new int[16];
+    /** Maximum sensor id of each block. */
+    protected int[] maxSensors = new int[16];
+    /** Number of blocks, including the current one if not empty. */
+    protected int blocks = 0;
+    /** Number of records. */
+    protected long records = 0L;
+    /** Flag that indicates whether the index and footer were written. */
+    protected boolean finished = false;
+    /** Flag that indicates whether a write failed, the log is incomplete. */
+    protected boolean failed = false;
+
+    /** Buffer for the payload of the records. */
+    protected ByteArrayOutputStream payload = new ByteArrayOutputStream(256);
+    /** Output for the payload of the records. */
+    protected DataOutputStream payloadOut = new DataOutputStream(this.payload);
+
+    /**
+     * Main constructor, it writes the header.
+     *
+     * @param os Output stream of the log (it should be buffered).
+     * @param blockRecords Number of records per block.
+     * @throws IOException In case the header cannot be written.
+     */
+    public RecordLogWriter(final OutputStream os, final int blockRecords)
+        throws IOException
+    {
+
+        if ( os == null )
+            { throw(new NullPointerException("<os> is null.")); }
+        if ( blockRecords <= 0 )
+            { throw(new IllegalArgumentException("<blockRecords> must be > 0,"
+                                            + " value = " + blockRecords)); }
+
+        this.out = new DataOutputStream(os);
+        this.blockRecords = blockRecords;
+
+        this.out.writeInt(RecordLog.MAGIC);
+        this.out.writeInt(blockRecords);
+        this.offset = RecordLog.HEADER_SIZE;
+
+    }
+
+    /**
+     * Constructor with DEFAULT_BLOCK_RECORDS records per block.
+     *
+     * @param os Output stream of the log (it should be buffered).
+     * @throws IOException In case the header cannot be written.
+     */
+    public RecordLogWriter(final OutputStream os)
+        throws IOException
+        { this(os, RecordLog.DEFAULT_BLOCK_RECORDS); }
+
+    /**
+     * Appends the record of the given sensor data.
+     *
+     * @param sensor The sensor data.
+     * @throws IOException In case the record cannot be written.
+     */
+    public void write(final SensorData sensor)
+        throws IOException
+    {
+
+        if ( this.finished == true )
+            { throw(new IllegalStateException("Log already finished.")); }
+
+        // A record may be half written; the log must not be finished then.
+        this.failed = true;
+
+        int ts = sensor.getTimestamp();
+        int id = sensor.getSensorId();
+        int b = this.blocks - 1;
+
+        if ( ( b < 0 ) || ( this.counts[b] == this.blockRecords ) )
+        {
+            b = this.blocks++;
+            if ( b == this.offsets.length )
+            {
+                this.offsets = Arrays.copyOf(this.offsets, b * 2);
+                this.counts = Arrays.copyOf(this.counts, b * 2);
+                this.minTimestamps = Arrays.copyOf(this.minTimestamps, b * 2);
+                this.maxTimestamps = Arrays.copyOf(this.maxTimestamps, b * 2);
+                this.minSensors = Arrays.copyOf(this.minSensors, b * 2);
+                this.maxSensors = Arrays.copyOf(this.maxSensors, b * 2);
+            }
+            this.offsets[b] = this.offset;
+            this.counts[b] = 0;
+            this.minTimestamps[b] = this.maxTimestamps[b] = ts;
+            this.minSensors[b] = this.maxSensors[b] = id;
+        }
+
+        this.payload.reset();
+        RecordLog.writePayload(this.payloadOut, sensor);
+
+        this.out.writeInt(ts);
+        this.out.writeInt(id);
+        this.offset += 8 + RecordLog.writeVarint(this.out, this.payload.size());
+        this.payload.writeTo(this.out);
+        this.offset += this.payload.size();
+
+        this.counts[b]++;
+        this.minTimestamps[b] = Math.min(this.minTimestamps[b], ts);
+        this.maxTimestamps[b] = Math.max(this.maxTimestamps[b], ts);
+        this.minSensors[b] = Math.min(this.minSensors[b], id);
+        this.maxSensors[b] = Math.max(this.maxSensors[b], id);
+        this.records++;
+        this.failed = false;
+
+    }
+
+    /**
+     * Writes the index and the footer and flushes the output, which is not
+     * closed. No more records can be written afterwards.
+     *
+     * @throws IOException In case the index cannot be written.
+     */
+    public void finish()
+        throws IOException
+    {
+
+        if ( this.finished == true ) { return; }
+        this.finished = true;
+
+        for ( int b = 0; b < this.blocks; b++ )
+        {
+            this.out.writeLong(this.offsets[b]);
+            this.out.writeInt(this.counts[b]);
+            this.out.writeInt(this.minTimestamps[b]);
+            this.out.writeInt(this.maxTimestamps[b]);
+            this.out.writeInt(this.minSensors[b]);
+            this.out.writeInt(this.maxSensors[b]);
+        }
+
+        this.out.writeLong(this.offset);
+        this.out.writeInt(this.blocks);
+        this.out.writeLong(this.records);
+        this.out.writeInt(RecordLog.FOOTER_MAGIC);
+        this.out.flush();
+
+    }
+
+    /**
+     * Finishes the log and closes the output. In case a write failed, the
+     * log is not finished (see abort()).
+     *
+     * @throws IOException In case the log cannot be finished.
+     */
+    @Override
+    public void close()
+        throws IOException
+    {
+        if ( this.failed == true ) { this.abort(); return; }
+        try
+            { this.finish(); }
+        finally
+            { this.out.close(); }
+    }
+
+    /**
+     * Closes the output without writing the index and the footer, so that
+     * the readers reject the incomplete log.
+     *
+     * @throws IOException In case the output cannot be closed.
+     */
+    public void abort()
+        throws IOException
+    {
+        this.finished = true;
+        this.out.close();
+    }
+
+    /**
+     * Getter for the number of records written.
+     *
+     * @return The number of records.
+     */
+    public long getRecords()
+        { return(this.records); }
+
+}
@@ -0,0 +1,197 @@
+/**
+ * @file SensorDataMerger.java
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ * @version 0.1
+ *
+ * @section LICENSE
+ *
+ * This file is part of SensorLocator.
+ * SensorLocator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SensorLocator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SensorLocator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.humsat.demo.gssw.sensorlocator.csv;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import org.humsat.demo.gssw.sensorlocator.data.SensorData;
+import org.humsat.demo.gssw.sensorlocator.dedup.FrameDeduplicator;
+
+/**
+ * K-way merge of several input CSV files (for instance, one per ground
+ * station) into a single stream of sensor data ordered by HUMPL timestamp.
+ * Each input is expected to be ordered by timestamp already; only one
+ * lookahead record per input is kept in memory, within a heap ordered by
+ * timestamp. Records with the same timestamp are given in the order of the
+ * inputs. The records of an input are never reordered: in case an input is
+ * locally out of order, its records are given in the order they are read,
+ * so the merged stream is out of order as well.
+ *
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ */
+public class SensorDataMerger
+    implements SensorDataSource
+{
+
+    /**
+     * Lookahead record of an input.
+     */
+    protected static class Head
+        implements Comparable<Head>
+    {
+
+        /** Reader of the input. */
+        protected SensorDataReader reader = null;
+        /** Position of the input within the list of inputs. */
+        protected int order = 0;
+        /** Next record of the input. */
+        protected SensorData next = null;
+
+        @Override
+        public int compareTo(final Head o)
+        {
+            int a = this.next.getTimestamp();
+            int b = o.next.getTimestamp();
+            if ( a != b ) { return( ( a < b ) ? -1 : 1 ); }
+            return( ( this.order < o.order ) ? -1 :
+                        ( this.order > o.order ) ? 1 : 0 );
+        }
+
+    }
+
+    /** Readers of all the inputs. */
+    protected List<SensorDataReader> readers
+            = new ArrayList<SensorDataReader>();
+    /** Heap with the lookahead records of the inputs not exhausted yet. */
+    protected PriorityQueue<Head> heap = null;
+    /** Number of records merged. */
+    protected long merged = 0L;
+
+    /**
+     * Main constructor, it opens all the inputs and reads their first
+     * records. In case any of them fails, the inputs already opened are
+     * closed.
+     *
+     * @param inputs The input CSV files.
+     * @param dedup The deduplicator shared by all the inputs, 'null' for
+     *              keeping all the frames.
+     * @throws IOException In case any input cannot be opened or read.
+     */
+    public SensorDataMerger
+            (final List<File> inputs, final FrameDeduplicator dedup)
+        throws IOException
+    {
+
+        if ( inputs == null )
+            { throw(new NullPointerException("<inputs> is null.")); }
+        if ( inputs.isEmpty() == true )
+            { throw(new IllegalArgumentException("<inputs> is empty.")); }
+
+        this.heap = new PriorityQueue<Head>(inputs.size());
+
+        try
+        {
+            for ( int i = 0; i < inputs.size(); i++ )
+            {
+                Head h = new Head();
+                h.reader = new SensorDataReader(inputs.get(i), dedup);
+                h.order = i;
+                this.readers.add(h.reader);
+                h.next = h.reader.read();
+                if ( h.next != null ) { this.heap.add(h); }
+            }
+        }
+        catch(IOException | RuntimeException ex)
+        {
+            this.close();
+            throw(ex);
+        }
+
+    }
+
+    /**
+     * Reads the next record of the merged stream.
+     *
+     * @return The sensor data with the lowest timestamp among the lookahead
+     *          records of the inputs, 'null' once all of them are exhausted.
+     * @throws IOException In case any input cannot be read.
+     */
+    @Override
+    public SensorData read()
+        throws IOException
+    {
+
+        Head h = this.heap.poll();
+        if ( h == null ) { return(null); }
+
+        SensorData sd = h.next;
+        h.next = h.reader.read();
+        if ( h.next != null ) { this.heap.add(h); }
+
+        this.merged++;
+        return(sd);
+
+    }
+
+    /**
+     * Reads all the remaining records of the merged stream.
+     *
+     * @return List with the sensor data, in merge order.
+     * @throws IOException In case any input cannot be read.
+     */
+    public List<SensorData> readAll()
+        throws IOException
+    {
+        List<SensorData> l = new ArrayList<SensorData>();
+        SensorData sd = null;
+        while ( ( sd = this.read() ) != null ) { l.add(sd); }
+        return(l);
+    }
+
+    /**
+     * Getter for the number of records merged.
+     *
+     * @return Number of records.
+     */
+    public long getMerged()
+        { return(this.merged); }
+
+    /**
+     * Closes all the inputs.
+     *
+     * @throws IOException In case any input cannot be closed.
+     */
+    @Override
+    public void close()
+        throws IOException
+    {
+
+        IOException error = null;
+
+        for ( SensorDataReader r_i : this.readers )
+        {
+            try
+                { r_i.close(); }
+            catch(IOException ex)
+                { error = ex; }
+        }
+
+        this.readers.clear();
+        this.heap.clear();
+        if ( error != null ) { throw(error); }
+
+    }
+
+}
@@ -0,0 +1,196 @@
+/**
+ * @file SensorDataReader.java
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ * @version 0.1
+ *
+ * @section LICENSE
+ *
+ * This file is part of SensorLocator.
+ * SensorLocator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SensorLocator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SensorLocator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.humsat.demo.gssw.sensorlocator.csv;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Map;
+import org.humsat.demo.gssw.sensorlocator.data.SensorData;
+import org.humsat.demo.gssw.sensorlocator.dedup.FrameDeduplicator;
+
+/**
+ * Reader of the sensor data of an input CSV file, one record at a time, so
+ * that the records can be processed without keeping the whole file in
+ * memory.
+ *
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ */
+public class SensorDataReader
+    implements SensorDataSource
+{
+
+    /** The input CSV file. */
+    protected File input = null;
+    /** Line reader of the input file. */
+    protected CSVLineReader in = null;
+    /** Indexes of the columns with the sensor information. */
+    protected Map<String, Integer> indexes = null;
+    /** Minimum number of fields of a valid line. */
+    protected int fieldsRequired = 0;
+    /** Deduplicator, 'null' for keeping all the frames. */
+    protected FrameDeduplicator dedup = null;
+
+    /**
+     * Main constructor, it reads the headers of the input file.
+     *
+     * @param input The input CSV file.
+     * @param dedup The deduplicator, 'null' for keeping all the frames.
+     * @throws FileNotFoundException In case the input file does not exist.
+     * @throws IOException In case the headers cannot be read.
+     */
+    public SensorDataReader(final File input, final FrameDeduplicator dedup)
+        throws FileNotFoundException, IOException
+    {
+
+        if ( input == null )
+            { throw(new NullPointerException("<input> is null.")); }
+
+        this.input = input;
+        this.dedup = dedup;
+        this.indexes = CSVHelper.readSensorDataIndexes(input);
+        this.fieldsRequired = CSVHelper.getFieldsRequired(this.indexes);
+        this.in = new CSVLineReader(new FileInputStream(input));
+
+    }
+
+    /**
+     * Constructor for reading an input stream (for example, an upload), whose
+     * first line must be the headers of the CSV file.
+     *
+     * @param in The input stream, it is read in blocks so it does not need to
+     *              be buffered.
+     * @param dedup The deduplicator, 'null' for keeping all the frames.
+     * @throws IOException In case the headers cannot be read.
+     * @throws IllegalArgumentException In case the stream is empty or the
+     *                                  headers have no sensor columns.
+     */
+    public SensorDataReader(final InputStream in, final FrameDeduplicator dedup)
+        throws IOException
+    {
+
+        if ( in == null )
+            { throw(new NullPointerException("<in> is null.")); }
+
+        this.dedup = dedup;
+        this.in = new CSVLineReader(in);
+
+        String headers = this.in.readLine();
+        if ( ( headers == null ) || ( headers.length() == 0 ) )
+            { throw(new IllegalArgumentException("<in> is empty.")); }
+
+        this.indexes = CSVHelper.getSensorDataIndexes(Arrays.asList
+                            (headers.split(CSVHelper.CSV_FIELD_SEPARATOR)));
+        if ( this.indexes.get(CSVHelper.SENSOR_ID_CN) < 0 )
+            { throw(new IllegalArgumentException("No column = "
+                                                + CSVHelper.SENSOR_ID_CN
+                                                + ", headers = " + headers)); }
+        this.fieldsRequired = CSVHelper.getFieldsRequired(this.indexes);
+
+    }
+
+    /**
+     * Reads the next record with valid sensor data, skipping the lines
+     * without it.
+     *
+     * @return The sensor data, 'null' in case the end of the file has been
+     *          reached.
+     * @throws IOException In case any IO problem occurs.
+     */
+    @Override
+    public SensorData read()
+        throws IOException
+    {
+
+        String line = null;
+
+        while ( ( line = this.in.readLine() ) != null )
+        {
+            SensorData sd = this.parse(line);
+            if ( sd != null ) { return(sd); }
+        }
+
+        return(null);
+
+    }
+
+    /**
+     * Reads the next raw line, so that it can be parsed later on (for
+     * example, in another thread) through parse().
+     *
+     * @return The line, 'null' in case the end of the file has been reached.
+     * @throws IOException In case any IO problem occurs.
+     */
+    public String readLine()
+        throws IOException
+        { return(this.in.readLine()); }
+
+    /**
+     * Parses and decodes a line read through readLine(). The lines must be
+     * parsed in the order they were read (the deduplicator is not thread
+     * safe).
+     *
+     * @param line The line.
+     * @return The sensor data, 'null' in case the line has no valid sensor
+     *          data.
+     * @throws IOException In case the data of the sensor cannot be decoded.
+     */
+    public SensorData parse(final String line)
+        throws IOException
+    {
+        return(CSVHelper.parseSensorData
+                    (line, this.indexes, this.fieldsRequired, this.dedup));
+    }
+
+    /**
+     * Getter for the byte offset of the last record read.
+     *
+     * @return The offset, -1 in case no record has been read yet.
+     */
+    public long getLineOffset()
+        { return(this.in.getLineOffset()); }
+
+    /**
+     * Getter for the indexes of the columns with the sensor information.
+     *
+     * @return The indexes.
+     */
+    public Map<String, Integer> getIndexes()
+        { return(this.indexes); }
+
+    /**
+     * Getter for the input file.
+     *
+     * @return The input file, 'null' in case an input stream is read.
+     */
+    public File getInput()
+        { return(this.input); }
+
+    @Override
+    public void close()
+        throws IOException
+        { this.in.close(); }
+
+}
@@ -0,0 +1,49 @@
+/**
+ * @file SensorDataSource.java
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ * @version 0.1
+ *
+ * @section LICENSE
+ *
+ * This file is part of SensorLocator.
+ * SensorLocator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SensorLocator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SensorLocator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.humsat.demo.gssw.sensorlocator.csv;
+
+import java.io.Closeable;
+import java.io.IOException;
+import org.humsat.demo.gssw.sensorlocator.data.SensorData;
+
+/**
+ * Interface implemented by all the sources of sensor data that are read one
+ * record at a time (a single input, a merge of several inputs or an external
+ * sort), so that the records can be processed without keeping all of them
+ * in memory.
+ *
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ */
+public interface SensorDataSource
+    extends Closeable
+{
+
+    /**
+     * Reads the next record.
+     *
+     * @return The sensor data, 'null' once all the records have been read.
+     * @throws IOException In case any IO problem occurs.
+     */
+    public SensorData read()
+        throws IOException;
+
+}
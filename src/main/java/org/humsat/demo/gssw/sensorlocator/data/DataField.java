@@ -54,10 +54,32 @@ public class DataField
     
     @Override
     public String toString()
+        { return(this.appendTo(new StringBuilder()).toString()); }
+    
+    /**
+     * Appends the text representation of this data field to the given buffer,
+     * without creating any intermediate string.
+     * 
+     * @param buffer The buffer where to append this data field.
+     * @return The same buffer, for chaining calls.
+     */
+    public StringBuilder appendTo(final StringBuilder buffer)
+        { return(this.appendTo(buffer, DecimalFormatter.DEFAULT)); }
+    
+    /**
+     * Appends the text representation of this data field to the given buffer,
+     * formatting the values with the given formatter.
+     * 
+     * @param buffer The buffer where to append this data field.
+     * @param formatter The formatter for the values.
+     * @return The same buffer, for chaining calls.
+     */
+    public StringBuilder appendTo
+            (final StringBuilder buffer, final DecimalFormatter formatter)
     {
         
-        String buffer = NAMES_PER_CODE.get(this.type);
-        buffer += " = ";
+        buffer.append(NAMES_PER_CODE.get(this.type));
+        buffer.append(" = ");
         
         for ( int i = 0; i < this.values.size(); i++ )
         {
@@ -69,13 +91,12 @@ public class DataField
             while ( it_s_i.hasNext() == true )
             {
                 Entry<String, Float> e_i = it_s_i.next();
-                String k_i = e_i.getKey();
-                Float v_i = e_i.getValue();
-                buffer += "" + v_i + " (" + k_i + ")";
+                formatter.appendValue(buffer, e_i.getValue().floatValue())
+                        .append(" (").append(e_i.getKey()).append(')');
             }
             
             if ( i != ( this.values.size() - 1 ) )
-                { buffer += ", "; }
+                { buffer.append(", "); }
             
         }
         
@@ -109,6 +130,32 @@ public class DataField
         
     }
     
+    /**
+     * Static factory method that creates a data field from its values
+     * already decoded (e.g., read back from the intermediate file), without
+     * parsing the raw value again.
+     * 
+     * @param type The type of data field.
+     * @param value The raw value, as read from the data input file.
+     * @param values The values, in the order of VALUES_PER_CODE.
+     * @return An initialized data field object.
+     */
+    public static DataField createDataField
+            (final String type, final String value, final float[] values)
+    {
+        
+        List<Float> f_list = new ArrayList<Float>(values.length);
+        for ( float v_i : values ) { f_list.add(v_i); }
+        
+        DataField df = new DataField();
+        df.type = type;
+        df.value = value;
+        df.values = decodeFieldsList(type, f_list);
+        
+        return(df);
+        
+    }
+    
     /** Separator of the data fields to be found. */
     public final static String DATA_FIELD_SEPARATOR = ",";
     
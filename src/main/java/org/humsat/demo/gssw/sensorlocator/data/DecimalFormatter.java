@@ -0,0 +1,175 @@
+/**
+ * @file DecimalFormatter.java
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ * @version 0.1
+ *
+ * @section LICENSE
+ *
+ * This file is part of SensorLocator.
+ * SensorLocator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SensorLocator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SensorLocator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.humsat.demo.gssw.sensorlocator.data;
+
+/**
+ * Formatter that writes coordinates and measured values with a fixed number
+ * of decimals. Digits are written directly into the given buffers, so no
+ * objects are allocated while formatting.
+ *
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ */
+public class DecimalFormatter
+{
+
+    /** Number of decimals that selects the shortest representation. */
+    public final static int SHORTEST = -1;
+    /** Maximum number of decimals supported. */
+    public final static int MAX_DECIMALS = 9;
+
+    /** Formatter that keeps the shortest representation of all values. */
+    public final static DecimalFormatter DEFAULT
+            = new DecimalFormatter(SHORTEST, SHORTEST);
+
+    /** Powers of 10, up to 10^MAX_DECIMALS. */
+    protected final static long[] POWERS_OF_10 =
+    {
+        1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L,
+        100000000L, 1000000000L
+    };
+
+    /** Biggest scaled value that can be handled without overflow. */
+    protected final static double MAX_SCALED = 1e17;
+
+    /** Number of decimals for coordinates. */
+    protected int coordinateDecimals = SHORTEST;
+    /** Number of decimals for measured values. */
+    protected int valueDecimals = SHORTEST;
+
+    /**
+     * Main constructor.
+     *
+     * @param coordinateDecimals Number of decimals for coordinates, SHORTEST
+     *                              for the shortest representation.
+     * @param valueDecimals Number of decimals for measured values, SHORTEST
+     *                              for the shortest representation.
+     */
+    public DecimalFormatter
+            (final int coordinateDecimals, final int valueDecimals)
+    {
+        this.coordinateDecimals = checkDecimals(coordinateDecimals);
+        this.valueDecimals = checkDecimals(valueDecimals);
+    }
+
+    /**
+     * Getter for the number of decimals for coordinates.
+     *
+     * @return Number of decimals.
+     */
+    public int getCoordinateDecimals()
+        { return(this.coordinateDecimals); }
+
+    /**
+     * Getter for the number of decimals for measured values.
+     *
+     * @return Number of decimals.
+     */
+    public int getValueDecimals()
+        { return(this.valueDecimals); }
+
+    /**
+     * Appends the given coordinate to the buffer.
+     *
+     * @param buffer The buffer where to append the coordinate.
+     * @param value The coordinate.
+     * @return The same buffer, for chaining calls.
+     */
+    public StringBuilder appendCoordinate
+            (final StringBuilder buffer, final float value)
+        { return(append(buffer, value, this.coordinateDecimals)); }
+
+    /**
+     * Appends the given measured value to the buffer.
+     *
+     * @param buffer The buffer where to append the value.
+     * @param value The measured value.
+     * @return The same buffer, for chaining calls.
+     */
+    public StringBuilder appendValue
+            (final StringBuilder buffer, final float value)
+        { return(append(buffer, value, this.valueDecimals)); }
+
+    @Override
+    public String toString()
+    {
+        return("coordinates = " + this.coordinateDecimals
+                    + ", values = " + this.valueDecimals);
+    }
+
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>> static
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
+
+    /**
+     * Checks that the given number of decimals is supported.
+     *
+     * @param decimals The number of decimals.
+     * @return The same number of decimals.
+     * @throws IllegalArgumentException In case it is not supported.
+     */
+    public static int checkDecimals(final int decimals)
+    {
+        if ( ( decimals < SHORTEST ) || ( decimals > MAX_DECIMALS ) )
+            { throw(new IllegalArgumentException("<decimals> = " + decimals
+                    + ", value not permitted. Must be between " + SHORTEST
+                    + " and " + MAX_DECIMALS + ".")); }
+        return(decimals);
+    }
+
+    /**
+     * Appends the given value to the buffer with a fixed number of decimals,
+     * rounding half up. NaN, infinite and too big values, as well as a
+     * SHORTEST number of decimals, fall back to the shortest representation.
+     *
+     * @param buffer The buffer where to append the value.
+     * @param value The value to be appended.
+     * @param decimals Number of decimals.
+     * @return The same buffer, for chaining calls.
+     */
+    public static StringBuilder append
+            (final StringBuilder buffer, final float value, final int decimals)
+    {
+
+        if ( decimals == SHORTEST ) { return(buffer.append(value)); }
+
+        long pow = POWERS_OF_10[decimals];
+        double scaled = Math.abs((double) value) * pow;
+
+        if ( ( scaled != scaled ) || ( scaled > MAX_SCALED ) )
+            { return(buffer.append(value)); }
+
+        long rounded = (long) ( scaled + 0.5 );
+        if ( ( rounded != 0 ) && ( value < 0 ) ) { buffer.append('-'); }
+
+        buffer.append(rounded / pow);
+        if ( decimals == 0 ) { return(buffer); }
+
+        buffer.append('.');
+        long fraction = rounded % pow;
+        for ( long p = pow / 10; p > 0; p /= 10 )
+            { buffer.append((char) ( '0' + ( fraction / p ) % 10 )); }
+
+        return(buffer);
+
+    }
+
+}
@@ -136,6 +136,14 @@ public class SensorData
     public List<DataField> getDataFields()
         { return(this.data); }
     
+    /**
+     * Getter for the length of the raw data obtained from the sensor.
+     * 
+     * @return Length of the raw data.
+     */
+    public int getDataLength()
+        { return(this.dataLen); }
+    
     /**
      * Getter for the sensorID property.
      * 
@@ -154,19 +162,59 @@ public class SensorData
     
     @Override
     public String toString()
+        { return(this.appendTo(new StringBuilder()).toString()); }
+    
+    /**
+     * Appends the text representation of this object to the given buffer,
+     * without creating any intermediate string.
+     * 
+     * @param buffer The buffer where to append this object.
+     * @return The same buffer, for chaining calls.
+     */
+    public StringBuilder appendTo(final StringBuilder buffer)
     {
-        String buffer = "";
-        buffer = this.timestamp + CSVHelper.CSV_FIELD_SEPARATOR
-                    + this.sensorId + CSVHelper.CSV_FIELD_SEPARATOR
-                    + this.dataLen + CSVHelper.CSV_FIELD_SEPARATOR
-                    + this.data;
+        
+        buffer.append(this.timestamp).append(CSVHelper.CSV_FIELD_SEPARATOR)
+                .append(this.sensorId).append(CSVHelper.CSV_FIELD_SEPARATOR)
+                .append(this.dataLen).append(CSVHelper.CSV_FIELD_SEPARATOR);
+        
+        if ( this.data == null ) { return(buffer.append("null")); }
+        
+        buffer.append('[');
+        for ( int i = 0; i < this.data.size(); i++ )
+        {
+            if ( i > 0 ) { buffer.append(", "); }
+            this.data.get(i).appendTo(buffer);
+        }
+        buffer.append(']');
+        
         return(buffer);
+        
     }
     
     // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
     // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>> factory
     // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
     
+    /**
+     * Static factory method that creates a sensor data object with the given
+     * data fields, already decoded.
+     * 
+     * @param timestamp Timestamp for this data.
+     * @param sensorId Identifier of the sensor.
+     * @param dataLen Length of the raw data obtained.
+     * @param data Data fields.
+     * @return The sensor data object.
+     */
+    public static SensorData createSensorData
+            (   final int timestamp, final int sensorId, final int dataLen,
+                final List<DataField> data  )
+    {
+        SensorData sd = new SensorData();
+        sd.initialize(timestamp, sensorId, dataLen, data);
+        return(sd);
+    }
+    
     /** Separator for the data fields. */
     public final static String DATA_FIELDS_SEPARATOR = ";";
     
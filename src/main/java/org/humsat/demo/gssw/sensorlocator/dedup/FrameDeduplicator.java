@@ -0,0 +1,345 @@
+/**
+ * @file FrameDeduplicator.java
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ * @version 0.1
+ *
+ * @section LICENSE
+ *
+ * This file is part of SensorLocator.
+ * SensorLocator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SensorLocator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SensorLocator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.humsat.demo.gssw.sensorlocator.dedup;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.humsat.demo.gssw.sensorlocator.SensorLocator;
+import org.humsat.demo.gssw.sensorlocator.util.BloomFilter;
+import org.humsat.demo.gssw.sensorlocator.util.LongHashSet;
+
+/**
+ * Detects the frames that were already seen, for instance because several
+ * ground stations received them during overlapping passes. Each frame is
+ * identified by a 64-bit hash of its sensor id, its HUMPL time and its raw
+ * payload, computed before the payload is decoded.
+ * 
+ * The hashes are kept in a primitive hash set. Once the set reaches its
+ * memory limit, its hashes are written to disk as a sorted run, added to a
+ * Bloom filter and the set is cleared. A hash that is not in memory is only
+ * looked up in the runs (binary search) when the Bloom filter reports that
+ * it might have been spilled, so the result is always exact.
+ *
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ */
+public class FrameDeduplicator
+    implements Closeable
+{
+
+    /** Default maximum number of hashes kept in memory. */
+    public final static int DEFAULT_MEMORY_LIMIT = 1 << 20;
+    /** Expected number of spilled hashes, per hash kept in memory. */
+    public final static int SPILL_FACTOR = 16;
+    /** Prefix of the files of the runs. */
+    public final static String RUN_PREFIX = "dedup-";
+    /** Suffix of the files of the runs. */
+    public final static String RUN_SUFFIX = ".run";
+
+    /** Hashes not spilled yet. */
+    protected LongHashSet recent = null;
+    /** Maximum number of hashes kept in memory. */
+    protected int memoryLimit = DEFAULT_MEMORY_LIMIT;
+    /** Directory for the runs, 'null' for the temporary directory. */
+    protected File directory = null;
+    /** Filter of the spilled hashes, 'null' until the first spill. */
+    protected BloomFilter spilled = null;
+    /** Files of the runs. */
+    protected List<File> runFiles = new ArrayList<File>();
+    /** Open runs, sorted arrays of hashes. */
+    protected List<RandomAccessFile> runs = new ArrayList<RandomAccessFile>();
+
+    /** Number of frames checked. */
+    protected long frames = 0L;
+    /** Number of duplicated frames. */
+    protected long duplicates = 0L;
+    /** Number of lookups in the runs. */
+    protected long diskLookups = 0L;
+
+    /** Default constructor, it keeps up to DEFAULT_MEMORY_LIMIT hashes. */
+    public FrameDeduplicator()
+        { this(DEFAULT_MEMORY_LIMIT, null); }
+
+    /**
+     * Main constructor.
+     * 
+     * @param memoryLimit Maximum number of hashes kept in memory.
+     * @param directory Directory for the runs, 'null' for the temporary
+     *                  directory of the system.
+     */
+    public FrameDeduplicator(final int memoryLimit, final File directory)
+    {
+
+        if ( memoryLimit <= 0 )
+            { throw(new IllegalArgumentException("<memoryLimit> = "
+                    + memoryLimit + ", value not permitted. Must be bigger "
+                    + "than 0.")); }
+
+        this.memoryLimit = memoryLimit;
+        this.directory = directory;
+        this.recent = new LongHashSet(Math.min(memoryLimit,
+                                        LongHashSet.DEFAULT_CAPACITY * 1024));
+
+    }
+
+    /**
+     * Checks whether the frame with the given hash was already seen,
+     * registering it otherwise.
+     * 
+     * @param hash The hash of the frame (see hash()).
+     * @return 'true' in case it is a duplicate.
+     * @throws IOException In case the runs cannot be read or written.
+     */
+    public boolean isDuplicate(final long hash)
+        throws IOException
+    {
+
+        this.frames++;
+
+        if ( ( this.recent.contains(hash) == true )
+                || ( ( this.spilled != null )
+                    && ( this.spilled.mightContain(hash) == true )
+                    && ( this.findSpilled(hash) == true ) ) )
+        {
+            this.duplicates++;
+            return(true);
+        }
+
+        this.recent.add(hash);
+        if ( this.recent.size() >= this.memoryLimit ) { this.spill(); }
+        return(false);
+
+    }
+
+    /**
+     * Checks whether the given frame was already seen, registering it
+     * otherwise.
+     * 
+     * @param sensorId Identifier of the sensor, as read.
+     * @param time HUMPL time of the frame, as read.
+     * @param payload Raw payload of the frame, as read.
+     * @return 'true' in case it is a duplicate.
+     * @throws IOException In case the runs cannot be read or written.
+     */
+    public boolean isDuplicate
+            (final String sensorId, final String time, final String payload)
+        throws IOException
+        { return(this.isDuplicate(hash(sensorId, time, payload))); }
+
+    /**
+     * Getter for the number of frames checked.
+     * 
+     * @return Number of frames.
+     */
+    public long getFrames()
+        { return(this.frames); }
+
+    /**
+     * Getter for the number of duplicated frames.
+     * 
+     * @return Number of duplicates.
+     */
+    public long getDuplicates()
+        { return(this.duplicates); }
+
+    /**
+     * Getter for the number of runs written to disk.
+     * 
+     * @return Number of runs.
+     */
+    public int getRuns()
+        { return(this.runs.size()); }
+
+    /**
+     * Getter for the number of lookups in the runs.
+     * 
+     * @return Number of lookups.
+     */
+    public long getDiskLookups()
+        { return(this.diskLookups); }
+
+    /**
+     * Closes and deletes the runs.
+     * 
+     * @throws IOException In case any run cannot be closed.
+     */
+    @Override
+    public void close()
+        throws IOException
+    {
+
+        for ( RandomAccessFile r_i : this.runs ) { r_i.close(); }
+        for ( File f_i : this.runFiles )
+        {
+            if ( f_i.delete() == false )
+                { Logger.getLogger(SensorLocator.class.getName())
+                        .log(Level.WARNING, "Could not delete run = {0}",
+                                f_i); }
+        }
+
+        this.runs.clear();
+        this.runFiles.clear();
+
+    }
+
+    @Override
+    public String toString()
+    {
+        return("frames = " + this.frames + ", duplicates = " + this.duplicates
+                + ", runs = " + this.runs.size() + ", disk lookups = "
+                + this.diskLookups);
+    }
+
+    /**
+     * Writes the hashes kept in memory to a new sorted run and adds them to
+     * the Bloom filter.
+     */
+    private void spill()
+        throws IOException
+    {
+
+        if ( this.spilled == null )
+            { this.spilled = new BloomFilter
+                        ( (long) this.memoryLimit * SPILL_FACTOR,
+                          BloomFilter.DEFAULT_FALSE_POSITIVE_RATE   ); }
+
+        long[] hashes = this.recent.toArray(true);
+        File f = File.createTempFile(RUN_PREFIX, RUN_SUFFIX, this.directory);
+        this.runFiles.add(f);
+
+        DataOutputStream out = new DataOutputStream
+                (new BufferedOutputStream(new FileOutputStream(f)));
+        try
+        {
+            for ( long h_i : hashes )
+            {
+                out.writeLong(h_i);
+                this.spilled.put(h_i);
+            }
+        }
+        finally
+            { out.close(); }
+
+        this.runs.add(new RandomAccessFile(f, "r"));
+        this.recent.clear();
+
+        Logger.getLogger(SensorLocator.class.getName())
+                .log(Level.FINE, "Spilled {0} hashes to {1}",
+                        new Object[] { hashes.length, f });
+
+    }
+
+    /**
+     * Looks up the given hash in the runs.
+     */
+    private boolean findSpilled(final long hash)
+        throws IOException
+    {
+
+        this.diskLookups++;
+
+        for ( RandomAccessFile r_i : this.runs )
+        {
+
+            long lo = 0L;
+            long hi = r_i.length() / 8 - 1;
+
+            while ( lo <= hi )
+            {
+                long mid = ( lo + hi ) >>> 1;
+                r_i.seek(mid * 8);
+                long h = r_i.readLong();
+                if ( h < hash ) { lo = mid + 1; }
+                else if ( h > hash ) { hi = mid - 1; }
+                else { return(true); }
+            }
+
+        }
+
+        return(false);
+
+    }
+
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>> hash
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
+
+    /** Offset basis of the 64-bit FNV-1a hash. */
+    private final static long FNV_OFFSET = 0xcbf29ce484222325L;
+    /** Prime of the 64-bit FNV-1a hash. */
+    private final static long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * Computes the 64-bit hash of a frame: FNV-1a over the given fields
+     * followed by the finalizer of MurmurHash3. Spaces, quotes and the ':'
+     * separators of the payload are ignored, and the hexadecimal digits are
+     * not case sensitive, so the same frame written by different ground
+     * stations gets the same hash.
+     * 
+     * @param sensorId Identifier of the sensor, as read.
+     * @param time HUMPL time of the frame, as read.
+     * @param payload Raw payload of the frame, as read.
+     * @return The hash.
+     */
+    public static long hash
+            (final String sensorId, final String time, final String payload)
+    {
+
+        long h = FNV_OFFSET;
+        h = append(h, sensorId);
+        h = ( h ^ '|' ) * FNV_PRIME;
+        h = append(h, time);
+        h = ( h ^ '|' ) * FNV_PRIME;
+        h = append(h, payload);
+
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return(h);
+
+    }
+
+    /**
+     * Appends the significant characters of the given field to the hash.
+     */
+    private static long append(long h, final String field)
+    {
+        for ( int i = 0; i < field.length(); i++ )
+        {
+            char c = field.charAt(i);
+            if ( ( c == ' ' ) || ( c == '"' ) || ( c == ':' ) ) { continue; }
+            h = ( h ^ Character.toUpperCase(c) ) * FNV_PRIME;
+        }
+        return(h);
+    }
+
+}
@@ -0,0 +1,469 @@
+/**
+ * @file Geofence.java
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ * @version 0.1
+ *
+ * @section LICENSE
+ *
+ * This file is part of SensorLocator.
+ * SensorLocator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SensorLocator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SensorLocator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.humsat.demo.gssw.sensorlocator.geofence;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32C;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.humsat.demo.gssw.sensorlocator.SensorLocator;
+import org.humsat.demo.gssw.sensorlocator.data.DataField;
+import org.humsat.demo.gssw.sensorlocator.data.DataFieldConstants;
+import org.humsat.demo.gssw.sensorlocator.data.SensorData;
+import org.humsat.demo.gssw.sensorlocator.kml.KMLNode;
+
+/**
+ * Geofence made of a set of polygons. A point passes the geofence in case it
+ * is inside of any of the polygons.
+ * 
+ * A uniform grid over the bounding box of all the polygons is precomputed,
+ * classifying each cell as inside (of some polygon), outside (of all the
+ * polygons) or boundary. Exact point-in-polygon tests are only run for the
+ * points that fall in boundary cells, and only against the polygons whose
+ * edges cross that cell; therefore, the cost of testing a point does not
+ * depend on the number of polygons.
+ *
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ */
+public class Geofence
+    implements DataFieldConstants
+{
+
+    /** Cell not touched by any polygon. */
+    public final static byte OUTSIDE = 0;
+    /** Cell crossed by the edges of some polygon. */
+    public final static byte BOUNDARY = 1;
+    /** Cell completely inside of some polygon. */
+    public final static byte INSIDE = 2;
+
+    /** Number of grid cells per polygon edge. */
+    public final static int CELLS_PER_EDGE = 4;
+    /** Minimum number of grid cells. */
+    public final static int MIN_CELLS = 64 * 64;
+    /** Maximum number of grid cells. */
+    public final static int MAX_CELLS = 1024 * 1024;
+
+    /** Polygons of the geofence. */
+    protected List<Polygon> polygons = null;
+
+    /** Bounding box of the grid. */
+    protected double minLon = 0.0;
+    /** Bounding box of the grid. */
+    protected double minLat = 0.0;
+    /** Bounding box of the grid. */
+    protected double maxLon = 0.0;
+    /** Bounding box of the grid. */
+    protected double maxLat = 0.0;
+    /** Number of columns (longitude) of the grid. */
+    protected int columns = 0;
+    /** Number of rows (latitude) of the grid. */
+    protected int rows = 0;
+    /** Width of a cell, in degrees. */
+    protected double cellWidth = 0.0;
+    /** Height of a cell, in degrees. */
+    protected double cellHeight = 0.0;
+
+    /** State of each cell, row major. */
+    protected byte[] cells = null;
+    /** Polygons to be tested for each boundary cell, row major. */
+    protected int[][] candidates = null;
+
+    /**
+     * Main constructor, it precomputes the grid for the given polygons.
+     *
+     * @param polygons The polygons of the geofence.
+     */
+    public Geofence(final List<Polygon> polygons)
+    {
+
+        if ( polygons == null )
+            { throw(new NullPointerException("<polygons> is null.")); }
+
+        this.polygons = new ArrayList<Polygon>(polygons);
+        if ( this.polygons.isEmpty() == true ) { return; }
+
+        int edges = 0;
+        this.minLon = this.minLat = Double.POSITIVE_INFINITY;
+        this.maxLon = this.maxLat = Double.NEGATIVE_INFINITY;
+
+        for ( Polygon p_i : this.polygons )
+        {
+            edges += p_i.getEdges();
+            this.minLon = Math.min(this.minLon, p_i.minLon);
+            this.minLat = Math.min(this.minLat, p_i.minLat);
+            this.maxLon = Math.max(this.maxLon, p_i.maxLon);
+            this.maxLat = Math.max(this.maxLat, p_i.maxLat);
+        }
+
+        long wanted = (long) edges * CELLS_PER_EDGE;
+        int n_cells = (int) Math.max(MIN_CELLS, Math.min(MAX_CELLS, wanted));
+        double width = Math.max(this.maxLon - this.minLon, 1e-9);
+        double height = Math.max(this.maxLat - this.minLat, 1e-9);
+
+        this.columns = (int) Math.max(1, Math.min(n_cells, Math.round
+                                    (Math.sqrt(n_cells * width / height))));
+        this.rows = Math.max(1, n_cells / this.columns);
+        this.cellWidth = width / this.columns;
+        this.cellHeight = height / this.rows;
+
+        this.cells = new byte[this.columns * this.rows];
+        this.candidates = new int[this.cells.length][];
+
+        for ( int p = 0; p < this.polygons.size(); p++ )
+            { this.addPolygon(p); }
+
+    }
+
+    /**
+     * Checksum of the vertexes of all the polygons, which identifies this
+     * geofence (see Pipeline.getKey()).
+     *
+     * @return The checksum.
+     */
+    public long getChecksum()
+    {
+
+        CRC32C crc = new CRC32C();
+
+        for ( Polygon p_i : this.polygons )
+        {
+            for ( int r = 0; r < p_i.lons.size(); r++ )
+            {
+                float[] lons = p_i.lons.get(r);
+                float[] lats = p_i.lats.get(r);
+                ByteBuffer b = ByteBuffer.allocate(lons.length * 8 + 4);
+                for ( int v = 0; v < lons.length; v++ )
+                    { b.putFloat(lons[v]).putFloat(lats[v]); }
+                b.putInt(lons.length).flip();
+                crc.update(b);
+            }
+        }
+
+        return(( (long) this.polygons.size() << 32 ) | crc.getValue());
+
+    }
+
+    /**
+     * Getter for the number of polygons of this geofence.
+     *
+     * @return Number of polygons.
+     */
+    public int getPolygons()
+        { return(this.polygons.size()); }
+
+    /**
+     * Counts the cells of the grid that are in the given state.
+     *
+     * @param state The state of the cells (OUTSIDE, BOUNDARY or INSIDE).
+     * @return Number of cells.
+     */
+    public int countCells(final byte state)
+    {
+        int count = 0;
+        if ( this.cells == null ) { return(count); }
+        for ( byte c_i : this.cells ) { if ( c_i == state ) { count++; } }
+        return(count);
+    }
+
+    /**
+     * Checks whether the given point is inside of any of the polygons.
+     *
+     * @param lat Latitude of the point, in degrees.
+     * @param lon Longitude of the point, in degrees.
+     * @return 'true' in case the point is inside of the geofence.
+     */
+    public boolean contains(final double lat, final double lon)
+    {
+
+        if ( ( this.cells == null )
+                || ( lat < this.minLat ) || ( lat > this.maxLat )
+                || ( lon < this.minLon ) || ( lon > this.maxLon ) )
+            { return(false); }
+
+        int cell = this.row(lat) * this.columns + this.column(lon);
+
+        if ( this.cells[cell] == INSIDE ) { return(true); }
+        if ( this.cells[cell] == OUTSIDE ) { return(false); }
+
+        for ( int p_i : this.candidates[cell] )
+        {
+            if ( p_i < 0 ) { break; }
+            if ( this.polygons.get(p_i).contains(lat, lon) == true )
+                { return(true); }
+        }
+
+        return(false);
+
+    }
+
+    /**
+     * Keeps only the sensor data objects whose position is inside of this
+     * geofence. Sensor data without a position field are kept, so that they
+     * are reported by the following stages.
+     *
+     * @param sensors The list of sensor data objects to be filtered.
+     * @return The sensor data inside of the geofence, in the original order.
+     */
+    public List<SensorData> filter(final List<SensorData> sensors)
+    {
+
+        List<SensorData> l = new ArrayList<SensorData>(sensors.size());
+
+        for ( SensorData sd_i : sensors )
+        {
+
+            DataField position = null;
+
+            try
+                { position = KMLNode.getPosition(sd_i); }
+            catch(IllegalArgumentException ex)
+                { l.add(sd_i); continue; }
+
+            float lat = position.values.get(LATITUDE_POSITION_INDEX)
+                                        .get(POSITION_VALUE_UNITS);
+            float lon = position.values.get(LONGITUDE_POSITION_INDEX)
+                                        .get(POSITION_VALUE_UNITS);
+
+            if ( this.contains(lat, lon) == true ) { l.add(sd_i); }
+
+        }
+
+        Logger.getLogger(SensorLocator.class.getName())
+                .log(Level.INFO, "Geofence kept {0} out of {1} readings."
+                                    , new Object[] { l.size(), sensors.size() });
+
+        return(l);
+
+    }
+
+    @Override
+    public String toString()
+    {
+        return("polygons = " + this.polygons.size() + ", grid = "
+                    + this.columns + "x" + this.rows + ", boundary cells = "
+                    + this.countCells(BOUNDARY) + ", inside cells = "
+                    + this.countCells(INSIDE));
+    }
+
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>> build
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
+
+    /**
+     * Classifies the cells covered by the bounding box of the given polygon
+     * and merges the result into the grid.
+     *
+     * @param index Index of the polygon.
+     */
+    private void addPolygon(final int index)
+    {
+
+        Polygon polygon = this.polygons.get(index);
+
+        int c0 = this.column(polygon.minLon);
+        int c1 = this.column(polygon.maxLon);
+        int r0 = this.row(polygon.minLat);
+        int r1 = this.row(polygon.maxLat);
+        int width = c1 - c0 + 1;
+        byte[] local = new byte[width * ( r1 - r0 + 1 )];
+
+        for ( int r = 0; r < polygon.getRings(); r++ )
+        {
+            float[] xs = polygon.lons.get(r);
+            float[] ys = polygon.lats.get(r);
+            for ( int i = 0, j = xs.length - 1; i < xs.length; j = i++ )
+            {
+                this.markEdge(xs[j], ys[j], xs[i], ys[i],
+                                local, c0, r0, width);
+            }
+        }
+
+        // Cells between two boundary cells of the same row are not crossed by
+        // any edge, so the test of the center of the first one is valid for
+        // all of them.
+        for ( int row = r0; row <= r1; row++ )
+        {
+
+            byte state = OUTSIDE;
+            boolean run = false;
+
+            for ( int col = c0; col <= c1; col++ )
+            {
+
+                int l_i = ( row - r0 ) * width + ( col - c0 );
+
+                if ( local[l_i] == BOUNDARY ) { run = false; continue; }
+
+                if ( run == false )
+                {
+                    state = polygon.contains
+                                (   this.minLat + ( row + 0.5 ) * this.cellHeight,
+                                    this.minLon + ( col + 0.5 ) * this.cellWidth
+                                ) ? INSIDE : OUTSIDE;
+                    run = true;
+                }
+
+                local[l_i] = state;
+
+            }
+
+        }
+
+        for ( int row = r0; row <= r1; row++ )
+        {
+            for ( int col = c0; col <= c1; col++ )
+            {
+
+                int cell = row * this.columns + col;
+                byte state = local[( row - r0 ) * width + ( col - c0 )];
+
+                if ( ( state == OUTSIDE ) || ( this.cells[cell] == INSIDE ) )
+                    { continue; }
+
+                if ( state == INSIDE )
+                {
+                    this.cells[cell] = INSIDE;
+                    this.candidates[cell] = null;
+                    continue;
+                }
+
+                this.cells[cell] = BOUNDARY;
+                this.addCandidate(cell, index);
+
+            }
+        }
+
+    }
+
+    /**
+     * Adds a polygon to the list of candidates of a cell. Unused positions of
+     * the list are set to -1.
+     */
+    private void addCandidate(final int cell, final int polygon)
+    {
+
+        int[] list = this.candidates[cell];
+
+        if ( list == null )
+            { list = new int[] { polygon, -1 }; }
+        else
+        {
+            int n = 0;
+            while ( ( n < list.length ) && ( list[n] >= 0 ) ) { n++; }
+            if ( n == list.length )
+            {
+                list = Arrays.copyOf(list, list.length * 2);
+                Arrays.fill(list, n, list.length, -1);
+            }
+            list[n] = polygon;
+        }
+
+        this.candidates[cell] = list;
+
+    }
+
+    /**
+     * Marks as BOUNDARY all the cells of the local grid crossed by the given
+     * edge. The edge is walked row by row, computing the range of columns
+     * that it covers within each row.
+     */
+    private void markEdge
+            (   final double x0, final double y0,
+                final double x1, final double y1,
+                final byte[] local, final int c0, final int r0,
+                final int width )
+    {
+
+        int row_a = this.row(Math.min(y0, y1));
+        int row_b = this.row(Math.max(y0, y1));
+
+        for ( int row = row_a; row <= row_b; row++ )
+        {
+
+            double x_a = x0;
+            double x_b = x1;
+
+            if ( y0 != y1 )
+            {
+                double y_lo = Math.max(Math.min(y0, y1),
+                                        this.minLat + row * this.cellHeight);
+                double y_hi = Math.min(Math.max(y0, y1),
+                                        this.minLat + ( row + 1 )
+                                                        * this.cellHeight);
+                double slope = ( x1 - x0 ) / ( y1 - y0 );
+                x_a = x0 + ( y_lo - y0 ) * slope;
+                x_b = x0 + ( y_hi - y0 ) * slope;
+            }
+
+            int col_a = Math.max(c0, this.column(Math.min(x_a, x_b)));
+            int col_b = Math.min(c0 + width - 1,
+                                    this.column(Math.max(x_a, x_b)));
+
+            for ( int col = col_a; col <= col_b; col++ )
+                { local[( row - r0 ) * width + ( col - c0 )] = BOUNDARY; }
+
+        }
+
+    }
+
+    /**
+     * Column of the grid for the given longitude, clamped to the grid.
+     */
+    private int column(final double lon)
+    {
+        int col = (int) ( ( lon - this.minLon ) / this.cellWidth );
+        return(Math.max(0, Math.min(this.columns - 1, col)));
+    }
+
+    /**
+     * Row of the grid for the given latitude, clamped to the grid.
+     */
+    private int row(final double lat)
+    {
+        int row = (int) ( ( lat - this.minLat ) / this.cellHeight );
+        return(Math.max(0, Math.min(this.rows - 1, row)));
+    }
+
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>> factory
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
+
+    /**
+     * Factory method that creates a geofence with the polygons of the given
+     * WKT file.
+     *
+     * @param input The WKT file with the polygons.
+     * @return The geofence.
+     * @throws FileNotFoundException In case the given file does not exist.
+     * @throws IOException In case any IO problem occurs.
+     */
+    public static Geofence createGeofence(final File input)
+        throws FileNotFoundException, IOException
+        { return(new Geofence(WKTReader.readPolygons(input))); }
+
+}
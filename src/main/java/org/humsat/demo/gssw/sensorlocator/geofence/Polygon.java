@@ -0,0 +1,148 @@
+/**
+ * @file Polygon.java
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ * @version 0.1
+ *
+ * @section LICENSE
+ *
+ * This file is part of SensorLocator.
+ * SensorLocator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SensorLocator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SensorLocator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.humsat.demo.gssw.sensorlocator.geofence;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Polygon with an arbitrary number of rings. The even-odd rule is applied
+ * over all the rings, so that holes and the parts of a multipolygon are
+ * supported without distinguishing between outer and inner rings.
+ * Coordinates are kept as (longitude, latitude) pairs in primitive arrays.
+ *
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ */
+public class Polygon
+{
+
+    /** Longitudes of the vertexes of each ring. */
+    protected List<float[]> lons = new ArrayList<float[]>();
+    /** Latitudes of the vertexes of each ring. */
+    protected List<float[]> lats = new ArrayList<float[]>();
+
+    /** Bounding box of the polygon. */
+    protected float minLon = Float.POSITIVE_INFINITY;
+    /** Bounding box of the polygon. */
+    protected float minLat = Float.POSITIVE_INFINITY;
+    /** Bounding box of the polygon. */
+    protected float maxLon = Float.NEGATIVE_INFINITY;
+    /** Bounding box of the polygon. */
+    protected float maxLat = Float.NEGATIVE_INFINITY;
+
+    /**
+     * Adds a ring to this polygon. The ring does not need to be closed; i.e.,
+     * the last vertex is always joined with the first one.
+     *
+     * @param lons Longitudes of the vertexes.
+     * @param lats Latitudes of the vertexes.
+     */
+    public void addRing(final float[] lons, final float[] lats)
+    {
+
+        if ( lons.length != lats.length )
+            { throw(new IllegalArgumentException("<lons> and <lats> "
+                                                    + "lengths differ.")); }
+        if ( lons.length < 3 )
+            { throw(new IllegalArgumentException("<lons> has less than 3 "
+                                                    + "vertexes.")); }
+
+        this.lons.add(lons);
+        this.lats.add(lats);
+
+        for ( int i = 0; i < lons.length; i++ )
+        {
+            this.minLon = Math.min(this.minLon, lons[i]);
+            this.maxLon = Math.max(this.maxLon, lons[i]);
+            this.minLat = Math.min(this.minLat, lats[i]);
+            this.maxLat = Math.max(this.maxLat, lats[i]);
+        }
+
+    }
+
+    /**
+     * Getter for the number of rings of this polygon.
+     *
+     * @return Number of rings.
+     */
+    public int getRings()
+        { return(this.lons.size()); }
+
+    /**
+     * Getter for the number of edges of this polygon.
+     *
+     * @return Number of edges, all rings together.
+     */
+    public int getEdges()
+    {
+        int edges = 0;
+        for ( float[] r_i : this.lons ) { edges += r_i.length; }
+        return(edges);
+    }
+
+    /**
+     * Exact point-in-polygon test (even-odd rule, ray casting).
+     *
+     * @param lat Latitude of the point, in degrees.
+     * @param lon Longitude of the point, in degrees.
+     * @return 'true' in case the point is inside of this polygon.
+     */
+    public boolean contains(final double lat, final double lon)
+    {
+
+        if ( ( lat < this.minLat ) || ( lat > this.maxLat )
+                || ( lon < this.minLon ) || ( lon > this.maxLon ) )
+            { return(false); }
+
+        boolean inside = false;
+
+        for ( int r = 0; r < this.lons.size(); r++ )
+        {
+
+            float[] xs = this.lons.get(r);
+            float[] ys = this.lats.get(r);
+
+            for ( int i = 0, j = xs.length - 1; i < xs.length; j = i++ )
+            {
+                if ( ( ys[i] > lat ) != ( ys[j] > lat ) )
+                {
+                    double x = xs[i] + ( lat - ys[i] ) * ( xs[j] - xs[i] )
+                                            / ( ys[j] - ys[i] );
+                    if ( lon < x ) { inside = !inside; }
+                }
+            }
+
+        }
+
+        return(inside);
+
+    }
+
+    @Override
+    public String toString()
+    {
+        return("rings = " + this.getRings() + ", edges = " + this.getEdges()
+                    + ", box = [" + this.minLat + ", " + this.minLon + ", "
+                    + this.maxLat + ", " + this.maxLon + "]");
+    }
+
+}
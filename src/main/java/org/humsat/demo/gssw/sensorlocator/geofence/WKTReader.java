@@ -0,0 +1,205 @@
+/**
+ * @file WKTReader.java
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ * @version 0.1
+ *
+ * @section LICENSE
+ *
+ * This file is part of SensorLocator.
+ * SensorLocator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SensorLocator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SensorLocator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.humsat.demo.gssw.sensorlocator.geofence;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reader for files with one WKT POLYGON or MULTIPOLYGON per line. Empty lines
+ * and lines starting with '#' are ignored. Coordinates are given as
+ * "longitude latitude" pairs, as WKT mandates.
+ *
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ */
+public class WKTReader
+{
+
+    /** Prefix of the comment lines. */
+    public final static String COMMENT_PREFIX = "#";
+    /** WKT polygon geometry. */
+    public final static String POLYGON_WKT = "POLYGON";
+    /** WKT multipolygon geometry. */
+    public final static String MULTIPOLYGON_WKT = "MULTIPOLYGON";
+
+    /**
+     * Reads all the polygons of the given file.
+     *
+     * @param input The file to be read.
+     * @return List with the polygons read.
+     * @throws FileNotFoundException In case the given file does not exist.
+     * @throws IOException In case any IO problem occurs.
+     * @throws IllegalArgumentException In case any line is not valid WKT.
+     */
+    public static List<Polygon> readPolygons(final File input)
+        throws FileNotFoundException, IOException
+    {
+
+        if ( input == null )
+            { throw(new NullPointerException("<input> is null.")); }
+
+        List<Polygon> polygons = new ArrayList<Polygon>();
+        BufferedReader in = new BufferedReader(new FileReader(input));
+
+        try
+        {
+
+            String line = null;
+            int line_no = 0;
+
+            while ( ( line = in.readLine() ) != null )
+            {
+
+                line_no++;
+                line = line.trim();
+                if ( ( line.isEmpty() == true )
+                        || ( line.startsWith(COMMENT_PREFIX) == true ) )
+                    { continue; }
+
+                try
+                    { polygons.add(parsePolygon(line)); }
+                catch(IllegalArgumentException ex)
+                {
+                    throw(new IllegalArgumentException(input.getName() + ":"
+                                        + line_no + ", " + ex.getMessage()));
+                }
+
+            }
+
+        }
+        finally
+            { in.close(); }
+
+        return(polygons);
+
+    }
+
+    /**
+     * Parses a WKT POLYGON or MULTIPOLYGON. All the rings of a MULTIPOLYGON
+     * are put together within a single polygon.
+     *
+     * @param wkt The WKT text.
+     * @return The polygon.
+     * @throws IllegalArgumentException In case the text is not valid.
+     */
+    public static Polygon parsePolygon(final String wkt)
+    {
+
+        String text = wkt.trim();
+        String upper = text.toUpperCase();
+        int start = -1;
+
+        if ( upper.startsWith(MULTIPOLYGON_WKT) == true )
+            { start = MULTIPOLYGON_WKT.length(); }
+        else if ( upper.startsWith(POLYGON_WKT) == true )
+            { start = POLYGON_WKT.length(); }
+        else
+            { throw(new IllegalArgumentException("<wkt> is not a POLYGON "
+                                                    + "or a MULTIPOLYGON.")); }
+
+        Polygon polygon = new Polygon();
+        List<Float> lons = new ArrayList<Float>();
+        List<Float> lats = new ArrayList<Float>();
+        int depth = 0;
+        int ring_start = -1;
+
+        for ( int i = start; i < text.length(); i++ )
+        {
+
+            char c = text.charAt(i);
+
+            if ( c == '(' )
+                { depth++; ring_start = i + 1; }
+            else if ( c == ')' )
+            {
+                if ( depth == 0 )
+                    { throw(new IllegalArgumentException("<wkt> has "
+                                            + "unbalanced parentheses.")); }
+                if ( ring_start >= 0 )
+                {
+                    parseRing(text.substring(ring_start, i), lons, lats);
+                    polygon.addRing(toArray(lons), toArray(lats));
+                    lons.clear();
+                    lats.clear();
+                    ring_start = -1;
+                }
+                depth--;
+            }
+
+        }
+
+        if ( depth != 0 )
+            { throw(new IllegalArgumentException("<wkt> has unbalanced "
+                                                    + "parentheses.")); }
+        if ( polygon.getRings() == 0 )
+            { throw(new IllegalArgumentException("<wkt> has no rings.")); }
+
+        return(polygon);
+
+    }
+
+    /**
+     * Parses the comma separated "longitude latitude" pairs of a ring.
+     */
+    private static void parseRing
+            (final String ring, final List<Float> lons, final List<Float> lats)
+    {
+
+        for ( String p_i : ring.split(",") )
+        {
+
+            String[] xy = p_i.trim().split("\\s+");
+            if ( xy.length < 2 )
+                { throw(new IllegalArgumentException("<wkt> has an invalid "
+                                                + "point, point = " + p_i)); }
+
+            try
+            {
+                lons.add(Float.parseFloat(xy[0]));
+                lats.add(Float.parseFloat(xy[1]));
+            }
+            catch(NumberFormatException ex)
+            {
+                throw(new IllegalArgumentException("<wkt> has an invalid "
+                                                + "point, point = " + p_i));
+            }
+
+        }
+
+    }
+
+    /**
+     * Transforms a list of Float objects into a primitive array.
+     */
+    private static float[] toArray(final List<Float> list)
+    {
+        float[] array = new float[list.size()];
+        for ( int i = 0; i < array.length; i++ ) { array[i] = list.get(i); }
+        return(array);
+    }
+
+}
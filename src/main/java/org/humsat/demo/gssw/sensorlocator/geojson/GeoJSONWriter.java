@@ -0,0 +1,242 @@
+/**
+ * @file GeoJSONWriter.java
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ * @version 0.1
+ *
+ * @section LICENSE
+ *
+ * This file is part of SensorLocator.
+ * SensorLocator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SensorLocator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SensorLocator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.humsat.demo.gssw.sensorlocator.geojson;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.Map.Entry;
+import org.humsat.demo.gssw.sensorlocator.data.DataField;
+import org.humsat.demo.gssw.sensorlocator.data.DataFieldConstants;
+import org.humsat.demo.gssw.sensorlocator.data.DecimalFormatter;
+import org.humsat.demo.gssw.sensorlocator.kml.KMLNode;
+import org.humsat.demo.gssw.sensorlocator.output.OutputSink;
+
+/**
+ * Streaming writer that generates a GeoJSON FeatureCollection whose input are
+ * KMLNodes. Each node is written as soon as it is received, so the document is
+ * never kept in memory.
+ *
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ */
+public class GeoJSONWriter
+    implements OutputSink, DataFieldConstants
+{
+
+    /** Charset for the GeoJSON documents (RFC 7946 mandates UTF-8). */
+    public final static Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Writer for the current document. */
+    protected Writer out = null;
+    /** Number of features written to the current document. */
+    protected int features = 0;
+    /** Formatter for the coordinates and the values of the features. */
+    protected DecimalFormatter formatter = DecimalFormatter.DEFAULT;
+    /** Buffer where numbers are formatted before being written. */
+    protected StringBuilder number = new StringBuilder(32);
+    /** Characters of the last formatted number. */
+    protected char[] chars = new char[32];
+
+    /** Default constructor. */
+    public GeoJSONWriter() {}
+
+    /**
+     * Constructor that configures the formatter for the coordinates and the
+     * values of the features.
+     *
+     * @param formatter The formatter to be used.
+     */
+    public GeoJSONWriter(final DecimalFormatter formatter)
+        { this.formatter = formatter; }
+
+    @Override
+    public void begin(OutputStream os)
+        throws IOException
+    {
+        this.out = new BufferedWriter(new OutputStreamWriter(os, UTF_8));
+        this.features = 0;
+        this.out.write("{\"type\":\"FeatureCollection\",\"features\":[\n");
+    }
+
+    @Override
+    public void write(KMLNode node)
+        throws IOException
+    {
+        if ( this.features > 0 ) { this.out.write(",\n"); }
+        this.writeFeature(node);
+        this.features++;
+    }
+
+    @Override
+    public void end()
+        throws IOException
+    {
+        this.out.write("\n]}\n");
+        this.out.flush();
+    }
+
+    @Override
+    public void abort() {}
+
+    /**
+     * Getter for the number of features written to the current document.
+     *
+     * @return Number of features.
+     */
+    public int getFeatures()
+        { return(this.features); }
+
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>> feature
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
+
+    /**
+     * Writes the given KML node as a GeoJSON Feature object. The values of the
+     * data fields are written as numeric properties named after the data field
+     * and its units; e.g.: "Temperature (centigrades)": -5.0.
+     *
+     * @param node The KML node to be written.
+     * @throws IOException In case an IO error occurs.
+     */
+    protected void writeFeature(final KMLNode node)
+        throws IOException
+    {
+
+        Writer w = this.out;
+
+        w.write("{\"type\":\"Feature\",\"id\":");
+        writeString(w, node.getId());
+
+        w.write(",\"geometry\":{\"type\":\"Point\",\"coordinates\":[");
+        this.writeNumber(node.getPosition().longitude, true);
+        w.write(',');
+        this.writeNumber(node.getPosition().latitude, true);
+        w.write("]}");
+
+        w.write(",\"properties\":{\"sensorId\":");
+        w.write(Integer.toString(node.getParent().getSensorId()));
+        w.write(",\"timestamp\":");
+        w.write(Integer.toString(node.getParent().getTimestamp()));
+        w.write(",\"name\":");
+        writeString(w, node.getName());
+
+        for ( DataField df_i : node.getInformationFields() )
+        {
+
+            String name = NAMES_PER_CODE.get(df_i.type);
+
+            for ( Map<String, Float> m_j : df_i.values )
+            {
+                for ( Entry<String, Float> e_k : m_j.entrySet() )
+                {
+                    w.write(',');
+                    writeString(w, name + " (" + e_k.getKey() + ")");
+                    w.write(':');
+                    this.writeNumber(e_k.getValue(), false);
+                }
+            }
+
+        }
+
+        w.write("}}");
+
+    }
+
+    /**
+     * Writes the given value as a JSON number. Since JSON has no
+     * representation for NaN or infinite values, null is written instead.
+     *
+     * @param value The value to be written.
+     * @param coordinate Whether the value is a coordinate or a measured value.
+     * @throws IOException In case an IO error occurs.
+     */
+    protected void writeNumber(final float value, final boolean coordinate)
+        throws IOException
+    {
+
+        if ( ( Float.isNaN(value) == true )
+                || ( Float.isInfinite(value) == true ) )
+            { this.out.write("null"); return; }
+
+        this.number.setLength(0);
+        if ( coordinate == true )
+            { this.formatter.appendCoordinate(this.number, value); }
+        else
+            { this.formatter.appendValue(this.number, value); }
+
+        int len = this.number.length();
+        if ( len > this.chars.length ) { this.chars = new char[len]; }
+        this.number.getChars(0, len, this.chars, 0);
+        this.out.write(this.chars, 0, len);
+
+    }
+
+    /**
+     * Writes the given text as a JSON string, escaping all characters that
+     * cannot be written verbatim.
+     *
+     * @param w The writer.
+     * @param text The text to be written.
+     * @throws IOException In case an IO error occurs.
+     */
+    public static void writeString(final Writer w, final String text)
+        throws IOException
+    {
+
+        w.write('"');
+
+        for ( int i = 0; i < text.length(); i++ )
+        {
+
+            char c = text.charAt(i);
+
+            switch ( c )
+            {
+                case '"':   w.write("\\\""); break;
+                case '\\':  w.write("\\\\"); break;
+                case '\n':  w.write("\\n"); break;
+                case '\r':  w.write("\\r"); break;
+                case '\t':  w.write("\\t"); break;
+                default:
+                    if ( c < 0x20 )
+                    {
+                        String hex = Integer.toHexString(c);
+                        w.write("\\u");
+                        for ( int j = hex.length(); j < 4; j++ )
+                            { w.write('0'); }
+                        w.write(hex);
+                    }
+                    else
+                        { w.write(c); }
+            }
+
+        }
+
+        w.write('"');
+
+    }
+
+}
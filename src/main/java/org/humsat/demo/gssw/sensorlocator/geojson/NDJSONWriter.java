@@ -0,0 +1,75 @@
+/**
+ * @file NDJSONWriter.java
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ * @version 0.1
+ *
+ * @section LICENSE
+ *
+ * This file is part of SensorLocator.
+ * SensorLocator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SensorLocator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SensorLocator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.humsat.demo.gssw.sensorlocator.geojson;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import org.humsat.demo.gssw.sensorlocator.data.DecimalFormatter;
+import org.humsat.demo.gssw.sensorlocator.kml.KMLNode;
+
+/**
+ * Streaming writer that generates newline-delimited GeoJSON; i.e., one GeoJSON
+ * Feature object per line, without any enclosing FeatureCollection.
+ *
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ */
+public class NDJSONWriter
+    extends GeoJSONWriter
+{
+
+    /** Default constructor. */
+    public NDJSONWriter() {}
+
+    /**
+     * Constructor that configures the formatter for the coordinates and the
+     * values of the features.
+     *
+     * @param formatter The formatter to be used.
+     */
+    public NDJSONWriter(final DecimalFormatter formatter)
+        { super(formatter); }
+
+    @Override
+    public void begin(OutputStream os)
+        throws IOException
+    {
+        this.out = new BufferedWriter(new OutputStreamWriter(os, UTF_8));
+        this.features = 0;
+    }
+
+    @Override
+    public void write(KMLNode node)
+        throws IOException
+    {
+        this.writeFeature(node);
+        this.out.write('\n');
+        this.features++;
+    }
+
+    @Override
+    public void end()
+        throws IOException
+        { this.out.flush(); }
+
+}
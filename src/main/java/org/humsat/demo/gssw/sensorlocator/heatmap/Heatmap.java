@@ -0,0 +1,567 @@
+/**
+ * @file Heatmap.java
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ * @version 0.1
+ *
+ * @section LICENSE
+ *
+ * This file is part of SensorLocator.
+ * SensorLocator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SensorLocator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SensorLocator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.humsat.demo.gssw.sensorlocator.heatmap;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.imageio.ImageIO;
+import org.humsat.demo.gssw.sensorlocator.data.DataField;
+import org.humsat.demo.gssw.sensorlocator.data.DataFieldConstants;
+import org.humsat.demo.gssw.sensorlocator.data.SensorData;
+
+/**
+ * Heatmap of the values of a data field over a lat/lon raster. Readings are
+ * binned into the cells of the raster (sum and count per cell, on primitive
+ * arrays); a gaussian kernel is then applied to both arrays, in parallel
+ * tiles of rows, so that each cell gets the kernel-weighted mean of the
+ * readings around it. Cells without readings nearby are transparent.
+ *
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ */
+public class Heatmap
+    implements DataFieldConstants
+{
+
+    /** Default width of the raster, in cells. */
+    public final static int DEFAULT_WIDTH = 512;
+    /** Maximum width or height of the raster, in cells. */
+    public final static int MAX_SIZE = 8192;
+    /** Margin added around the readings, as a fraction of their extent. */
+    public final static double MARGIN = 0.05;
+    /** Minimum extent of the raster, in degrees. */
+    public final static double MIN_EXTENT = 0.01;
+    /** Minimum kernel weight for a cell not to be transparent. */
+    public final static float MIN_WEIGHT = 0.01f;
+    /** Minimum number of rows of a tile smoothed by another thread. */
+    public final static int MIN_TILE = 32;
+    /** Format of the images. */
+    public final static String IMAGE_FORMAT = "png";
+    /** Alpha of the colored cells. */
+    public final static int ALPHA = 0xc0;
+    /** Colors of the ramp (RGB), from the minimum to the maximum value. */
+    public final static int[] RAMP =
+            { 0x0000ff, 0x00ffff, 0x00ff00, 0xffff00, 0xff0000 };
+
+    /** South limit of the raster, in degrees. */
+    protected double south = 0.0;
+    /** West limit of the raster, in degrees. */
+    protected double west = 0.0;
+    /** North limit of the raster, in degrees. */
+    protected double north = 0.0;
+    /** East limit of the raster, in degrees. */
+    protected double east = 0.0;
+    /** Width of the raster, in cells. */
+    protected int width = 0;
+    /** Height of the raster, in cells. */
+    protected int height = 0;
+
+    /** Sum of the values of each cell, row 0 at the north. */
+    protected float[] sums = null;
+    /** Weight (count) of the values of each cell, row 0 at the north. */
+    protected float[] weights = null;
+    /** Number of readings binned. */
+    protected long readings = 0L;
+
+    /**
+     * Main constructor.
+     *
+     * @param south South limit of the raster, in degrees.
+     * @param west West limit of the raster, in degrees.
+     * @param north North limit of the raster, in degrees.
+     * @param east East limit of the raster, in degrees.
+     * @param width Width of the raster, in cells.
+     * @param height Height of the raster, in cells.
+     */
+    public Heatmap
+            (   final double south, final double west, final double north,
+                final double east, final int width, final int height   )
+    {
+
+        if ( ( north <= south ) || ( east <= west ) )
+            { throw(new IllegalArgumentException("Empty bounds = [" + south
+                    + ", " + west + ", " + north + ", " + east + "]")); }
+        if ( ( width <= 0 ) || ( height <= 0 )
+                || ( width > MAX_SIZE ) || ( height > MAX_SIZE ) )
+            { throw(new IllegalArgumentException("Size = " + width + "x"
+                    + height + ", value not permitted. Must be within (0, "
+                    + MAX_SIZE + "].")); }
+
+        this.south = south;
+        this.west = west;
+        this.north = north;
+        this.east = east;
+        this.width = width;
+        this.height = height;
+        this.sums = new float[width * height];
+        this.weights = new float[width * height];
+
+    }
+
+    /**
+     * Bins a reading into the raster; readings outside of it are ignored.
+     *
+     * @param lat Latitude of the reading.
+     * @param lon Longitude of the reading.
+     * @param value Value of the reading.
+     * @return 'false' in case the reading is outside of the raster.
+     */
+    public boolean add(final double lat, final double lon, final float value)
+    {
+
+        int col = (int) ( ( lon - this.west ) / ( this.east - this.west )
+                                * this.width );
+        int row = (int) ( ( this.north - lat ) / ( this.north - this.south )
+                                * this.height );
+        if ( col == this.width ) { col--; }
+        if ( row == this.height ) { row--; }
+        if ( ( col < 0 ) || ( col >= this.width )
+                || ( row < 0 ) || ( row >= this.height ) )
+            { return(false); }
+
+        int cell = row * this.width + col;
+        this.sums[cell] += value;
+        this.weights[cell] += 1.0f;
+        this.readings++;
+        return(true);
+
+    }
+
+    /**
+     * Applies a gaussian kernel to the binned readings. The kernel is
+     * separable, so it is applied first along the rows and then along the
+     * columns; each pass is split in tiles of rows run in parallel.
+     *
+     * @param radius Radius of the kernel, in cells (3 sigmas).
+     * @param threads Number of threads.
+     */
+    public void smooth(final int radius, final int threads)
+    {
+
+        if ( radius <= 0 ) { return; }
+
+        final float[] kernel = new float[2 * radius + 1];
+        double sigma = radius / 3.0;
+        for ( int i = -radius; i <= radius; i++ )
+            { kernel[i + radius] = (float) Math.exp
+                                    (-( i * i ) / ( 2.0 * sigma * sigma )); }
+
+        final float[] s_tmp = new float[this.sums.length];
+        final float[] w_tmp = new float[this.weights.length];
+
+        // Along the rows, into the temporary arrays.
+        this.parallelRows(threads, new RowTask()
+        {
+            @Override
+            public void run(final int from, final int to)
+            {
+                convolve(sums, s_tmp, kernel, from, to, 1, width);
+                convolve(weights, w_tmp, kernel, from, to, 1, width);
+            }
+        });
+
+        // Along the columns, back into the raster.
+        this.parallelRows(threads, new RowTask()
+        {
+            @Override
+            public void run(final int from, final int to)
+            {
+                convolve(s_tmp, sums, kernel, from, to, width, height);
+                convolve(w_tmp, weights, kernel, from, to, width, height);
+            }
+        });
+
+    }
+
+    /**
+     * Returns the kernel-weighted mean of each cell.
+     *
+     * @return The values of the raster, row 0 at the north, NaN for the
+     *          cells without readings nearby.
+     */
+    public float[] getValues()
+    {
+        float[] values = new float[this.sums.length];
+        for ( int i = 0; i < values.length; i++ )
+        {
+            values[i] = ( this.weights[i] < MIN_WEIGHT ) ? Float.NaN :
+                            this.sums[i] / this.weights[i];
+        }
+        return(values);
+    }
+
+    /**
+     * Renders the raster with the color ramp, scaled between the given
+     * values. Cells without readings nearby are transparent.
+     *
+     * @param min Value for the first color of the ramp.
+     * @param max Value for the last color of the ramp.
+     * @return The image, one pixel per cell.
+     */
+    public BufferedImage render(final float min, final float max)
+    {
+
+        BufferedImage image = new BufferedImage
+                    (this.width, this.height, BufferedImage.TYPE_INT_ARGB);
+        float[] values = this.getValues();
+        int[] pixels = new int[values.length];
+
+        for ( int i = 0; i < values.length; i++ )
+        {
+            if ( Float.isNaN(values[i]) == true ) { continue; }
+            pixels[i] = ( ALPHA << 24 ) | color(values[i], min, max);
+        }
+
+        image.setRGB(0, 0, this.width, this.height, pixels, 0, this.width);
+        return(image);
+
+    }
+
+    /**
+     * Renders the legend of the color ramp: a vertical bar with the maximum
+     * at the top.
+     *
+     * @param width Width of the legend, in pixels.
+     * @param height Height of the legend, in pixels.
+     * @return The image.
+     */
+    public static BufferedImage renderLegend(final int width, final int height)
+    {
+        BufferedImage image = new BufferedImage
+                            (width, height, BufferedImage.TYPE_INT_ARGB);
+        for ( int y = 0; y < height; y++ )
+        {
+            int rgb = ( 0xff << 24 )
+                        | color(height - 1 - y, 0.0f, Math.max(1, height - 1));
+            for ( int x = 0; x < width; x++ ) { image.setRGB(x, y, rgb); }
+        }
+        return(image);
+    }
+
+    /**
+     * Writes the given image as a PNG file.
+     *
+     * @param image The image.
+     * @param file The file.
+     * @throws IOException In case the image cannot be written.
+     */
+    public static void writeImage(final BufferedImage image, final File file)
+        throws IOException
+    {
+        if ( ImageIO.write(image, IMAGE_FORMAT, file) == false )
+            { throw(new IOException("No writer for " + IMAGE_FORMAT)); }
+    }
+
+    /**
+     * Returns the minimum and the maximum of the values of the raster.
+     *
+     * @return Array with { min, max }, { NaN, NaN } for an empty raster.
+     */
+    public float[] getRange()
+    {
+        float min = Float.NaN;
+        float max = Float.NaN;
+        for ( float v : this.getValues() )
+        {
+            if ( Float.isNaN(v) == true ) { continue; }
+            if ( ( Float.isNaN(min) == true ) || ( v < min ) ) { min = v; }
+            if ( ( Float.isNaN(max) == true ) || ( v > max ) ) { max = v; }
+        }
+        return(new float[] { min, max });
+    }
+
+    /**
+     * Getter for the south limit of the raster.
+     *
+     * @return South limit, in degrees.
+     */
+    public double getSouth()
+        { return(this.south); }
+
+    /**
+     * Getter for the west limit of the raster.
+     *
+     * @return West limit, in degrees.
+     */
+    public double getWest()
+        { return(this.west); }
+
+    /**
+     * Getter for the north limit of the raster.
+     *
+     * @return North limit, in degrees.
+     */
+    public double getNorth()
+        { return(this.north); }
+
+    /**
+     * Getter for the east limit of the raster.
+     *
+     * @return East limit, in degrees.
+     */
+    public double getEast()
+        { return(this.east); }
+
+    /**
+     * Getter for the width of the raster.
+     *
+     * @return Width, in cells.
+     */
+    public int getWidth()
+        { return(this.width); }
+
+    /**
+     * Getter for the height of the raster.
+     *
+     * @return Height, in cells.
+     */
+    public int getHeight()
+        { return(this.height); }
+
+    /**
+     * Getter for the number of readings binned.
+     *
+     * @return Number of readings.
+     */
+    public long getReadings()
+        { return(this.readings); }
+
+    /**
+     * Task over a range of rows.
+     */
+    private interface RowTask
+    {
+        /**
+         * Runs the task over the rows within [from, to).
+         *
+         * @param from First row.
+         * @param to Last row (excluded).
+         */
+        void run(int from, int to);
+    }
+
+    /**
+     * Runs the given task over tiles of rows, in parallel.
+     */
+    private void parallelRows(final int threads, final RowTask task)
+    {
+
+        int tiles = Math.max(1, Math.min(threads, this.height / MIN_TILE));
+        if ( tiles == 1 ) { task.run(0, this.height); return; }
+
+        ExecutorService pool = Executors.newFixedThreadPool(tiles);
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+
+        try
+        {
+
+            for ( int t = 0; t < tiles; t++ )
+            {
+                final int from = (int) ( (long) this.height * t / tiles );
+                final int to = (int) ( (long) this.height * ( t + 1 ) / tiles );
+                futures.add(pool.submit(new Runnable()
+                {
+                    @Override
+                    public void run()
+                        { task.run(from, to); }
+                }));
+            }
+
+            for ( Future<?> f : futures ) { f.get(); }
+
+        }
+        catch(InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw(new IllegalStateException("Interrupted while smoothing.",
+                                                ex));
+        }
+        catch(ExecutionException ex)
+            { throw(new IllegalStateException("Could not smooth.", ex)); }
+        finally
+            { pool.shutdownNow(); }
+
+    }
+
+    /**
+     * Convolves the rows [from, to) of the source with the kernel, along the
+     * rows (stride 1, length the width) or along the columns (stride the
+     * width, length the height).
+     */
+    private void convolve
+            (   final float[] src, final float[] dst, final float[] kernel,
+                final int from, final int to, final int stride,
+                final int length    )
+    {
+
+        int radius = kernel.length / 2;
+
+        for ( int row = from; row < to; row++ )
+        {
+            for ( int col = 0; col < this.width; col++ )
+            {
+
+                // Position of the cell along the direction of the kernel.
+                int p = ( stride == 1 ) ? col : row;
+                int cell = row * this.width + col;
+                int k_from = Math.max(-radius, -p);
+                int k_to = Math.min(radius, length - 1 - p);
+                float acc = 0.0f;
+
+                for ( int k = k_from; k <= k_to; k++ )
+                    { acc += kernel[k + radius] * src[cell + k * stride]; }
+
+                dst[cell] = acc;
+
+            }
+        }
+
+    }
+
+    /**
+     * Color of the ramp for the given value, linearly interpolated.
+     */
+    private static int color(final float value, final float min,
+                                final float max)
+    {
+
+        float t = ( max > min ) ? ( value - min ) / ( max - min ) : 0.5f;
+        t = Math.max(0.0f, Math.min(1.0f, t)) * ( RAMP.length - 1 );
+        int i = Math.min((int) t, RAMP.length - 2);
+        float f = t - i;
+
+        int a = RAMP[i];
+        int b = RAMP[i + 1];
+        int r = (int) ( ( a >> 16 & 0xff ) * ( 1 - f )
+                            + ( b >> 16 & 0xff ) * f );
+        int g = (int) ( ( a >> 8 & 0xff ) * ( 1 - f )
+                            + ( b >> 8 & 0xff ) * f );
+        int bl = (int) ( ( a & 0xff ) * ( 1 - f ) + ( b & 0xff ) * f );
+        return( ( r << 16 ) | ( g << 8 ) | bl );
+
+    }
+
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>> factory
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
+
+    /**
+     * Factory method that creates the heatmap of the given value of the given
+     * data field code, over the extent of the readings that have both a
+     * position and that value (plus a margin), and bins them. The height of
+     * the raster keeps the aspect ratio of the extent.
+     *
+     * @param sensors The sensor data.
+     * @param code Code of the data field.
+     * @param index Index of the value within the data field.
+     * @param width Width of the raster, in cells.
+     * @return The heatmap, not smoothed yet; 'null' in case no reading has
+     *          the value.
+     */
+    public static Heatmap createHeatmap
+            (   final List<SensorData> sensors, final String code,
+                final int index, final int width    )
+    {
+
+        List<String> units = VALUES_PER_CODE.get(code);
+        if ( ( units == null ) || ( index < 0 ) || ( index >= units.size() ) )
+            { throw(new IllegalArgumentException("Unsupported value = "
+                                                    + code + "." + index)); }
+
+        int n = 0;
+        float[] lats = new float[sensors.size()];
+        float[] lons = new float[sensors.size()];
+        float[] values = new float[sensors.size()];
+
+        for ( SensorData sd_i : sensors )
+        {
+
+            Float lat = null;
+            Float lon = null;
+            Float value = null;
+
+            for ( DataField df_j : sd_i.getDataFields() )
+            {
+                if ( df_j.type.equals(POSITION_F_CODE) == true )
+                {
+                    lat = df_j.values.get(LATITUDE_POSITION_INDEX)
+                                        .get(POSITION_VALUE_UNITS);
+                    lon = df_j.values.get(LONGITUDE_POSITION_INDEX)
+                                        .get(POSITION_VALUE_UNITS);
+                }
+                else if ( df_j.type.equals(code) == true )
+                    { value = df_j.values.get(index).get(units.get(index)); }
+            }
+
+            if ( ( lat == null ) || ( lon == null ) || ( value == null ) )
+                { continue; }
+
+            lats[n] = lat;
+            lons[n] = lon;
+            values[n] = value;
+            n++;
+
+        }
+
+        if ( n == 0 ) { return(null); }
+
+        double south = lats[0];
+        double north = lats[0];
+        double west = lons[0];
+        double east = lons[0];
+        for ( int i = 1; i < n; i++ )
+        {
+            south = Math.min(south, lats[i]);
+            north = Math.max(north, lats[i]);
+            west = Math.min(west, lons[i]);
+            east = Math.max(east, lons[i]);
+        }
+
+        double dlat = Math.max(MIN_EXTENT,
+                                ( north - south ) * ( 1 + MARGIN * 2 ));
+        double dlon = Math.max(MIN_EXTENT,
+                                ( east - west ) * ( 1 + MARGIN * 2 ));
+        double clat = ( north + south ) / 2;
+        double clon = ( east + west ) / 2;
+
+        // Cells of the same size in meters along both axes.
+        double aspect = dlat / ( dlon * Math.cos(Math.toRadians(clat)) );
+        int height = (int) Math.max(1, Math.min(MAX_SIZE,
+                                        Math.round(width * aspect)));
+
+        Heatmap h = new Heatmap(Math.max(-90.0, clat - dlat / 2),
+                                clon - dlon / 2,
+                                Math.min(90.0, clat + dlat / 2),
+                                clon + dlon / 2,
+                                width, height);
+        for ( int i = 0; i < n; i++ ) { h.add(lats[i], lons[i], values[i]); }
+        return(h);
+
+    }
+
+}
@@ -0,0 +1,638 @@
+/**
+ * @file SpatialIndex.java
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ * @version 0.1
+ *
+ * @section LICENSE
+ *
+ * This file is part of SensorLocator.
+ * SensorLocator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SensorLocator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SensorLocator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.humsat.demo.gssw.sensorlocator.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.humsat.demo.gssw.sensorlocator.kml.KMLNode;
+
+/**
+ * Static R-tree over (latitude, longitude) points, bulk-loaded with the
+ * Sort-Tile-Recursive (STR) algorithm. All coordinates and bounding boxes are
+ * kept in primitive arrays; the indexed items are only touched when they are
+ * returned as results of a query.
+ *
+ * @param <T> Type of the indexed items.
+ *
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ */
+public class SpatialIndex<T>
+{
+
+    /** Maximum number of entries of each node of the tree. */
+    public final static int NODE_CAPACITY = 16;
+    /** Mean radius of the Earth, in meters. */
+    public final static double EARTH_RADIUS_M = 6371008.8;
+
+    /** Latitudes of the points, in tree order. */
+    protected float[] lats = null;
+    /** Longitudes of the points, in tree order. */
+    protected float[] lons = null;
+    /** Indexed items, in tree order. */
+    protected List<T> items = null;
+
+    /**
+     * Bounding boxes of the nodes of each level of the tree; level 0 contains
+     * the leaves. For each level: [minLat, minLon, maxLat, maxLon] arrays.
+     */
+    protected List<float[][]> levels = new ArrayList<float[][]>();
+
+    /**
+     * Main constructor, it bulk-loads the tree with the given points.
+     *
+     * @param lats Latitudes of the points, in degrees.
+     * @param lons Longitudes of the points, in degrees.
+     * @param items Item associated with each point.
+     * @param threads Number of threads for sorting the tiles.
+     */
+    public SpatialIndex
+            (   final float[] lats, final float[] lons, final List<T> items,
+                final int threads   )
+    {
+
+        if ( ( lats.length != lons.length ) || ( lats.length != items.size() ) )
+            { throw(new IllegalArgumentException("<lats>, <lons> and <items> "
+                                                    + "lengths differ.")); }
+        if ( threads <= 0 )
+            { throw(new IllegalArgumentException("<threads> = " + threads
+                    + ", value not permitted. Must be bigger than 0.")); }
+
+        int[] order = sortTileRecursive(lats, lons, threads);
+        int n = order.length;
+
+        this.lats = new float[n];
+        this.lons = new float[n];
+        this.items = new ArrayList<T>(n);
+
+        for ( int i = 0; i < n; i++ )
+        {
+            this.lats[i] = lats[order[i]];
+            this.lons[i] = lons[order[i]];
+            this.items.add(items.get(order[i]));
+        }
+
+        this.buildLevels();
+
+    }
+
+    /**
+     * Getter for the number of indexed points.
+     *
+     * @return Number of points.
+     */
+    public int size()
+        { return(this.lats.length); }
+
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>> queries
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
+
+    /**
+     * Returns all the items inside of the given bounding box (borders
+     * included). In case minLon is bigger than maxLon, the box is considered
+     * to cross the antimeridian.
+     *
+     * @param minLat Minimum latitude, in degrees.
+     * @param minLon Minimum longitude, in degrees.
+     * @param maxLat Maximum latitude, in degrees.
+     * @param maxLon Maximum longitude, in degrees.
+     * @return List with the items found.
+     */
+    public List<T> queryBox
+            (   final double minLat, final double minLon,
+                final double maxLat, final double maxLon    )
+    {
+
+        List<T> result = new ArrayList<T>();
+
+        if ( minLon > maxLon )
+        {
+            this.collectBox(minLat, minLon, maxLat, 180.0, result);
+            this.collectBox(minLat, -180.0, maxLat, maxLon, result);
+        }
+        else
+            { this.collectBox(minLat, minLon, maxLat, maxLon, result); }
+
+        return(result);
+
+    }
+
+    /**
+     * Returns all the items whose great-circle distance to the given point is
+     * not bigger than the given radius.
+     *
+     * @param lat Latitude of the center, in degrees.
+     * @param lon Longitude of the center, in degrees.
+     * @param radius Radius, in meters.
+     * @return List with the items found.
+     */
+    public List<T> queryRadius
+            (final double lat, final double lon, final double radius)
+    {
+
+        List<T> result = new ArrayList<T>();
+        if ( this.size() == 0 ) { return(result); }
+
+        double d_lat = Math.toDegrees(radius / EARTH_RADIUS_M);
+        double min_lat = Math.max(-90.0, lat - d_lat);
+        double max_lat = Math.min(90.0, lat + d_lat);
+        double cos = Math.cos(Math.toRadians
+                            (Math.max(Math.abs(min_lat), Math.abs(max_lat))));
+        double d_lon = ( cos <= 1e-12 ) ? 360.0 : ( d_lat / cos );
+
+        double min_lon = -180.0;
+        double max_lon = 180.0;
+        if ( ( max_lat < 90.0 ) && ( min_lat > -90.0 ) && ( d_lon < 180.0 ) )
+        {
+            min_lon = lon - d_lon;
+            max_lon = lon + d_lon;
+        }
+
+        int[] candidates = null;
+        if ( min_lon < -180.0 )
+        {
+            candidates = concat
+                (   this.findBox(min_lat, min_lon + 360.0, max_lat, 180.0),
+                    this.findBox(min_lat, -180.0, max_lat, max_lon) );
+        }
+        else if ( max_lon > 180.0 )
+        {
+            candidates = concat
+                (   this.findBox(min_lat, min_lon, max_lat, 180.0),
+                    this.findBox(min_lat, -180.0, max_lat, max_lon - 360.0) );
+        }
+        else
+            { candidates = this.findBox(min_lat, min_lon, max_lat, max_lon); }
+
+        for ( int i : candidates )
+        {
+            if ( distance(lat, lon, this.lats[i], this.lons[i]) <= radius )
+                { result.add(this.items.get(i)); }
+        }
+
+        return(result);
+
+    }
+
+    /**
+     * Returns the k items nearest to the given point, sorted by increasing
+     * great-circle distance.
+     *
+     * @param lat Latitude of the point, in degrees.
+     * @param lon Longitude of the point, in degrees.
+     * @param k Number of items requested.
+     * @return List with the (at most) k items found.
+     */
+    public List<T> nearest(final double lat, final double lon, final int k)
+    {
+
+        List<T> result = new ArrayList<T>(Math.max(k, 0));
+        if ( ( this.size() == 0 ) || ( k <= 0 ) ) { return(result); }
+
+        PriorityQueue<Candidate> queue = new PriorityQueue<Candidate>();
+        int top = this.levels.size() - 1;
+        float[][] root = this.levels.get(top);
+
+        for ( int i = 0; i < root[0].length; i++ )
+            { queue.add(new Candidate(this.boxDistance(lat, lon, root, i),
+                                        top, i)); }
+
+        while ( ( queue.isEmpty() == false ) && ( result.size() < k ) )
+        {
+
+            Candidate c = queue.poll();
+
+            if ( c.level < 0 )
+                { result.add(this.items.get(c.index)); continue; }
+
+            int first = c.index * NODE_CAPACITY;
+
+            if ( c.level == 0 )
+            {
+                int last = Math.min(first + NODE_CAPACITY, this.size());
+                for ( int i = first; i < last; i++ )
+                {
+                    queue.add(new Candidate(distance(lat, lon, this.lats[i],
+                                                this.lons[i]), -1, i));
+                }
+                continue;
+            }
+
+            float[][] children = this.levels.get(c.level - 1);
+            int last = Math.min(first + NODE_CAPACITY, children[0].length);
+            for ( int i = first; i < last; i++ )
+            {
+                queue.add(new Candidate
+                    (this.boxDistance(lat, lon, children, i), c.level - 1, i));
+            }
+
+        }
+
+        return(result);
+
+    }
+
+    /**
+     * Entry of the priority queue for the k-nearest neighbours search.
+     */
+    protected static class Candidate
+        implements Comparable<Candidate>
+    {
+
+        /** Lower bound of the distance to the query point, in meters. */
+        protected double distance = 0.0;
+        /** Level of the node, -1 in case this candidate is a point. */
+        protected int level = -1;
+        /** Index of the node within its level, or index of the point. */
+        protected int index = -1;
+
+        /**
+         * Main constructor.
+         *
+         * @param distance Distance to the query point.
+         * @param level Level of the node, -1 for points.
+         * @param index Index of the node or point.
+         */
+        protected Candidate
+                (final double distance, final int level, final int index)
+        {
+            this.distance = distance;
+            this.level = level;
+            this.index = index;
+        }
+
+        @Override
+        public int compareTo(Candidate o)
+            { return(Double.compare(this.distance, o.distance)); }
+
+    }
+
+    /**
+     * Adds to the result list the items inside of the given box, which does
+     * not cross the antimeridian.
+     */
+    private void collectBox
+            (   final double minLat, final double minLon,
+                final double maxLat, final double maxLon,
+                final List<T> result    )
+    {
+        for ( int i : this.findBox(minLat, minLon, maxLat, maxLon) )
+            { result.add(this.items.get(i)); }
+    }
+
+    /**
+     * Finds the positions (in tree order) of the points inside of the given
+     * box, which does not cross the antimeridian.
+     *
+     * @return Array with the positions of the points found.
+     */
+    protected int[] findBox
+            (   final double minLat, final double minLon,
+                final double maxLat, final double maxLon    )
+    {
+
+        int[] found = new int[16];
+        int n_found = 0;
+        if ( this.size() == 0 ) { return(new int[0]); }
+
+        int top = this.levels.size() - 1;
+        int[] stack = new int[64];
+        int sp = 0;
+
+        float[][] root = this.levels.get(top);
+        for ( int i = 0; i < root[0].length; i++ )
+        {
+            if ( sp + 2 > stack.length )
+                { stack = Arrays.copyOf(stack, stack.length * 2); }
+            stack[sp++] = top;
+            stack[sp++] = i;
+        }
+
+        while ( sp > 0 )
+        {
+
+            int index = stack[--sp];
+            int level = stack[--sp];
+            float[][] box = this.levels.get(level);
+
+            if ( ( box[0][index] > maxLat ) || ( box[2][index] < minLat )
+                    || ( box[1][index] > maxLon ) || ( box[3][index] < minLon ) )
+                { continue; }
+
+            int first = index * NODE_CAPACITY;
+
+            if ( level == 0 )
+            {
+                int last = Math.min(first + NODE_CAPACITY, this.size());
+                for ( int i = first; i < last; i++ )
+                {
+                    if ( ( this.lats[i] < minLat ) || ( this.lats[i] > maxLat )
+                            || ( this.lons[i] < minLon )
+                            || ( this.lons[i] > maxLon ) )
+                        { continue; }
+                    if ( n_found == found.length )
+                        { found = Arrays.copyOf(found, found.length * 2); }
+                    found[n_found++] = i;
+                }
+                continue;
+            }
+
+            int last = Math.min(first + NODE_CAPACITY,
+                                this.levels.get(level - 1)[0].length);
+            for ( int i = first; i < last; i++ )
+            {
+                if ( sp + 2 > stack.length )
+                    { stack = Arrays.copyOf(stack, stack.length * 2); }
+                stack[sp++] = level - 1;
+                stack[sp++] = i;
+            }
+
+        }
+
+        return(Arrays.copyOf(found, n_found));
+
+    }
+
+    /**
+     * Computes a lower bound of the distance between the given point and the
+     * box of the given node. Any point of the box is at least as far as its
+     * latitude gap (along a meridian) and as the closest meridian of the box,
+     * at the longitude gap taken across the antimeridian if shorter.
+     */
+    private double boxDistance
+            (   final double lat, final double lon,
+                final float[][] boxes, final int index  )
+    {
+
+        double d_lat = 0.0;
+        if ( lat < boxes[0][index] ) { d_lat = boxes[0][index] - lat; }
+        else if ( lat > boxes[2][index] ) { d_lat = lat - boxes[2][index]; }
+
+        double d_lon = 0.0;
+        if ( ( lon < boxes[1][index] ) || ( lon > boxes[3][index] ) )
+            { d_lon = Math.min(lonGap(lon, boxes[1][index]),
+                                lonGap(lon, boxes[3][index])); }
+
+        double meridian = Math.asin(Math.cos(Math.toRadians(lat))
+                            * Math.sin(Math.toRadians(Math.min(d_lon, 90.0))));
+        return(EARTH_RADIUS_M * Math.max(Math.toRadians(d_lat), meridian));
+
+    }
+
+    /**
+     * Computes the difference between two longitudes, the shorter way around.
+     *
+     * @param a A longitude, in degrees.
+     * @param b Another longitude, in degrees.
+     * @return The difference, within [0, 180] degrees.
+     */
+    private static double lonGap(final double a, final double b)
+    {
+        double d = Math.abs(a - b) % 360.0;
+        return(Math.min(d, 360.0 - d));
+    }
+
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>> build
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
+
+    /**
+     * Computes the bounding boxes of all the levels of the tree, from the
+     * leaves up to the root.
+     */
+    private void buildLevels()
+    {
+
+        int n = this.size();
+        int nodes = ( n + NODE_CAPACITY - 1 ) / NODE_CAPACITY;
+        float[][] level = newBoxes(nodes);
+
+        for ( int i = 0; i < n; i++ )
+            { extend(level, i / NODE_CAPACITY,
+                        this.lats[i], this.lons[i], this.lats[i], this.lons[i]); }
+
+        this.levels.add(level);
+
+        while ( level[0].length > NODE_CAPACITY )
+        {
+
+            int children = level[0].length;
+            nodes = ( children + NODE_CAPACITY - 1 ) / NODE_CAPACITY;
+            float[][] upper = newBoxes(nodes);
+
+            for ( int i = 0; i < children; i++ )
+            {
+                extend(upper, i / NODE_CAPACITY, level[0][i], level[1][i],
+                            level[2][i], level[3][i]);
+            }
+
+            this.levels.add(upper);
+            level = upper;
+
+        }
+
+    }
+
+    /**
+     * Creates the arrays for the bounding boxes of the given number of nodes,
+     * initialized as empty boxes.
+     */
+    private static float[][] newBoxes(final int nodes)
+    {
+        float[][] boxes = new float[4][nodes];
+        Arrays.fill(boxes[0], Float.POSITIVE_INFINITY);
+        Arrays.fill(boxes[1], Float.POSITIVE_INFINITY);
+        Arrays.fill(boxes[2], Float.NEGATIVE_INFINITY);
+        Arrays.fill(boxes[3], Float.NEGATIVE_INFINITY);
+        return(boxes);
+    }
+
+    /**
+     * Extends the box of the given node so that it contains the given box.
+     */
+    private static void extend
+            (   final float[][] boxes, final int index,
+                final float minLat, final float minLon,
+                final float maxLat, final float maxLon  )
+    {
+        boxes[0][index] = Math.min(boxes[0][index], minLat);
+        boxes[1][index] = Math.min(boxes[1][index], minLon);
+        boxes[2][index] = Math.max(boxes[2][index], maxLat);
+        boxes[3][index] = Math.max(boxes[3][index], maxLon);
+    }
+
+    /**
+     * Sorts the points following the STR algorithm: points are sorted by
+     * longitude, split into vertical slices and each slice is sorted by
+     * latitude. Slices are sorted in parallel.
+     *
+     * @param lats Latitudes of the points.
+     * @param lons Longitudes of the points.
+     * @param threads Number of threads for sorting the slices.
+     * @return Order of the points; i.e., the original index of each point.
+     */
+    protected static int[] sortTileRecursive
+            (final float[] lats, final float[] lons, final int threads)
+    {
+
+        final int n = lats.length;
+        final long[] keys = new long[n];
+
+        for ( int i = 0; i < n; i++ )
+            { keys[i] = sortKey(lons[i], i); }
+        Arrays.sort(keys);
+
+        int leaves = ( n + NODE_CAPACITY - 1 ) / NODE_CAPACITY;
+        int slices = (int) Math.ceil(Math.sqrt(leaves));
+        final int slice_size = Math.max(1, slices) * NODE_CAPACITY;
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+
+        try
+        {
+
+            for ( int start = 0; start < n; start += slice_size )
+            {
+
+                final int from = start;
+                final int to = Math.min(start + slice_size, n);
+
+                futures.add(pool.submit(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        for ( int i = from; i < to; i++ )
+                        {
+                            int index = (int) keys[i];
+                            keys[i] = sortKey(lats[index], index);
+                        }
+                        Arrays.sort(keys, from, to);
+                    }
+                }));
+
+            }
+
+            for ( Future<?> f : futures ) { f.get(); }
+
+        }
+        catch(InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw(new IllegalStateException("Interrupted while loading.", ex));
+        }
+        catch(ExecutionException ex)
+            { throw(new IllegalStateException("Could not load index.", ex)); }
+        finally
+            { pool.shutdownNow(); }
+
+        int[] order = new int[n];
+        for ( int i = 0; i < n; i++ ) { order[i] = (int) keys[i]; }
+        return(order);
+
+    }
+
+    /**
+     * Packs a float value and an index into a long value whose natural order
+     * is the order of the float values.
+     *
+     * @param value The float value, it must not be NaN.
+     * @param index The index, it must not be negative.
+     * @return The packed value.
+     */
+    protected static long sortKey(final float value, final int index)
+    {
+        int bits = Float.floatToIntBits(value);
+        bits ^= ( bits >> 31 ) & 0x7fffffff;
+        return(( ( (long) bits ) << 32 ) | index);
+    }
+
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>> factory
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
+
+    /**
+     * Factory method that creates an index over the positions of the given KML
+     * nodes.
+     *
+     * @param nodes The KML nodes to be indexed.
+     * @param threads Number of threads for bulk-loading the index.
+     * @return The index.
+     */
+    public static SpatialIndex<KMLNode> createSpatialIndex
+            (final List<KMLNode> nodes, final int threads)
+    {
+
+        float[] lats = new float[nodes.size()];
+        float[] lons = new float[nodes.size()];
+
+        for ( int i = 0; i < nodes.size(); i++ )
+        {
+            lats[i] = nodes.get(i).getPosition().latitude;
+            lons[i] = nodes.get(i).getPosition().longitude;
+        }
+
+        return(new SpatialIndex<KMLNode>(lats, lons, nodes, threads));
+
+    }
+
+    /**
+     * Computes the great-circle distance between two points with the
+     * haversine formula.
+     *
+     * @param lat1 Latitude of the first point, in degrees.
+     * @param lon1 Longitude of the first point, in degrees.
+     * @param lat2 Latitude of the second point, in degrees.
+     * @param lon2 Longitude of the second point, in degrees.
+     * @return The distance, in meters.
+     */
+    public static double distance
+            (   final double lat1, final double lon1,
+                final double lat2, final double lon2    )
+    {
+        double d_lat = Math.toRadians(lat2 - lat1);
+        double d_lon = Math.toRadians(lon2 - lon1);
+        double s_lat = Math.sin(d_lat / 2);
+        double s_lon = Math.sin(d_lon / 2);
+        double a = s_lat * s_lat + Math.cos(Math.toRadians(lat1))
+                        * Math.cos(Math.toRadians(lat2)) * s_lon * s_lon;
+        return(2 * EARTH_RADIUS_M * Math.asin(Math.min(1.0, Math.sqrt(a))));
+    }
+
+    /**
+     * Concatenates two arrays.
+     */
+    private static int[] concat(final int[] a, final int[] b)
+    {
+        int[] c = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, c, a.length, b.length);
+        return(c);
+    }
+
+}
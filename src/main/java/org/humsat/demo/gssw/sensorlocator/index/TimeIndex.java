@@ -0,0 +1,539 @@
+/**
+ * @file TimeIndex.java
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ * @version 0.1
+ *
+ * @section LICENSE
+ *
+ * This file is part of SensorLocator.
+ * SensorLocator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SensorLocator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SensorLocator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.humsat.demo.gssw.sensorlocator.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.humsat.demo.gssw.sensorlocator.SensorLocator;
+import org.humsat.demo.gssw.sensorlocator.csv.CSVHelper;
+import org.humsat.demo.gssw.sensorlocator.csv.SensorDataReader;
+import org.humsat.demo.gssw.sensorlocator.data.SensorData;
+import org.humsat.demo.gssw.sensorlocator.dedup.FrameDeduplicator;
+
+/**
+ * Time index of the records of a CSV input file. For each sensor, it keeps a
+ * sorted primitive array of (timestamp, byte offset) pairs, so that the
+ * records of a sensor within a range of time can be read from the input file
+ * without parsing it completely.
+ * 
+ * The index is built while the input file is read (see
+ * CSVHelper.readSensorData(File, TimeIndex)) and it is persisted next to the
+ * input file, with the INDEX_FILE_EXTENSION extension; the first run that
+ * selects a sensor of a file not read before builds it through open().
+ *
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ */
+public class TimeIndex
+{
+
+    /** Extension of the files with the persisted indexes. */
+    public final static String INDEX_FILE_EXTENSION = ".tix";
+    /** Magic number of the index files ("TIX1"). */
+    public final static int MAGIC = 0x54495831;
+    /** Size of the buffer for reading records from the input file. */
+    public final static int RECORD_BUFFER_SIZE = 4096;
+
+    /**
+     * Records of a single sensor.
+     */
+    protected static class Series
+    {
+
+        /** Timestamps of the records. */
+        protected int[] timestamps = new int[16];
+        /** Byte offsets of the records within the input file. */
+        protected long[] offsets = new long[16];
+        /** Number of records. */
+        protected int size = 0;
+
+        /**
+         * Adds a record to this series.
+         *
+         * @param timestamp Timestamp of the record.
+         * @param offset Byte offset of the record.
+         */
+        protected void add(final int timestamp, final long offset)
+        {
+            if ( this.size == this.timestamps.length )
+            {
+                this.timestamps = Arrays.copyOf
+                                    (this.timestamps, this.size * 2);
+                this.offsets = Arrays.copyOf(this.offsets, this.size * 2);
+            }
+            this.timestamps[this.size] = timestamp;
+            this.offsets[this.size] = offset;
+            this.size++;
+        }
+
+        /**
+         * Sorts the records by timestamp; records with the same timestamp
+         * keep the order of the input file.
+         */
+        protected void sort()
+        {
+
+            long[] keys = new long[this.size];
+            for ( int i = 0; i < this.size; i++ )
+                { keys[i] = ( ( (long) this.timestamps[i] ) << 32 ) | i; }
+            Arrays.sort(keys);
+
+            int[] ts = new int[this.size];
+            long[] os = new long[this.size];
+
+            for ( int i = 0; i < this.size; i++ )
+            {
+                int j = (int) keys[i];
+                ts[i] = this.timestamps[j];
+                os[i] = this.offsets[j];
+            }
+
+            this.timestamps = ts;
+            this.offsets = os;
+
+        }
+
+        /**
+         * Finds the position of the first record whose timestamp is not
+         * smaller than the given one.
+         *
+         * @param timestamp The timestamp to be searched.
+         * @return The position, 'size' in case all records are older.
+         */
+        protected int lowerBound(final long timestamp)
+        {
+            int lo = 0;
+            int hi = this.size;
+            while ( lo < hi )
+            {
+                int mid = ( lo + hi ) >>> 1;
+                if ( this.timestamps[mid] < timestamp ) { lo = mid + 1; }
+                else { hi = mid; }
+            }
+            return(lo);
+        }
+
+    }
+
+    /** Series of records of each sensor, sorted by sensor id. */
+    protected Map<Integer, Series> series = new TreeMap<Integer, Series>();
+    /** Length of the indexed input file. */
+    protected long sourceLength = -1L;
+    /** Last modification time of the indexed input file. */
+    protected long sourceModified = -1L;
+
+    /**
+     * Adds a record to the index. Once all the records have been added, the
+     * index must be sealed.
+     *
+     * @param sensorId Identifier of the sensor of the record.
+     * @param timestamp Timestamp of the record.
+     * @param offset Byte offset of the record within the input file.
+     */
+    public void add(final int sensorId, final int timestamp, final long offset)
+    {
+        Series s = this.series.get(sensorId);
+        if ( s == null ) { s = new Series(); this.series.put(sensorId, s); }
+        s.add(timestamp, offset);
+    }
+
+    /**
+     * Seals this index after adding all the records of the given input file:
+     * the records of each sensor are sorted by timestamp.
+     *
+     * @param input The input file that has been indexed.
+     */
+    public void seal(final File input)
+    {
+        for ( Series s_i : this.series.values() ) { s_i.sort(); }
+        this.sourceLength = input.length();
+        this.sourceModified = input.lastModified();
+    }
+
+    /**
+     * Checks whether this index was built for the current version of the
+     * given input file.
+     *
+     * @param input The input file.
+     * @return 'true' in case the index is up to date.
+     */
+    public boolean isValidFor(final File input)
+    {
+        return( ( this.sourceLength == input.length() )
+                    && ( this.sourceModified == input.lastModified() ) );
+    }
+
+    /**
+     * Getter for the identifiers of the indexed sensors.
+     *
+     * @return Array with the identifiers, in increasing order.
+     */
+    public int[] getSensorIds()
+    {
+        int[] ids = new int[this.series.size()];
+        int i = 0;
+        for ( Integer id : this.series.keySet() ) { ids[i++] = id; }
+        return(ids);
+    }
+
+    /**
+     * Getter for the number of records of the given sensor.
+     *
+     * @param sensorId Identifier of the sensor.
+     * @return Number of records.
+     */
+    public int count(final int sensorId)
+    {
+        Series s = this.series.get(sensorId);
+        return( ( s == null ) ? 0 : s.size );
+    }
+
+    /**
+     * Finds the offsets of the records of the given sensor within the given
+     * range of time (both limits included).
+     *
+     * @param sensorId Identifier of the sensor.
+     * @param from Start of the range.
+     * @param to End of the range.
+     * @return Array with the offsets, sorted by the timestamp of the records.
+     */
+    public long[] findOffsets(final int sensorId, final long from, final long to)
+    {
+
+        Series s = this.series.get(sensorId);
+        if ( ( s == null ) || ( from > to ) ) { return(new long[0]); }
+
+        int first = s.lowerBound(from);
+        int last = ( to == Long.MAX_VALUE ) ? s.size : s.lowerBound(to + 1);
+
+        return(Arrays.copyOfRange(s.offsets, first, Math.max(first, last)));
+
+    }
+
+    /**
+     * Reads from the input file the records of the given sensor within the
+     * given range of time (both limits included).
+     *
+     * @param input The indexed input file.
+     * @param sensorId Identifier of the sensor.
+     * @param from Start of the range.
+     * @param to End of the range.
+     * @return List with the sensor data, sorted by timestamp.
+     * @throws IOException In case any IO problem occurs.
+     */
+    public List<SensorData> query
+            (   final File input, final int sensorId,
+                final long from, final long to  )
+        throws IOException
+        { return(this.query(input, sensorId, from, to, null)); }
+
+    /**
+     * Reads from the input file the records of the given sensor within the
+     * given range of time (both limits included), skipping the frames
+     * already seen by the given deduplicator.
+     *
+     * @param input The indexed input file.
+     * @param sensorId Identifier of the sensor.
+     * @param from Start of the range.
+     * @param to End of the range.
+     * @param dedup The deduplicator, 'null' for keeping all the frames.
+     * @return List with the sensor data, sorted by timestamp.
+     * @throws IOException In case any IO problem occurs.
+     */
+    public List<SensorData> query
+            (   final File input, final int sensorId,
+                final long from, final long to,
+                final FrameDeduplicator dedup   )
+        throws IOException
+    {
+
+        long[] offsets = this.findOffsets(sensorId, from, to);
+        List<SensorData> l = new ArrayList<SensorData>(offsets.length);
+        if ( offsets.length == 0 ) { return(l); }
+
+        Map<String, Integer> indexes = CSVHelper.readSensorDataIndexes(input);
+        int fields_required = CSVHelper.getFieldsRequired(indexes);
+        RandomAccessFile raf = new RandomAccessFile(input, "r");
+        byte[] buffer = new byte[RECORD_BUFFER_SIZE];
+
+        try
+        {
+            for ( long o_i : offsets )
+            {
+                SensorData sd = CSVHelper.parseSensorData
+                    (   readRecord(raf, o_i, buffer), indexes,
+                        fields_required, dedup  );
+                if ( sd != null ) { l.add(sd); }
+            }
+        }
+        finally
+            { raf.close(); }
+
+        return(l);
+
+    }
+
+    /**
+     * Reads the line of the input file that starts at the given offset.
+     */
+    private static String readRecord
+            (final RandomAccessFile raf, final long offset, byte[] buffer)
+        throws IOException
+    {
+
+        raf.seek(offset);
+        int n = 0;
+
+        while ( true )
+        {
+
+            if ( n == buffer.length )
+                { buffer = Arrays.copyOf(buffer, buffer.length * 2); }
+
+            int read = raf.read(buffer, n, buffer.length - n);
+            if ( read < 0 ) { break; }
+
+            for ( int i = n; i < n + read; i++ )
+            {
+                if ( ( buffer[i] == '\n' ) || ( buffer[i] == '\r' ) )
+                    { return(new String(buffer, 0, i)); }
+            }
+
+            n += read;
+
+        }
+
+        return(new String(buffer, 0, n));
+
+    }
+
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>> io
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
+
+    /**
+     * Saves this index in the given file.
+     *
+     * @param file The file where to save the index.
+     * @throws IOException In case any IO problem occurs.
+     */
+    public void save(final File file)
+        throws IOException
+    {
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream
+                                                (new FileOutputStream(file)));
+
+        try
+        {
+
+            out.writeInt(MAGIC);
+            out.writeLong(this.sourceLength);
+            out.writeLong(this.sourceModified);
+            out.writeInt(this.series.size());
+
+            for ( Map.Entry<Integer, Series> e_i : this.series.entrySet() )
+            {
+                Series s = e_i.getValue();
+                out.writeInt(e_i.getKey());
+                out.writeInt(s.size);
+                for ( int i = 0; i < s.size; i++ )
+                    { out.writeInt(s.timestamps[i]); }
+                for ( int i = 0; i < s.size; i++ )
+                    { out.writeLong(s.offsets[i]); }
+            }
+
+        }
+        finally
+            { out.close(); }
+
+    }
+
+    /**
+     * Loads an index from the given file.
+     *
+     * @param file The file with the index.
+     * @return The index loaded.
+     * @throws IOException In case any IO problem occurs or the file is not a
+     *                      valid index file.
+     */
+    public static TimeIndex load(final File file)
+        throws IOException
+    {
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream
+                                                (new FileInputStream(file)));
+        TimeIndex index = new TimeIndex();
+
+        try
+        {
+
+            if ( in.readInt() != MAGIC )
+                { throw(new IOException("<file> is not a time index, file = "
+                                            + file)); }
+
+            index.sourceLength = in.readLong();
+            index.sourceModified = in.readLong();
+            int sensors = in.readInt();
+
+            for ( int s_i = 0; s_i < sensors; s_i++ )
+            {
+                Series s = new Series();
+                int id = in.readInt();
+                s.size = in.readInt();
+                s.timestamps = new int[s.size];
+                s.offsets = new long[s.size];
+                for ( int i = 0; i < s.size; i++ )
+                    { s.timestamps[i] = in.readInt(); }
+                for ( int i = 0; i < s.size; i++ )
+                    { s.offsets[i] = in.readLong(); }
+                index.series.put(id, s);
+            }
+
+        }
+        finally
+            { in.close(); }
+
+        return(index);
+
+    }
+
+    /**
+     * Returns the file where the index of the given input file is persisted.
+     *
+     * @param input The input file.
+     * @return The index file.
+     */
+    public static File getIndexFile(final File input)
+        { return(new File(input.getPath() + INDEX_FILE_EXTENSION)); }
+
+    /**
+     * Checks whether the index of the given input file is persisted and up to
+     * date, reading only its header.
+     *
+     * @param input The input file.
+     * @return 'true' in case the index does not need to be built.
+     */
+    public static boolean isIndexed(final File input)
+    {
+
+        File file = getIndexFile(input);
+        if ( file.isFile() == false ) { return(false); }
+
+        try
+        {
+            DataInputStream in = new DataInputStream(new FileInputStream(file));
+            try
+            {
+                return( ( in.readInt() == MAGIC )
+                            && ( in.readLong() == input.length() )
+                            && ( in.readLong() == input.lastModified() ) );
+            }
+            finally
+                { in.close(); }
+        }
+        catch(IOException ex)
+            { return(false); }
+
+    }
+
+    /**
+     * Builds the index of the given input file, reading its records one at
+     * a time (they are not kept in memory).
+     *
+     * @param input The input file.
+     * @return The index, sealed.
+     * @throws IOException In case any IO problem occurs.
+     */
+    public static TimeIndex build(final File input)
+        throws IOException
+    {
+
+        TimeIndex index = new TimeIndex();
+        SensorDataReader in = new SensorDataReader(input, null);
+
+        try
+        {
+            SensorData sd = null;
+            while ( ( sd = in.read() ) != null )
+                { index.add(sd.getSensorId(), sd.getTimestamp(),
+                            in.getLineOffset()); }
+        }
+        finally
+            { in.close(); }
+
+        index.seal(input);
+        return(index);
+
+    }
+
+    /**
+     * Opens the index of the given input file. In case it has not been
+     * persisted yet (by a previous run that read the whole input file) or the
+     * input file changed, the index is built again (see build()) and it is
+     * persisted next to the input file.
+     *
+     * @param input The input file.
+     * @return The index.
+     * @throws IOException In case any IO problem occurs.
+     */
+    public static TimeIndex open(final File input)
+        throws IOException
+    {
+
+        File file = getIndexFile(input);
+
+        if ( file.isFile() == true )
+        {
+            try
+            {
+                TimeIndex index = load(file);
+                if ( index.isValidFor(input) == true ) { return(index); }
+            }
+            catch(IOException ex)
+            {
+                Logger.getLogger(SensorLocator.class.getName())
+                        .log(Level.WARNING, "Could not load time index, "
+                                + "rebuilding it: {0}", ex.getMessage());
+            }
+        }
+
+        TimeIndex index = build(input);
+        index.save(file);
+        return(index);
+
+    }
+
+}
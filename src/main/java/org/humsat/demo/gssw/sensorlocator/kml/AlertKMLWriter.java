@@ -0,0 +1,137 @@
+/**
+ * @file AlertKMLWriter.java
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ * @version 0.1
+ *
+ * @section LICENSE
+ *
+ * This file is part of SensorLocator.
+ * SensorLocator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SensorLocator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SensorLocator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.humsat.demo.gssw.sensorlocator.kml;
+
+import java.io.IOException;
+import org.humsat.demo.gssw.sensorlocator.alert.Alert;
+import org.humsat.demo.gssw.sensorlocator.alert.AlertListener;
+import org.humsat.demo.gssw.sensorlocator.data.DecimalFormatter;
+import org.jdom2.Element;
+
+/**
+ * KML writer that adds one placemark per alert to an "Alerts" folder, with
+ * its own icon style. Alerts without a known position are skipped.
+ *
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ */
+public class AlertKMLWriter
+    extends SimpleKMLWriter
+    implements AlertListener
+{
+
+    /** Identifier of the style of the alerts. */
+    public final static String ALERT_STYLE_ID = "alertIcon";
+    /** Color of the icons of the alerts (aabbggrr). */
+    public final static String ALERT_COLOR = "ff00a5ff";
+    /** Scale of the icons of the alerts. */
+    public final static String ALERT_SCALE = "1.3";
+
+    /** Folder where the alerts are added. */
+    protected Element folder = null;
+    /** Number of placemarks added. */
+    protected long placemarks = 0L;
+
+    /**
+     * Main constructor.
+     *
+     * @param formatter The formatter for the coordinates and the values.
+     */
+    public AlertKMLWriter(final DecimalFormatter formatter)
+    {
+
+        super(formatter);
+
+        Element style = new Element("Style", ns);
+        style.setAttribute("id", ALERT_STYLE_ID);
+        Element iconStyle = new Element("IconStyle", ns);
+        Element color = new Element("color", ns);
+        color.setText(ALERT_COLOR);
+        iconStyle.addContent(color);
+        Element scale = new Element("scale", ns);
+        scale.setText(ALERT_SCALE);
+        iconStyle.addContent(scale);
+        Element icon = new Element("Icon", ns);
+        Element href = new Element("href", ns);
+        href.setText(PLACEMARK_ICON_URL);
+        icon.addContent(href);
+        iconStyle.addContent(icon);
+        style.addContent(iconStyle);
+        this.root.addContent(style);
+
+        this.folder = new Element("Folder", ns);
+        Element name = new Element("name", ns);
+        name.setText("Alerts");
+        this.folder.addContent(name);
+        this.root.addContent(this.folder);
+
+    }
+
+    @Override
+    public void alertRaised(final Alert alert)
+        throws IOException
+    {
+
+        if ( Float.isNaN(alert.getLatitude()) == true ) { return; }
+
+        Element placemark = new Element("Placemark", ns);
+
+        Element name = new Element("name", ns);
+        name.setText(KMLNode.ID_PREFIX + alert.getSensorId() + ": "
+                        + alert.getRule());
+        placemark.addContent(name);
+
+        Element description = new Element("description", ns);
+        StringBuilder sb = new StringBuilder();
+        sb.append(alert.getName()).append(" = ");
+        this.formatter.appendValue(sb, (float) alert.getValue())
+            .append(" (").append(alert.getUnit()).append("), timestamp = ")
+            .append(alert.getTimestamp());
+        description.setText(sb.toString());
+        placemark.addContent(description);
+
+        Element styleUrl = new Element("styleUrl", ns);
+        styleUrl.setText("#" + ALERT_STYLE_ID);
+        placemark.addContent(styleUrl);
+
+        Element point = new Element("Point", ns);
+        Element coordinates = new Element("coordinates", ns);
+        sb.setLength(0);
+        this.formatter.appendCoordinate(sb, alert.getLongitude()).append(',');
+        this.formatter.appendCoordinate(sb, alert.getLatitude());
+        coordinates.setText(sb.toString());
+        point.addContent(coordinates);
+        placemark.addContent(point);
+
+        this.folder.addContent(placemark);
+        this.placemarks++;
+
+    }
+
+    /**
+     * Getter for the number of placemarks added.
+     *
+     * @return Number of placemarks.
+     */
+    public long getPlacemarks()
+        { return(this.placemarks); }
+
+}
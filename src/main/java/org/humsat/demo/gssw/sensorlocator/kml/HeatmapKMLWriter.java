@@ -0,0 +1,135 @@
+/**
+ * @file HeatmapKMLWriter.java
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ * @version 0.1
+ *
+ * @section LICENSE
+ *
+ * This file is part of SensorLocator.
+ * SensorLocator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SensorLocator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SensorLocator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.humsat.demo.gssw.sensorlocator.kml;
+
+import org.humsat.demo.gssw.sensorlocator.data.DecimalFormatter;
+import org.humsat.demo.gssw.sensorlocator.heatmap.Heatmap;
+import org.jdom2.Element;
+
+/**
+ * KML writer that adds a heatmap image as a GroundOverlay over its extent,
+ * together with a ScreenOverlay with the legend of its color ramp.
+ *
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ */
+public class HeatmapKMLWriter
+    extends SimpleKMLWriter
+{
+
+    /** Width of the legend image, in pixels. */
+    public final static int LEGEND_WIDTH = 24;
+    /** Height of the legend image, in pixels. */
+    public final static int LEGEND_HEIGHT = 256;
+
+    /**
+     * Main constructor.
+     *
+     * @param formatter The formatter for the coordinates and the values.
+     */
+    public HeatmapKMLWriter(final DecimalFormatter formatter)
+        { super(formatter); }
+
+    /**
+     * Adds the overlays of a heatmap.
+     *
+     * @param heatmap The heatmap.
+     * @param title Title of the heatmap (name of the value and its unit).
+     * @param min Value of the first color of the ramp.
+     * @param max Value of the last color of the ramp.
+     * @param imageHref Reference to the image of the heatmap.
+     * @param legendHref Reference to the image of the legend.
+     */
+    public void addHeatmap
+            (   final Heatmap heatmap, final String title, final float min,
+                final float max, final String imageHref,
+                final String legendHref  )
+    {
+
+        StringBuilder range = new StringBuilder();
+        this.formatter.appendValue(range, min).append(" (blue) - ");
+        this.formatter.appendValue(range, max).append(" (red)");
+
+        Element overlay = new Element("GroundOverlay", ns);
+        this.addText(overlay, "name", title);
+        this.addText(overlay, "description", range.toString());
+        Element icon = new Element("Icon", ns);
+        this.addText(icon, "href", imageHref);
+        overlay.addContent(icon);
+
+        Element box = new Element("LatLonBox", ns);
+        this.addCoordinate(box, "north", heatmap.getNorth());
+        this.addCoordinate(box, "south", heatmap.getSouth());
+        this.addCoordinate(box, "east", heatmap.getEast());
+        this.addCoordinate(box, "west", heatmap.getWest());
+        overlay.addContent(box);
+        this.root.addContent(overlay);
+
+        Element legend = new Element("ScreenOverlay", ns);
+        this.addText(legend, "name", "Legend: " + title);
+        this.addText(legend, "description", range.toString());
+        Element l_icon = new Element("Icon", ns);
+        this.addText(l_icon, "href", legendHref);
+        legend.addContent(l_icon);
+        legend.addContent(this.createXY("overlayXY", "0", "0", "fraction"));
+        legend.addContent(this.createXY("screenXY", "10", "30", "pixels"));
+        legend.addContent(this.createXY("size", "0", "0", "pixels"));
+        this.root.addContent(legend);
+
+    }
+
+    /**
+     * Adds a child element with the given text.
+     */
+    private void addText
+            (final Element parent, final String name, final String text)
+    {
+        Element e = new Element(name, ns);
+        e.setText(text);
+        parent.addContent(e);
+    }
+
+    /**
+     * Adds a child element with the given coordinate.
+     */
+    private void addCoordinate
+            (final Element parent, final String name, final double value)
+    {
+        this.addText(parent, name, this.formatter.appendCoordinate
+                    (new StringBuilder(), (float) value).toString());
+    }
+
+    /**
+     * Creates a vec2 element (overlayXY, screenXY or size).
+     */
+    private Element createXY
+            (   final String name, final String x, final String y,
+                final String units  )
+    {
+        Element e = new Element(name, ns);
+        e.setAttribute("x", x);
+        e.setAttribute("y", y);
+        e.setAttribute("xunits", units);
+        e.setAttribute("yunits", units);
+        return(e);
+    }
+
+}
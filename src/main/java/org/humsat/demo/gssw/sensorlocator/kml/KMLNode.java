@@ -25,6 +25,7 @@ import java.util.ArrayList;
 import java.util.List;
 import org.humsat.demo.gssw.sensorlocator.data.DataField;
 import org.humsat.demo.gssw.sensorlocator.data.DataFieldConstants;
+import org.humsat.demo.gssw.sensorlocator.data.DecimalFormatter;
 import org.humsat.demo.gssw.sensorlocator.data.SensorData;
 
 /**
@@ -80,16 +81,49 @@ public class KMLNode
          * @return The KML position in String format.
          */
         public String getKMLPosition()
-            { return("" + this.longitude + "," + this.latitude); }
+            { return(this.appendKMLPosition(new StringBuilder()).toString()); }
+        
+        /**
+         * Appends the KML 2.2 representation of this position to the given
+         * buffer, without creating any intermediate string.
+         * 
+         * @param buffer The buffer where to append this position.
+         * @return The same buffer, for chaining calls.
+         */
+        public StringBuilder appendKMLPosition(final StringBuilder buffer)
+            { return(this.appendKMLPosition(buffer, DecimalFormatter.DEFAULT)); }
+        
+        /**
+         * Appends the KML 2.2 representation of this position to the given
+         * buffer, formatting the coordinates with the given formatter.
+         * 
+         * @param buffer The buffer where to append this position.
+         * @param formatter The formatter for the coordinates.
+         * @return The same buffer, for chaining calls.
+         */
+        public StringBuilder appendKMLPosition
+                (final StringBuilder buffer, final DecimalFormatter formatter)
+        {
+            formatter.appendCoordinate(buffer, this.longitude).append(',');
+            return(formatter.appendCoordinate(buffer, this.latitude));
+        }
         
         @Override
         public String toString()
+            { return(this.appendTo(new StringBuilder()).toString()); }
+        
+        /**
+         * Appends the text representation of this position to the given
+         * buffer, without creating any intermediate string.
+         * 
+         * @param buffer The buffer where to append this position.
+         * @return The same buffer, for chaining calls.
+         */
+        public StringBuilder appendTo(final StringBuilder buffer)
         {
-            String buffer = "";
-            buffer  += "(longitude,latitude) = "
-                    + "(" + this.longitude + "," + this.latitude + ")"
-                    + POSITION_UNITS;
-            return(buffer);
+            buffer.append("(longitude,latitude) = (");
+            this.appendKMLPosition(buffer);
+            return(buffer.append(')').append(POSITION_UNITS));
         }
         
     }
@@ -124,16 +158,27 @@ public class KMLNode
     
     @Override
     public String toString()
+        { return(this.appendTo(new StringBuilder()).toString()); }
+    
+    /**
+     * Appends the text representation of this node to the given buffer,
+     * without creating any intermediate string.
+     * 
+     * @param buffer The buffer where to append this node.
+     * @return The same buffer, for chaining calls.
+     */
+    @Override
+    public StringBuilder appendTo(final StringBuilder buffer)
     {
-        String buffer = "";
         
-        buffer += ">>>>>> KMLNode ";
-        buffer += "@" + this.position + "\n";
+        buffer.append(">>>>>> KMLNode @");
+        this.position.appendTo(buffer).append('\n');
         
         for ( DataField df_i : this.information )
-            { buffer += "* " + df_i + "\n"; }
+            { df_i.appendTo(buffer.append("* ")).append('\n'); }
         
         return(buffer);
+        
     }
     
     /**
@@ -144,6 +189,40 @@ public class KMLNode
     public String getName()
         { return(this.name); }
     
+    /**
+     * Getter for the identifier of this KML node. This identifier only depends
+     * on the sensor identifier, therefore it remains stable among different
+     * readings of the same sensor.
+     * 
+     * @return The identifier of the KML node.
+     */
+    public String getId()
+        { return(getId(this.parent)); }
+    
+    /**
+     * Getter for the parent property.
+     * 
+     * @return The SensorData object from where this node was created.
+     */
+    public SensorData getParent()
+        { return(this.parent); }
+    
+    /**
+     * Getter for the position property.
+     * 
+     * @return The position of the sensor.
+     */
+    public Position getPosition()
+        { return(this.position); }
+    
+    /**
+     * Getter for the information property.
+     * 
+     * @return List with the data fields non-relative to position.
+     */
+    public List<DataField> getInformationFields()
+        { return(this.information); }
+    
     /**
      * Generates a String containing the information of the DataFields that are
      * in the information list.
@@ -151,10 +230,34 @@ public class KMLNode
      * @return String with the description of this KML node.
      */
     public String getDescription()
+        { return(this.appendDescription(new StringBuilder()).toString()); }
+    
+    /**
+     * Appends the description of this KML node to the given buffer, without
+     * creating any intermediate string.
+     * 
+     * @param buffer The buffer where to append the description.
+     * @return The same buffer, for chaining calls.
+     */
+    public StringBuilder appendDescription(final StringBuilder buffer)
+        { return(this.appendDescription(buffer, DecimalFormatter.DEFAULT)); }
+    
+    /**
+     * Appends the description of this KML node to the given buffer,
+     * formatting the values with the given formatter.
+     * 
+     * @param buffer The buffer where to append the description.
+     * @param formatter The formatter for the values.
+     * @return The same buffer, for chaining calls.
+     */
+    public StringBuilder appendDescription
+            (final StringBuilder buffer, final DecimalFormatter formatter)
     {
-        String buffer = "";
         for ( DataField df_i : this.information )
-            { buffer += "<li>" + df_i + "</li>\n"; }
+        {
+            df_i.appendTo(buffer.append("<li>"), formatter)
+                    .append("</li>\n");
+        }
         return(buffer);
     }
     
@@ -238,4 +341,17 @@ public class KMLNode
         { return("SensorID = " + sensor.getSensorId() 
                     + ", timestamp = " + sensor.getTimestamp()); }
     
+    /** Prefix for the identifiers of the KML nodes. */
+    public final static String ID_PREFIX = "sensor-";
+    
+    /**
+     * Static method that generates a KML node identifier from the identifier
+     * of the given sensor.
+     * 
+     * @param sensor The sensor whose identifier is to be used.
+     * @return The identifier for the associated KML node.
+     */
+    public static String getId(final SensorData sensor)
+        { return(ID_PREFIX + sensor.getSensorId()); }
+    
 }
@@ -0,0 +1,489 @@
+/**
+ * @file KMLUpdateWriter.java
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ * @version 0.1
+ *
+ * @section LICENSE
+ *
+ * This file is part of SensorLocator.
+ * SensorLocator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SensorLocator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SensorLocator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.humsat.demo.gssw.sensorlocator.kml;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.Namespace;
+import org.jdom2.output.Format;
+import org.jdom2.output.XMLOutputter;
+
+/**
+ * KML writer that publishes the differences with the previously published
+ * state. Each run writes two documents: the complete KML document, whose
+ * placemarks have stable identifiers, for the clients that load it for the
+ * first time; and a NetworkLinkControl document with an Update element,
+ * targeted to the complete one, that creates, changes or deletes only those
+ * placemarks that changed since the last run, for the clients that already
+ * loaded it.
+ *
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ */
+public class KMLUpdateWriter
+{
+
+    /** Identifier of the Document element that contains the placemarks. */
+    public final static String DOCUMENT_ID = "humsat-sensors";
+
+    /** KML 2.2 namespace. */
+    protected Namespace ns
+            = Namespace.getNamespace("", SimpleKMLWriter.KML_2_2_NS);
+
+    /** URL of the document to be updated by the NetworkLinkControl. */
+    protected String targetHref = null;
+
+    /** Writer used for creating the placemarks. */
+    protected SimpleKMLWriter writer = new SimpleKMLWriter();
+
+    /** Previously published state, (placemark id, content hash). */
+    protected Map<String, Long> published = null;
+    /** Current state, (placemark id, content hash). */
+    protected Map<String, Long> current = new LinkedHashMap<String, Long>();
+    /** Current placemarks, indexed by their id. */
+    protected Map<String, Element> placemarks
+            = new LinkedHashMap<String, Element>();
+    /** Timestamp of the reading used for each current placemark. */
+    protected Map<String, Integer> timestamps
+            = new LinkedHashMap<String, Integer>();
+
+    /** Number of placemarks created by the last update (or document). */
+    protected int created = 0;
+    /** Number of placemarks changed by the last update. */
+    protected int changed = 0;
+    /** Number of placemarks deleted by the last update. */
+    protected int deleted = 0;
+
+    /**
+     * Main constructor.
+     *
+     * @param targetHref URL of the complete KML document that the map clients
+     *                      load through their NetworkLink, it is the target of
+     *                      the updates generated by this writer.
+     */
+    public KMLUpdateWriter(final String targetHref)
+    {
+
+        if ( targetHref == null )
+            { throw(new NullPointerException("<targetHref> is null.")); }
+        if ( targetHref.isEmpty() == true )
+            { throw(new IllegalArgumentException("<targetHref> is empty.")); }
+
+        this.targetHref = targetHref;
+
+    }
+
+    /**
+     * Adds a new KML node to this writer. Since placemarks are identified by
+     * the sensor identifier, only the most recent reading of each sensor is
+     * kept.
+     *
+     * @param node The KML node to be added.
+     */
+    public void addKMLNode(KMLNode node)
+    {
+
+        String id = node.getId();
+        int timestamp = node.getParent().getTimestamp();
+
+        Integer previous = this.timestamps.get(id);
+        if ( ( previous != null ) && ( previous.intValue() > timestamp ) )
+            { return; }
+
+        Element placemark = this.writer.createPlacemark(node);
+        placemark.setAttribute("id", id);
+
+        this.timestamps.put(id, timestamp);
+        this.placemarks.put(id, placemark);
+        this.current.put(id, hash(placemark));
+
+    }
+
+    /**
+     * Adds all the nodes of the input list to this writer.
+     *
+     * @param nodes List of nodes to be added to the writer.
+     */
+    public void addKMLNodes(List<KMLNode> nodes)
+    {
+        for ( KMLNode k_i : nodes )
+            { this.addKMLNode(k_i); }
+    }
+
+    /**
+     * Returns whether a previously published state has been loaded or not. In
+     * case it has not, the update has no operations, since the clients have
+     * not loaded any document to be updated yet.
+     *
+     * @return 'true' in case there is a previously published state.
+     */
+    public boolean hasPublishedState()
+        { return(this.published != null); }
+
+    /**
+     * Getter for the number of placemarks created by the last update.
+     *
+     * @return Number of placemarks.
+     */
+    public int getCreated()
+        { return(this.created); }
+
+    /**
+     * Getter for the number of placemarks changed by the last update.
+     *
+     * @return Number of placemarks.
+     */
+    public int getChanged()
+        { return(this.changed); }
+
+    /**
+     * Getter for the number of placemarks deleted by the last update.
+     *
+     * @return Number of placemarks.
+     */
+    public int getDeleted()
+        { return(this.deleted); }
+
+    /**
+     * Creates the complete KML document with all the current placemarks.
+     *
+     * @return The KML document.
+     */
+    public Document createCompleteDocument()
+    {
+
+        SimpleKMLWriter complete = new SimpleKMLWriter();
+        complete.root.setAttribute("id", DOCUMENT_ID);
+
+        for ( Element p_i : this.placemarks.values() )
+            { complete.root.addContent(p_i.clone()); }
+
+        return(complete.kmlDocument);
+
+    }
+
+    /**
+     * Creates the NetworkLinkControl document with the operations that update
+     * the previously published state into the current one, updating the
+     * counters of created, changed and deleted placemarks. Without a
+     * previously published state, all the placemarks are counted as created
+     * but the update has no operations (see hasPublishedState()).
+     *
+     * @return The KML document.
+     */
+    public Document createUpdateDocument()
+    {
+
+        Map<String, Long> before = ( this.published == null ) ?
+                            new LinkedHashMap<String, Long>() : this.published;
+
+        Element create = new Element("Create", ns);
+        Element c_document = new Element("Document", ns);
+        c_document.setAttribute("targetId", DOCUMENT_ID);
+        create.addContent(c_document);
+
+        Element change = new Element("Change", ns);
+        Element delete = new Element("Delete", ns);
+
+        this.created = 0;
+        this.changed = 0;
+        this.deleted = 0;
+
+        for ( Entry<String, Long> e_i : this.current.entrySet() )
+        {
+
+            String id = e_i.getKey();
+            Long previous = before.get(id);
+
+            if ( previous == null )
+            {
+                c_document.addContent(this.placemarks.get(id).clone());
+                this.created++;
+                continue;
+            }
+
+            if ( previous.longValue() == e_i.getValue().longValue() )
+                { continue; }
+
+            Element placemark = this.placemarks.get(id).clone();
+            placemark.removeAttribute("id");
+            placemark.setAttribute("targetId", id);
+            change.addContent(placemark);
+            this.changed++;
+
+        }
+
+        for ( String id : before.keySet() )
+        {
+
+            if ( this.current.containsKey(id) == true )
+                { continue; }
+
+            Element placemark = new Element("Placemark", ns);
+            placemark.setAttribute("targetId", id);
+            delete.addContent(placemark);
+            this.deleted++;
+
+        }
+
+        Element update = new Element("Update", ns);
+        Element href = new Element("targetHref", ns);
+        href.setText(this.targetHref);
+        update.addContent(href);
+
+        if ( this.hasPublishedState() == true )
+        {
+            if ( this.created > 0 ) { update.addContent(create); }
+            if ( this.changed > 0 ) { update.addContent(change); }
+            if ( this.deleted > 0 ) { update.addContent(delete); }
+        }
+
+        Element nlc = new Element("NetworkLinkControl", ns);
+        nlc.addContent(update);
+
+        Element kml = new Element("kml", ns);
+        kml.addContent(nlc);
+
+        return(new Document(kml));
+
+    }
+
+    /**
+     * Writes the complete document to the given file.
+     *
+     * @param output The file where to write the document.
+     * @throws IOException In case an IO error occurs.
+     */
+    public void writeDocument(File output)
+        throws IOException
+    {
+        FileOutputStream fos = new FileOutputStream(output);
+        try
+            { this.writeDocument(fos); }
+        finally
+            { fos.close(); }
+    }
+
+    /**
+     * Writes the complete document to the given output stream.
+     *
+     * @param os The output stream where the document is to be written.
+     * @throws IOException In case an IO error occurs.
+     */
+    public void writeDocument(OutputStream os)
+        throws IOException
+    {
+        XMLOutputter outputter = new XMLOutputter(Format.getPrettyFormat());
+        outputter.output(this.createCompleteDocument(), os);
+    }
+
+    /**
+     * Writes the update document to the given file.
+     *
+     * @param output The file where to write the document.
+     * @throws IOException In case an IO error occurs.
+     */
+    public void writeUpdate(File output)
+        throws IOException
+    {
+        FileOutputStream fos = new FileOutputStream(output);
+        try
+            { this.writeUpdate(fos); }
+        finally
+            { fos.close(); }
+    }
+
+    /**
+     * Writes the update document to the given output stream.
+     *
+     * @param os The output stream where the document is to be written.
+     * @throws IOException In case an IO error occurs.
+     */
+    public void writeUpdate(OutputStream os)
+        throws IOException
+    {
+        XMLOutputter outputter = new XMLOutputter(Format.getPrettyFormat());
+        outputter.output(this.createUpdateDocument(), os);
+    }
+
+    /**
+     * Returns the URL of the complete document relative to the update
+     * document, to be used as the targetHref of the updates in case both
+     * documents are published from the same directory tree.
+     *
+     * @param update The file of the update document.
+     * @param document The file of the complete document.
+     * @return The relative URL.
+     */
+    public static String getTargetHref(final File update, final File document)
+    {
+
+        File dir = update.getAbsoluteFile().getParentFile();
+        String path = dir.toPath().relativize
+                            (document.getAbsoluteFile().toPath()).toString();
+
+        try
+        {
+            return(new URI(null, null, path.replace(File.separatorChar, '/'),
+                            null).toASCIIString());
+        }
+        catch(URISyntaxException ex)
+        {
+            throw(new IllegalArgumentException("Wrong path = " + path
+                                                + ", " + ex.getMessage()));
+        }
+
+    }
+
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>> state
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
+
+    /** File extension utilized for the published state file. */
+    public final static String STATE_FILE_EXTENSION = ".state";
+    /** Separator of the fields of each line of the state file. */
+    public final static String STATE_FIELD_SEPARATOR = ",";
+
+    /**
+     * Method that returns the name of the state file associated with the given
+     * output file.
+     *
+     * @param kmlFilename The name of the published KML file.
+     * @return The just-generated name.
+     */
+    public static String getStateFilename(String kmlFilename)
+        { return kmlFilename + STATE_FILE_EXTENSION; }
+
+    /**
+     * Loads the previously published state from the given file. In case the
+     * file does not exist, no state is loaded and the next document to be
+     * written will be the complete one.
+     *
+     * @param state File with the previously published state.
+     * @throws IOException In case an IO error occurs.
+     */
+    public void loadState(final File state)
+        throws IOException
+    {
+
+        if ( state.exists() == false )
+        {
+            Logger.getLogger(KMLUpdateWriter.class.getName())
+                    .log(Level.INFO, "No published state found, f = {0}"
+                                        , state.getAbsolutePath());
+            return;
+        }
+
+        Map<String, Long> s = new LinkedHashMap<String, Long>();
+        BufferedReader in = new BufferedReader(new FileReader(state));
+        String line = null;
+
+        while ( ( line = in.readLine() ) != null )
+        {
+
+            int sep = line.lastIndexOf(STATE_FIELD_SEPARATOR);
+            if ( sep <= 0 )
+            {
+                Logger.getLogger(KMLUpdateWriter.class.getName())
+                        .log(Level.WARNING, "Wrong state line = {0}", line);
+                continue;
+            }
+
+            s.put(  line.substring(0, sep),
+                    Long.parseLong(line.substring(sep + 1))  );
+
+        }
+
+        in.close();
+        this.published = s;
+
+    }
+
+    /**
+     * Saves the current state to the given file, so that the next run only
+     * publishes the changes with respect to it.
+     *
+     * @param state File where to save the current state.
+     * @throws IOException In case an IO error occurs.
+     */
+    public void saveState(final File state)
+        throws IOException
+    {
+
+        BufferedWriter bw = new BufferedWriter(new FileWriter(state, false));
+
+        for ( Entry<String, Long> e_i : this.current.entrySet() )
+        {
+            bw.write(e_i.getKey() + STATE_FIELD_SEPARATOR
+                        + e_i.getValue());
+            bw.newLine();
+        }
+
+        bw.close();
+
+    }
+
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>> hash
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
+
+    /** FNV-1a 64 bits offset basis. */
+    public final static long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    /** FNV-1a 64 bits prime. */
+    public final static long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * Computes the hash of the content of the given placemark element.
+     *
+     * @param placemark The placemark element.
+     * @return The 64 bits FNV-1a hash of the serialized placemark.
+     */
+    public static long hash(final Element placemark)
+    {
+
+        String text = new XMLOutputter(Format.getCompactFormat())
+                            .outputString(placemark);
+
+        long h = FNV_OFFSET_BASIS;
+        for ( int i = 0; i < text.length(); i++ )
+            { h ^= text.charAt(i); h *= FNV_PRIME; }
+
+        return(h);
+
+    }
+
+}
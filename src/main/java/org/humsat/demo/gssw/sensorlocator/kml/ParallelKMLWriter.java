@@ -0,0 +1,464 @@
+/**
+ * @file ParallelKMLWriter.java
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ * @version 0.1
+ *
+ * @section LICENSE
+ *
+ * This file is part of SensorLocator.
+ * SensorLocator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SensorLocator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SensorLocator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.humsat.demo.gssw.sensorlocator.kml;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.humsat.demo.gssw.sensorlocator.data.DecimalFormatter;
+import org.humsat.demo.gssw.sensorlocator.output.OutputSink;
+import org.humsat.demo.gssw.sensorlocator.stats.SensorStatistics;
+import org.jdom2.output.Format;
+import org.jdom2.output.XMLOutputter;
+
+/**
+ * KML writer that renders the placemarks in parallel. Nodes are grouped in
+ * batches that worker threads serialize into byte buffers; the fragments are
+ * then written in order, between the header and the footer of the document.
+ * The generated document is identical to the one generated by the
+ * SimpleKMLWriter, also with the folder of the statistics of the sensors,
+ * which is written right after the header.
+ *
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ */
+public class ParallelKMLWriter
+    implements OutputSink
+{
+
+    /** Charset for the KML documents. */
+    public final static Charset UTF_8 = Charset.forName("UTF-8");
+    /** Line separator used by the pretty format of the SimpleKMLWriter. */
+    public final static String LINE_SEPARATOR = "\r\n";
+    /** Indentation of the placemarks within the document. */
+    public final static String PLACEMARK_INDENT = "    ";
+    /** Indentation used for each nesting level. */
+    public final static String INDENT = "  ";
+
+    /** Default number of nodes serialized by each task. */
+    public final static int DEFAULT_BATCH_SIZE = 256;
+    /** Batches that can be pending to be written, per worker thread. */
+    public final static int BATCHES_PER_THREAD = 4;
+
+    /** Header of the KML document, as generated by the SimpleKMLWriter. */
+    protected static byte[] header = null;
+    /** Footer of the KML document, as generated by the SimpleKMLWriter. */
+    protected static byte[] footer = null;
+
+    /** Number of worker threads. */
+    protected int threads = 1;
+    /** Number of nodes serialized by each task. */
+    protected int batchSize = DEFAULT_BATCH_SIZE;
+    /** Formatter for the coordinates and the values of the placemarks. */
+    protected DecimalFormatter formatter = DecimalFormatter.DEFAULT;
+
+    /** Workers for serializing the batches. */
+    protected ExecutorService workers = null;
+    /** Serialized fragments pending to be written, in document order. */
+    protected Deque<Future<ByteBuffer>> pending = null;
+    /** Batch currently being filled. */
+    protected List<KMLNode> batch = null;
+    /** Output stream for the current document. */
+    protected OutputStream os = null;
+    /** Statistics of each sensor to be added to the document. */
+    protected SensorStatistics statistics = null;
+
+    /**
+     * Main constructor.
+     *
+     * @param threads Number of worker threads.
+     */
+    public ParallelKMLWriter(final int threads)
+        { this(threads, DEFAULT_BATCH_SIZE); }
+
+    /**
+     * Constructor that also configures the size of the batches.
+     *
+     * @param threads Number of worker threads.
+     * @param batchSize Number of nodes serialized by each task.
+     */
+    public ParallelKMLWriter(final int threads, final int batchSize)
+        { this(threads, batchSize, DecimalFormatter.DEFAULT); }
+
+    /**
+     * Constructor that also configures the size of the batches and the
+     * formatter for the coordinates and the values of the placemarks.
+     *
+     * @param threads Number of worker threads.
+     * @param batchSize Number of nodes serialized by each task.
+     * @param formatter The formatter to be used.
+     */
+    public ParallelKMLWriter
+            (   final int threads, final int batchSize,
+                final DecimalFormatter formatter    )
+    {
+
+        if ( threads <= 0 )
+            { throw(new IllegalArgumentException("<threads> = " + threads
+                    + ", value not permitted. Must be bigger than 0.")); }
+        if ( batchSize <= 0 )
+            { throw(new IllegalArgumentException("<batchSize> = " + batchSize
+                    + ", value not permitted. Must be bigger than 0.")); }
+
+        this.threads = threads;
+        this.batchSize = batchSize;
+        this.formatter = formatter;
+
+    }
+
+    /**
+     * Sets the statistics of the sensors, which are written once, as a folder
+     * with one placemark per sensor (see SimpleKMLWriter.setStatistics());
+     * the statistics must be complete before the document is begun.
+     *
+     * @param statistics The statistics, 'null' for not adding them.
+     */
+    public void setStatistics(final SensorStatistics statistics)
+        { this.statistics = statistics; }
+
+    @Override
+    public void begin(OutputStream os)
+        throws IOException
+    {
+
+        this.os = os;
+        this.workers = Executors.newFixedThreadPool(this.threads);
+        this.pending = new ArrayDeque<Future<ByteBuffer>>();
+        this.batch = new ArrayList<KMLNode>(this.batchSize);
+
+        initializeHeaderAndFooter();
+        this.os.write(header);
+        if ( this.statistics != null )
+            { this.os.write(renderStatistics
+                                (this.statistics, this.formatter)); }
+
+    }
+
+    @Override
+    public void write(KMLNode node)
+        throws IOException
+    {
+
+        this.batch.add(node);
+        if ( this.batch.size() < this.batchSize ) { return; }
+
+        this.submit();
+
+        while ( this.pending.size() >= ( this.threads * BATCHES_PER_THREAD ) )
+            { this.writeNextFragment(); }
+
+    }
+
+    @Override
+    public void end()
+        throws IOException
+    {
+
+        try
+        {
+            if ( this.batch.isEmpty() == false ) { this.submit(); }
+            while ( this.pending.isEmpty() == false )
+                { this.writeNextFragment(); }
+        }
+        finally
+            { this.workers.shutdownNow(); }
+
+        this.os.write(footer);
+        this.os.flush();
+
+    }
+
+    @Override
+    public void abort()
+    {
+        if ( this.workers != null ) { this.workers.shutdownNow(); }
+        if ( this.pending != null ) { this.pending.clear(); }
+    }
+
+    /**
+     * Submits the current batch to the workers and starts a new one.
+     */
+    protected void submit()
+    {
+
+        final List<KMLNode> nodes = this.batch;
+        final DecimalFormatter f = this.formatter;
+        this.batch = new ArrayList<KMLNode>(this.batchSize);
+
+        this.pending.add(this.workers.submit(new Callable<ByteBuffer>()
+        {
+            @Override
+            public ByteBuffer call()
+                    throws CharacterCodingException
+                { return(renderPlacemarks(nodes, f)); }
+        }));
+
+    }
+
+    /**
+     * Waits for the oldest pending fragment and writes it to the output.
+     *
+     * @throws IOException In case an IO error occurs or the serialization of
+     *                      the fragment failed.
+     */
+    protected void writeNextFragment()
+        throws IOException
+    {
+
+        Future<ByteBuffer> f = this.pending.poll();
+
+        try
+        {
+            ByteBuffer fragment = f.get();
+            this.os.write(  fragment.array(),
+                            fragment.arrayOffset() + fragment.position(),
+                            fragment.remaining()    );
+        }
+        catch(InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw(new IOException("Interrupted while rendering KML.", ex));
+        }
+        catch(ExecutionException ex)
+            { throw(new IOException("Could not render KML fragment.", ex)); }
+
+    }
+
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>> render
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
+
+    /** Closing tag of the Document element. */
+    public final static String DOCUMENT_END_TAG = "</Document>";
+
+    /**
+     * Generates the header and the footer of the document from the stub
+     * document of the SimpleKMLWriter, so that both writers generate exactly
+     * the same output.
+     */
+    protected static synchronized void initializeHeaderAndFooter()
+    {
+
+        if ( header != null ) { return; }
+
+        SimpleKMLWriter skw = new SimpleKMLWriter();
+        String stub = new XMLOutputter(Format.getPrettyFormat())
+                            .outputString(skw.kmlDocument);
+
+        int index = stub.lastIndexOf(INDENT + DOCUMENT_END_TAG);
+        footer = stub.substring(index).getBytes(UTF_8);
+        header = stub.substring(0, index).getBytes(UTF_8);
+
+    }
+
+    /**
+     * Serializes the folder of the statistics of the sensors, as generated
+     * by the SimpleKMLWriter right after the header of the document.
+     *
+     * @param statistics The statistics of the sensors.
+     * @param formatter The formatter for the values.
+     * @return The serialized folder, UTF-8 encoded.
+     */
+    public static byte[] renderStatistics
+            (   final SensorStatistics statistics,
+                final DecimalFormatter formatter    )
+    {
+
+        initializeHeaderAndFooter();
+        SimpleKMLWriter skw = new SimpleKMLWriter(formatter);
+        skw.setStatistics(statistics);
+        String document = new XMLOutputter(Format.getPrettyFormat())
+                            .outputString(skw.kmlDocument);
+
+        int from = new String(header, UTF_8).length();
+        int to = document.lastIndexOf(INDENT + DOCUMENT_END_TAG);
+        return(document.substring(from, to).getBytes(UTF_8));
+
+    }
+
+    /** Buffer where each worker thread renders its batches. */
+    protected final static ThreadLocal<StringBuilder> BUFFER
+            = new ThreadLocal<StringBuilder>()
+    {
+        @Override
+        protected StringBuilder initialValue()
+            { return(new StringBuilder(DEFAULT_BATCH_SIZE * 512)); }
+    };
+
+    /** Buffer where each worker thread renders the texts of the elements. */
+    protected final static ThreadLocal<StringBuilder> TEXT_BUFFER
+            = new ThreadLocal<StringBuilder>()
+    {
+        @Override
+        protected StringBuilder initialValue()
+            { return(new StringBuilder(512)); }
+    };
+
+    /** Encoder used by each worker thread. */
+    protected final static ThreadLocal<CharsetEncoder> ENCODER
+            = new ThreadLocal<CharsetEncoder>()
+    {
+        @Override
+        protected CharsetEncoder initialValue()
+            { return(UTF_8.newEncoder()); }
+    };
+
+    /**
+     * Serializes the given nodes as a sequence of Placemark elements.
+     *
+     * @param nodes The nodes to be serialized.
+     * @param formatter The formatter for the coordinates and the values.
+     * @return The serialized fragment, UTF-8 encoded.
+     * @throws CharacterCodingException In case the text cannot be encoded.
+     */
+    public static ByteBuffer renderPlacemarks
+            (final List<KMLNode> nodes, final DecimalFormatter formatter)
+        throws CharacterCodingException
+    {
+
+        StringBuilder sb = BUFFER.get();
+        sb.setLength(0);
+
+        for ( KMLNode k_i : nodes )
+            { renderPlacemark(sb, k_i, formatter); }
+
+        return(ENCODER.get().encode(CharBuffer.wrap(sb)));
+
+    }
+
+    /**
+     * Serializes the given node as a Placemark element, with the same format
+     * used by the SimpleKMLWriter.
+     *
+     * @param sb The buffer where to append the serialized node.
+     * @param node The node to be serialized.
+     * @param formatter The formatter for the coordinates and the values.
+     */
+    public static void renderPlacemark
+            (   final StringBuilder sb, final KMLNode node,
+                final DecimalFormatter formatter    )
+    {
+
+        String in_1 = PLACEMARK_INDENT + INDENT;
+        String in_2 = in_1 + INDENT;
+        StringBuilder text = TEXT_BUFFER.get();
+
+        sb.append(PLACEMARK_INDENT).append("<Placemark>")
+                .append(LINE_SEPARATOR);
+
+        text.setLength(0);
+        renderElement(sb, in_1, "name", text.append(node.getName()));
+        text.setLength(0);
+        renderElement(sb, in_1, "description",
+                        node.appendDescription(text, formatter));
+        text.setLength(0);
+        renderElement(sb, in_1, "styleUrl", text.append("#redIcon"));
+
+        sb.append(in_1).append("<Point>").append(LINE_SEPARATOR);
+        text.setLength(0);
+        renderElement(sb, in_2, "coordinates",
+                        node.position.appendKMLPosition(text, formatter));
+        sb.append(in_1).append("</Point>").append(LINE_SEPARATOR);
+
+        sb.append(PLACEMARK_INDENT).append("</Placemark>")
+                .append(LINE_SEPARATOR);
+
+    }
+
+    /**
+     * Serializes a simple element that only contains text. As the
+     * SimpleKMLWriter does, leading and trailing whitespace of the text is
+     * trimmed.
+     *
+     * @param sb The buffer where to append the serialized element.
+     * @param indent Indentation of the element.
+     * @param name Name of the element.
+     * @param text Text of the element.
+     */
+    protected static void renderElement
+            (   final StringBuilder sb, final String indent,
+                final String name, final CharSequence text    )
+    {
+
+        int start = 0;
+        int end = text.length();
+        while ( ( start < end ) && ( text.charAt(start) <= ' ' ) )
+            { start++; }
+        while ( ( end > start ) && ( text.charAt(end - 1) <= ' ' ) )
+            { end--; }
+
+        sb.append(indent).append('<').append(name);
+
+        if ( start == end )
+            { sb.append(" />").append(LINE_SEPARATOR); return; }
+
+        sb.append('>');
+        escapeText(sb, text, start, end);
+        sb.append("</").append(name).append('>').append(LINE_SEPARATOR);
+
+    }
+
+    /**
+     * Escapes the given text as the XMLOutputter does for element contents.
+     *
+     * @param sb The buffer where to append the escaped text.
+     * @param text The text to be escaped.
+     * @param start Index of the first character to be escaped.
+     * @param end Index after the last character to be escaped.
+     */
+    public static void escapeText
+            (   final StringBuilder sb, final CharSequence text,
+                final int start, final int end  )
+    {
+
+        for ( int i = start; i < end; i++ )
+        {
+
+            char c = text.charAt(i);
+
+            switch ( c )
+            {
+                case '<':   sb.append("&lt;"); break;
+                case '>':   sb.append("&gt;"); break;
+                case '&':   sb.append("&amp;"); break;
+                case '\r':  sb.append("&#xD;"); break;
+                case '\n':  sb.append(LINE_SEPARATOR); break;
+                default:    sb.append(c);
+            }
+
+        }
+
+    }
+
+}
@@ -29,6 +29,10 @@ import java.io.OutputStream;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import org.humsat.demo.gssw.sensorlocator.data.DecimalFormatter;
+import org.humsat.demo.gssw.sensorlocator.output.OutputSink;
+import org.humsat.demo.gssw.sensorlocator.stats.FieldStatistics;
+import org.humsat.demo.gssw.sensorlocator.stats.SensorStatistics;
 import org.jdom2.Document;
 import org.jdom2.Element;
 import org.jdom2.Namespace;
@@ -41,6 +45,7 @@ import org.jdom2.output.XMLOutputter;
  * @author Ricardo Tubío (rtpardavila[at]gmail.com)
  */
 public class SimpleKMLWriter
+    implements OutputSink
 {
     
     /** URL for the icons of the placemarks. */
@@ -58,6 +63,15 @@ public class SimpleKMLWriter
     protected Document kmlDocument = null;
     /** Root of the document where nested elements must be added. */
     protected Element root = null;
+    /** Output stream given when this writer is used as an output sink. */
+    protected OutputStream sinkStream = null;
+    
+    /** Formatter for the coordinates and the values of the placemarks. */
+    protected DecimalFormatter formatter = DecimalFormatter.DEFAULT;
+    /** Statistics of each sensor to be added to the document. */
+    protected SensorStatistics statistics = null;
+    /** Folder with the statistics within the document, 'null' if none. */
+    protected Element statisticsFolder = null;
     
     /** Default constructor. */
     public SimpleKMLWriter()
@@ -65,17 +79,60 @@ public class SimpleKMLWriter
         this.createKMLStubDocument();
     }
     
+    /**
+     * Constructor that configures the formatter for the coordinates and the
+     * values of the placemarks.
+     * 
+     * @param formatter The formatter to be used.
+     */
+    public SimpleKMLWriter(final DecimalFormatter formatter)
+    {
+        this.formatter = formatter;
+        this.createKMLStubDocument();
+    }
+    
+    /**
+     * Sets the statistics of the sensors, which are added to the document
+     * once, as a folder with one placemark per sensor (see
+     * createStatisticsFolder()); the statistics must be complete.
+     * 
+     * @param statistics The statistics, 'null' for not adding them.
+     */
+    public void setStatistics(final SensorStatistics statistics)
+    {
+        
+        if ( this.statisticsFolder != null )
+            { this.root.removeContent(this.statisticsFolder); }
+        
+        this.statistics = statistics;
+        this.statisticsFolder = ( statistics == null ) ?
+                                    null : this.createStatisticsFolder();
+        
+        if ( this.statisticsFolder != null )
+            { this.root.addContent(this.statisticsFolder); }
+        
+    }
+    
     /**
      * Adds a new KML node to the KML base document.
      * 
      * @param node The KML node to be added.
      */
     public void addKMLNode(KMLNode node)
+        { this.root.addContent(this.createPlacemark(node)); }
+    
+    /**
+     * Creates the Placemark element for the given KML node, without adding it
+     * to the KML base document.
+     * 
+     * @param node The KML node whose Placemark element is to be created.
+     * @return The just-created Placemark element.
+     */
+    public Element createPlacemark(KMLNode node)
     {
 						
 	// Placemark
         Element placemark = new Element("Placemark", ns);
-        this.root.addContent(placemark);
 	
         // name
 	Element pmName = new Element("name", ns);
@@ -84,7 +141,8 @@ public class SimpleKMLWriter
 						
 	// description
         Element pmDescription = new Element("description", ns);
-	pmDescription.setText(node.getDescription().trim());
+	pmDescription.setText(node.appendDescription
+                (new StringBuilder(), this.formatter).toString().trim());
 	placemark.addContent(pmDescription);
 
 	// styleUrl
@@ -98,11 +156,96 @@ public class SimpleKMLWriter
 
 	// coordinates
 	Element pmCoordinates = new Element("coordinates", ns);
-	pmCoordinates.setText(node.position.getKMLPosition().trim());
+	pmCoordinates.setText(node.position.appendKMLPosition
+                (new StringBuilder(), this.formatter).toString().trim());
 	pmPoint.addContent(pmCoordinates);
+        
+        return(placemark);
 
     }
     
+    /**
+     * Creates the "Statistics" Folder element, with one Placemark element
+     * (without geometry) per sensor whose ExtendedData are the statistics of
+     * the sensor.
+     * 
+     * @return The just-created Folder element.
+     */
+    public Element createStatisticsFolder()
+    {
+        
+        Element folder = new Element("Folder", ns);
+        Element name = new Element("name", ns);
+        name.setText("Statistics");
+        folder.addContent(name);
+        
+        for ( int id_i : this.statistics.getSensorIds() )
+        {
+            Element placemark = new Element("Placemark", ns);
+            Element pmName = new Element("name", ns);
+            pmName.setText(KMLNode.ID_PREFIX + id_i);
+            placemark.addContent(pmName);
+            placemark.addContent(this.createExtendedData(id_i));
+            folder.addContent(placemark);
+        }
+        
+        return(folder);
+        
+    }
+    
+    /**
+     * Creates the ExtendedData element with the statistics of the given
+     * sensor: count, min, max, mean and standard deviation of each of its
+     * values.
+     * 
+     * @param sensorId Identifier of the sensor.
+     * @return The just-created ExtendedData element.
+     */
+    protected Element createExtendedData(final int sensorId)
+    {
+        
+        Element extended = new Element("ExtendedData", ns);
+        StringBuilder sb = new StringBuilder();
+        
+        for ( long k_i : this.statistics.getKeys(sensorId) )
+        {
+            
+            FieldStatistics s = this.statistics.get(k_i);
+            String prefix = SensorStatistics.getName(k_i) + " ("
+                                + SensorStatistics.getUnit(k_i) + ") ";
+            
+            extended.addContent(this.createData
+                    (prefix + "count", sb.append(s.getCount())));
+            extended.addContent(this.createData(prefix + "min",
+                    this.formatter.appendValue(sb, (float) s.getMin())));
+            extended.addContent(this.createData(prefix + "max",
+                    this.formatter.appendValue(sb, (float) s.getMax())));
+            extended.addContent(this.createData(prefix + "mean",
+                    this.formatter.appendValue(sb, (float) s.getMean())));
+            extended.addContent(this.createData(prefix + "stddev",
+                    this.formatter.appendValue(sb, (float) s.getStdDev())));
+            
+        }
+        
+        return(extended);
+        
+    }
+    
+    /**
+     * Creates a Data element of an ExtendedData element, clearing the given
+     * buffer with its value.
+     */
+    private Element createData(final String name, final StringBuilder value)
+    {
+        Element data = new Element("Data", ns);
+        data.setAttribute("name", name);
+        Element v = new Element("value", ns);
+        v.setText(value.toString());
+        value.setLength(0);
+        data.addContent(v);
+        return(data);
+    }
+    
     /**
      * Adds all the nodes of the input list to this writer.
      * 
@@ -114,6 +257,27 @@ public class SimpleKMLWriter
             { this.addKMLNode(k_i); }
     }
     
+    @Override
+    public void begin(OutputStream os)
+        throws IOException
+        { this.sinkStream = os; }
+    
+    @Override
+    public void write(KMLNode node)
+        throws IOException
+        { this.addKMLNode(node); }
+    
+    @Override
+    public void end()
+        throws IOException
+    {
+        this.writeXML(this.sinkStream);
+        this.sinkStream.flush();
+    }
+    
+    @Override
+    public void abort() {}
+    
     @Override
     public String toString()
     {
@@ -0,0 +1,227 @@
+/**
+ * @file TrackKMLWriter.java
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ * @version 0.1
+ *
+ * @section LICENSE
+ *
+ * This file is part of SensorLocator.
+ * SensorLocator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SensorLocator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SensorLocator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.humsat.demo.gssw.sensorlocator.kml;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+import org.humsat.demo.gssw.sensorlocator.data.DecimalFormatter;
+import org.humsat.demo.gssw.sensorlocator.track.Track;
+import org.humsat.demo.gssw.sensorlocator.track.TrackSimplifier;
+import org.jdom2.Element;
+import org.jdom2.Namespace;
+
+/**
+ * KML writer that adds one folder per track, with the simplified geometry of
+ * the track and the placemarks of the nodes kept by the simplification. The
+ * geometry is a gx:Track (with the time of each vertex) in case the epoch of
+ * the timestamps is known, a LineString otherwise. The longitudes of the
+ * geometry are unwrapped (see TrackSimplifier.unwrap()), so a track that
+ * crosses the antimeridian is not drawn around the whole globe.
+ *
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ */
+public class TrackKMLWriter
+    extends SimpleKMLWriter
+{
+
+    /** Namespace of the Google extensions of KML. */
+    public final static String KML_GX_NS = "http://www.google.com/kml/ext/2.2";
+    /** Identifier of the style of the tracks. */
+    public final static String TRACK_STYLE_ID = "trackLine";
+    /** Color of the tracks (aabbggrr). */
+    public final static String TRACK_COLOR = "ff0000ff";
+    /** Width of the tracks. */
+    public final static String TRACK_WIDTH = "3";
+    /** Value of the epoch for writing LineString geometries. */
+    public final static long NO_EPOCH = Long.MIN_VALUE;
+
+    /** Namespace of the Google extensions. */
+    protected Namespace gx = Namespace.getNamespace("gx", KML_GX_NS);
+    /** Unix time (ms) of the timestamp 0, NO_EPOCH if unknown. */
+    protected long epoch = NO_EPOCH;
+    /** Formatter for the KML timestamps. */
+    protected SimpleDateFormat timeFormat
+            = new SimpleDateFormat(WindowKMLWriter.KML_TIME_FORMAT);
+    /** Number of vertices written. */
+    protected long vertices = 0L;
+
+    /**
+     * Main constructor.
+     *
+     * @param epoch Unix time (ms) of the timestamp 0, NO_EPOCH for writing
+     *              LineString geometries without time.
+     * @param formatter The formatter for the coordinates and the values.
+     */
+    public TrackKMLWriter(final long epoch, final DecimalFormatter formatter)
+    {
+
+        super(formatter);
+        this.epoch = epoch;
+        this.timeFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        if ( epoch != NO_EPOCH )
+            { this.kmlDocument.getRootElement()
+                                    .addNamespaceDeclaration(this.gx); }
+
+        Element style = new Element("Style", ns);
+        style.setAttribute("id", TRACK_STYLE_ID);
+        Element lineStyle = new Element("LineStyle", ns);
+        Element color = new Element("color", ns);
+        color.setText(TRACK_COLOR);
+        lineStyle.addContent(color);
+        Element width = new Element("width", ns);
+        width.setText(TRACK_WIDTH);
+        lineStyle.addContent(width);
+        style.addContent(lineStyle);
+        this.root.addContent(style);
+
+    }
+
+    /**
+     * Adds a folder with the geometry and the kept placemarks of the given
+     * track, already simplified.
+     *
+     * @param track The track.
+     */
+    public void addTrack(final Track track)
+    {
+
+        Element folder = new Element("Folder", ns);
+        Element name = new Element("name", ns);
+        name.setText(KMLNode.ID_PREFIX + track.getSensorId());
+        folder.addContent(name);
+
+        List<KMLNode> kept = track.getKeptNodes();
+
+        if ( kept.size() > 1 )
+        {
+
+            Element placemark = new Element("Placemark", ns);
+            Element pmName = new Element("name", ns);
+            pmName.setText(KMLNode.ID_PREFIX + track.getSensorId()
+                                + " track");
+            placemark.addContent(pmName);
+            Element styleUrl = new Element("styleUrl", ns);
+            styleUrl.setText("#" + TRACK_STYLE_ID);
+            placemark.addContent(styleUrl);
+            placemark.addContent( ( this.epoch == NO_EPOCH ) ?
+                            this.createLineString(kept) :
+                            this.createTrack(kept)  );
+            folder.addContent(placemark);
+            this.vertices += kept.size();
+
+        }
+
+        for ( KMLNode k_i : kept )
+            { folder.addContent(this.createPlacemark(k_i)); }
+
+        this.root.addContent(folder);
+
+    }
+
+    /**
+     * Adds all the given tracks.
+     *
+     * @param tracks The tracks, already simplified.
+     */
+    public void addTracks(final List<Track> tracks)
+    {
+        for ( Track t_i : tracks )
+            { this.addTrack(t_i); }
+    }
+
+    /**
+     * Getter for the number of vertices of the geometries written.
+     *
+     * @return Number of vertices.
+     */
+    public long getVertices()
+        { return(this.vertices); }
+
+    /**
+     * Creates a LineString element through the given nodes.
+     */
+    private Element createLineString(final List<KMLNode> nodes)
+    {
+
+        Element line = new Element("LineString", ns);
+        Element tessellate = new Element("tessellate", ns);
+        tessellate.setText("1");
+        line.addContent(tessellate);
+
+        StringBuilder sb = new StringBuilder();
+        float lon = ( nodes.isEmpty() == true ) ?
+                                0f : nodes.get(0).position.longitude;
+        for ( KMLNode k_i : nodes )
+        {
+            if ( sb.length() > 0 ) { sb.append(' '); }
+            lon = TrackSimplifier.unwrap(lon, k_i.position.longitude);
+            this.formatter.appendCoordinate(sb, lon).append(',');
+            this.formatter.appendCoordinate(sb, k_i.position.latitude);
+        }
+
+        Element coordinates = new Element("coordinates", ns);
+        coordinates.setText(sb.toString());
+        line.addContent(coordinates);
+        return(line);
+
+    }
+
+    /**
+     * Creates a gx:Track element through the given nodes, with the time of
+     * each of them.
+     */
+    private Element createTrack(final List<KMLNode> nodes)
+    {
+
+        Element track = new Element("Track", this.gx);
+        StringBuilder sb = new StringBuilder();
+
+        for ( KMLNode k_i : nodes )
+        {
+            Element when = new Element("when", ns);
+            when.setText(this.timeFormat.format(new Date(this.epoch
+                            + k_i.getParent().getTimestamp() * 1000L)));
+            track.addContent(when);
+        }
+
+        float lon = ( nodes.isEmpty() == true ) ?
+                                0f : nodes.get(0).position.longitude;
+        for ( KMLNode k_i : nodes )
+        {
+            sb.setLength(0);
+            lon = TrackSimplifier.unwrap(lon, k_i.position.longitude);
+            this.formatter.appendCoordinate(sb, lon).append(' ');
+            this.formatter.appendCoordinate(sb, k_i.position.latitude)
+                                                            .append(" 0");
+            Element coord = new Element("coord", this.gx);
+            coord.setText(sb.toString());
+            track.addContent(coord);
+        }
+
+        return(track);
+
+    }
+
+}
@@ -0,0 +1,195 @@
+/**
+ * @file WindowKMLWriter.java
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ * @version 0.1
+ *
+ * @section LICENSE
+ *
+ * This file is part of SensorLocator.
+ * SensorLocator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SensorLocator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SensorLocator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.humsat.demo.gssw.sensorlocator.kml;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import org.humsat.demo.gssw.sensorlocator.data.DecimalFormatter;
+import org.humsat.demo.gssw.sensorlocator.stats.FieldStatistics;
+import org.humsat.demo.gssw.sensorlocator.stats.SensorStatistics;
+import org.humsat.demo.gssw.sensorlocator.stats.TimeWindow;
+import org.humsat.demo.gssw.sensorlocator.stats.WindowListener;
+import org.jdom2.Element;
+import org.jdom2.output.Format;
+import org.jdom2.output.XMLOutputter;
+
+/**
+ * KML writer that adds one placemark with a TimeSpan for each closed window,
+ * located at the last known position of the sensor within the window.
+ * Windows without a known position are skipped. Once the writer has been
+ * begun as an output sink, each placemark is written as soon as its window
+ * is closed, between the header and the footer of the ParallelKMLWriter, so
+ * that only the open windows are kept in memory; otherwise the placemarks
+ * are added to the document.
+ *
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ */
+public class WindowKMLWriter
+    extends SimpleKMLWriter
+    implements WindowListener
+{
+
+    /** Format of the KML timestamps. */
+    public final static String KML_TIME_FORMAT = "yyyy-MM-dd'T'HH:mm:ss'Z'";
+
+    /** Unix time (ms) of the timestamp 0, for translating timestamps. */
+    protected long epoch = 0L;
+    /** Formatter for the KML timestamps. */
+    protected SimpleDateFormat timeFormat
+            = new SimpleDateFormat(KML_TIME_FORMAT);
+    /** Number of placemarks added. */
+    protected long placemarks = 0L;
+    /** Outputter for the placemarks written as the windows close. */
+    protected XMLOutputter outputter
+            = new XMLOutputter(Format.getRawFormat());
+
+    /**
+     * Main constructor.
+     *
+     * @param epoch Unix time (ms) of the timestamp 0; timestamps of the
+     *              sensors are given in seconds since this epoch.
+     * @param formatter The formatter for the coordinates and the values.
+     */
+    public WindowKMLWriter(final long epoch, final DecimalFormatter formatter)
+    {
+        super(formatter);
+        this.epoch = epoch;
+        this.timeFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    }
+
+    @Override
+    public void begin(OutputStream os)
+        throws IOException
+    {
+        this.sinkStream = os;
+        ParallelKMLWriter.initializeHeaderAndFooter();
+        this.sinkStream.write(ParallelKMLWriter.header);
+    }
+
+    @Override
+    public void end()
+        throws IOException
+    {
+        this.sinkStream.write(ParallelKMLWriter.footer);
+        this.sinkStream.flush();
+    }
+
+    @Override
+    public void windowClosed(final TimeWindow window)
+        throws IOException
+    {
+
+        if ( Float.isNaN(window.getLatitude()) == true ) { return; }
+
+        Element placemark = new Element("Placemark", ns);
+
+        Element name = new Element("name", ns);
+        name.setText(KMLNode.ID_PREFIX + window.getSensorId());
+        placemark.addContent(name);
+
+        Element span = new Element("TimeSpan", ns);
+        Element begin = new Element("begin", ns);
+        begin.setText(this.formatTime(window.getStart()));
+        span.addContent(begin);
+        Element end = new Element("end", ns);
+        end.setText(this.formatTime(window.getEnd()));
+        span.addContent(end);
+        placemark.addContent(span);
+
+        Element description = new Element("description", ns);
+        description.setText(this.describe(window));
+        placemark.addContent(description);
+
+        Element styleUrl = new Element("styleUrl", ns);
+        styleUrl.setText("#redIcon");
+        placemark.addContent(styleUrl);
+
+        Element point = new Element("Point", ns);
+        Element coordinates = new Element("coordinates", ns);
+        StringBuilder sb = new StringBuilder();
+        this.formatter.appendCoordinate(sb, window.getLongitude()).append(',');
+        this.formatter.appendCoordinate(sb, window.getLatitude());
+        coordinates.setText(sb.toString());
+        point.addContent(coordinates);
+        placemark.addContent(point);
+
+        if ( this.sinkStream != null )
+        {
+            this.sinkStream.write(ParallelKMLWriter.PLACEMARK_INDENT
+                                        .getBytes(ParallelKMLWriter.UTF_8));
+            this.outputter.output(placemark, this.sinkStream);
+            this.sinkStream.write(ParallelKMLWriter.LINE_SEPARATOR
+                                        .getBytes(ParallelKMLWriter.UTF_8));
+        }
+        else
+            { this.root.addContent(placemark); }
+        this.placemarks++;
+
+    }
+
+    /**
+     * Getter for the number of placemarks added.
+     *
+     * @return Number of placemarks.
+     */
+    public long getPlacemarks()
+        { return(this.placemarks); }
+
+    /**
+     * Creates the description of a window: one line per value, with its mean,
+     * maximum, sum and count.
+     */
+    private String describe(final TimeWindow window)
+    {
+
+        SensorStatistics statistics = window.getStatistics();
+        StringBuilder sb = new StringBuilder();
+
+        for ( long k_i : statistics.getKeys(window.getSensorId()) )
+        {
+            FieldStatistics s = statistics.get(k_i);
+            if ( sb.length() > 0 ) { sb.append('\n'); }
+            sb.append(SensorStatistics.getName(k_i)).append(" (")
+                .append(SensorStatistics.getUnit(k_i)).append("): mean = ");
+            this.formatter.appendValue(sb, (float) s.getMean())
+                .append(", max = ");
+            this.formatter.appendValue(sb, (float) s.getMax())
+                .append(", sum = ");
+            this.formatter.appendValue(sb, (float) s.getSum())
+                .append(", count = ").append(s.getCount());
+        }
+
+        return(sb.toString());
+
+    }
+
+    /**
+     * Formats a timestamp of the sensors as a KML time.
+     */
+    private String formatTime(final long timestamp)
+        { return(this.timeFormat.format
+                        (new Date(this.epoch + timestamp * 1000L))); }
+
+}
@@ -0,0 +1,49 @@
+/**
+ * @file DataSink.java
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ * @version 0.1
+ *
+ * @section LICENSE
+ *
+ * This file is part of SensorLocator.
+ * SensorLocator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SensorLocator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SensorLocator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.humsat.demo.gssw.sensorlocator.output;
+
+import java.io.IOException;
+import org.humsat.demo.gssw.sensorlocator.data.SensorData;
+
+/**
+ * Interface implemented by the output sinks that keep the sensor data
+ * itself instead of a map of the sensors (e.g., the archives). The pipelines
+ * give them every selected record, also those without a position, which
+ * cannot be turned into KML nodes; write(KMLNode) writes the sensor data of
+ * the node.
+ *
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ */
+public interface DataSink
+    extends OutputSink
+{
+
+    /**
+     * Writes the given sensor data to the current output document.
+     *
+     * @param sd The sensor data to be written.
+     * @throws IOException In case an IO error occurs.
+     */
+    public void write(SensorData sd)
+        throws IOException;
+
+}
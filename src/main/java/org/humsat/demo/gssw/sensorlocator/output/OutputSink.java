@@ -0,0 +1,73 @@
+/**
+ * @file OutputSink.java
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ * @version 0.1
+ *
+ * @section LICENSE
+ *
+ * This file is part of SensorLocator.
+ * SensorLocator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SensorLocator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SensorLocator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.humsat.demo.gssw.sensorlocator.output;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import org.humsat.demo.gssw.sensorlocator.kml.KMLNode;
+
+/**
+ * Interface that must be implemented by all the writers that generate an
+ * output document from KML nodes. Nodes are given to the sink one by one,
+ * therefore writers are not required to keep the whole document in memory.
+ *
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ */
+public interface OutputSink
+{
+
+    /**
+     * Starts a new output document, writing its header (if any) to the given
+     * output stream.
+     *
+     * @param os The output stream where the document is to be written.
+     * @throws IOException In case an IO error occurs.
+     */
+    public void begin(OutputStream os)
+        throws IOException;
+
+    /**
+     * Writes the given KML node to the current output document.
+     *
+     * @param node The KML node to be written.
+     * @throws IOException In case an IO error occurs.
+     */
+    public void write(KMLNode node)
+        throws IOException;
+
+    /**
+     * Finishes the current output document, writing its footer (if any) and
+     * flushing all pending data. The output stream is not closed.
+     *
+     * @throws IOException In case an IO error occurs.
+     */
+    public void end()
+        throws IOException;
+
+    /**
+     * Abandons the current output document after a failure, releasing the
+     * resources taken by begin() (e.g., worker threads). The document is left
+     * incomplete and the output stream is not closed.
+     */
+    public void abort();
+
+}
@@ -0,0 +1,209 @@
+/**
+ * @file OutputSinks.java
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ * @version 0.1
+ *
+ * @section LICENSE
+ *
+ * This file is part of SensorLocator.
+ * SensorLocator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SensorLocator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SensorLocator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.humsat.demo.gssw.sensorlocator.output;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.humsat.demo.gssw.sensorlocator.archive.ArchiveSink;
+import org.humsat.demo.gssw.sensorlocator.csv.IntermediateWriter;
+import org.humsat.demo.gssw.sensorlocator.data.DecimalFormatter;
+import org.humsat.demo.gssw.sensorlocator.data.SensorData;
+import org.humsat.demo.gssw.sensorlocator.geojson.GeoJSONWriter;
+import org.humsat.demo.gssw.sensorlocator.geojson.NDJSONWriter;
+import org.humsat.demo.gssw.sensorlocator.kml.KMLNode;
+import org.humsat.demo.gssw.sensorlocator.kml.ParallelKMLWriter;
+import org.humsat.demo.gssw.sensorlocator.stats.StatisticsWriter;
+
+/**
+ * Class with static methods for creating and using output sinks.
+ *
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ */
+public class OutputSinks
+{
+
+    /** KML output format. */
+    public final static String KML_FORMAT = "kml";
+    /** GeoJSON FeatureCollection output format. */
+    public final static String GEOJSON_FORMAT = "geojson";
+    /** Newline-delimited GeoJSON output format. */
+    public final static String NDJSON_FORMAT = "ndjson";
+    /** Intermediate file format, binary log of the records (RecordLog). */
+    public final static String INTERMEDIATE_FORMAT = "int";
+    /** Compressed columnar archive of the records (ColumnArchive). */
+    public final static String ARCHIVE_FORMAT = "archive";
+    /** CSV summary of the values, per sensor and field. */
+    public final static String STATISTICS_FORMAT = "statistics";
+
+    /** All supported output formats. */
+    public final static List<String> FORMATS = new ArrayList<String>()
+    {
+        {
+            this.add(KML_FORMAT);
+            this.add(GEOJSON_FORMAT);
+            this.add(NDJSON_FORMAT);
+            this.add(INTERMEDIATE_FORMAT);
+            this.add(ARCHIVE_FORMAT);
+            this.add(STATISTICS_FORMAT);
+        }
+    };
+
+    /** Size of the buffer used for writing to files. */
+    public final static int FILE_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Factory method that creates the output sink for the given format.
+     *
+     * @param format The name of the output format.
+     * @return The output sink.
+     * @throws IllegalArgumentException In case the format is not supported.
+     */
+    public static OutputSink createOutputSink(final String format)
+        { return(createOutputSink(format, 1, DecimalFormatter.DEFAULT)); }
+
+    /**
+     * Factory method that creates the output sink for the given format, using
+     * the given number of threads for rendering the output in case the format
+     * supports it. All the sinks write the records as they are given, so the
+     * memory taken by a run does not depend on the size of its input; the KML
+     * documents are rendered by the ParallelKMLWriter, also with one thread
+     * (the SimpleKMLWriter keeps the whole document in memory, so it is only
+     * used by the writers of the batch options).
+     *
+     * @param format The name of the output format.
+     * @param threads Number of threads for rendering the output.
+     * @param formatter Formatter for the coordinates and the values.
+     * @return The output sink.
+     * @throws IllegalArgumentException In case the format is not supported.
+     */
+    public static OutputSink createOutputSink
+            (   final String format, final int threads,
+                final DecimalFormatter formatter    )
+    {
+
+        if ( format == null )
+            { throw(new NullPointerException("<format> is null.")); }
+
+        if ( KML_FORMAT.equalsIgnoreCase(format) == true )
+            { return(new ParallelKMLWriter(Math.max(1, threads),
+                        ParallelKMLWriter.DEFAULT_BATCH_SIZE, formatter)); }
+        if ( GEOJSON_FORMAT.equalsIgnoreCase(format) == true )
+            { return(new GeoJSONWriter(formatter)); }
+        if ( NDJSON_FORMAT.equalsIgnoreCase(format) == true )
+            { return(new NDJSONWriter(formatter)); }
+        if ( INTERMEDIATE_FORMAT.equalsIgnoreCase(format) == true )
+            { return(new IntermediateWriter()); }
+        if ( ARCHIVE_FORMAT.equalsIgnoreCase(format) == true )
+            { return(new ArchiveSink()); }
+        if ( STATISTICS_FORMAT.equalsIgnoreCase(format) == true )
+            { return(new StatisticsWriter()); }
+
+        throw(new IllegalArgumentException("Unsupported format = " + format
+                                            + ", available = " + FORMATS));
+
+    }
+
+    /**
+     * Writes all the given nodes through the given sink.
+     *
+     * @param sink The output sink to be used.
+     * @param nodes The KML nodes to be written.
+     * @param os The output stream where the document is to be written.
+     * @throws IOException In case an IO error occurs.
+     */
+    public static void write
+            (   final OutputSink sink, final List<KMLNode> nodes,
+                final OutputStream os   )
+        throws IOException
+    {
+        boolean done = false;
+        try
+        {
+            sink.begin(os);
+            for ( KMLNode k_i : nodes )
+                { sink.write(k_i); }
+            sink.end();
+            done = true;
+        }
+        finally
+            { if ( done == false ) { sink.abort(); } }
+    }
+
+    /**
+     * Writes all the given sensor data through the given data sink to a
+     * file.
+     *
+     * @param sink The data sink to be used.
+     * @param sensors The sensor data to be written.
+     * @param output The file where the document is to be written.
+     * @throws IOException In case an IO error occurs.
+     */
+    public static void writeData
+            (   final DataSink sink, final List<SensorData> sensors,
+                final File output   )
+        throws IOException
+    {
+        OutputStream os = new BufferedOutputStream
+                        (new FileOutputStream(output), FILE_BUFFER_SIZE);
+        boolean done = false;
+        try
+        {
+            sink.begin(os);
+            for ( SensorData sd_i : sensors )
+                { sink.write(sd_i); }
+            sink.end();
+            done = true;
+        }
+        finally
+        {
+            if ( done == false ) { sink.abort(); }
+            os.close();
+        }
+    }
+
+    /**
+     * Writes all the given nodes through the given sink to a file.
+     *
+     * @param sink The output sink to be used.
+     * @param nodes The KML nodes to be written.
+     * @param output The file where the document is to be written.
+     * @throws IOException In case an IO error occurs.
+     */
+    public static void write
+            (   final OutputSink sink, final List<KMLNode> nodes,
+                final File output   )
+        throws IOException
+    {
+        OutputStream os = new BufferedOutputStream
+                                (new FileOutputStream(output), FILE_BUFFER_SIZE);
+        try
+            { write(sink, nodes, os); }
+        finally
+            { os.close(); }
+    }
+
+}
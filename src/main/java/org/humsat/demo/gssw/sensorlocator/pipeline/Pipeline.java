@@ -0,0 +1,721 @@
+/**
+ * @file Pipeline.java
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ * @version 0.1
+ *
+ * @section LICENSE
+ *
+ * This file is part of SensorLocator.
+ * SensorLocator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SensorLocator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SensorLocator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.humsat.demo.gssw.sensorlocator.pipeline;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import org.humsat.demo.gssw.sensorlocator.SensorLocator;
+import org.humsat.demo.gssw.sensorlocator.archive.ArchiveReader;
+import org.humsat.demo.gssw.sensorlocator.archive.ColumnArchive;
+import org.humsat.demo.gssw.sensorlocator.csv.SensorDataReader;
+import org.humsat.demo.gssw.sensorlocator.csv.SensorDataSource;
+import org.humsat.demo.gssw.sensorlocator.data.DecimalFormatter;
+import org.humsat.demo.gssw.sensorlocator.data.SensorData;
+import org.humsat.demo.gssw.sensorlocator.dedup.FrameDeduplicator;
+import org.humsat.demo.gssw.sensorlocator.geofence.Geofence;
+import org.humsat.demo.gssw.sensorlocator.index.SpatialIndex;
+import org.humsat.demo.gssw.sensorlocator.kml.KMLNode;
+import org.humsat.demo.gssw.sensorlocator.output.DataSink;
+import org.humsat.demo.gssw.sensorlocator.output.OutputSink;
+import org.humsat.demo.gssw.sensorlocator.output.OutputSinks;
+import org.humsat.demo.gssw.sensorlocator.stats.SensorStatistics;
+import org.humsat.demo.gssw.sensorlocator.stats.WindowAggregator;
+
+/**
+ * Conversion of sensor data into an output document (KML, GeoJSON, the
+ * intermediate file or the statistics, see OutputSinks), one record at a
+ * time: read, filter, decode and write. A pipeline is configured once
+ * through its Builder and it is immutable afterwards, so it can be kept
+ * alive and run any number of times (also concurrently) from an embedding
+ * service; each run only touches the given input and output (except for
+ * the aggregator of the windows, if given, which is shared by the runs).
+ *
+ *  Pipeline p = Pipeline.builder().format("geojson").sensor(12, t1, t2)
+ *                  .boundingBox(40, -10, 44, -6).build();
+ *  Pipeline.Result r = p.run(in, out);
+ *
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ */
+public class Pipeline
+{
+
+    /** Sensor id for not filtering by sensor. */
+    public final static int ALL_SENSORS = -1;
+    /** Memory limit for not dropping the duplicated frames. */
+    public final static int NO_DEDUP = 0;
+
+    /** Output format (see OutputSinks). */
+    protected String format = OutputSinks.KML_FORMAT;
+    /** Number of threads for rendering the output. */
+    protected int threads = 1;
+    /** Formatter for the coordinates and the values. */
+    protected DecimalFormatter formatter = DecimalFormatter.DEFAULT;
+    /** Sensor to be selected, ALL_SENSORS for all of them. */
+    protected int sensor = ALL_SENSORS;
+    /** Lower limit of the timestamps of the selected sensor. */
+    protected int from = Integer.MIN_VALUE;
+    /** Upper limit of the timestamps of the selected sensor. */
+    protected int to = Integer.MAX_VALUE;
+    /** Bounding box, { minLat, minLon, maxLat, maxLon }; 'null' for none. */
+    protected double[] box = null;
+    /** Circle, { lat, lon, meters }; 'null' for none. */
+    protected double[] near = null;
+    /** Geofence, 'null' for none. */
+    protected Geofence geofence = null;
+    /** Memory limit of the deduplicator, NO_DEDUP for none. */
+    protected int dedup = NO_DEDUP;
+    /** Flag that indicates whether the statistics are aggregated. */
+    protected boolean statistics = false;
+    /** Capacity of the queues of the staged runs, 0 for sequential runs. */
+    protected int staged = 0;
+    /** Aggregator of the windows of the selected records, 'null' if none. */
+    protected WindowAggregator windows = null;
+
+    /** Pipelines are created through the builder. */
+    protected Pipeline() {}
+
+    /**
+     * Results of a run of the pipeline.
+     */
+    public static class Result
+    {
+
+        /** Number of records read. */
+        protected long read = 0L;
+        /** Number of records written. */
+        protected long written = 0L;
+        /** Statistics of the records written, 'null' if not aggregated. */
+        protected SensorStatistics statistics = null;
+
+        /**
+         * Getter for the number of records read.
+         *
+         * @return The number of records.
+         */
+        public long getRead()
+            { return(this.read); }
+
+        /**
+         * Getter for the number of records written (read and selected).
+         *
+         * @return The number of records.
+         */
+        public long getWritten()
+            { return(this.written); }
+
+        /**
+         * Getter for the statistics of the records written.
+         *
+         * @return The statistics, 'null' in case they were not aggregated.
+         */
+        public SensorStatistics getStatistics()
+            { return(this.statistics); }
+
+        @Override
+        public String toString()
+            { return("read = " + this.read + ", written = " + this.written); }
+
+    }
+
+    /**
+     * Runs the pipeline over the given source, writing the document to the
+     * given output stream (which is flushed, but not closed).
+     *
+     * @param source The source of the sensor data, it is not closed.
+     * @param os The output stream.
+     * @return The results of the run.
+     * @throws IOException In case any IO problem occurs.
+     */
+    public Result run(final SensorDataSource source, final OutputStream os)
+        throws IOException
+    {
+
+        if ( source == null )
+            { throw(new NullPointerException("<source> is null.")); }
+        if ( os == null )
+            { throw(new NullPointerException("<os> is null.")); }
+
+        OutputSink sink = this.createOutputSink();
+        Result result = new Result();
+        if ( this.statistics == true )
+            { result.statistics = new SensorStatistics(); }
+
+        boolean done = false;
+        try
+        {
+
+            sink.begin(os);
+
+            if ( this.staged > 0 )
+                { new StagedRunner(this, this.staged)
+                                            .run(source, sink, result); }
+            else
+            {
+                boolean data = ( sink instanceof DataSink );
+                SensorData sd = null;
+                while ( ( sd = source.read() ) != null )
+                {
+                    Object o = this.process(sd, data, result);
+                    if ( o != null ) { write(sink, o); }
+                }
+            }
+
+            if ( this.windows != null ) { this.windows.flush(); }
+            sink.end();
+            done = true;
+
+        }
+        finally
+            { if ( done == false ) { sink.abort(); } }
+
+        os.flush();
+        return(result);
+
+    }
+
+    /**
+     * Runs the pipeline over the CSV file read from the given stream (its
+     * first line must be the headers).
+     *
+     * @param in The input stream, it is closed.
+     * @param os The output stream, it is flushed but not closed.
+     * @return The results of the run.
+     * @throws IOException In case any IO problem occurs.
+     */
+    public Result run(final InputStream in, final OutputStream os)
+        throws IOException
+    {
+
+        if ( in == null )
+            { throw(new NullPointerException("<in> is null.")); }
+
+        FrameDeduplicator dedup = this.createDeduplicator();
+        SensorDataReader reader = null;
+
+        try
+        {
+            reader = new SensorDataReader(in, dedup);
+            return(this.run(reader, os));
+        }
+        finally
+        {
+            if ( reader != null ) { reader.close(); } else { in.close(); }
+            if ( dedup != null ) { dedup.close(); }
+        }
+
+    }
+
+    /**
+     * Runs the pipeline over the given CSV file or columnar archive (see
+     * ColumnArchive); only the blocks of the archive with the selected sensor
+     * and times are read.
+     *
+     * @param input The CSV file or the archive.
+     * @param os The output stream, it is flushed but not closed.
+     * @return The results of the run.
+     * @throws IOException In case any IO problem occurs.
+     */
+    public Result run(final File input, final OutputStream os)
+        throws IOException
+    {
+
+        if ( ColumnArchive.isArchive(input) == true )
+        {
+            final ArchiveReader archive = new ArchiveReader(input);
+            try
+            {
+                if ( this.sensor == ALL_SENSORS )
+                    { return(this.run(archive, os)); }
+                return(this.run(new SensorDataSource()
+                {
+                    @Override
+                    public SensorData read()
+                        { return(archive.read(sensor, sensor, from, to)); }
+                    @Override
+                    public void close() {}
+                }, os));
+            }
+            finally
+                { archive.close(); }
+        }
+
+        FrameDeduplicator dedup = this.createDeduplicator();
+        SensorDataReader reader = null;
+
+        try
+        {
+            reader = new SensorDataReader(input, dedup);
+            return(this.run(reader, os));
+        }
+        finally
+        {
+            if ( reader != null ) { reader.close(); }
+            if ( dedup != null ) { dedup.close(); }
+        }
+
+    }
+
+    /**
+     * Runs the pipeline over the given CSV file, writing the document to the
+     * given output file.
+     *
+     * @param input The CSV file.
+     * @param output The output file.
+     * @return The results of the run.
+     * @throws IOException In case any IO problem occurs.
+     */
+    public Result run(final File input, final File output)
+        throws IOException
+    {
+        OutputStream os = new BufferedOutputStream
+                (new FileOutputStream(output), OutputSinks.FILE_BUFFER_SIZE);
+        try
+            { return(this.run(input, os)); }
+        finally
+            { os.close(); }
+    }
+
+    /**
+     * Runs the pipeline over the CSV file read from the given channel.
+     *
+     * @param in The input channel, it is closed.
+     * @param out The output channel, it is not closed.
+     * @return The results of the run.
+     * @throws IOException In case any IO problem occurs.
+     */
+    public Result run
+            (final ReadableByteChannel in, final WritableByteChannel out)
+        throws IOException
+    {
+        return(this.run(Channels.newInputStream(in),
+                        new BufferedOutputStream(Channels.newOutputStream(out),
+                                            OutputSinks.FILE_BUFFER_SIZE)));
+    }
+
+    /**
+     * Selects and transforms a record, accounting it in the given results.
+     * The records of the data sinks (see DataSink) are written as they are,
+     * so they only need a position in case a region is selected; the other
+     * sinks are given the KML nodes of the records. The selected records are
+     * given to the aggregator of the windows (if any) in the order they are
+     * read, whatever the region.
+     *
+     * @param sd The sensor data read.
+     * @param data 'true' in case the record is for a data sink.
+     * @param result Results of the run.
+     * @return The sensor data (for a data sink) or the KML node to be
+     *          written, 'null' in case the record is not selected.
+     * @throws IOException In case a closed window cannot be written.
+     */
+    protected Object process
+            (final SensorData sd, final boolean data, final Result result)
+        throws IOException
+    {
+
+        result.read++;
+        if ( this.isSelected(sd) == false ) { return(null); }
+        if ( this.windows != null ) { this.windows.add(sd); }
+
+        Object o = sd;
+        if ( ( data == false ) || ( this.hasRegion() == true ) )
+        {
+            KMLNode k = SensorLocator.createKMLNode(sd);
+            if ( ( k == null ) || ( this.isInside(k) == false ) )
+                { return(null); }
+            if ( data == false ) { o = k; }
+        }
+
+        if ( result.statistics != null ) { result.statistics.add(sd); }
+        result.written++;
+        return(o);
+
+    }
+
+    /**
+     * Writes a record returned by process() to the given sink.
+     *
+     * @param sink The output sink.
+     * @param o The sensor data (for a data sink) or the KML node.
+     * @throws IOException In case an IO error occurs.
+     */
+    protected static void write(final OutputSink sink, final Object o)
+        throws IOException
+    {
+        if ( o instanceof KMLNode )
+            { sink.write((KMLNode) o); }
+        else
+            { ((DataSink) sink).write((SensorData) o); }
+    }
+
+    /**
+     * Creates the output sink of a run.
+     *
+     * @return The output sink.
+     */
+    public OutputSink createOutputSink()
+    {
+        return(OutputSinks.createOutputSink
+                                (this.format, this.threads, this.formatter));
+    }
+
+    /**
+     * Creates the deduplicator of a run, which must be closed once the run
+     * finishes.
+     *
+     * @return The deduplicator, 'null' in case the frames are not to be
+     *          deduplicated.
+     */
+    public FrameDeduplicator createDeduplicator()
+    {
+        if ( this.dedup == NO_DEDUP ) { return(null); }
+        return(new FrameDeduplicator(this.dedup, null));
+    }
+
+    /**
+     * Checks whether the given sensor data is selected by the sensor and
+     * time filter.
+     *
+     * @param sd The sensor data.
+     * @return 'true' in case it is selected.
+     */
+    public boolean isSelected(final SensorData sd)
+    {
+        if ( this.sensor == ALL_SENSORS ) { return(true); }
+        return( ( sd.getSensorId() == this.sensor )
+                    && ( sd.getTimestamp() >= this.from )
+                    && ( sd.getTimestamp() <= this.to ) );
+    }
+
+    /**
+     * Checks whether a region is selected (bounding box, circle or
+     * geofence), so that the records need a position.
+     *
+     * @return 'true' in case a region is selected.
+     */
+    public boolean hasRegion()
+    {
+        return( ( this.box != null ) || ( this.near != null )
+                    || ( this.geofence != null ) );
+    }
+
+    /**
+     * Checks whether the given node is inside of the bounding box, the
+     * circle and the geofence (those configured).
+     *
+     * @param node The KML node.
+     * @return 'true' in case it is inside.
+     */
+    public boolean isInside(final KMLNode node)
+    {
+
+        double lat = node.getPosition().latitude;
+        double lon = node.getPosition().longitude;
+
+        if ( ( this.box != null )
+                && ( ( lat < this.box[0] ) || ( lat > this.box[2] ) ) )
+            { return(false); }
+        if ( ( this.box != null ) && ( this.box[1] <= this.box[3] )
+                && ( ( lon < this.box[1] ) || ( lon > this.box[3] ) ) )
+            { return(false); }
+        if ( ( this.box != null ) && ( this.box[1] > this.box[3] )
+                && ( lon < this.box[1] ) && ( lon > this.box[3] ) )
+            { return(false); }
+        if ( ( this.near != null )
+                && ( SpatialIndex.distance(this.near[0], this.near[1],
+                                            lat, lon) > this.near[2] ) )
+            { return(false); }
+        if ( ( this.geofence != null )
+                && ( this.geofence.contains(lat, lon) == false ) )
+            { return(false); }
+
+        return(true);
+
+    }
+
+    /**
+     * Returns a key with the options that change the output document, so
+     * that the outputs of equal pipelines over equal inputs can be reused
+     * (see ResultCache). The number of threads and the staged runs do not
+     * change the document, so they are not part of the key.
+     *
+     * @return The key.
+     */
+    public String getKey()
+    {
+        return(this.format
+                + ";" + this.formatter.getCoordinateDecimals()
+                + ";" + this.formatter.getValueDecimals()
+                + ";" + this.sensor + ";" + this.from + ";" + this.to
+                + ";" + Arrays.toString(this.box)
+                + ";" + Arrays.toString(this.near)
+                + ";" + ( ( this.geofence == null ) ? "null" :
+                            Long.toHexString(this.geofence.getChecksum()) )
+                + ";" + this.dedup);
+    }
+
+    /**
+     * Getter for the output format.
+     *
+     * @return The name of the output format.
+     */
+    public String getFormat()
+        { return(this.format); }
+
+    /**
+     * Getter for the number of threads for rendering the output.
+     *
+     * @return The number of threads.
+     */
+    public int getThreads()
+        { return(this.threads); }
+
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>> builder
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
+
+    /**
+     * Creates a builder with the default configuration: KML output, one
+     * thread, shortest decimals and no filters.
+     *
+     * @return The builder.
+     */
+    public static Builder builder()
+        { return(new Builder()); }
+
+    /**
+     * Builder of pipelines; each call to build() returns a new pipeline, so
+     * the builder can be reused for pipelines with similar configurations.
+     */
+    public static class Builder
+    {
+
+        /** Configuration of the pipelines being built. */
+        protected Pipeline p = new Pipeline();
+
+        /** Builders are created through Pipeline.builder(). */
+        protected Builder() {}
+
+        /**
+         * Sets the output format (see OutputSinks.FORMATS).
+         *
+         * @param format The name of the output format.
+         * @return This builder.
+         * @throws IllegalArgumentException In case the format is not
+         *                                  supported.
+         */
+        public Builder format(final String format)
+        {
+            OutputSinks.createOutputSink(format);
+            this.p.format = format.toLowerCase();
+            return(this);
+        }
+
+        /**
+         * Sets the number of threads for rendering the output (used by the
+         * formats that support it).
+         *
+         * @param threads The number of threads.
+         * @return This builder.
+         */
+        public Builder threads(final int threads)
+        {
+            if ( threads <= 0 )
+                { throw(new IllegalArgumentException("Threads = " + threads
+                                                + ", value not permitted.")); }
+            this.p.threads = threads;
+            return(this);
+        }
+
+        /**
+         * Sets the formatter for the coordinates and the values.
+         *
+         * @param formatter The formatter.
+         * @return This builder.
+         */
+        public Builder formatter(final DecimalFormatter formatter)
+        {
+            if ( formatter == null )
+                { throw(new NullPointerException("<formatter> is null.")); }
+            this.p.formatter = formatter;
+            return(this);
+        }
+
+        /**
+         * Selects the records of one sensor within a range of time.
+         *
+         * @param sensor The id of the sensor, ALL_SENSORS for all of them.
+         * @param from Lower limit of the timestamps (included).
+         * @param to Upper limit of the timestamps (included).
+         * @return This builder.
+         */
+        public Builder sensor(final int sensor, final int from, final int to)
+        {
+            this.p.sensor = sensor;
+            this.p.from = from;
+            this.p.to = to;
+            return(this);
+        }
+
+        /**
+         * Selects the records inside of the given bounding box (borders
+         * included). In case minLon is bigger than maxLon, the box is
+         * considered to cross the antimeridian, as in SpatialIndex.queryBox().
+         *
+         * @param minLat Minimum latitude, in degrees.
+         * @param minLon Minimum longitude, in degrees.
+         * @param maxLat Maximum latitude, in degrees.
+         * @param maxLon Maximum longitude, in degrees.
+         * @return This builder.
+         */
+        public Builder boundingBox
+                (   final double minLat, final double minLon,
+                    final double maxLat, final double maxLon    )
+        {
+            this.p.box = new double[] { minLat, minLon, maxLat, maxLon };
+            return(this);
+        }
+
+        /**
+         * Selects the records within the given distance of a point.
+         *
+         * @param lat Latitude of the point, in degrees.
+         * @param lon Longitude of the point, in degrees.
+         * @param meters The distance, in meters.
+         * @return This builder.
+         */
+        public Builder near
+                (final double lat, final double lon, final double meters)
+        {
+            this.p.near = new double[] { lat, lon, meters };
+            return(this);
+        }
+
+        /**
+         * Selects the records inside of the given geofence.
+         *
+         * @param geofence The geofence, 'null' for none.
+         * @return This builder.
+         */
+        public Builder geofence(final Geofence geofence)
+        {
+            this.p.geofence = geofence;
+            return(this);
+        }
+
+        /**
+         * Drops the frames received more than once (see FrameDeduplicator).
+         *
+         * @param memoryLimit Hashes kept in memory before spilling them to
+         *                      disk, NO_DEDUP for keeping all the frames.
+         * @return This builder.
+         */
+        public Builder dedup(final int memoryLimit)
+        {
+            if ( memoryLimit < 0 )
+                { throw(new IllegalArgumentException("Memory limit = "
+                                                + memoryLimit
+                                                + ", value not permitted.")); }
+            this.p.dedup = memoryLimit;
+            return(this);
+        }
+
+        /**
+         * Aggregates the statistics of the records written, see
+         * Result.getStatistics().
+         *
+         * @param statistics 'true' for aggregating them.
+         * @return This builder.
+         */
+        public Builder statistics(final boolean statistics)
+        {
+            this.p.statistics = statistics;
+            return(this);
+        }
+
+        /**
+         * Runs the pipelines in stages (reader, decoder and writer) connected
+         * by bounded queues, see StagedRunner.
+         *
+         * @param capacity Capacity of the queues, in batches; 0 for running
+         *                  the pipelines sequentially.
+         * @return This builder.
+         */
+        public Builder staged(final int capacity)
+        {
+            if ( capacity < 0 )
+                { throw(new IllegalArgumentException("Capacity = " + capacity
+                                                + ", value not permitted.")); }
+            this.p.staged = capacity;
+            return(this);
+        }
+
+        /**
+         * Aggregates the selected records in windows of time; the aggregator
+         * is flushed at the end of each run, so that the last windows are
+         * closed before the document ends. The readings are given in the
+         * order they are read, the allowed lateness of the aggregator absorbs
+         * the local disorder of the input.
+         *
+         * @param windows The aggregator, 'null' for none.
+         * @return This builder.
+         */
+        public Builder windows(final WindowAggregator windows)
+        {
+            this.p.windows = windows;
+            return(this);
+        }
+
+        /**
+         * Creates a pipeline with the current configuration.
+         *
+         * @return The pipeline.
+         */
+        public Pipeline build()
+        {
+            Pipeline copy = new Pipeline();
+            copy.format = this.p.format;
+            copy.threads = this.p.threads;
+            copy.formatter = this.p.formatter;
+            copy.sensor = this.p.sensor;
+            copy.from = this.p.from;
+            copy.to = this.p.to;
+            copy.box = this.p.box;
+            copy.near = this.p.near;
+            copy.geofence = this.p.geofence;
+            copy.dedup = this.p.dedup;
+            copy.statistics = this.p.statistics;
+            copy.staged = this.p.staged;
+            copy.windows = this.p.windows;
+            return(copy);
+        }
+
+    }
+
+}
@@ -0,0 +1,255 @@
+/**
+ * @file StagedRunner.java
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ * @version 0.1
+ *
+ * @section LICENSE
+ *
+ * This file is part of SensorLocator.
+ * SensorLocator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SensorLocator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SensorLocator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.humsat.demo.gssw.sensorlocator.pipeline;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.humsat.demo.gssw.sensorlocator.csv.SensorDataReader;
+import org.humsat.demo.gssw.sensorlocator.csv.SensorDataSource;
+import org.humsat.demo.gssw.sensorlocator.data.SensorData;
+import org.humsat.demo.gssw.sensorlocator.output.DataSink;
+import org.humsat.demo.gssw.sensorlocator.output.OutputSink;
+
+/**
+ * Runs a pipeline in three stages, each one in its own thread: the reader
+ * reads the raw lines (or the records, for sources other than a single CSV
+ * file), the decoder parses them and creates the KML nodes of the selected
+ * records, and the writer (the calling thread) gives the nodes to the sink.
+ * The stages are connected by bounded queues of batches, so that a fast
+ * stage blocks once the queue to the next one is full; disk reads, decoding
+ * and output overlap, and the records in memory are bounded by the capacity
+ * of the queues instead of by the size of the input (the sinks of the
+ * pipelines write the records as they are given, see OutputSinks).
+ *
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ */
+public class StagedRunner
+{
+
+    /** Number of records per batch. */
+    public final static int BATCH_SIZE = 256;
+    /** Default capacity of the queues, in batches. */
+    public final static int DEFAULT_CAPACITY = 16;
+
+    /** Batch that marks the end of the stream. */
+    protected final static List<Object> END = new ArrayList<Object>(0);
+
+    /** Pipeline that selects and transforms the records. */
+    protected Pipeline pipeline = null;
+    /** Capacity of the queues, in batches. */
+    protected int capacity = DEFAULT_CAPACITY;
+
+    /**
+     * Main constructor.
+     *
+     * @param pipeline Pipeline that selects and transforms the records.
+     * @param capacity Capacity of the queues, in batches.
+     */
+    public StagedRunner(final Pipeline pipeline, final int capacity)
+    {
+
+        if ( pipeline == null )
+            { throw(new NullPointerException("<pipeline> is null.")); }
+        if ( capacity <= 0 )
+            { throw(new IllegalArgumentException("Capacity = " + capacity
+                                                + ", value not permitted.")); }
+
+        this.pipeline = pipeline;
+        this.capacity = capacity;
+
+    }
+
+    /**
+     * Reads all the records of the given source and writes the selected ones
+     * to the given sink, whose document must have been started already.
+     *
+     * @param source The source of the sensor data.
+     * @param sink The output sink.
+     * @param result Results of the run, updated by the decoder.
+     * @throws IOException In case any stage fails.
+     */
+    public void run
+            (   final SensorDataSource source, final OutputSink sink,
+                final Pipeline.Result result    )
+        throws IOException
+    {
+
+        final BlockingQueue<List<Object>> read
+                        = new ArrayBlockingQueue<List<Object>>(this.capacity);
+        final BlockingQueue<List<Object>> decoded
+                        = new ArrayBlockingQueue<List<Object>>(this.capacity);
+        final boolean data = ( sink instanceof DataSink );
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+
+        try
+        {
+
+            Future<?> reader = pool.submit(new Callable<Void>()
+            {
+                @Override
+                public Void call()
+                    throws Exception
+                    { readStage(source, read); return(null); }
+            });
+            Future<?> decoder = pool.submit(new Callable<Void>()
+            {
+                @Override
+                public Void call()
+                    throws Exception
+                {
+                    decodeStage(source, read, decoded, data, result);
+                    return(null);
+                }
+            });
+
+            List<Object> batch = null;
+            while ( ( batch = decoded.take() ) != END )
+                { for ( Object o_i : batch ) { Pipeline.write(sink, o_i); } }
+
+            // The decoder finishes once the reader does (or fails).
+            decoder.get();
+            reader.get();
+
+        }
+        catch(InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw(new IOException("Interrupted while writing.", ex));
+        }
+        catch(ExecutionException ex)
+        {
+            if ( ex.getCause() instanceof IOException )
+                { throw((IOException) ex.getCause()); }
+            if ( ex.getCause() instanceof RuntimeException )
+                { throw((RuntimeException) ex.getCause()); }
+            throw(new IOException(ex.getCause()));
+        }
+        finally
+            { pool.shutdownNow(); }
+
+    }
+
+    /**
+     * Reader stage: raw lines in case the source is a single CSV file, so
+     * that they are decoded by the next stage; the records otherwise.
+     *
+     * @param source The source of the sensor data.
+     * @param out Queue to the decoder.
+     * @throws IOException In case the source cannot be read.
+     * @throws InterruptedException In case the stage is cancelled.
+     */
+    protected void readStage
+            (   final SensorDataSource source,
+                final BlockingQueue<List<Object>> out   )
+        throws IOException, InterruptedException
+    {
+
+        SensorDataReader lines = ( source instanceof SensorDataReader ) ?
+                                        (SensorDataReader) source : null;
+        List<Object> batch = new ArrayList<Object>(BATCH_SIZE);
+
+        try
+        {
+            Object o = null;
+            while ( ( o = ( lines != null ) ?
+                                lines.readLine() : source.read() ) != null )
+            {
+                batch.add(o);
+                if ( batch.size() < BATCH_SIZE ) { continue; }
+                out.put(batch);
+                batch = new ArrayList<Object>(BATCH_SIZE);
+            }
+            if ( batch.isEmpty() == false ) { out.put(batch); }
+        }
+        catch(IOException | RuntimeException | InterruptedException ex)
+            { abort(out); throw(ex); }
+
+        out.put(END);
+
+    }
+
+    /**
+     * Decoder stage: parses the lines, selects the records and creates their
+     * KML nodes (see Pipeline.process()).
+     *
+     * @param source The source of the sensor data.
+     * @param in Queue from the reader.
+     * @param out Queue to the writer.
+     * @param data 'true' in case the records are for a data sink.
+     * @param result Results of the run.
+     * @throws IOException In case a line cannot be decoded.
+     * @throws InterruptedException In case the stage is cancelled.
+     */
+    protected void decodeStage
+            (   final SensorDataSource source,
+                final BlockingQueue<List<Object>> in,
+                final BlockingQueue<List<Object>> out,
+                final boolean data, final Pipeline.Result result    )
+        throws IOException, InterruptedException
+    {
+
+        List<Object> batch = null;
+
+        try
+        {
+            while ( ( batch = in.take() ) != END )
+            {
+                List<Object> nodes = new ArrayList<Object>(batch.size());
+                for ( Object o_i : batch )
+                {
+                    SensorData sd = ( o_i instanceof String ) ?
+                            ((SensorDataReader) source).parse((String) o_i) :
+                            (SensorData) o_i;
+                    if ( sd == null ) { continue; }
+                    Object o = this.pipeline.process(sd, data, result);
+                    if ( o != null ) { nodes.add(o); }
+                }
+                if ( nodes.isEmpty() == false ) { out.put(nodes); }
+            }
+        }
+        catch(IOException | RuntimeException | InterruptedException ex)
+            { abort(out); throw(ex); }
+
+        out.put(END);
+
+    }
+
+    /**
+     * Ends a failed stage without blocking: the batches still queued are
+     * dropped, since the run fails anyway, so that the end mark always fits
+     * and the next stage never waits forever (not even once the pool has
+     * been shut down and the stage interrupted).
+     *
+     * @param out Queue to the next stage (this stage is its only producer).
+     */
+    protected static void abort(final BlockingQueue<List<Object>> out)
+        { out.clear(); out.offer(END); }
+
+}
@@ -0,0 +1,634 @@
+/**
+ * @file SensorLocatorServer.java
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ * @version 0.1
+ *
+ * @section LICENSE
+ *
+ * This file is part of SensorLocator.
+ * SensorLocator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SensorLocator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SensorLocator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.humsat.demo.gssw.sensorlocator.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.humsat.demo.gssw.sensorlocator.SensorLocator;
+import org.humsat.demo.gssw.sensorlocator.csv.SensorDataReader;
+import org.humsat.demo.gssw.sensorlocator.data.DecimalFormatter;
+import org.humsat.demo.gssw.sensorlocator.dedup.FrameDeduplicator;
+import org.humsat.demo.gssw.sensorlocator.output.OutputSinks;
+import org.humsat.demo.gssw.sensorlocator.pipeline.Pipeline;
+import org.humsat.demo.gssw.sensorlocator.util.WorkerThreads;
+
+/**
+ * HTTP server that converts CSV files from a long-running JVM, so that the
+ * start-up and the warm-up of the JVM are paid only once. The conversions
+ * are requested to the CONVERT_PATH context:
+ *
+ *  POST /convert?format=kml            the CSV file is the request body.
+ *  GET  /convert?file=pass.csv         the CSV file is read from the root
+ *                                      directory of the server.
+ *
+ * The format can be kmz or any of the OutputSinks formats; the sensor,
+ * from, to, dedup, coordinate-decimals and value-decimals parameters have
+ * the same meaning as the CLI options (see Pipeline). The records are
+ * written to the response as they are read, without temporary files (the
+ * response is chunked, so the connections are kept alive between
+ * requests). In case a conversion fails once its response has started, the
+ * connection is dropped instead of ending the response.
+ *
+ * The requests are run on a pool of worker threads, or on a virtual thread
+ * each (see WorkerThreads); at most threads + queue requests are admitted at
+ * the same time, further connections wait in the backlog of the socket until
+ * a request finishes.
+ *
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ */
+public class SensorLocatorServer
+{
+
+    /** Context of the conversions. */
+    public final static String CONVERT_PATH = "/convert";
+    /** Default port. */
+    public final static int DEFAULT_PORT = 8080;
+    /** Default number of requests waiting for a worker. */
+    public final static int DEFAULT_QUEUE = 64;
+    /** Seconds given to the running requests when the server is stopped. */
+    public final static int STOP_DELAY = 5;
+
+    /** KMZ output format: the KML document, zipped. */
+    public final static String KMZ_FORMAT = "kmz";
+    /** Name of the KML document within the KMZ archive. */
+    public final static String KMZ_ENTRY = "doc.kml";
+
+    /** Parameter with the name of the CSV file within the root directory. */
+    public final static String FILE_PARAMETER = "file";
+    /** Content types per output format. */
+    public final static Map<String, String> CONTENT_TYPES
+            = new HashMap<String, String>()
+    {
+        {
+            this.put(OutputSinks.KML_FORMAT,
+                        "application/vnd.google-earth.kml+xml");
+            this.put(KMZ_FORMAT, "application/vnd.google-earth.kmz");
+            this.put(OutputSinks.GEOJSON_FORMAT, "application/geo+json");
+            this.put(OutputSinks.NDJSON_FORMAT, "application/x-ndjson");
+            this.put(OutputSinks.INTERMEDIATE_FORMAT,
+                        "application/octet-stream");
+            this.put(OutputSinks.ARCHIVE_FORMAT, "application/octet-stream");
+            this.put(OutputSinks.STATISTICS_FORMAT, "text/csv");
+        }
+    };
+
+    /** HTTP server. */
+    protected HttpServer server = null;
+    /** Worker threads that run the requests. */
+    protected ExecutorService pool = null;
+    /** Permits for the requests admitted (running or waiting). */
+    protected Semaphore admitted = null;
+    /** Directory with the files that can be requested, 'null' for none. */
+    protected File root = null;
+
+    /**
+     * Constructor for a server with a pool of platform threads, the server is
+     * not started yet.
+     *
+     * @param address Address where to listen, port 0 for any free port.
+     * @param threads Number of worker threads.
+     * @param queue Number of requests admitted while all the workers are
+     *              busy.
+     * @param root Directory with the files that can be requested through the
+     *              FILE_PARAMETER, 'null' for accepting only uploads.
+     * @throws IOException In case the server cannot be created.
+     */
+    public SensorLocatorServer
+            (   final InetSocketAddress address, final int threads,
+                final int queue, final File root    )
+        throws IOException
+    {
+        this(address, WorkerThreads.PLATFORM_EXECUTOR, threads, queue, root);
+    }
+
+    /**
+     * Main constructor, the server is not started yet.
+     *
+     * @param address Address where to listen, port 0 for any free port.
+     * @param executor Kind of worker threads, one of WorkerThreads.EXECUTORS.
+     * @param threads Number of worker threads (for virtual threads, number of
+     *              requests run at the same time).
+     * @param queue Number of requests admitted while all the workers are
+     *              busy.
+     * @param root Directory with the files that can be requested through the
+     *              FILE_PARAMETER, 'null' for accepting only uploads.
+     * @throws IOException In case the server cannot be created.
+     */
+    public SensorLocatorServer
+            (   final InetSocketAddress address, final String executor,
+                final int threads, final int queue, final File root    )
+        throws IOException
+    {
+
+        if ( address == null )
+            { throw(new NullPointerException("<address> is null.")); }
+        if ( ( threads <= 0 ) || ( queue < 0 ) )
+            { throw(new IllegalArgumentException("Threads = " + threads
+                                                + ", queue = " + queue
+                                                + ", values not permitted.")); }
+        if ( ( root != null ) && ( root.isDirectory() == false ) )
+            { throw(new FileNotFoundException("Not a directory = " + root)); }
+
+        this.root = ( root == null ) ? null : root.getCanonicalFile();
+        this.pool = WorkerThreads.createExecutor
+                                (executor, threads, "sensorlocator-request-");
+        this.admitted = new Semaphore(threads + queue);
+
+        this.server = HttpServer.create(address, queue);
+        this.server.createContext(CONVERT_PATH, new HttpHandler()
+        {
+            @Override
+            public void handle(final HttpExchange exchange)
+                throws IOException
+                { SensorLocatorServer.this.handle(exchange); }
+        });
+        this.server.setExecutor(new Executor()
+        {
+            @Override
+            public void execute(final Runnable command)
+                { SensorLocatorServer.this.admit(command); }
+        });
+
+    }
+
+    /** Starts serving requests. */
+    public void start()
+        { this.server.start(); }
+
+    /**
+     * Stops the server, giving the running requests STOP_DELAY seconds to
+     * finish.
+     *
+     * @throws InterruptedException In case the wait is interrupted.
+     */
+    public void stop()
+        throws InterruptedException
+    {
+        this.server.stop(STOP_DELAY);
+        this.pool.shutdown();
+        if ( this.pool.awaitTermination(STOP_DELAY, TimeUnit.SECONDS)
+                == false )
+            { this.pool.shutdownNow(); }
+    }
+
+    /**
+     * Getter for the port where the server listens.
+     *
+     * @return The port.
+     */
+    public int getPort()
+        { return(this.server.getAddress().getPort()); }
+
+    /**
+     * Hands the given request to the workers once it is admitted, blocking
+     * the dispatcher of the server (and therefore the acceptance of new
+     * connections) while threads + queue requests are already admitted.
+     *
+     * @param command The request.
+     */
+    protected void admit(final Runnable command)
+    {
+
+        this.admitted.acquireUninterruptibly();
+
+        try
+        {
+            this.pool.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                        { command.run(); }
+                    finally
+                        { admitted.release(); }
+                }
+            });
+        }
+        catch(RejectedExecutionException ex)
+            { this.admitted.release(); throw(ex); }
+
+    }
+
+    /**
+     * Handles a conversion request, answering with the proper status code in
+     * case it cannot be served (see fail()).
+     *
+     * @param exchange The request.
+     * @throws IOException In case the request fails once the response has
+     *                      started, so the server drops the connection.
+     */
+    protected void handle(final HttpExchange exchange)
+        throws IOException
+    {
+
+        try
+        {
+
+            Map<String, String> parameters
+                    = parseQuery(exchange.getRequestURI().getRawQuery());
+            InputStream in = null;
+
+            if ( "POST".equals(exchange.getRequestMethod()) == true )
+                { in = exchange.getRequestBody(); }
+            else if ( "GET".equals(exchange.getRequestMethod()) == true )
+                { in = this.openFile(parameters.get(FILE_PARAMETER)); }
+            else
+            {
+                exchange.getResponseHeaders().set("Allow", "GET, POST");
+                sendError(exchange, 405, exchange.getRequestMethod());
+                return;
+            }
+
+            try
+                { this.convert(exchange, parameters, in); }
+            finally
+                { in.close(); }
+
+        }
+        catch(IllegalArgumentException ex)
+            { fail(exchange, 400, ex); }
+        catch(SecurityException ex)
+            { fail(exchange, 403, ex); }
+        catch(FileNotFoundException ex)
+            { fail(exchange, 404, ex); }
+        catch(Exception ex)
+            { fail(exchange, 500, ex); }
+
+        exchange.close();
+
+    }
+
+    /**
+     * Answers a request that failed with the given status code. In case the
+     * response has already started, it cannot be answered any more: closing
+     * the exchange would end the chunked response as if the document was
+     * complete, so the failure is thrown instead and the server drops the
+     * connection, leaving the response truncated for the client.
+     *
+     * @param exchange The request.
+     * @param code The status code.
+     * @param ex The failure.
+     * @throws IOException In case the response has already started.
+     */
+    protected static void fail
+            (   final HttpExchange exchange, final int code,
+                final Exception ex  )
+        throws IOException
+    {
+
+        if ( ( code == 500 ) || ( exchange.getResponseCode() != -1 ) )
+            { Logger.getLogger(SensorLocatorServer.class.getName())
+                        .log(Level.WARNING, ex.getMessage(), ex); }
+
+        if ( exchange.getResponseCode() == -1 )
+            { sendError(exchange, code, ex.getMessage()); return; }
+
+        if ( ex instanceof IOException ) { throw((IOException) ex); }
+        throw(new IOException("Response interrupted.", ex));
+
+    }
+
+    /**
+     * Converts the CSV file read from the given stream, writing the output
+     * document to the response as the records are read. The headers of the
+     * CSV file and the parameters are checked before the response starts.
+     *
+     * @param exchange The request.
+     * @param parameters The parameters of the request.
+     * @param in The CSV file.
+     * @throws IOException In case any IO problem occurs.
+     */
+    protected void convert
+            (   final HttpExchange exchange,
+                final Map<String, String> parameters, final InputStream in  )
+        throws IOException
+    {
+
+        String format = parameters.get(SensorLocator.__FORMAT_OPTION);
+        if ( format == null ) { format = OutputSinks.KML_FORMAT; }
+        format = format.toLowerCase();
+        boolean kmz = KMZ_FORMAT.equals(format);
+
+        Pipeline pipeline = createPipeline
+                (parameters, ( kmz == true ) ? OutputSinks.KML_FORMAT : format);
+        FrameDeduplicator dedup = pipeline.createDeduplicator();
+        SensorDataReader reader = null;
+
+        try
+        {
+
+            reader = new SensorDataReader(in, dedup);
+
+            exchange.getResponseHeaders().set
+                                    ("Content-Type", CONTENT_TYPES.get(format));
+            exchange.sendResponseHeaders(200, 0);
+
+            OutputStream os = new BufferedOutputStream
+                    (exchange.getResponseBody(), OutputSinks.FILE_BUFFER_SIZE);
+            ZipOutputStream zip = null;
+            if ( kmz == true )
+            {
+                zip = new ZipOutputStream(os);
+                zip.putNextEntry(new ZipEntry(KMZ_ENTRY));
+                os = zip;
+            }
+
+            pipeline.run(reader, os);
+            if ( zip != null ) { zip.closeEntry(); zip.finish(); }
+            os.flush();
+
+        }
+        finally
+        {
+            if ( reader != null ) { reader.close(); }
+            if ( dedup != null ) { dedup.close(); }
+        }
+
+    }
+
+    /**
+     * Creates the pipeline for the parameters of a request.
+     *
+     * @param parameters The parameters of the request.
+     * @param format The output format.
+     * @return The pipeline.
+     * @throws IllegalArgumentException In case any parameter is not valid.
+     */
+    protected static Pipeline createPipeline
+            (final Map<String, String> parameters, final String format)
+    {
+
+        Pipeline.Builder builder = Pipeline.builder().format(format)
+                .formatter(new DecimalFormatter
+                        (   getInt(parameters,
+                                SensorLocator.__COORDINATE_DECIMALS_OPTION,
+                                DecimalFormatter.SHORTEST),
+                            getInt(parameters,
+                                SensorLocator.__VALUE_DECIMALS_OPTION,
+                                DecimalFormatter.SHORTEST)  ))
+                .sensor(getInt(parameters, SensorLocator.__SENSOR_OPTION,
+                                Pipeline.ALL_SENSORS),
+                        getInt(parameters, SensorLocator.__FROM_OPTION,
+                                Integer.MIN_VALUE),
+                        getInt(parameters, SensorLocator.__TO_OPTION,
+                                Integer.MAX_VALUE));
+
+        if ( parameters.containsKey(SensorLocator.__DEDUP_OPTION) == true )
+            { builder.dedup(getInt(parameters, SensorLocator.__DEDUP_OPTION,
+                                FrameDeduplicator.DEFAULT_MEMORY_LIMIT)); }
+
+        // One rendering thread per request, the requests already run in
+        // parallel; the KML documents are streamed as well (see OutputSinks).
+        return(builder.threads(1).build());
+
+    }
+
+    /**
+     * Opens the given file of the root directory.
+     *
+     * @param name Name of the file, relative to the root directory.
+     * @return The input stream of the file.
+     * @throws FileNotFoundException In case the file does not exist.
+     * @throws IOException In case the path cannot be resolved.
+     * @throws SecurityException In case no root directory is configured or the
+     *                          file is outside of it.
+     */
+    protected InputStream openFile(final String name)
+        throws IOException
+    {
+
+        if ( name == null )
+            { throw(new IllegalArgumentException("Parameter "
+                                                + FILE_PARAMETER
+                                                + " is required.")); }
+        if ( this.root == null )
+            { throw(new SecurityException("Files cannot be requested, "
+                                            + "no root directory.")); }
+
+        File file = new File(this.root, name).getCanonicalFile();
+        if ( file.getPath().startsWith(this.root.getPath() + File.separator)
+                == false )
+            { throw(new SecurityException("Outside of the root = " + name)); }
+
+        return(new FileInputStream(file));
+
+    }
+
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>> helpers
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
+
+    /**
+     * Parses the (raw) query of a request.
+     *
+     * @param query The query, it can be 'null'.
+     * @return The parameters, (name, value); parameters without value are
+     *          mapped to an empty string.
+     */
+    public static Map<String, String> parseQuery(final String query)
+    {
+
+        Map<String, String> parameters = new HashMap<String, String>();
+        if ( ( query == null ) || ( query.isEmpty() == true ) )
+            { return(parameters); }
+
+        try
+        {
+            for ( String p_i : query.split("&") )
+            {
+                if ( p_i.isEmpty() == true ) { continue; }
+                int sep = p_i.indexOf('=');
+                String name = ( sep < 0 ) ? p_i : p_i.substring(0, sep);
+                String value = ( sep < 0 ) ? "" : p_i.substring(sep + 1);
+                parameters.put(URLDecoder.decode(name, "UTF-8"),
+                                URLDecoder.decode(value, "UTF-8"));
+            }
+        }
+        catch(UnsupportedEncodingException ex)
+            { throw(new IllegalStateException(ex)); }
+
+        return(parameters);
+
+    }
+
+    /**
+     * Returns the value of the given parameter as an integer.
+     *
+     * @param parameters The parameters of the request.
+     * @param name Name of the parameter.
+     * @param defaultValue Value to be returned if the parameter was not given
+     *                      or it is empty.
+     * @return The value of the parameter.
+     * @throws IllegalArgumentException In case the value is not an integer.
+     */
+    protected static int getInt
+            (   final Map<String, String> parameters, final String name,
+                final int defaultValue  )
+    {
+
+        String value = parameters.get(name);
+        if ( ( value == null ) || ( value.isEmpty() == true ) )
+            { return(defaultValue); }
+
+        try
+            { return(Integer.parseInt(value)); }
+        catch(NumberFormatException ex)
+        {
+            throw(new IllegalArgumentException("Parameter " + name
+                                                + " must be an integer, "
+                                                + "value = " + value));
+        }
+
+    }
+
+    /**
+     * Answers the request with the given error, unless the response has
+     * already started (in that case, the connection is just closed).
+     *
+     * @param exchange The request.
+     * @param code The status code.
+     * @param message The message of the error.
+     */
+    protected static void sendError
+            (   final HttpExchange exchange, final int code,
+                final String message    )
+    {
+
+        if ( exchange.getResponseCode() != -1 ) { return; }
+
+        try
+        {
+            byte[] body = ( code + " " + message + "\n" )
+                                .getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set
+                                ("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(code, body.length);
+            exchange.getResponseBody().write(body);
+        }
+        catch(IOException ex)
+        {
+            Logger.getLogger(SensorLocatorServer.class.getName())
+                        .log(Level.FINE, ex.getMessage(), ex);
+        }
+
+    }
+
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>> main ()
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
+
+    /** Wrong arguments exception message. */
+    public final static String __WRONG_ARGS_EX
+            = "Wrong arguments, usage: SensorLocatorServer "
+                + "[--port=" + DEFAULT_PORT + "] "
+                + "[--executor=platform|virtual] [--threads=N] "
+                + "[--queue=" + DEFAULT_QUEUE + "] [--root=directory]";
+
+    /**
+     * Method for running the server from the command line; it keeps running
+     * until the JVM is stopped.
+     *
+     * @param args Set of args given from the command line.
+     */
+    public static void main(String[] args)
+    {
+
+        try
+        {
+
+            Map<String, String> options = new HashMap<String, String>();
+            for ( String a_i : args )
+            {
+                int sep = a_i.indexOf(SensorLocator.__OPTION_SEPARATOR);
+                if ( ( a_i.startsWith(SensorLocator.__OPTION_PREFIX) == false )
+                        || ( sep < 0 ) )
+                    { throw(new IllegalArgumentException(__WRONG_ARGS_EX)); }
+                options.put(a_i.substring
+                                (SensorLocator.__OPTION_PREFIX.length(), sep),
+                            a_i.substring(sep + 1));
+            }
+
+            String root = options.get("root");
+            String executor = options.get(SensorLocator.__EXECUTOR_OPTION);
+            if ( executor == null )
+                { executor = WorkerThreads.PLATFORM_EXECUTOR; }
+            final SensorLocatorServer server = new SensorLocatorServer
+                (   new InetSocketAddress(getInt(options, "port",
+                                                    DEFAULT_PORT)),
+                    executor,
+                    getInt(options, SensorLocator.__THREADS_OPTION,
+                            WorkerThreads.getDefaultThreads(executor)),
+                    getInt(options, "queue", DEFAULT_QUEUE),
+                    ( root == null ) ? null : new File(root)    );
+
+            Runtime.getRuntime().addShutdownHook(new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                        { server.stop(); }
+                    catch(InterruptedException ex)
+                        { Thread.currentThread().interrupt(); }
+                }
+            });
+
+            server.start();
+            Logger.getLogger(SensorLocatorServer.class.getName())
+                        .log(Level.INFO, "Listening on port {0}"
+                                , String.valueOf(server.getPort()));
+
+        }
+        catch (Exception ex)
+        {
+            Logger.getLogger(SensorLocatorServer.class.getName())
+                        .log(Level.SEVERE, ex.getMessage(), ex);
+            System.exit(-1);
+        }
+
+    }
+
+}
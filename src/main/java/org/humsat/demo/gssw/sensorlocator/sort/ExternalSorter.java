@@ -0,0 +1,541 @@
+/**
+ * @file ExternalSorter.java
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ * @version 0.1
+ *
+ * @section LICENSE
+ *
+ * This file is part of SensorLocator.
+ * SensorLocator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SensorLocator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SensorLocator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.humsat.demo.gssw.sensorlocator.sort;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.humsat.demo.gssw.sensorlocator.SensorLocator;
+import org.humsat.demo.gssw.sensorlocator.csv.SensorDataSource;
+import org.humsat.demo.gssw.sensorlocator.data.DataField;
+import org.humsat.demo.gssw.sensorlocator.data.SensorData;
+
+/**
+ * External merge sort of sensor data by (sensor id, timestamp), within a
+ * bounded amount of memory. The records are added as compact binary records
+ * to an in-memory run; once the run reaches the memory budget, it is sorted
+ * (its slices in parallel, then merged) and spilled to a temporary file.
+ * After sort(), the runs are merged back with a heap and the records are
+ * read in order, one at a time. The sort is stable: records with the same
+ * key are read in the order they were added.
+ *
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ */
+public class ExternalSorter
+    implements SensorDataSource
+{
+
+    /** Default memory budget of the in-memory run, in bytes. */
+    public final static long DEFAULT_MEMORY_BUDGET = 64L * 1024 * 1024;
+    /** Memory used per record besides its bytes (key and offset). */
+    public final static int RECORD_OVERHEAD = 8 + 4;
+    /** Minimum number of records of a slice sorted by another thread. */
+    public final static int MIN_SLICE = 4096;
+    /** Size of the buffers of the run files. */
+    public final static int FILE_BUFFER_SIZE = 64 * 1024;
+    /** Prefix of the files of the runs. */
+    public final static String RUN_PREFIX = "sort-";
+    /** Suffix of the files of the runs. */
+    public final static String RUN_SUFFIX = ".run";
+
+    /**
+     * Byte buffer of the in-memory run, whose array can be accessed without
+     * copying it.
+     */
+    protected static class RunBuffer
+        extends ByteArrayOutputStream
+    {
+        /** Constructor. */
+        protected RunBuffer() { super(FILE_BUFFER_SIZE); }
+        /** @return The internal array of the buffer. */
+        protected byte[] array() { return(this.buf); }
+    }
+
+    /**
+     * Next record of a spilled run, while merging.
+     */
+    protected static class Cursor
+        implements Comparable<Cursor>
+    {
+
+        /** Input of the run. */
+        protected DataInputStream in = null;
+        /** Position of the run within the list of runs. */
+        protected int order = 0;
+        /** Key of the next record. */
+        protected long key = 0L;
+        /** Bytes of the next record. */
+        protected byte[] record = null;
+
+        /**
+         * Reads the next record of the run.
+         *
+         * @return 'false' in case the run is exhausted.
+         */
+        protected boolean next()
+            throws IOException
+        {
+            try
+                { this.key = this.in.readLong(); }
+            catch(EOFException ex)
+                { return(false); }
+            this.record = new byte[this.in.readInt()];
+            this.in.readFully(this.record);
+            return(true);
+        }
+
+        @Override
+        public int compareTo(final Cursor o)
+        {
+            if ( this.key != o.key )
+                { return( ( this.key < o.key ) ? -1 : 1 ); }
+            return( ( this.order < o.order ) ? -1 :
+                        ( this.order > o.order ) ? 1 : 0 );
+        }
+
+    }
+
+    /** Memory budget of the in-memory run, in bytes. */
+    protected long memoryBudget = DEFAULT_MEMORY_BUDGET;
+    /** Number of threads for sorting the runs. */
+    protected int threads = 1;
+    /** Directory for the runs, 'null' for the temporary directory. */
+    protected File directory = null;
+
+    /** Bytes of the records of the in-memory run. */
+    protected RunBuffer buffer = new RunBuffer();
+    /** Output for the records of the in-memory run. */
+    protected DataOutputStream out = new DataOutputStream(this.buffer);
+    /** Keys of the records of the in-memory run. */
+    protected long[] keys = new long[1024];
+    /** Offsets of the records of the in-memory run, plus the end. */
+    protected int[] offsets = new int[1025];
+    /** Number of records of the in-memory run. */
+    protected int count = 0;
+
+    /** Files of the spilled runs. */
+    protected List<File> runFiles = new ArrayList<File>();
+    /** Heap for merging the runs, 'null' until sort() is called. */
+    protected PriorityQueue<Cursor> heap = null;
+    /** Open runs while merging. */
+    protected List<Cursor> cursors = new ArrayList<Cursor>();
+    /** Number of records added. */
+    protected long records = 0L;
+    /** Number of runs spilled. */
+    protected int spilled = 0;
+
+    /** Default constructor, with the default memory budget and 1 thread. */
+    public ExternalSorter()
+        { this(DEFAULT_MEMORY_BUDGET, 1, null); }
+
+    /**
+     * Main constructor.
+     *
+     * @param memoryBudget Memory budget of the in-memory run, in bytes.
+     * @param threads Number of threads for sorting the runs.
+     * @param directory Directory for the runs, 'null' for the temporary
+     *                  directory of the system.
+     */
+    public ExternalSorter
+            (final long memoryBudget, final int threads, final File directory)
+    {
+
+        if ( memoryBudget <= 0 )
+            { throw(new IllegalArgumentException("<memoryBudget> = "
+                    + memoryBudget + ", value not permitted. Must be bigger "
+                    + "than 0.")); }
+        if ( threads <= 0 )
+            { throw(new IllegalArgumentException("<threads> = " + threads
+                    + ", value not permitted. Must be bigger than 0.")); }
+
+        this.memoryBudget = memoryBudget;
+        this.threads = threads;
+        this.directory = directory;
+
+    }
+
+    /**
+     * Adds the given sensor data to the sorter.
+     *
+     * @param sensor The sensor data.
+     * @throws IOException In case a run cannot be spilled.
+     */
+    public void add(final SensorData sensor)
+        throws IOException
+    {
+
+        if ( this.heap != null )
+            { throw(new IllegalStateException("Already sorted.")); }
+
+        if ( this.count == this.keys.length )
+        {
+            this.keys = Arrays.copyOf(this.keys, this.count * 2);
+            this.offsets = Arrays.copyOf(this.offsets, this.count * 2 + 1);
+        }
+
+        this.keys[this.count] = key(sensor.getSensorId(),
+                                        sensor.getTimestamp());
+        this.offsets[this.count] = this.buffer.size();
+        writeRecord(this.out, sensor);
+        this.count++;
+        this.records++;
+
+        if ( (long) this.buffer.size() + (long) this.count * RECORD_OVERHEAD
+                >= this.memoryBudget )
+            { this.spill(); }
+
+    }
+
+    /**
+     * Ends the input: the last run is spilled and the merge of all the runs
+     * starts.
+     *
+     * @throws IOException In case the runs cannot be written or read.
+     */
+    public void sort()
+        throws IOException
+    {
+
+        if ( this.heap != null ) { return; }
+        if ( this.count > 0 ) { this.spill(); }
+
+        this.heap = new PriorityQueue<Cursor>
+                                (Math.max(1, this.runFiles.size()));
+
+        for ( int i = 0; i < this.runFiles.size(); i++ )
+        {
+            Cursor c = new Cursor();
+            c.in = new DataInputStream(new BufferedInputStream
+                    (new FileInputStream(this.runFiles.get(i)),
+                     FILE_BUFFER_SIZE));
+            c.order = i;
+            this.cursors.add(c);
+            if ( c.next() == true ) { this.heap.add(c); }
+        }
+
+    }
+
+    /**
+     * Reads the next record in (sensor id, timestamp) order; sort() must have
+     * been called before.
+     *
+     * @return The sensor data, 'null' once all the records have been read.
+     * @throws IOException In case the runs cannot be read.
+     */
+    @Override
+    public SensorData read()
+        throws IOException
+    {
+
+        if ( this.heap == null )
+            { throw(new IllegalStateException("sort() not called yet.")); }
+
+        Cursor c = this.heap.poll();
+        if ( c == null ) { return(null); }
+
+        SensorData sd = readRecord(new DataInputStream
+                                    (new ByteArrayInputStream(c.record)));
+        if ( c.next() == true ) { this.heap.add(c); }
+        return(sd);
+
+    }
+
+    /**
+     * Getter for the number of records added.
+     *
+     * @return Number of records.
+     */
+    public long getRecords()
+        { return(this.records); }
+
+    /**
+     * Getter for the number of runs spilled to disk.
+     *
+     * @return Number of runs.
+     */
+    public int getRuns()
+        { return(this.spilled); }
+
+    /**
+     * Closes and deletes the runs.
+     *
+     * @throws IOException In case any run cannot be closed.
+     */
+    @Override
+    public void close()
+        throws IOException
+    {
+
+        for ( Cursor c_i : this.cursors ) { c_i.in.close(); }
+        for ( File f_i : this.runFiles )
+        {
+            if ( f_i.delete() == false )
+                { Logger.getLogger(SensorLocator.class.getName())
+                        .log(Level.WARNING, "Could not delete run = {0}",
+                                f_i); }
+        }
+
+        this.cursors.clear();
+        this.runFiles.clear();
+
+    }
+
+    /**
+     * Sorts the in-memory run and writes it to a new run file.
+     */
+    private void spill()
+        throws IOException
+    {
+
+        final int n = this.count;
+        this.offsets[n] = this.buffer.size();
+
+        final long[] k = this.keys;
+        final int[] p = new int[n];
+        for ( int i = 0; i < n; i++ ) { p[i] = i; }
+        final long[] k_tmp = new long[n];
+        final int[] p_tmp = new int[n];
+
+        int slices = Math.max(1, Math.min(this.threads, n / MIN_SLICE));
+        final int[] bounds = new int[slices + 1];
+        for ( int s = 0; s <= slices; s++ )
+            { bounds[s] = (int) ( (long) n * s / slices ); }
+
+        if ( slices == 1 )
+            { mergeSort(k, p, k_tmp, p_tmp, 0, n); }
+        else
+            { this.sortSlices(k, p, k_tmp, p_tmp, bounds); }
+
+        File f = File.createTempFile(RUN_PREFIX, RUN_SUFFIX, this.directory);
+        this.runFiles.add(f);
+        DataOutputStream run = new DataOutputStream(new BufferedOutputStream
+                                (new FileOutputStream(f), FILE_BUFFER_SIZE));
+        byte[] bytes = this.buffer.array();
+
+        try
+        {
+
+            // Merge of the sorted slices; slices are few, so the smallest
+            // head is looked up linearly (first slice on ties, for stability).
+            int[] heads = Arrays.copyOf(bounds, slices);
+
+            for ( int written = 0; written < n; written++ )
+            {
+
+                int best = -1;
+                for ( int s = 0; s < slices; s++ )
+                {
+                    if ( heads[s] == bounds[s + 1] ) { continue; }
+                    if ( ( best < 0 ) || ( k[heads[s]] < k[heads[best]] ) )
+                        { best = s; }
+                }
+
+                int i = heads[best]++;
+                int r = p[i];
+                run.writeLong(k[i]);
+                run.writeInt(this.offsets[r + 1] - this.offsets[r]);
+                run.write(bytes, this.offsets[r],
+                            this.offsets[r + 1] - this.offsets[r]);
+
+            }
+
+        }
+        finally
+            { run.close(); }
+
+        Logger.getLogger(SensorLocator.class.getName())
+                .log(Level.FINE, "Spilled {0} records to {1}",
+                        new Object[] { n, f });
+
+        this.buffer.reset();
+        this.count = 0;
+        this.spilled++;
+
+    }
+
+    /**
+     * Sorts the given slices of the run in parallel.
+     */
+    private void sortSlices
+            (   final long[] k, final int[] p, final long[] k_tmp,
+                final int[] p_tmp, final int[] bounds   )
+    {
+
+        ExecutorService pool = Executors.newFixedThreadPool
+                                                (bounds.length - 1);
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+
+        try
+        {
+
+            for ( int s = 0; s < bounds.length - 1; s++ )
+            {
+                final int from = bounds[s];
+                final int to = bounds[s + 1];
+                futures.add(pool.submit(new Runnable()
+                {
+                    @Override
+                    public void run()
+                        { mergeSort(k, p, k_tmp, p_tmp, from, to); }
+                }));
+            }
+
+            for ( Future<?> f : futures ) { f.get(); }
+
+        }
+        catch(InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw(new IllegalStateException("Interrupted while sorting.", ex));
+        }
+        catch(ExecutionException ex)
+            { throw(new IllegalStateException("Could not sort run.", ex)); }
+        finally
+            { pool.shutdownNow(); }
+
+    }
+
+    /**
+     * Stable merge sort of the keys within [from, to), moving the positions
+     * of the records along with them.
+     */
+    private static void mergeSort
+            (   final long[] k, final int[] p, final long[] k_tmp,
+                final int[] p_tmp, final int from, final int to )
+    {
+
+        if ( to - from <= 16 )
+        {
+            for ( int i = from + 1; i < to; i++ )
+            {
+                long k_i = k[i];
+                int p_i = p[i];
+                int j = i - 1;
+                for ( ; ( j >= from ) && ( k[j] > k_i ); j-- )
+                    { k[j + 1] = k[j]; p[j + 1] = p[j]; }
+                k[j + 1] = k_i;
+                p[j + 1] = p_i;
+            }
+            return;
+        }
+
+        int mid = ( from + to ) >>> 1;
+        mergeSort(k, p, k_tmp, p_tmp, from, mid);
+        mergeSort(k, p, k_tmp, p_tmp, mid, to);
+        if ( k[mid - 1] <= k[mid] ) { return; }
+
+        int a = from;
+        int b = mid;
+        for ( int i = from; i < to; i++ )
+        {
+            if ( ( b >= to ) || ( ( a < mid ) && ( k[a] <= k[b] ) ) )
+                { k_tmp[i] = k[a]; p_tmp[i] = p[a]; a++; }
+            else
+                { k_tmp[i] = k[b]; p_tmp[i] = p[b]; b++; }
+        }
+
+        System.arraycopy(k_tmp, from, k, from, to - from);
+        System.arraycopy(p_tmp, from, p, from, to - from);
+
+    }
+
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>> records
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
+
+    /**
+     * Packs the sort key of a record: the sensor id in the upper half and the
+     * timestamp in the lower one, both so that the unsigned order of the
+     * bits matches the signed order of the values.
+     *
+     * @param sensorId Identifier of the sensor.
+     * @param timestamp Timestamp of the record.
+     * @return The packed key.
+     */
+    public static long key(final int sensorId, final int timestamp)
+    {
+        return( ( ( (long) sensorId ) << 32 )
+                    | ( ( timestamp ^ Integer.MIN_VALUE ) & 0xffffffffL ) );
+    }
+
+    /**
+     * Writes the compact binary record of the given sensor data: timestamp,
+     * sensor id, data length and the code and raw value of each data field.
+     *
+     * @param out The output.
+     * @param sensor The sensor data.
+     * @throws IOException In case the record cannot be written.
+     */
+    public static void writeRecord
+            (final DataOutputStream out, final SensorData sensor)
+        throws IOException
+    {
+        out.writeInt(sensor.getTimestamp());
+        out.writeInt(sensor.getSensorId());
+        out.writeInt(sensor.getDataLength());
+        List<DataField> fields = sensor.getDataFields();
+        out.writeShort(fields.size());
+        for ( DataField df_i : fields )
+            { out.writeUTF(df_i.type + df_i.value); }
+    }
+
+    /**
+     * Reads a compact binary record written by writeRecord(), decoding its
+     * data fields again.
+     *
+     * @param in The input.
+     * @return The sensor data.
+     * @throws IOException In case the record cannot be read.
+     */
+    public static SensorData readRecord(final DataInputStream in)
+        throws IOException
+    {
+        int timestamp = in.readInt();
+        int sensorId = in.readInt();
+        int dataLen = in.readInt();
+        int n = in.readUnsignedShort();
+        List<DataField> fields = new ArrayList<DataField>(n);
+        for ( int i = 0; i < n; i++ )
+            { fields.add(DataField.readDataField(in.readUTF())); }
+        return(SensorData.createSensorData
+                                (timestamp, sensorId, dataLen, fields));
+    }
+
+}
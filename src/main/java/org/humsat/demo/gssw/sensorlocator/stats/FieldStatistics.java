@@ -0,0 +1,158 @@
+/**
+ * @file FieldStatistics.java
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ * @version 0.1
+ *
+ * @section LICENSE
+ *
+ * This file is part of SensorLocator.
+ * SensorLocator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SensorLocator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SensorLocator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.humsat.demo.gssw.sensorlocator.stats;
+
+/**
+ * Accumulator for the count, minimum, maximum, mean and standard deviation of
+ * a series of values. The mean and the variance are updated with Welford's
+ * algorithm, so no value is retained; two accumulators can be merged, so that
+ * series can be aggregated in parallel.
+ *
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ */
+public class FieldStatistics
+{
+
+    /** Number of values. */
+    protected long count = 0L;
+    /** Minimum value. */
+    protected double min = Double.POSITIVE_INFINITY;
+    /** Maximum value. */
+    protected double max = Double.NEGATIVE_INFINITY;
+    /** Mean of the values. */
+    protected double mean = 0.0;
+    /** Sum of the squares of the differences with the mean. */
+    protected double m2 = 0.0;
+
+    /**
+     * Adds a value to this accumulator. NaN values are ignored.
+     *
+     * @param value The value.
+     */
+    public void add(final double value)
+    {
+
+        if ( value != value ) { return; }
+
+        this.count++;
+        if ( value < this.min ) { this.min = value; }
+        if ( value > this.max ) { this.max = value; }
+
+        double delta = value - this.mean;
+        this.mean += delta / this.count;
+        this.m2 += delta * ( value - this.mean );
+
+    }
+
+    /**
+     * Merges the values of the given accumulator into this one.
+     *
+     * @param other The accumulator to be merged.
+     */
+    public void merge(final FieldStatistics other)
+    {
+
+        if ( other.count == 0 ) { return; }
+        if ( this.count == 0 )
+        {
+            this.count = other.count;
+            this.min = other.min;
+            this.max = other.max;
+            this.mean = other.mean;
+            this.m2 = other.m2;
+            return;
+        }
+
+        long n = this.count + other.count;
+        double delta = other.mean - this.mean;
+
+        this.mean += delta * other.count / n;
+        this.m2 += other.m2
+                    + delta * delta * ( (double) this.count * other.count ) / n;
+        this.count = n;
+        this.min = Math.min(this.min, other.min);
+        this.max = Math.max(this.max, other.max);
+
+    }
+
+    /**
+     * Getter for the number of values.
+     *
+     * @return Number of values.
+     */
+    public long getCount()
+        { return(this.count); }
+
+    /**
+     * Getter for the minimum value.
+     *
+     * @return Minimum value, NaN in case there are no values.
+     */
+    public double getMin()
+        { return( ( this.count == 0 ) ? Double.NaN : this.min ); }
+
+    /**
+     * Getter for the maximum value.
+     *
+     * @return Maximum value, NaN in case there are no values.
+     */
+    public double getMax()
+        { return( ( this.count == 0 ) ? Double.NaN : this.max ); }
+
+    /**
+     * Getter for the mean of the values.
+     *
+     * @return Mean, NaN in case there are no values.
+     */
+    public double getMean()
+        { return( ( this.count == 0 ) ? Double.NaN : this.mean ); }
+
+    /**
+     * Getter for the sum of the values.
+     *
+     * @return Sum, 0 in case there are no values.
+     */
+    public double getSum()
+        { return(this.mean * this.count); }
+
+    /**
+     * Getter for the sample standard deviation of the values.
+     *
+     * @return Standard deviation, 0 in case there is only one value and NaN
+     *          in case there are no values.
+     */
+    public double getStdDev()
+    {
+        if ( this.count == 0 ) { return(Double.NaN); }
+        if ( this.count == 1 ) { return(0.0); }
+        return(Math.sqrt(this.m2 / ( this.count - 1 )));
+    }
+
+    @Override
+    public String toString()
+    {
+        return("count = " + this.count + ", min = " + this.getMin()
+                    + ", max = " + this.getMax() + ", mean = "
+                    + this.getMean() + ", stddev = " + this.getStdDev());
+    }
+
+}
@@ -0,0 +1,406 @@
+/**
+ * @file SensorStatistics.java
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ * @version 0.1
+ *
+ * @section LICENSE
+ *
+ * This file is part of SensorLocator.
+ * SensorLocator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SensorLocator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SensorLocator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.humsat.demo.gssw.sensorlocator.stats;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.humsat.demo.gssw.sensorlocator.data.DataField;
+import org.humsat.demo.gssw.sensorlocator.data.DataFieldConstants;
+import org.humsat.demo.gssw.sensorlocator.data.SensorData;
+import org.humsat.demo.gssw.sensorlocator.util.LongObjectHashMap;
+
+/**
+ * Single pass aggregation of the values measured by the sensors. One
+ * accumulator is kept for each (sensor id, field code, value index) key; the
+ * key is packed into a primitive long value. Only the accumulators are kept,
+ * never the readings, and two aggregations can be merged.
+ *
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ */
+public class SensorStatistics
+    implements DataFieldConstants
+{
+
+    /** Header of the CSV summary. */
+    public final static String CSV_HEADER
+            = "Sensor ID,Field,Unit,Count,Min,Max,Mean,StdDev";
+    /** Separator of the fields of the CSV summary. */
+    public final static char CSV_SEPARATOR = ',';
+
+    /** Accumulators, per (sensor id, field code, value index) key. */
+    protected LongObjectHashMap<FieldStatistics> accumulators
+            = new LongObjectHashMap<FieldStatistics>();
+    /** Keys of the accumulators sorted, 'null' until asked for (again). */
+    protected volatile long[] sortedKeys = null;
+
+    /**
+     * Adds all the values of the given sensor data, but its position.
+     *
+     * @param sensor The sensor data.
+     */
+    public void add(final SensorData sensor)
+    {
+
+        for ( DataField df_i : sensor.getDataFields() )
+        {
+
+            if ( df_i.type.equalsIgnoreCase(POSITION_F_CODE) == true )
+                { continue; }
+
+            List<String> units = VALUES_PER_CODE.get(df_i.type);
+
+            for ( int i = 0; i < df_i.values.size(); i++ )
+            {
+                Float v_i = df_i.values.get(i).get(units.get(i));
+                if ( v_i == null ) { continue; }
+                this.getAccumulator(key(sensor.getSensorId(), df_i.type, i))
+                        .add(v_i.floatValue());
+            }
+
+        }
+
+    }
+
+    /**
+     * Adds all the values of the given list of sensor data.
+     *
+     * @param sensors The list of sensor data.
+     */
+    public void addAll(final List<SensorData> sensors)
+    {
+        for ( SensorData sd_i : sensors )
+            { this.add(sd_i); }
+    }
+
+    /**
+     * Merges the accumulators of the given aggregation into this one.
+     *
+     * @param other The aggregation to be merged.
+     */
+    public void merge(final SensorStatistics other)
+    {
+        for ( long k_i : other.accumulators.keys(false) )
+        {
+            this.getAccumulator(k_i).merge(other.accumulators.get(k_i));
+        }
+    }
+
+    /**
+     * Returns the accumulator for the given key, creating it in case it does
+     * not exist yet.
+     */
+    private FieldStatistics getAccumulator(final long key)
+    {
+        FieldStatistics s = this.accumulators.get(key);
+        if ( s == null )
+        {
+            s = new FieldStatistics();
+            this.accumulators.put(key, s);
+            this.sortedKeys = null;
+        }
+        return(s);
+    }
+
+    /**
+     * Returns the accumulator for the given key.
+     *
+     * @param sensorId Identifier of the sensor.
+     * @param code Code of the data field.
+     * @param index Index of the value within the data field.
+     * @return The accumulator, 'null' in case no value was added for the key.
+     */
+    public FieldStatistics get
+            (final int sensorId, final String code, final int index)
+        { return(this.accumulators.get(key(sensorId, code, index))); }
+
+    /**
+     * Returns the keys of the accumulators of the given sensor, sorted. The
+     * keys of all the sensors are sorted once, until an accumulator is added.
+     *
+     * @param sensorId Identifier of the sensor.
+     * @return Array with the keys.
+     */
+    public long[] getKeys(final int sensorId)
+    {
+        long[] keys = this.getSortedKeys();
+        long first = ( (long) sensorId ) << 32;
+        int from = lowerBound(keys, first);
+        int to = lowerBound(keys, first + ( 1L << 32 ));
+        return(Arrays.copyOfRange(keys, from, to));
+    }
+
+    /**
+     * Returns the identifiers of the sensors with accumulators, sorted.
+     *
+     * @return Array with the identifiers.
+     */
+    public int[] getSensorIds()
+    {
+        long[] keys = this.getSortedKeys();
+        int[] ids = new int[keys.length];
+        int n = 0;
+        for ( long k_i : keys )
+        {
+            int id = getSensorId(k_i);
+            if ( ( n == 0 ) || ( ids[n - 1] != id ) ) { ids[n++] = id; }
+        }
+        return(Arrays.copyOf(ids, n));
+    }
+
+    /**
+     * Returns the keys of all the accumulators, sorted.
+     *
+     * @return Array with the keys, not to be modified.
+     */
+    protected long[] getSortedKeys()
+    {
+        long[] keys = this.sortedKeys;
+        if ( keys == null )
+            { keys = this.accumulators.keys(true); this.sortedKeys = keys; }
+        return(keys);
+    }
+
+    /**
+     * Returns the accumulator for the given key.
+     *
+     * @param key The packed key.
+     * @return The accumulator, 'null' in case there is none.
+     */
+    public FieldStatistics get(final long key)
+        { return(this.accumulators.get(key)); }
+
+    /**
+     * Getter for the number of accumulators.
+     *
+     * @return Number of accumulators.
+     */
+    public int size()
+        { return(this.accumulators.size()); }
+
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>> csv
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
+
+    /**
+     * Writes the summary of all the accumulators as CSV, sorted by sensor,
+     * field code and value index. Statistics are written with the precision
+     * of the measured values (float).
+     *
+     * @param out The writer where the summary is to be written.
+     * @throws IOException In case an IO error occurs.
+     */
+    public void writeCSV(final Writer out)
+        throws IOException
+    {
+
+        StringBuilder sb = new StringBuilder(128);
+        out.write(CSV_HEADER);
+        out.write('\n');
+
+        for ( long k_i : this.getSortedKeys() )
+        {
+
+            FieldStatistics s = this.accumulators.get(k_i);
+            sb.setLength(0);
+            sb.append(getSensorId(k_i)).append(CSV_SEPARATOR)
+                .append(getName(k_i)).append(CSV_SEPARATOR)
+                .append(getUnit(k_i)).append(CSV_SEPARATOR)
+                .append(s.getCount()).append(CSV_SEPARATOR)
+                .append((float) s.getMin()).append(CSV_SEPARATOR)
+                .append((float) s.getMax()).append(CSV_SEPARATOR)
+                .append((float) s.getMean()).append(CSV_SEPARATOR)
+                .append((float) s.getStdDev()).append('\n');
+            out.append(sb);
+
+        }
+
+        out.flush();
+
+    }
+
+    /**
+     * Writes the summary of all the accumulators to the given CSV file.
+     *
+     * @param output The file where the summary is to be written.
+     * @throws IOException In case an IO error occurs.
+     */
+    public void writeCSV(final File output)
+        throws IOException
+    {
+        Writer out = new BufferedWriter(new FileWriter(output));
+        try
+            { this.writeCSV(out); }
+        finally
+            { out.close(); }
+    }
+
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>> factory
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
+
+    /**
+     * Aggregates the given list of sensor data using the given number of
+     * threads: each thread aggregates a chunk of the list and the partial
+     * aggregations are merged.
+     *
+     * @param sensors The list of sensor data.
+     * @param threads Number of threads.
+     * @return The aggregation.
+     */
+    public static SensorStatistics aggregate
+            (final List<SensorData> sensors, final int threads)
+    {
+
+        if ( threads <= 0 )
+            { throw(new IllegalArgumentException("<threads> = " + threads
+                    + ", value not permitted. Must be bigger than 0.")); }
+
+        SensorStatistics result = new SensorStatistics();
+        if ( ( threads == 1 ) || ( sensors.size() < threads ) )
+            { result.addAll(sensors); return(result); }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<SensorStatistics>> futures
+                = new ArrayList<Future<SensorStatistics>>();
+        int chunk = ( sensors.size() + threads - 1 ) / threads;
+
+        try
+        {
+
+            for ( int from = 0; from < sensors.size(); from += chunk )
+            {
+                final List<SensorData> part = sensors.subList
+                            (from, Math.min(from + chunk, sensors.size()));
+                futures.add(pool.submit(new Callable<SensorStatistics>()
+                {
+                    @Override
+                    public SensorStatistics call()
+                    {
+                        SensorStatistics s = new SensorStatistics();
+                        s.addAll(part);
+                        return(s);
+                    }
+                }));
+            }
+
+            for ( Future<SensorStatistics> f_i : futures )
+                { result.merge(f_i.get()); }
+
+        }
+        catch(InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw(new IllegalStateException("Interrupted while aggregating.",
+                                            ex));
+        }
+        catch(ExecutionException ex)
+            { throw(new IllegalStateException("Could not aggregate.", ex)); }
+        finally
+            { pool.shutdownNow(); }
+
+        return(result);
+
+    }
+
+    /**
+     * Packs the given (sensor id, field code, value index) key.
+     *
+     * @param sensorId Identifier of the sensor.
+     * @param code Code of the data field.
+     * @param index Index of the value within the data field.
+     * @return The packed key.
+     */
+    public static long key
+            (final int sensorId, final String code, final int index)
+    {
+        return( ( ( (long) sensorId ) << 32 )
+                    | ( ( (long) code.charAt(0) ) << 16 )
+                    | ( index & 0xffff ) );
+    }
+
+    /**
+     * Gets the identifier of the sensor of a packed key.
+     *
+     * @param key The packed key.
+     * @return Identifier of the sensor.
+     */
+    public static int getSensorId(final long key)
+        { return((int) ( key >> 32 )); }
+
+    /**
+     * Gets the code of the data field of a packed key.
+     *
+     * @param key The packed key.
+     * @return Code of the data field.
+     */
+    public static String getCode(final long key)
+        { return(String.valueOf((char) ( ( key >>> 16 ) & 0xffff ))); }
+
+    /**
+     * Gets the index of the value of a packed key.
+     *
+     * @param key The packed key.
+     * @return Index of the value within the data field.
+     */
+    public static int getIndex(final long key)
+        { return((int) ( key & 0xffff )); }
+
+    /**
+     * Gets the name of the data field of a packed key.
+     *
+     * @param key The packed key.
+     * @return Name of the data field.
+     */
+    public static String getName(final long key)
+        { return(NAMES_PER_CODE.get(getCode(key))); }
+
+    /**
+     * Gets the units of the value of a packed key.
+     *
+     * @param key The packed key.
+     * @return Units of the value.
+     */
+    public static String getUnit(final long key)
+        { return(VALUES_PER_CODE.get(getCode(key)).get(getIndex(key))); }
+
+    /**
+     * Finds the position of the first key that is not smaller than the given
+     * one.
+     */
+    private static int lowerBound(final long[] keys, final long key)
+    {
+        int i = Arrays.binarySearch(keys, key);
+        return( ( i >= 0 ) ? i : ( -i - 1 ) );
+    }
+
+}
@@ -0,0 +1,79 @@
+/**
+ * @file StatisticsWriter.java
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ * @version 0.1
+ *
+ * @section LICENSE
+ *
+ * This file is part of SensorLocator.
+ * SensorLocator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SensorLocator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SensorLocator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.humsat.demo.gssw.sensorlocator.stats;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import org.humsat.demo.gssw.sensorlocator.kml.KMLNode;
+import org.humsat.demo.gssw.sensorlocator.output.OutputSink;
+
+/**
+ * Output sink that aggregates the values of the sensor data of the nodes
+ * and writes the CSV summary (see SensorStatistics.writeCSV) once the
+ * document is finished.
+ *
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ */
+public class StatisticsWriter
+    implements OutputSink
+{
+
+    /** Writer for the current document. */
+    protected Writer out = null;
+    /** Aggregation of the current document. */
+    protected SensorStatistics statistics = null;
+
+    @Override
+    public void begin(OutputStream os)
+        throws IOException
+    {
+        this.out = new BufferedWriter
+                        (new OutputStreamWriter(os, StandardCharsets.UTF_8));
+        this.statistics = new SensorStatistics();
+    }
+
+    @Override
+    public void write(KMLNode node)
+        throws IOException
+        { this.statistics.add(node.getParent()); }
+
+    @Override
+    public void end()
+        throws IOException
+        { this.statistics.writeCSV(this.out); }
+
+    @Override
+    public void abort() {}
+
+    /**
+     * Getter for the aggregation of the current (or the last) document.
+     *
+     * @return The aggregation, 'null' in case no document has been started.
+     */
+    public SensorStatistics getStatistics()
+        { return(this.statistics); }
+
+}
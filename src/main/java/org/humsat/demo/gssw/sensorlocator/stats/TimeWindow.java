@@ -0,0 +1,149 @@
+/**
+ * @file TimeWindow.java
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ * @version 0.1
+ *
+ * @section LICENSE
+ *
+ * This file is part of SensorLocator.
+ * SensorLocator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SensorLocator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SensorLocator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.humsat.demo.gssw.sensorlocator.stats;
+
+/**
+ * Window of time of a single sensor, with the statistics of the values
+ * measured by the sensor within the window and its last known position.
+ *
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ */
+public class TimeWindow
+    implements Comparable<TimeWindow>
+{
+
+    /** Identifier of the sensor. */
+    protected int sensorId = -1;
+    /** Start of the window (included). */
+    protected long start = 0L;
+    /** End of the window (excluded). */
+    protected long end = 0L;
+    /** Statistics of the values within the window. */
+    protected SensorStatistics statistics = new SensorStatistics();
+    /** Latitude of the last known position, NaN if unknown. */
+    protected float latitude = Float.NaN;
+    /** Longitude of the last known position, NaN if unknown. */
+    protected float longitude = Float.NaN;
+    /** Timestamp of the last known position. */
+    protected long positionTimestamp = Long.MIN_VALUE;
+
+    /**
+     * Main constructor.
+     *
+     * @param sensorId Identifier of the sensor.
+     * @param start Start of the window (included).
+     * @param end End of the window (excluded).
+     */
+    public TimeWindow(final int sensorId, final long start, final long end)
+    {
+        this.sensorId = sensorId;
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Getter for the identifier of the sensor.
+     *
+     * @return Identifier of the sensor.
+     */
+    public int getSensorId()
+        { return(this.sensorId); }
+
+    /**
+     * Getter for the start of the window.
+     *
+     * @return Start of the window (included).
+     */
+    public long getStart()
+        { return(this.start); }
+
+    /**
+     * Getter for the end of the window.
+     *
+     * @return End of the window (excluded).
+     */
+    public long getEnd()
+        { return(this.end); }
+
+    /**
+     * Getter for the statistics of the values within the window.
+     *
+     * @return The statistics.
+     */
+    public SensorStatistics getStatistics()
+        { return(this.statistics); }
+
+    /**
+     * Getter for the latitude of the last known position of the sensor.
+     *
+     * @return Latitude, NaN in case it is not known.
+     */
+    public float getLatitude()
+        { return(this.latitude); }
+
+    /**
+     * Getter for the longitude of the last known position of the sensor.
+     *
+     * @return Longitude, NaN in case it is not known.
+     */
+    public float getLongitude()
+        { return(this.longitude); }
+
+    /**
+     * Updates the last known position of the sensor.
+     *
+     * @param timestamp Timestamp of the position.
+     * @param latitude Latitude of the sensor.
+     * @param longitude Longitude of the sensor.
+     */
+    public void setPosition
+            (final long timestamp, final float latitude, final float longitude)
+    {
+        if ( timestamp < this.positionTimestamp ) { return; }
+        this.positionTimestamp = timestamp;
+        this.latitude = latitude;
+        this.longitude = longitude;
+    }
+
+    /**
+     * Windows are sorted by end, then by sensor and then by start.
+     */
+    @Override
+    public int compareTo(final TimeWindow o)
+    {
+        if ( this.end != o.end ) { return( ( this.end < o.end ) ? -1 : 1 ); }
+        if ( this.sensorId != o.sensorId )
+            { return( ( this.sensorId < o.sensorId ) ? -1 : 1 ); }
+        if ( this.start != o.start )
+            { return( ( this.start < o.start ) ? -1 : 1 ); }
+        return(0);
+    }
+
+    @Override
+    public String toString()
+    {
+        return("sensor = " + this.sensorId + ", window = [" + this.start
+                    + ", " + this.end + "), fields = "
+                    + this.statistics.size());
+    }
+
+}
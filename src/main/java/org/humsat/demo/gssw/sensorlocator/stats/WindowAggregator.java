@@ -0,0 +1,250 @@
+/**
+ * @file WindowAggregator.java
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ * @version 0.1
+ *
+ * @section LICENSE
+ *
+ * This file is part of SensorLocator.
+ * SensorLocator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SensorLocator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SensorLocator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.humsat.demo.gssw.sensorlocator.stats;
+
+import java.io.IOException;
+import java.util.PriorityQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.humsat.demo.gssw.sensorlocator.SensorLocator;
+import org.humsat.demo.gssw.sensorlocator.data.DataField;
+import org.humsat.demo.gssw.sensorlocator.data.DataFieldConstants;
+import org.humsat.demo.gssw.sensorlocator.data.SensorData;
+import org.humsat.demo.gssw.sensorlocator.util.LongObjectHashMap;
+
+/**
+ * Windowed aggregation of the values measured by the sensors, keyed by
+ * (sensor id, window start). Windows are tumbling when the slide equals the
+ * size, and sliding when the slide is smaller than the size.
+ * 
+ * Sensor data must be given in timestamp order, although readings up to the
+ * allowed lateness older than the newest one are still accepted. A window is
+ * closed and given to the listener as soon as the newest timestamp minus the
+ * allowed lateness reaches its end, so only the open windows are kept in
+ * memory. Readings that arrive after their windows were closed are dropped.
+ *
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ */
+public class WindowAggregator
+    implements DataFieldConstants
+{
+
+    /** Size of the windows. */
+    protected long size = 0L;
+    /** Distance between the starts of two consecutive windows. */
+    protected long slide = 0L;
+    /** Maximum delay of a reading with respect to the newest one. */
+    protected long lateness = 0L;
+    /** Consumer of the closed windows. */
+    protected WindowListener listener = null;
+
+    /** Open windows, per (sensor id, window start) key. */
+    protected LongObjectHashMap<TimeWindow> open
+            = new LongObjectHashMap<TimeWindow>();
+    /** Open windows, sorted by their end. */
+    protected PriorityQueue<TimeWindow> closing
+            = new PriorityQueue<TimeWindow>();
+    /** Newest timestamp seen. */
+    protected long newest = Long.MIN_VALUE;
+    /** Windows older than this one have already been closed. */
+    protected long watermark = Long.MIN_VALUE;
+    /** Number of readings dropped for being too late. */
+    protected long dropped = 0L;
+
+    /**
+     * Main constructor.
+     *
+     * @param size Size of the windows.
+     * @param slide Distance between the starts of two consecutive windows,
+     *              equal to the size for tumbling windows.
+     * @param lateness Maximum delay of a reading with respect to the newest.
+     * @param listener Consumer of the closed windows.
+     */
+    public WindowAggregator
+            (   final long size, final long slide, final long lateness,
+                final WindowListener listener   )
+    {
+
+        if ( ( size <= 0 ) || ( slide <= 0 ) || ( slide > size ) )
+            { throw(new IllegalArgumentException("<size> = " + size
+                    + ", <slide> = " + slide + ", values not permitted. Must"
+                    + " be 0 < slide <= size.")); }
+        if ( lateness < 0 )
+            { throw(new IllegalArgumentException("<lateness> = " + lateness
+                    + ", value not permitted. Must not be negative.")); }
+        if ( listener == null )
+            { throw(new NullPointerException("<listener> is null.")); }
+
+        this.size = size;
+        this.slide = slide;
+        this.lateness = lateness;
+        this.listener = listener;
+
+    }
+
+    /**
+     * Adds the values of the given sensor data to all the windows that contain
+     * its timestamp, and closes the windows that cannot receive more data.
+     *
+     * @param sensor The sensor data.
+     * @throws IOException In case the listener fails.
+     */
+    public void add(final SensorData sensor)
+        throws IOException
+    {
+
+        long ts = sensor.getTimestamp();
+
+        if ( ts < this.watermark )
+        {
+            this.dropped++;
+            Logger.getLogger(SensorLocator.class.getName())
+                    .log(Level.FINE, "Late reading dropped, timestamp = {0}, "
+                            + "watermark = {1}"
+                            , new Object[] { ts, this.watermark });
+            return;
+        }
+
+        DataField position = null;
+        for ( DataField df_i : sensor.getDataFields() )
+        {
+            if ( df_i.type.equalsIgnoreCase(POSITION_F_CODE) == true )
+                { position = df_i; break; }
+        }
+
+        for ( long start = floor(ts, this.slide); start > ts - this.size;
+                start -= this.slide )
+        {
+
+            if ( start + this.size <= this.watermark ) { break; }
+
+            TimeWindow w = this.getWindow(sensor.getSensorId(), start);
+            w.statistics.add(sensor);
+
+            if ( position != null )
+            {
+                w.setPosition(ts,
+                    position.values.get(LATITUDE_POSITION_INDEX)
+                                    .get(POSITION_VALUE_UNITS),
+                    position.values.get(LONGITUDE_POSITION_INDEX)
+                                    .get(POSITION_VALUE_UNITS));
+            }
+
+        }
+
+        if ( ts > this.newest )
+        {
+            this.newest = ts;
+            this.advance(ts - this.lateness);
+        }
+
+    }
+
+    /**
+     * Closes all the open windows.
+     *
+     * @throws IOException In case the listener fails.
+     */
+    public void flush()
+        throws IOException
+        { this.advance(Long.MAX_VALUE); }
+
+    /**
+     * Getter for the consumer of the closed windows.
+     *
+     * @return The listener.
+     */
+    public WindowListener getListener()
+        { return(this.listener); }
+
+    /**
+     * Getter for the number of open windows.
+     *
+     * @return Number of open windows.
+     */
+    public int getOpenWindows()
+        { return(this.open.size()); }
+
+    /**
+     * Getter for the number of readings dropped for being too late.
+     *
+     * @return Number of dropped readings.
+     */
+    public long getDropped()
+        { return(this.dropped); }
+
+    /**
+     * Closes all the windows whose end is not bigger than the given
+     * watermark.
+     */
+    private void advance(final long watermark)
+        throws IOException
+    {
+
+        if ( watermark <= this.watermark ) { return; }
+        this.watermark = watermark;
+
+        while ( ( this.closing.isEmpty() == false )
+                    && ( this.closing.peek().end <= watermark ) )
+        {
+            TimeWindow w = this.closing.poll();
+            this.open.remove(key(w.sensorId, w.start));
+            this.listener.windowClosed(w);
+        }
+
+    }
+
+    /**
+     * Returns the open window for the given sensor and start, creating it in
+     * case it does not exist yet.
+     */
+    private TimeWindow getWindow(final int sensorId, final long start)
+    {
+        long k = key(sensorId, start);
+        TimeWindow w = this.open.get(k);
+        if ( w == null )
+        {
+            w = new TimeWindow(sensorId, start, start + this.size);
+            this.open.put(k, w);
+            this.closing.add(w);
+        }
+        return(w);
+    }
+
+    /**
+     * Packs the (sensor id, window start) key; the start is kept modulo 2^32,
+     * which is enough to tell apart the windows that are open at once.
+     */
+    private static long key(final int sensorId, final long start)
+        { return( ( ( (long) sensorId ) << 32 ) | ( start & 0xffffffffL ) ); }
+
+    /**
+     * Rounds the given value down to a multiple of the given step.
+     */
+    private static long floor(final long value, final long step)
+    {
+        long q = value / step;
+        if ( ( value % step != 0 ) && ( value < 0 ) ) { q--; }
+        return(q * step);
+    }
+
+}
@@ -0,0 +1,111 @@
+/**
+ * @file WindowCSVWriter.java
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ * @version 0.1
+ *
+ * @section LICENSE
+ *
+ * This file is part of SensorLocator.
+ * SensorLocator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SensorLocator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SensorLocator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.humsat.demo.gssw.sensorlocator.stats;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Window listener that writes one CSV line for each value of each closed
+ * window, as soon as the window is closed.
+ *
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ */
+public class WindowCSVWriter
+    implements WindowListener
+{
+
+    /** Header of the CSV output. */
+    public final static String CSV_HEADER
+            = "Sensor ID,Start,End,Field,Unit,Count,Min,Max,Mean,Sum";
+    /** Separator of the fields of the CSV output. */
+    public final static char CSV_SEPARATOR = ',';
+
+    /** Writer for the output. */
+    protected Writer out = null;
+    /** Buffer for the lines. */
+    protected StringBuilder line = new StringBuilder(128);
+    /** Number of windows written. */
+    protected long windows = 0L;
+
+    /**
+     * Main constructor, it writes the header of the CSV output.
+     *
+     * @param out Writer for the output.
+     * @throws IOException In case an IO error occurs.
+     */
+    public WindowCSVWriter(final Writer out)
+        throws IOException
+    {
+        if ( out == null )
+            { throw(new NullPointerException("<out> is null.")); }
+        this.out = out;
+        this.out.write(CSV_HEADER);
+        this.out.write('\n');
+    }
+
+    @Override
+    public void windowClosed(final TimeWindow window)
+        throws IOException
+    {
+
+        SensorStatistics statistics = window.getStatistics();
+
+        for ( long k_i : statistics.getKeys(window.getSensorId()) )
+        {
+            FieldStatistics s = statistics.get(k_i);
+            this.line.setLength(0);
+            this.line.append(window.getSensorId()).append(CSV_SEPARATOR)
+                .append(window.getStart()).append(CSV_SEPARATOR)
+                .append(window.getEnd()).append(CSV_SEPARATOR)
+                .append(SensorStatistics.getName(k_i)).append(CSV_SEPARATOR)
+                .append(SensorStatistics.getUnit(k_i)).append(CSV_SEPARATOR)
+                .append(s.getCount()).append(CSV_SEPARATOR)
+                .append((float) s.getMin()).append(CSV_SEPARATOR)
+                .append((float) s.getMax()).append(CSV_SEPARATOR)
+                .append((float) s.getMean()).append(CSV_SEPARATOR)
+                .append((float) s.getSum()).append('\n');
+            this.out.append(this.line);
+        }
+
+        this.windows++;
+
+    }
+
+    /**
+     * Flushes the lines written to the output, which is not closed.
+     *
+     * @throws IOException In case an IO error occurs.
+     */
+    public void flush()
+        throws IOException
+        { this.out.flush(); }
+
+    /**
+     * Getter for the number of windows written.
+     *
+     * @return Number of windows.
+     */
+    public long getWindows()
+        { return(this.windows); }
+
+}
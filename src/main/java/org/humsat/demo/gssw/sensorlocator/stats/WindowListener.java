@@ -0,0 +1,44 @@
+/**
+ * @file WindowListener.java
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ * @version 0.1
+ *
+ * @section LICENSE
+ *
+ * This file is part of SensorLocator.
+ * SensorLocator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SensorLocator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SensorLocator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.humsat.demo.gssw.sensorlocator.stats;
+
+import java.io.IOException;
+
+/**
+ * Interface for the consumers of the windows closed by a WindowAggregator.
+ *
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ */
+public interface WindowListener
+{
+
+    /**
+     * Called once for each window, when it is closed. Windows are closed in
+     * increasing order of their end.
+     *
+     * @param window The closed window.
+     * @throws IOException In case an IO error occurs.
+     */
+    void windowClosed(TimeWindow window)
+        throws IOException;
+
+}
@@ -0,0 +1,733 @@
+/**
+ * @file ReadingStore.java
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ * @version 0.1
+ *
+ * @section LICENSE
+ *
+ * This file is part of SensorLocator.
+ * SensorLocator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SensorLocator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SensorLocator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.humsat.demo.gssw.sensorlocator.store;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.humsat.demo.gssw.sensorlocator.csv.RecordLogReader;
+import org.humsat.demo.gssw.sensorlocator.csv.RecordLogWriter;
+import org.humsat.demo.gssw.sensorlocator.csv.SensorDataSource;
+import org.humsat.demo.gssw.sensorlocator.data.SensorData;
+import org.humsat.demo.gssw.sensorlocator.output.OutputSinks;
+import org.humsat.demo.gssw.sensorlocator.pipeline.Pipeline;
+import org.humsat.demo.gssw.sensorlocator.sort.ExternalSorter;
+
+/**
+ * Embedded, append-only store of the decoded readings, so that they are
+ * kept once instead of parsing the CSV files again for each question.
+ *
+ * The readings appended are partitioned by day (see getDay()) and each
+ * partition is written as a new segment (see Segment) sorted by (sensor id,
+ * timestamp). The MANIFEST_FILE lists the segments and their metadata
+ * (ranges of timestamps and sensor ids); it is replaced atomically, so the
+ * store is always consistent on disk. Scans prune the segments with the
+ * manifest and the blocks with the index of each segment before reading any
+ * reading, and they are sources of the pipelines, so the KML and GeoJSON
+ * documents are written directly from the store:
+ *
+ *  pipeline.run(store.scan(sensor, from, to), os);
+ *
+ * Many small appends create many small segments; compact() merges the small
+ * segments of each day into one (startCompaction() runs it periodically in
+ * the background).
+ *
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ */
+public class ReadingStore
+    implements Closeable
+{
+
+    /** Extension of the segments. */
+    public final static String SEGMENT_EXTENSION = ".seg";
+    /** Extension of the files while they are being written. */
+    public final static String PARTIAL_EXTENSION = ".part";
+    /** File with the list of segments. */
+    public final static String MANIFEST_FILE = "manifest";
+    /** Number of seconds of a day. */
+    public final static long SECONDS_PER_DAY = 86400L;
+    /** Default number of readings of the batches appended from a source. */
+    public final static int DEFAULT_BATCH = 64 * 1024;
+    /** Default number of readings below which a segment is compacted. */
+    public final static long DEFAULT_SMALL_SEGMENT = 64 * 1024;
+
+    /**
+     * Next reading of a segment, while merging segments.
+     */
+    protected static class Cursor
+        implements Comparable<Cursor>
+    {
+
+        /** Reader of the segment. */
+        protected RecordLogReader reader = null;
+        /** Position of the segment within the merge. */
+        protected int order = 0;
+        /** Next reading. */
+        protected SensorData next = null;
+        /** Key of the next reading. */
+        protected long key = 0L;
+
+        @Override
+        public int compareTo(final Cursor o)
+        {
+            if ( this.key != o.key )
+                { return( ( this.key < o.key ) ? -1 : 1 ); }
+            return(Integer.compare(this.order, o.order));
+        }
+
+    }
+
+    /**
+     * Merge of segments of the same day, in (sensor id, timestamp) order;
+     * readings with the same key are read in the order of the segments.
+     */
+    protected static class SegmentMerger
+        implements SensorDataSource
+    {
+
+        /** Readers of the segments. */
+        protected List<RecordLogReader> readers = null;
+        /** Heap with the next reading of each segment. */
+        protected PriorityQueue<Cursor> heap = new PriorityQueue<Cursor>();
+        /** Ranges of the readings, { minSensor, maxSensor, from, to }. */
+        protected int[] ranges = null;
+
+        /**
+         * Main constructor.
+         *
+         * @param readers Readers of the segments, in order.
+         * @param ranges Ranges of the readings, { minSensor, maxSensor,
+         *                  from, to }.
+         */
+        protected SegmentMerger
+                (final List<RecordLogReader> readers, final int[] ranges)
+        {
+            this.readers = readers;
+            this.ranges = ranges;
+            for ( int i = 0; i < readers.size(); i++ )
+            {
+                Cursor c = new Cursor();
+                c.reader = readers.get(i);
+                c.order = i;
+                this.advance(c);
+            }
+        }
+
+        /**
+         * Reads the next reading of the given cursor, putting it back into
+         * the heap unless its segment is exhausted.
+         *
+         * @param c The cursor.
+         */
+        protected void advance(final Cursor c)
+        {
+            c.next = c.reader.read(this.ranges[0], this.ranges[1],
+                                    this.ranges[2], this.ranges[3]);
+            if ( c.next == null ) { return; }
+            c.key = ExternalSorter.key(c.next.getSensorId(),
+                                        c.next.getTimestamp());
+            this.heap.add(c);
+        }
+
+        @Override
+        public SensorData read()
+        {
+            Cursor c = this.heap.poll();
+            if ( c == null ) { return(null); }
+            SensorData sd = c.next;
+            this.advance(c);
+            return(sd);
+        }
+
+        @Override
+        public void close()
+            throws IOException
+            { for ( RecordLogReader r_i : this.readers ) { r_i.close(); } }
+
+    }
+
+    /**
+     * Scan of the store: the merges of the days, one after the other.
+     */
+    protected static class Scan
+        implements SensorDataSource
+    {
+
+        /** Merges of the segments of each day, in order of days. */
+        protected List<SegmentMerger> days = new ArrayList<SegmentMerger>();
+        /** Day being read. */
+        protected int current = 0;
+
+        @Override
+        public SensorData read()
+        {
+            while ( this.current < this.days.size() )
+            {
+                SensorData sd = this.days.get(this.current).read();
+                if ( sd != null ) { return(sd); }
+                this.current++;
+            }
+            return(null);
+        }
+
+        @Override
+        public void close()
+            throws IOException
+            { for ( SegmentMerger d_i : this.days ) { d_i.close(); } }
+
+    }
+
+    /** Directory of the store. */
+    protected File directory = null;
+    /** Unix time (s) of the timestamp 0 of the sensors. */
+    protected long epoch = 0L;
+    /** Number of readings below which a segment is compacted. */
+    protected long smallSegment = DEFAULT_SMALL_SEGMENT;
+
+    /** Segments of the store, in order of creation. */
+    protected List<Segment> segments = new ArrayList<Segment>();
+    /** Lock of the list of segments: scans read it, writers change it. */
+    protected ReadWriteLock lock = new ReentrantReadWriteLock();
+    /** Sequence number of the next segment. */
+    protected AtomicLong sequence = new AtomicLong();
+    /** Lock that serializes the compactions. */
+    protected final Object compaction = new Object();
+    /** Scheduler of the background compactions, 'null' if not started. */
+    protected ScheduledExecutorService compactor = null;
+
+    /**
+     * Main constructor, it opens the store kept in the given directory (or
+     * creates it). The files left by interrupted appends or compactions are
+     * deleted.
+     *
+     * @param directory Directory of the store.
+     * @param epoch Unix time (s) of the timestamp 0 of the sensors, for
+     *              partitioning the readings by day.
+     * @param smallSegment Number of readings below which a segment is
+     *              merged with the other small segments of its day.
+     * @throws IOException In case the store cannot be opened.
+     */
+    public ReadingStore
+            (   final File directory, final long epoch,
+                final long smallSegment )
+        throws IOException
+    {
+
+        if ( directory == null )
+            { throw(new NullPointerException("<directory> is null.")); }
+        if ( smallSegment < 0 )
+            { throw(new IllegalArgumentException("<smallSegment> must be >= 0,"
+                                            + " value = " + smallSegment)); }
+
+        this.directory = Files.createDirectories(directory.toPath()).toFile();
+        this.epoch = epoch;
+        this.smallSegment = smallSegment;
+
+        File manifest = new File(this.directory, MANIFEST_FILE);
+        Set<String> names = new HashSet<String>();
+        if ( manifest.isFile() == true )
+        {
+            for ( String l_i : Files.readAllLines(manifest.toPath(),
+                                                    StandardCharsets.UTF_8) )
+            {
+                if ( l_i.trim().isEmpty() == true ) { continue; }
+                Segment s = Segment.parse(l_i);
+                this.segments.add(s);
+                names.add(s.getName());
+            }
+        }
+
+        long next = 0L;
+        for ( File f_i : this.directory.listFiles() )
+        {
+            String n_i = f_i.getName();
+            if ( n_i.endsWith(PARTIAL_EXTENSION) == true )
+                { Files.deleteIfExists(f_i.toPath()); }
+            else if ( n_i.endsWith(SEGMENT_EXTENSION) == true )
+            {
+                if ( names.contains(n_i) == false )
+                    { Files.deleteIfExists(f_i.toPath()); continue; }
+                // The day may be negative: "<day>-<sequence>.seg".
+                next = Math.max(next, 1L + Long.parseLong(n_i.substring
+                                    (n_i.lastIndexOf('-') + 1,
+                                        n_i.length()
+                                            - SEGMENT_EXTENSION.length())));
+            }
+        }
+        this.sequence.set(next);
+
+    }
+
+    /**
+     * Constructor with the DEFAULT_SMALL_SEGMENT limit for the compactions.
+     *
+     * @param directory Directory of the store.
+     * @param epoch Unix time (s) of the timestamp 0 of the sensors.
+     * @throws IOException In case the store cannot be opened.
+     */
+    public ReadingStore(final File directory, final long epoch)
+        throws IOException
+        { this(directory, epoch, DEFAULT_SMALL_SEGMENT); }
+
+    /**
+     * Appends the given readings, writing a new segment per day.
+     *
+     * @param readings The readings.
+     * @throws IOException In case the segments cannot be written.
+     */
+    public void append(final Collection<SensorData> readings)
+        throws IOException
+    {
+
+        if ( readings == null )
+            { throw(new NullPointerException("<readings> is null.")); }
+
+        Map<Long, List<SensorData>> days
+                                = new TreeMap<Long, List<SensorData>>();
+        for ( SensorData sd_i : readings )
+        {
+            Long d = this.getDay(sd_i.getTimestamp());
+            List<SensorData> l = days.get(d);
+            if ( l == null )
+                { l = new ArrayList<SensorData>(); days.put(d, l); }
+            l.add(sd_i);
+        }
+
+        List<Segment> written = new ArrayList<Segment>();
+        for ( Map.Entry<Long, List<SensorData>> e_i : days.entrySet() )
+        {
+            List<SensorData> l = e_i.getValue();
+            Collections.sort(l, new Comparator<SensorData>()
+            {
+                @Override
+                public int compare(final SensorData a, final SensorData b)
+                {
+                    return(Long.compare
+                        (ExternalSorter.key(a.getSensorId(), a.getTimestamp()),
+                         ExternalSorter.key(b.getSensorId(), b.getTimestamp()))
+                    );
+                }
+            });
+            final Iterator<SensorData> it = l.iterator();
+            written.add(this.writeSegment(e_i.getKey(), new SensorDataSource()
+            {
+                @Override
+                public SensorData read()
+                    { return(( it.hasNext() == true ) ? it.next() : null); }
+                @Override
+                public void close() {}
+            }));
+        }
+
+        this.replace(Collections.<Segment>emptyList(), written);
+
+    }
+
+    /**
+     * Appends all the readings of the given source, in batches of
+     * DEFAULT_BATCH readings.
+     *
+     * @param source The source, it is not closed.
+     * @return The number of readings appended.
+     * @throws IOException In case the source cannot be read or the segments
+     *                      cannot be written.
+     */
+    public long append(final SensorDataSource source)
+        throws IOException
+    {
+
+        List<SensorData> batch = new ArrayList<SensorData>();
+        long n = 0L;
+        SensorData sd = null;
+
+        while ( ( sd = source.read() ) != null )
+        {
+            batch.add(sd);
+            if ( batch.size() < DEFAULT_BATCH ) { continue; }
+            this.append(batch);
+            n += batch.size();
+            batch = new ArrayList<SensorData>();
+        }
+        if ( batch.isEmpty() == false )
+            { this.append(batch); n += batch.size(); }
+
+        return(n);
+
+    }
+
+    /**
+     * Scans the readings of the given sensor within the given range of time.
+     * Only the segments and the blocks that may contain them are read; the
+     * readings are returned day after day, by (sensor id, timestamp) within
+     * each day.
+     *
+     * @param sensor Sensor id, Pipeline.ALL_SENSORS for all of them.
+     * @param from Lower limit of the timestamps (inclusive).
+     * @param to Upper limit of the timestamps (inclusive).
+     * @return The source of the readings, to be closed once read.
+     * @throws IOException In case the segments cannot be opened.
+     */
+    public SensorDataSource scan(final int sensor, final int from, final int to)
+        throws IOException
+    {
+
+        int[] ranges = ( sensor == Pipeline.ALL_SENSORS ) ?
+                new int[] { Integer.MIN_VALUE, Integer.MAX_VALUE, from, to } :
+                new int[] { sensor, sensor, from, to };
+        Map<Long, List<RecordLogReader>> days
+                            = new TreeMap<Long, List<RecordLogReader>>();
+        Scan scan = new Scan();
+
+        // The segments are opened (mapped) while the list is locked, so that
+        // the compactions can delete them afterwards.
+        this.lock.readLock().lock();
+        try
+        {
+            for ( Segment s_i : this.segments )
+            {
+                if ( s_i.overlaps(ranges[0], ranges[1], ranges[2], ranges[3])
+                        == false )
+                    { continue; }
+                List<RecordLogReader> l = days.get(s_i.getDay());
+                if ( l == null )
+                {
+                    l = new ArrayList<RecordLogReader>();
+                    days.put(s_i.getDay(), l);
+                }
+                l.add(new RecordLogReader
+                            (new File(this.directory, s_i.getName())));
+            }
+        }
+        catch(IOException ex)
+        {
+            for ( List<RecordLogReader> l_i : days.values() )
+                { for ( RecordLogReader r_i : l_i ) { r_i.close(); } }
+            throw(ex);
+        }
+        finally
+            { this.lock.readLock().unlock(); }
+
+        for ( List<RecordLogReader> l_i : days.values() )
+            { scan.days.add(new SegmentMerger(l_i, ranges)); }
+        return(scan);
+
+    }
+
+    /**
+     * Merges the small segments of each day into one.
+     *
+     * @return Number of segments merged.
+     * @throws IOException In case the segments cannot be merged.
+     */
+    public int compact()
+        throws IOException
+    {
+
+        synchronized(this.compaction)
+        {
+
+            Map<Long, List<Segment>> days = new TreeMap<Long, List<Segment>>();
+            this.lock.readLock().lock();
+            try
+            {
+                for ( Segment s_i : this.segments )
+                {
+                    if ( s_i.getRecords() >= this.smallSegment ) { continue; }
+                    List<Segment> l = days.get(s_i.getDay());
+                    if ( l == null )
+                    {
+                        l = new ArrayList<Segment>();
+                        days.put(s_i.getDay(), l);
+                    }
+                    l.add(s_i);
+                }
+            }
+            finally
+                { this.lock.readLock().unlock(); }
+
+            int merged = 0;
+            int[] all = { Integer.MIN_VALUE, Integer.MAX_VALUE,
+                            Integer.MIN_VALUE, Integer.MAX_VALUE };
+
+            for ( Map.Entry<Long, List<Segment>> e_i : days.entrySet() )
+            {
+
+                List<Segment> small = e_i.getValue();
+                if ( small.size() < 2 ) { continue; }
+
+                // The first merger only closes the segments opened, in case
+                // one of them cannot be opened.
+                List<RecordLogReader> readers
+                                    = new ArrayList<RecordLogReader>();
+                SegmentMerger merger = new SegmentMerger(readers, all);
+                Segment m = null;
+                try
+                {
+                    for ( Segment s_i : small )
+                    {
+                        readers.add(new RecordLogReader
+                                (new File(this.directory, s_i.getName())));
+                    }
+                    merger = new SegmentMerger(readers, all);
+                    m = this.writeSegment(e_i.getKey(), merger);
+                }
+                finally
+                    { merger.close(); }
+
+                this.replace(small, Collections.singletonList(m));
+                merged += small.size();
+
+            }
+
+            if ( merged > 0 )
+            {
+                Logger.getLogger(ReadingStore.class.getName())
+                        .log(Level.FINE, "Compacted {0} segments", merged);
+            }
+            return(merged);
+
+        }
+
+    }
+
+    /**
+     * Starts compacting the store in the background, periodically.
+     *
+     * @param period Period of the compactions.
+     * @param unit Unit of the period.
+     */
+    public synchronized void startCompaction
+            (final long period, final TimeUnit unit)
+    {
+
+        if ( this.compactor != null ) { return; }
+
+        this.compactor = Executors.newSingleThreadScheduledExecutor
+                                                        (new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(final Runnable r)
+            {
+                Thread t = new Thread(r, "sensorlocator-compaction");
+                t.setDaemon(true);
+                return(t);
+            }
+        });
+        this.compactor.scheduleWithFixedDelay(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                    { compact(); }
+                catch(IOException | RuntimeException ex)
+                {
+                    Logger.getLogger(ReadingStore.class.getName())
+                            .log(Level.WARNING, ex.getMessage(), ex);
+                }
+            }
+        }, period, period, unit);
+
+    }
+
+    /**
+     * Stops the background compactions, waiting for the running one.
+     *
+     * @throws IOException In case the wait is interrupted.
+     */
+    @Override
+    public synchronized void close()
+        throws IOException
+    {
+
+        if ( this.compactor == null ) { return; }
+        this.compactor.shutdown();
+        this.compactor = null;
+
+        // A compaction running now finishes once it holds this lock.
+        synchronized(this.compaction) {}
+
+    }
+
+    /**
+     * Returns the day of the given timestamp.
+     *
+     * @param timestamp The timestamp of a reading.
+     * @return The day, since the Unix epoch.
+     */
+    public long getDay(final int timestamp)
+        { return(Math.floorDiv(this.epoch + timestamp, SECONDS_PER_DAY)); }
+
+    /**
+     * Getter for the number of segments.
+     *
+     * @return The number of segments.
+     */
+    public int getSegments()
+    {
+        this.lock.readLock().lock();
+        try
+            { return(this.segments.size()); }
+        finally
+            { this.lock.readLock().unlock(); }
+    }
+
+    /**
+     * Getter for the number of readings of the store.
+     *
+     * @return The number of readings.
+     */
+    public long getRecords()
+    {
+        this.lock.readLock().lock();
+        try
+        {
+            long n = 0L;
+            for ( Segment s_i : this.segments ) { n += s_i.getRecords(); }
+            return(n);
+        }
+        finally
+            { this.lock.readLock().unlock(); }
+    }
+
+    /**
+     * Writes the readings of the given source as a new segment of the given
+     * day; the source must be sorted by (sensor id, timestamp).
+     *
+     * @param day Day of the readings.
+     * @param source Source of the readings, it is not closed.
+     * @return The metadata of the segment, not in the manifest yet.
+     * @throws IOException In case the segment cannot be written.
+     */
+    protected Segment writeSegment
+            (final long day, final SensorDataSource source)
+        throws IOException
+    {
+
+        Segment s = new Segment(day + "-" + this.sequence.getAndIncrement()
+                                    + SEGMENT_EXTENSION, day);
+        File partial = new File(this.directory,
+                                    s.getName() + PARTIAL_EXTENSION);
+        RecordLogWriter w = new RecordLogWriter(new BufferedOutputStream
+                (new FileOutputStream(partial), OutputSinks.FILE_BUFFER_SIZE));
+
+        boolean done = false;
+        try
+        {
+            SensorData sd = null;
+            while ( ( sd = source.read() ) != null )
+            {
+                w.write(sd);
+                s.add(sd.getSensorId(), sd.getTimestamp());
+            }
+            w.finish();
+            done = true;
+        }
+        finally
+            { if ( done == true ) { w.close(); } else { w.abort(); } }
+
+        Files.move(partial.toPath(),
+                    new File(this.directory, s.getName()).toPath(),
+                    StandardCopyOption.ATOMIC_MOVE);
+        return(s);
+
+    }
+
+    /**
+     * Replaces the given segments with the given ones in the manifest, and
+     * deletes the files of the segments removed.
+     *
+     * @param removed Segments to be removed.
+     * @param added Segments to be added.
+     * @throws IOException In case the manifest cannot be written.
+     */
+    protected void replace
+            (final List<Segment> removed, final List<Segment> added)
+        throws IOException
+    {
+
+        this.lock.writeLock().lock();
+        try
+        {
+            this.segments.removeAll(removed);
+            this.segments.addAll(added);
+            this.saveManifest();
+        }
+        finally
+            { this.lock.writeLock().unlock(); }
+
+        for ( Segment s_i : removed )
+        {
+            Files.deleteIfExists(new File(this.directory, s_i.getName())
+                                                                .toPath());
+        }
+
+    }
+
+    /**
+     * Writes the MANIFEST_FILE, replacing it atomically.
+     *
+     * @throws IOException In case the manifest cannot be written.
+     */
+    protected void saveManifest()
+        throws IOException
+    {
+
+        List<String> lines = new ArrayList<String>(this.segments.size());
+        for ( Segment s_i : this.segments ) { lines.add(s_i.toString()); }
+
+        File partial = new File(this.directory,
+                                    MANIFEST_FILE + PARTIAL_EXTENSION);
+        Files.write(partial.toPath(), lines, StandardCharsets.UTF_8);
+        Files.move(partial.toPath(),
+                    new File(this.directory, MANIFEST_FILE).toPath(),
+                    StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+
+    }
+
+}
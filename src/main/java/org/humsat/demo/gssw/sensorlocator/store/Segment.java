@@ -0,0 +1,172 @@
+/**
+ * @file Segment.java
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ * @version 0.1
+ *
+ * @section LICENSE
+ *
+ * This file is part of SensorLocator.
+ * SensorLocator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SensorLocator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SensorLocator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.humsat.demo.gssw.sensorlocator.store;
+
+/**
+ * Metadata of a segment of the readings store: an intermediate file (see
+ * RecordLog) with the readings of a single day, sorted by (sensor id,
+ * timestamp). The metadata is kept in the manifest of the store, so that the
+ * segments can be pruned without opening them.
+ *
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ */
+public class Segment
+{
+
+    /** Separator of the fields of the metadata in the manifest. */
+    public final static String FIELD_SEPARATOR = " ";
+
+    /** Name of the file of the segment. */
+    protected String name = null;
+    /** Day of the readings, since the Unix epoch. */
+    protected long day = 0L;
+    /** Number of readings. */
+    protected long records = 0L;
+    /** Minimum timestamp of the readings. */
+    protected int minTimestamp = Integer.MAX_VALUE;
+    /** Maximum timestamp of the readings. */
+    protected int maxTimestamp = Integer.MIN_VALUE;
+    /** Minimum sensor id of the readings. */
+    protected int minSensor = Integer.MAX_VALUE;
+    /** Maximum sensor id of the readings. */
+    protected int maxSensor = Integer.MIN_VALUE;
+
+    /**
+     * Main constructor, for an empty segment.
+     *
+     * @param name Name of the file of the segment.
+     * @param day Day of the readings, since the Unix epoch.
+     */
+    public Segment(final String name, final long day)
+    {
+        if ( name == null )
+            { throw(new NullPointerException("<name> is null.")); }
+        this.name = name;
+        this.day = day;
+    }
+
+    /**
+     * Accounts a reading written to the segment.
+     *
+     * @param sensorId Sensor id of the reading.
+     * @param timestamp Timestamp of the reading.
+     */
+    public void add(final int sensorId, final int timestamp)
+    {
+        this.records++;
+        this.minTimestamp = Math.min(this.minTimestamp, timestamp);
+        this.maxTimestamp = Math.max(this.maxTimestamp, timestamp);
+        this.minSensor = Math.min(this.minSensor, sensorId);
+        this.maxSensor = Math.max(this.maxSensor, sensorId);
+    }
+
+    /**
+     * Checks whether the segment may contain readings within the given
+     * ranges.
+     *
+     * @param minSensor Lower limit of the sensor ids (inclusive).
+     * @param maxSensor Upper limit of the sensor ids (inclusive).
+     * @param from Lower limit of the timestamps (inclusive).
+     * @param to Upper limit of the timestamps (inclusive).
+     * @return 'true' in case the segment overlaps the ranges.
+     */
+    public boolean overlaps
+            (   final int minSensor, final int maxSensor,
+                final int from, final int to    )
+    {
+        return( ( this.records > 0 )
+                    && ( this.maxTimestamp >= from )
+                    && ( this.minTimestamp <= to )
+                    && ( this.maxSensor >= minSensor )
+                    && ( this.minSensor <= maxSensor ) );
+    }
+
+    /**
+     * Getter for the name of the file of the segment.
+     *
+     * @return The name.
+     */
+    public String getName()
+        { return(this.name); }
+
+    /**
+     * Getter for the day of the readings.
+     *
+     * @return The day, since the Unix epoch.
+     */
+    public long getDay()
+        { return(this.day); }
+
+    /**
+     * Getter for the number of readings.
+     *
+     * @return The number of readings.
+     */
+    public long getRecords()
+        { return(this.records); }
+
+    /**
+     * Returns the line of this segment in the manifest.
+     *
+     * @return The line.
+     */
+    @Override
+    public String toString()
+    {
+        return(this.name + FIELD_SEPARATOR + this.day
+                + FIELD_SEPARATOR + this.records
+                + FIELD_SEPARATOR + this.minTimestamp
+                + FIELD_SEPARATOR + this.maxTimestamp
+                + FIELD_SEPARATOR + this.minSensor
+                + FIELD_SEPARATOR + this.maxSensor);
+    }
+
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>> factory
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
+
+    /**
+     * Reads the metadata of a segment from its line in the manifest (see
+     * toString()).
+     *
+     * @param line The line.
+     * @return The metadata.
+     * @throws IllegalArgumentException In case the line is not valid.
+     */
+    public static Segment parse(final String line)
+    {
+
+        String[] f = line.trim().split(FIELD_SEPARATOR);
+        if ( f.length != 7 )
+            { throw(new IllegalArgumentException("Not a segment = " + line)); }
+
+        Segment s = new Segment(f[0], Long.parseLong(f[1]));
+        s.records = Long.parseLong(f[2]);
+        s.minTimestamp = Integer.parseInt(f[3]);
+        s.maxTimestamp = Integer.parseInt(f[4]);
+        s.minSensor = Integer.parseInt(f[5]);
+        s.maxSensor = Integer.parseInt(f[6]);
+        return(s);
+
+    }
+
+}
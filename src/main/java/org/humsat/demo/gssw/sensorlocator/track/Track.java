@@ -0,0 +1,178 @@
+/**
+ * @file Track.java
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ * @version 0.1
+ *
+ * @section LICENSE
+ *
+ * This file is part of SensorLocator.
+ * SensorLocator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SensorLocator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SensorLocator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.humsat.demo.gssw.sensorlocator.track;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.humsat.demo.gssw.sensorlocator.kml.KMLNode;
+
+/**
+ * Track of a sensor: its KML nodes ordered by timestamp, with their
+ * coordinates kept in primitive arrays for the simplification.
+ *
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ */
+public class Track
+{
+
+    /** Identifier of the sensor. */
+    protected int sensorId = -1;
+    /** Nodes of the track, ordered by timestamp. */
+    protected List<KMLNode> nodes = null;
+    /** Latitudes of the nodes. */
+    protected float[] latitudes = null;
+    /** Longitudes of the nodes. */
+    protected float[] longitudes = null;
+    /** Indexes of the nodes kept by the simplification. */
+    protected int[] kept = null;
+
+    /**
+     * Main constructor, all the nodes are kept until simplify() is called.
+     *
+     * @param sensorId Identifier of the sensor.
+     * @param nodes Nodes of the track, ordered by timestamp.
+     */
+    public Track(final int sensorId, final List<KMLNode> nodes)
+    {
+
+        if ( nodes == null )
+            { throw(new NullPointerException("<nodes> is null.")); }
+
+        this.sensorId = sensorId;
+        this.nodes = nodes;
+        this.latitudes = new float[nodes.size()];
+        this.longitudes = new float[nodes.size()];
+        this.kept = new int[nodes.size()];
+
+        for ( int i = 0; i < nodes.size(); i++ )
+        {
+            KMLNode.Position p = nodes.get(i).getPosition();
+            this.latitudes[i] = p.latitude;
+            this.longitudes[i] = p.longitude;
+            this.kept[i] = i;
+        }
+
+    }
+
+    /**
+     * Simplifies the track with the Douglas-Peucker algorithm.
+     *
+     * @param tolerance Tolerance, in meters.
+     * @return Number of nodes kept.
+     */
+    public int simplify(final double tolerance)
+    {
+        this.kept = TrackSimplifier.simplify(this.latitudes, this.longitudes,
+                                                this.nodes.size(), tolerance);
+        return(this.kept.length);
+    }
+
+    /**
+     * Getter for the identifier of the sensor.
+     *
+     * @return Identifier of the sensor.
+     */
+    public int getSensorId()
+        { return(this.sensorId); }
+
+    /**
+     * Getter for all the nodes of the track.
+     *
+     * @return Nodes ordered by timestamp.
+     */
+    public List<KMLNode> getNodes()
+        { return(this.nodes); }
+
+    /**
+     * Getter for the indexes of the nodes kept by the simplification.
+     *
+     * @return Indexes of the nodes, in increasing order.
+     */
+    public int[] getKept()
+        { return(this.kept); }
+
+    /**
+     * Returns the nodes kept by the simplification.
+     *
+     * @return Nodes kept, ordered by timestamp.
+     */
+    public List<KMLNode> getKeptNodes()
+    {
+        List<KMLNode> l = new ArrayList<KMLNode>(this.kept.length);
+        for ( int k_i : this.kept ) { l.add(this.nodes.get(k_i)); }
+        return(l);
+    }
+
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>> factory
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
+
+    /**
+     * Groups the given KML nodes in one track per sensor, each of them
+     * ordered by timestamp (stable, so nodes with the same timestamp keep
+     * their order).
+     *
+     * @param nodes The KML nodes.
+     * @return The tracks, ordered by sensor id.
+     */
+    public static List<Track> createTracks(final List<KMLNode> nodes)
+    {
+
+        Map<Integer, List<KMLNode>> sensors
+                = new TreeMap<Integer, List<KMLNode>>();
+
+        for ( KMLNode k_i : nodes )
+        {
+            Integer id = k_i.getParent().getSensorId();
+            List<KMLNode> l = sensors.get(id);
+            if ( l == null )
+                { l = new ArrayList<KMLNode>(); sensors.put(id, l); }
+            l.add(k_i);
+        }
+
+        Comparator<KMLNode> byTimestamp = new Comparator<KMLNode>()
+        {
+            @Override
+            public int compare(KMLNode a, KMLNode b)
+            {
+                int ta = a.getParent().getTimestamp();
+                int tb = b.getParent().getTimestamp();
+                return( ( ta < tb ) ? -1 : ( ta > tb ) ? 1 : 0 );
+            }
+        };
+
+        List<Track> tracks = new ArrayList<Track>(sensors.size());
+        for ( Map.Entry<Integer, List<KMLNode>> e_i : sensors.entrySet() )
+        {
+            Collections.sort(e_i.getValue(), byTimestamp);
+            tracks.add(new Track(e_i.getKey(), e_i.getValue()));
+        }
+
+        return(tracks);
+
+    }
+
+}
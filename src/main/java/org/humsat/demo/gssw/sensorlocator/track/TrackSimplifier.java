@@ -0,0 +1,179 @@
+/**
+ * @file TrackSimplifier.java
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ * @version 0.1
+ *
+ * @section LICENSE
+ *
+ * This file is part of SensorLocator.
+ * SensorLocator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SensorLocator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SensorLocator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.humsat.demo.gssw.sensorlocator.track;
+
+import java.util.Arrays;
+import org.humsat.demo.gssw.sensorlocator.index.SpatialIndex;
+
+/**
+ * Douglas-Peucker simplification of polylines given as primitive coordinate
+ * arrays. The coordinates are projected to meters with a local
+ * equirectangular projection around the mean latitude of the polyline, which
+ * is accurate enough for the tolerances of a track. The longitudes are
+ * unwrapped first (see unwrap()), so a track that crosses the antimeridian
+ * stays continuous. The recursion is run over an explicit stack, so long
+ * tracks do not overflow the call stack.
+ *
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ */
+public class TrackSimplifier
+{
+
+    /** Hidden constructor, only static methods. */
+    private TrackSimplifier() {}
+
+    /**
+     * Simplifies the given polyline, keeping the vertices that are farther
+     * than the tolerance from the simplified line. The first and the last
+     * vertices are always kept.
+     *
+     * @param lats Latitudes of the vertices, in degrees.
+     * @param lons Longitudes of the vertices, in degrees.
+     * @param n Number of vertices.
+     * @param tolerance Tolerance, in meters.
+     * @return Indexes of the vertices kept, in increasing order.
+     */
+    public static int[] simplify
+            (   final float[] lats, final float[] lons, final int n,
+                final double tolerance  )
+    {
+
+        if ( tolerance < 0.0 )
+            { throw(new IllegalArgumentException("<tolerance> = " + tolerance
+                    + ", value not permitted. Must be 0 or bigger.")); }
+        if ( n <= 2 )
+        {
+            int[] all = new int[Math.max(0, n)];
+            for ( int i = 0; i < all.length; i++ ) { all[i] = i; }
+            return(all);
+        }
+
+        // Local projection to meters.
+        double mean = 0.0;
+        for ( int i = 0; i < n; i++ ) { mean += lats[i]; }
+        double kx = Math.toRadians(1.0) * SpatialIndex.EARTH_RADIUS_M
+                        * Math.cos(Math.toRadians(mean / n));
+        double ky = Math.toRadians(1.0) * SpatialIndex.EARTH_RADIUS_M;
+        double[] x = new double[n];
+        double[] y = new double[n];
+        float lon = lons[0];
+        for ( int i = 0; i < n; i++ )
+        {
+            lon = unwrap(lon, lons[i]);
+            x[i] = lon * kx;
+            y[i] = lats[i] * ky;
+        }
+
+        boolean[] keep = new boolean[n];
+        keep[0] = true;
+        keep[n - 1] = true;
+        int kept = 2;
+
+        double tolerance2 = tolerance * tolerance;
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = n - 1;
+
+        while ( top > 0 )
+        {
+
+            int last = stack[--top];
+            int first = stack[--top];
+            if ( last - first < 2 ) { continue; }
+
+            int farthest = -1;
+            double max = tolerance2;
+            for ( int i = first + 1; i < last; i++ )
+            {
+                double d = distance2(x[i], y[i], x[first], y[first],
+                                        x[last], y[last]);
+                if ( d > max ) { max = d; farthest = i; }
+            }
+
+            if ( farthest < 0 ) { continue; }
+
+            keep[farthest] = true;
+            kept++;
+
+            if ( top + 4 > stack.length )
+                { stack = Arrays.copyOf(stack, stack.length * 2); }
+            stack[top++] = first;
+            stack[top++] = farthest;
+            stack[top++] = farthest;
+            stack[top++] = last;
+
+        }
+
+        int[] indexes = new int[kept];
+        int k = 0;
+        for ( int i = 0; i < n; i++ )
+            { if ( keep[i] == true ) { indexes[k++] = i; } }
+        return(indexes);
+
+    }
+
+    /**
+     * Unwraps a longitude relative to the previous vertex of a polyline: the
+     * longitude is shifted by whole turns so that it is at most 180 degrees
+     * away from the previous one. Unwrapped longitudes may be out of the
+     * [-180, 180] range, so that the segment that crosses the antimeridian is
+     * the short one instead of one around the whole globe.
+     *
+     * @param previous Longitude of the previous vertex (already unwrapped).
+     * @param longitude Longitude of the vertex, in degrees.
+     * @return The unwrapped longitude, in degrees.
+     */
+    public static float unwrap(final float previous, final float longitude)
+    {
+        float l = longitude;
+        while ( l - previous > 180f ) { l -= 360f; }
+        while ( previous - l > 180f ) { l += 360f; }
+        return(l);
+    }
+
+    /**
+     * Squared distance from point p to the segment a-b.
+     */
+    private static double distance2
+            (   final double px, final double py, final double ax,
+                final double ay, final double bx, final double by   )
+    {
+
+        double dx = bx - ax;
+        double dy = by - ay;
+        double len2 = dx * dx + dy * dy;
+        double t = 0.0;
+
+        if ( len2 > 0.0 )
+        {
+            t = ( ( px - ax ) * dx + ( py - ay ) * dy ) / len2;
+            t = Math.max(0.0, Math.min(1.0, t));
+        }
+
+        double ex = ax + t * dx - px;
+        double ey = ay + t * dy - py;
+        return(ex * ex + ey * ey);
+
+    }
+
+}
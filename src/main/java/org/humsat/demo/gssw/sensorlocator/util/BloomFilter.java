@@ -0,0 +1,135 @@
+/**
+ * @file BloomFilter.java
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ * @version 0.1
+ *
+ * @section LICENSE
+ *
+ * This file is part of SensorLocator.
+ * SensorLocator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SensorLocator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SensorLocator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.humsat.demo.gssw.sensorlocator.util;
+
+/**
+ * Bloom filter over 64-bit hashes. The bit positions are derived from the
+ * two halves of the (already well mixed) hash by double hashing, so no other
+ * hash function has to be computed per element.
+ *
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ */
+public class BloomFilter
+{
+
+    /** Default rate of false positives. */
+    public final static double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+
+    /** Bits of the filter. */
+    protected long[] bits = null;
+    /** Number of bits of the filter. */
+    protected long size = 0L;
+    /** Number of bit positions per element. */
+    protected int hashes = 0;
+
+    /**
+     * Main constructor, it sizes the filter for the given number of elements
+     * and rate of false positives.
+     *
+     * @param expected Expected number of elements.
+     * @param rate Rate of false positives, within (0, 1).
+     */
+    public BloomFilter(final long expected, final double rate)
+    {
+
+        if ( expected <= 0 )
+            { throw(new IllegalArgumentException("<expected> = " + expected
+                    + ", value not permitted. Must be bigger than 0.")); }
+        if ( ( rate <= 0.0 ) || ( rate >= 1.0 ) )
+            { throw(new IllegalArgumentException("<rate> = " + rate
+                    + ", value not permitted. Must be in (0, 1).")); }
+
+        double ln2 = Math.log(2.0);
+        long m = (long) Math.ceil(-expected * Math.log(rate) / ( ln2 * ln2 ));
+        this.bits = new long[(int) Math.max(1L, ( m + 63 ) >>> 6)];
+        this.size = this.bits.length * 64L;
+        this.hashes = Math.max(1, (int) Math.round
+                                ( ( (double) this.size / expected ) * ln2 ));
+
+    }
+
+    /**
+     * Adds the given hash to the filter.
+     *
+     * @param hash The hash.
+     * @return 'true' in case any bit changed, i.e. the hash was not present.
+     */
+    public boolean put(final long hash)
+    {
+
+        boolean changed = false;
+        int h1 = (int) hash;
+        int h2 = (int) ( hash >>> 32 );
+
+        for ( int i = 0; i < this.hashes; i++ )
+        {
+            long b = ( ( h1 + (long) i * h2 ) & Long.MAX_VALUE ) % this.size;
+            long mask = 1L << b;
+            int w = (int) ( b >>> 6 );
+            if ( ( this.bits[w] & mask ) == 0L )
+                { this.bits[w] |= mask; changed = true; }
+        }
+
+        return(changed);
+
+    }
+
+    /**
+     * Checks whether the given hash might have been added to the filter.
+     *
+     * @param hash The hash.
+     * @return 'false' in case it was surely not added.
+     */
+    public boolean mightContain(final long hash)
+    {
+
+        int h1 = (int) hash;
+        int h2 = (int) ( hash >>> 32 );
+
+        for ( int i = 0; i < this.hashes; i++ )
+        {
+            long b = ( ( h1 + (long) i * h2 ) & Long.MAX_VALUE ) % this.size;
+            if ( ( this.bits[(int) ( b >>> 6 )] & ( 1L << b ) ) == 0L )
+                { return(false); }
+        }
+
+        return(true);
+
+    }
+
+    /**
+     * Getter for the number of bits of the filter.
+     *
+     * @return Number of bits.
+     */
+    public long getSize()
+        { return(this.size); }
+
+    /**
+     * Getter for the number of bit positions per element.
+     *
+     * @return Number of bit positions.
+     */
+    public int getHashes()
+        { return(this.hashes); }
+
+}
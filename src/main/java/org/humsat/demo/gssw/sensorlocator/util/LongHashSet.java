@@ -0,0 +1,162 @@
+/**
+ * @file LongHashSet.java
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ * @version 0.1
+ *
+ * @section LICENSE
+ *
+ * This file is part of SensorLocator.
+ * SensorLocator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SensorLocator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SensorLocator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.humsat.demo.gssw.sensorlocator.util;
+
+import java.util.Arrays;
+
+/**
+ * Hash set of primitive longs, implemented with open addressing and linear
+ * probing, so that no object is created for the elements. The value 0 marks
+ * the empty slots, so it is kept apart in a flag.
+ *
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ */
+public class LongHashSet
+{
+
+    /** Default initial capacity. */
+    public final static int DEFAULT_CAPACITY = 16;
+    /** Maximum load factor before growing the table. */
+    public final static float LOAD_FACTOR = 0.6f;
+
+    /** Elements of the table, 0 for empty slots. */
+    protected long[] elements = null;
+    /** Whether the set contains the element 0. */
+    protected boolean zero = false;
+    /** Number of elements. */
+    protected int size = 0;
+
+    /** Default constructor. */
+    public LongHashSet()
+        { this(DEFAULT_CAPACITY); }
+
+    /**
+     * Constructor that sets the expected number of elements.
+     *
+     * @param capacity Expected number of elements.
+     */
+    public LongHashSet(final int capacity)
+    {
+        int slots = Integer.highestOneBit
+                        (Math.max(4, (int) ( capacity / LOAD_FACTOR )) * 2 - 1);
+        this.elements = new long[slots];
+    }
+
+    /**
+     * Getter for the number of elements.
+     *
+     * @return Number of elements.
+     */
+    public int size()
+        { return(this.size); }
+
+    /**
+     * Checks whether the given element belongs to this set.
+     *
+     * @param element The element.
+     * @return 'true' in case it belongs to this set.
+     */
+    public boolean contains(final long element)
+    {
+        if ( element == 0L ) { return(this.zero); }
+        int mask = this.elements.length - 1;
+        for ( int i = LongObjectHashMap.hash(element) & mask; ;
+                i = ( i + 1 ) & mask )
+        {
+            if ( this.elements[i] == 0L ) { return(false); }
+            if ( this.elements[i] == element ) { return(true); }
+        }
+    }
+
+    /**
+     * Adds the given element to this set.
+     *
+     * @param element The element.
+     * @return 'true' in case it did not belong to this set yet.
+     */
+    public boolean add(final long element)
+    {
+
+        if ( element == 0L )
+        {
+            if ( this.zero == true ) { return(false); }
+            this.zero = true;
+            this.size++;
+            return(true);
+        }
+
+        int mask = this.elements.length - 1;
+        int i = LongObjectHashMap.hash(element) & mask;
+
+        for ( ; this.elements[i] != 0L; i = ( i + 1 ) & mask )
+            { if ( this.elements[i] == element ) { return(false); } }
+
+        this.elements[i] = element;
+        if ( ++this.size > this.elements.length * LOAD_FACTOR )
+            { this.grow(); }
+        return(true);
+
+    }
+
+    /**
+     * Removes all the elements, keeping the size of the table.
+     */
+    public void clear()
+    {
+        Arrays.fill(this.elements, 0L);
+        this.zero = false;
+        this.size = 0;
+    }
+
+    /**
+     * Returns all the elements of this set.
+     *
+     * @param sorted 'true' for sorting the elements in increasing order.
+     * @return Array with the elements.
+     */
+    public long[] toArray(final boolean sorted)
+    {
+        long[] e = new long[this.size];
+        int n = 0;
+        if ( this.zero == true ) { e[n++] = 0L; }
+        for ( int i = 0; i < this.elements.length; i++ )
+            { if ( this.elements[i] != 0L ) { e[n++] = this.elements[i]; } }
+        if ( sorted == true ) { Arrays.sort(e); }
+        return(e);
+    }
+
+    /**
+     * Doubles the size of the table.
+     */
+    private void grow()
+    {
+
+        long[] old = this.elements;
+        this.elements = new long[old.length * 2];
+        this.size = ( this.zero == true ) ? 1 : 0;
+
+        for ( int i = 0; i < old.length; i++ )
+            { if ( old[i] != 0L ) { this.add(old[i]); } }
+
+    }
+
+}
@@ -0,0 +1,222 @@
+/**
+ * @file LongObjectHashMap.java
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ * @version 0.1
+ *
+ * @section LICENSE
+ *
+ * This file is part of SensorLocator.
+ * SensorLocator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SensorLocator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SensorLocator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.humsat.demo.gssw.sensorlocator.util;
+
+import java.util.Arrays;
+
+/**
+ * Hash map with primitive long keys, implemented with open addressing and
+ * linear probing, so that no object is created for the keys. Null values are
+ * not permitted.
+ *
+ * @param <V> Type of the values.
+ *
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ */
+public class LongObjectHashMap<V>
+{
+
+    /** Default initial capacity. */
+    public final static int DEFAULT_CAPACITY = 16;
+    /** Maximum load factor before growing the table. */
+    public final static float LOAD_FACTOR = 0.6f;
+
+    /** Keys of the table. */
+    protected long[] keys = null;
+    /** Values of the table, 'null' for empty slots. */
+    protected Object[] values = null;
+    /** Number of entries. */
+    protected int size = 0;
+
+    /** Default constructor. */
+    public LongObjectHashMap()
+        { this(DEFAULT_CAPACITY); }
+
+    /**
+     * Constructor that sets the expected number of entries.
+     *
+     * @param capacity Expected number of entries.
+     */
+    public LongObjectHashMap(final int capacity)
+    {
+        int slots = Integer.highestOneBit
+                        (Math.max(4, (int) ( capacity / LOAD_FACTOR )) * 2 - 1);
+        this.keys = new long[slots];
+        this.values = new Object[slots];
+    }
+
+    /**
+     * Getter for the number of entries.
+     *
+     * @return Number of entries.
+     */
+    public int size()
+        { return(this.size); }
+
+    /**
+     * Returns the value associated with the given key.
+     *
+     * @param key The key.
+     * @return The value, 'null' in case there is none.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(final long key)
+    {
+        int mask = this.keys.length - 1;
+        for ( int i = hash(key) & mask; ; i = ( i + 1 ) & mask )
+        {
+            if ( this.values[i] == null ) { return(null); }
+            if ( this.keys[i] == key ) { return((V) this.values[i]); }
+        }
+    }
+
+    /**
+     * Associates the given value with the given key.
+     *
+     * @param key The key.
+     * @param value The value, it must not be null.
+     * @return The previous value, 'null' in case there was none.
+     */
+    @SuppressWarnings("unchecked")
+    public V put(final long key, final V value)
+    {
+
+        if ( value == null )
+            { throw(new NullPointerException("<value> is null.")); }
+
+        int mask = this.keys.length - 1;
+        int i = hash(key) & mask;
+
+        for ( ; this.values[i] != null; i = ( i + 1 ) & mask )
+        {
+            if ( this.keys[i] == key )
+            {
+                V old = (V) this.values[i];
+                this.values[i] = value;
+                return(old);
+            }
+        }
+
+        this.keys[i] = key;
+        this.values[i] = value;
+        if ( ++this.size > this.keys.length * LOAD_FACTOR ) { this.grow(); }
+        return(null);
+
+    }
+
+    /**
+     * Removes the value associated with the given key.
+     *
+     * @param key The key.
+     * @return The removed value, 'null' in case there was none.
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(final long key)
+    {
+
+        int mask = this.keys.length - 1;
+        int i = hash(key) & mask;
+
+        for ( ; this.values[i] != null; i = ( i + 1 ) & mask )
+            { if ( this.keys[i] == key ) { break; } }
+
+        if ( this.values[i] == null ) { return(null); }
+
+        V old = (V) this.values[i];
+        this.values[i] = null;
+        this.size--;
+
+        // Backward shift of the following entries of the same cluster, so
+        // that no entry becomes unreachable from its home slot.
+        for ( int j = ( i + 1 ) & mask; this.values[j] != null;
+                j = ( j + 1 ) & mask )
+        {
+            int home = hash(this.keys[j]) & mask;
+            if ( ( ( j - home ) & mask ) >= ( ( j - i ) & mask ) )
+            {
+                this.keys[i] = this.keys[j];
+                this.values[i] = this.values[j];
+                this.values[j] = null;
+                i = j;
+            }
+        }
+
+        return(old);
+
+    }
+
+    /**
+     * Returns all the keys of this map.
+     *
+     * @param sorted 'true' for sorting the keys in increasing order.
+     * @return Array with the keys.
+     */
+    public long[] keys(final boolean sorted)
+    {
+        long[] k = new long[this.size];
+        int n = 0;
+        for ( int i = 0; i < this.keys.length; i++ )
+            { if ( this.values[i] != null ) { k[n++] = this.keys[i]; } }
+        if ( sorted == true ) { Arrays.sort(k); }
+        return(k);
+    }
+
+    /**
+     * Doubles the size of the table.
+     */
+    @SuppressWarnings("unchecked")
+    private void grow()
+    {
+
+        long[] old_keys = this.keys;
+        Object[] old_values = this.values;
+
+        this.keys = new long[old_keys.length * 2];
+        this.values = new Object[old_values.length * 2];
+        this.size = 0;
+
+        for ( int i = 0; i < old_keys.length; i++ )
+        {
+            if ( old_values[i] != null )
+                { this.put(old_keys[i], (V) old_values[i]); }
+        }
+
+    }
+
+    /**
+     * Mixes the bits of the key (finalizer of MurmurHash3).
+     *
+     * @param key The key.
+     * @return The hash of the key.
+     */
+    protected static int hash(final long key)
+    {
+        long h = key;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return((int) h);
+    }
+
+}
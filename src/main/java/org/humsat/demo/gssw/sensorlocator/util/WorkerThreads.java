@@ -0,0 +1,105 @@
+/**
+ * @file WorkerThreads.java
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ * @version 0.1
+ *
+ * @section LICENSE
+ *
+ * This file is part of SensorLocator.
+ * SensorLocator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SensorLocator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SensorLocator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.humsat.demo.gssw.sensorlocator.util;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Factory of the executors that run the per-file and per-request work of the
+ * daemons. PLATFORM_EXECUTOR is a fixed pool of platform threads, sized for
+ * the CPU; VIRTUAL_EXECUTOR starts a new virtual thread per task, so that
+ * thousands of small conversions (mostly blocked reading files or sockets)
+ * run at the same time without sizing any pool: the number of threads only
+ * bounds how many tasks the caller admits at once.
+ *
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ */
+public class WorkerThreads
+{
+
+    /** Fixed pool of platform threads. */
+    public final static String PLATFORM_EXECUTOR = "platform";
+    /** One virtual thread per task. */
+    public final static String VIRTUAL_EXECUTOR = "virtual";
+    /** Executors supported. */
+    public final static List<String> EXECUTORS
+            = Arrays.asList(PLATFORM_EXECUTOR, VIRTUAL_EXECUTOR);
+
+    /** Default number of tasks at the same time on virtual threads. */
+    public final static int DEFAULT_VIRTUAL_THREADS = 4096;
+
+    /** Hidden constructor, only static methods. */
+    protected WorkerThreads() {}
+
+    /**
+     * Creates the executor of the given kind.
+     *
+     * @param executor Kind of executor, one of EXECUTORS.
+     * @param threads Number of platform threads (ignored for the virtual
+     *                  executor, whose threads are not pooled).
+     * @param name Prefix of the names of the threads.
+     * @return The executor.
+     * @throws IllegalArgumentException In case the executor is not supported.
+     */
+    public static ExecutorService createExecutor
+            (final String executor, final int threads, final String name)
+    {
+
+        if ( ( executor == null ) || ( name == null ) )
+            { throw(new NullPointerException("<executor> or <name> null.")); }
+
+        if ( VIRTUAL_EXECUTOR.equals(executor) == true )
+        {
+            return(Executors.newThreadPerTaskExecutor
+                            (Thread.ofVirtual().name(name, 0).factory()));
+        }
+        if ( PLATFORM_EXECUTOR.equals(executor) == true )
+        {
+            return(Executors.newFixedThreadPool
+                            (threads, Thread.ofPlatform().name(name, 0)
+                                                            .factory()));
+        }
+
+        throw(new IllegalArgumentException("Executor not supported = "
+                                            + executor + ", use one of "
+                                            + EXECUTORS));
+
+    }
+
+    /**
+     * Default number of threads for the given kind of executor: one per
+     * processor for platform threads, DEFAULT_VIRTUAL_THREADS otherwise.
+     *
+     * @param executor Kind of executor, one of EXECUTORS.
+     * @return The default number of threads.
+     */
+    public static int getDefaultThreads(final String executor)
+    {
+        return(( VIRTUAL_EXECUTOR.equals(executor) == true ) ?
+                    DEFAULT_VIRTUAL_THREADS :
+                    Runtime.getRuntime().availableProcessors());
+    }
+
+}
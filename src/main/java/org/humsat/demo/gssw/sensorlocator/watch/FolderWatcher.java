@@ -0,0 +1,614 @@
+/**
+ * @file FolderWatcher.java
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ * @version 0.1
+ *
+ * @section LICENSE
+ *
+ * This file is part of SensorLocator.
+ * SensorLocator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SensorLocator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SensorLocator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.humsat.demo.gssw.sensorlocator.watch;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.humsat.demo.gssw.sensorlocator.SensorLocator;
+import org.humsat.demo.gssw.sensorlocator.data.DecimalFormatter;
+import org.humsat.demo.gssw.sensorlocator.output.OutputSinks;
+import org.humsat.demo.gssw.sensorlocator.pipeline.Pipeline;
+import org.humsat.demo.gssw.sensorlocator.util.WorkerThreads;
+
+/**
+ * Daemon that watches one or more spool directories and converts the CSV
+ * files dropped into them as soon as they are complete. A file is complete
+ * once its size and modification time do not change for the quiet period,
+ * or as soon as a marker file with the same name plus MARKER_EXTENSION is
+ * created next to it.
+ *
+ * The complete files are converted on a pool of worker threads, or on a
+ * virtual thread each (see WorkerThreads); the output is written to a
+ * temporary file that is then renamed, so that the map clients never read a
+ * partial document. Afterwards, the input is moved to the DONE_DIRECTORY (or
+ * to the FAILED_DIRECTORY) of its spool directory.
+ *
+ * @author Ricardo Tubío (rtpardavila[at]gmail.com)
+ */
+public class FolderWatcher
+    implements Runnable, Closeable
+{
+
+    /** Extension of the input files. */
+    public final static String INPUT_EXTENSION = ".csv";
+    /** Extension of the marker files of the complete inputs. */
+    public final static String MARKER_EXTENSION = ".ready";
+    /** Extension of the outputs while they are being written. */
+    public final static String PARTIAL_EXTENSION = ".part";
+    /** Directory of the inputs already converted, within each spool. */
+    public final static String DONE_DIRECTORY = "done";
+    /** Directory of the inputs that could not be converted. */
+    public final static String FAILED_DIRECTORY = "failed";
+    /** Default quiet period, in milliseconds. */
+    public final static long DEFAULT_QUIET = 2000L;
+    /** Number of locks that serialize the conversions per output file. */
+    public final static int OUTPUT_LOCKS = 64;
+
+    /** Spool directories. */
+    protected List<Path> directories = new ArrayList<Path>();
+    /** Directory for the outputs. */
+    protected Path output = null;
+    /** Pipeline for the conversions. */
+    protected Pipeline pipeline = null;
+    /** Quiet period, in milliseconds. */
+    protected long quiet = DEFAULT_QUIET;
+
+    /** Watch service for the spool directories. */
+    protected WatchService watcher = null;
+    /** Worker threads that convert the files. */
+    protected ExecutorService pool = null;
+    /** Permits for the conversions (one per worker thread). */
+    protected Semaphore workers = null;
+    /** Files not complete yet, (file, { size, modified, since }). */
+    protected Map<Path, long[]> pending = new HashMap<Path, long[]>();
+    /** Files being converted, not to be offered again meanwhile. */
+    protected Set<Path> converting = Collections.newSetFromMap
+                                    (new ConcurrentHashMap<Path, Boolean>());
+
+    /** Locks of the output files, by the hash of their paths. */
+    protected Object[] outputLocks = new Object[OUTPUT_LOCKS];
+
+    /** Number of files converted. */
+    protected AtomicLong converted = new AtomicLong();
+    /** Number of files that could not be converted. */
+    protected AtomicLong failed = new AtomicLong();
+
+    /**
+     * Constructor for a daemon with a pool of platform threads, it starts
+     * watching the given directories (creating the output, done and failed
+     * directories, if needed).
+     *
+     * @param directories Spool directories.
+     * @param output Directory for the outputs.
+     * @param pipeline Pipeline for the conversions, its format is used as
+     *                  the extension of the outputs.
+     * @param threads Number of worker threads.
+     * @param quiet Quiet period, in milliseconds.
+     * @throws IOException In case the directories cannot be watched.
+     */
+    public FolderWatcher
+            (   final List<File> directories, final File output,
+                final Pipeline pipeline, final int threads,
+                final long quiet    )
+        throws IOException
+    {
+        this(directories, output, pipeline,
+                WorkerThreads.PLATFORM_EXECUTOR, threads, quiet);
+    }
+
+    /**
+     * Main constructor, it starts watching the given directories (creating
+     * the output, done and failed directories, if needed).
+     *
+     * @param directories Spool directories.
+     * @param output Directory for the outputs.
+     * @param pipeline Pipeline for the conversions, its format is used as
+     *                  the extension of the outputs.
+     * @param executor Kind of worker threads, one of WorkerThreads.EXECUTORS.
+     * @param threads Number of worker threads (for virtual threads, number of
+     *                  files converted at the same time).
+     * @param quiet Quiet period, in milliseconds.
+     * @throws IOException In case the directories cannot be watched.
+     */
+    public FolderWatcher
+            (   final List<File> directories, final File output,
+                final Pipeline pipeline, final String executor,
+                final int threads, final long quiet    )
+        throws IOException
+    {
+
+        if ( ( directories == null ) || ( directories.isEmpty() == true ) )
+            { throw(new IllegalArgumentException("<directories> is empty.")); }
+        if ( output == null )
+            { throw(new NullPointerException("<output> is null.")); }
+        if ( pipeline == null )
+            { throw(new NullPointerException("<pipeline> is null.")); }
+        if ( ( threads <= 0 ) || ( quiet < 0 ) )
+            { throw(new IllegalArgumentException("Threads = " + threads
+                                                + ", quiet = " + quiet
+                                                + ", values not permitted.")); }
+
+        this.output = Files.createDirectories(output.toPath());
+        this.pipeline = pipeline;
+        this.quiet = quiet;
+
+        this.watcher = output.toPath().getFileSystem().newWatchService();
+        for ( File d_i : directories )
+        {
+            Path p_i = d_i.toPath();
+            if ( Files.isDirectory(p_i) == false )
+                { throw(new IOException("Not a directory = " + d_i)); }
+            Files.createDirectories(p_i.resolve(DONE_DIRECTORY));
+            Files.createDirectories(p_i.resolve(FAILED_DIRECTORY));
+            p_i.register(this.watcher,
+                            StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_MODIFY);
+            this.directories.add(p_i);
+        }
+
+        this.pool = WorkerThreads.createExecutor
+                                (executor, threads, "sensorlocator-watch-");
+        this.workers = new Semaphore(threads);
+        for ( int i = 0; i < OUTPUT_LOCKS; i++ )
+            { this.outputLocks[i] = new Object(); }
+
+    }
+
+    /**
+     * Watches the spool directories until the watcher is closed. The files
+     * already in the directories are converted too.
+     */
+    @Override
+    public void run()
+    {
+
+        for ( Path d_i : this.directories ) { this.scan(d_i); }
+        long poll = Math.max(1L, this.quiet / 4);
+
+        try
+        {
+            while ( true )
+            {
+                WatchKey key = this.watcher.poll(poll, TimeUnit.MILLISECONDS);
+                if ( key != null )
+                {
+                    Path dir = (Path) key.watchable();
+                    for ( WatchEvent<?> e_i : key.pollEvents() )
+                    {
+                        if ( e_i.kind() == StandardWatchEventKinds.OVERFLOW )
+                            { this.scan(dir); }
+                        else
+                            { this.offer(dir.resolve((Path) e_i.context())); }
+                    }
+                    key.reset();
+                }
+                this.submitComplete(System.currentTimeMillis());
+            }
+        }
+        catch(ClosedWatchServiceException ex)
+            { return; }
+        catch(InterruptedException ex)
+            { Thread.currentThread().interrupt(); }
+
+    }
+
+    /**
+     * Adds all the input files of the given directory to the pending ones.
+     *
+     * @param dir The spool directory.
+     */
+    protected void scan(final Path dir)
+    {
+
+        try
+        {
+            DirectoryStream<Path> ds = Files.newDirectoryStream(dir);
+            try
+                { for ( Path p_i : ds ) { this.offer(p_i); } }
+            finally
+                { ds.close(); }
+        }
+        catch(IOException ex)
+        {
+            Logger.getLogger(FolderWatcher.class.getName())
+                        .log(Level.WARNING, ex.getMessage(), ex);
+        }
+
+    }
+
+    /**
+     * Adds the given file to the pending ones in case it is an input file (or
+     * the marker of an input file), restarting its quiet period.
+     *
+     * @param file The file created or modified.
+     */
+    protected void offer(final Path file)
+    {
+
+        String name = file.getFileName().toString();
+        Path input = file;
+
+        if ( name.endsWith(MARKER_EXTENSION) == true )
+        {
+            input = file.resolveSibling(name.substring
+                            (0, name.length() - MARKER_EXTENSION.length()));
+            name = input.getFileName().toString();
+        }
+        if ( ( name.toLowerCase().endsWith(INPUT_EXTENSION) == false )
+                || ( this.converting.contains(input) == true ) )
+            { return; }
+
+        this.pending.put(input, new long[] { -1L, -1L, 0L });
+
+    }
+
+    /**
+     * Hands the pending files that are complete to the workers, as long as
+     * there are idle workers (the rest wait for the next poll).
+     *
+     * @param now Current time, in milliseconds.
+     */
+    protected void submitComplete(final long now)
+    {
+
+        Iterator<Map.Entry<Path, long[]>> it
+                                        = this.pending.entrySet().iterator();
+
+        while ( it.hasNext() == true )
+        {
+
+            Map.Entry<Path, long[]> e = it.next();
+            final Path input = e.getKey();
+            long[] state = e.getValue();
+
+            long size = 0L;
+            long modified = 0L;
+            try
+            {
+                size = Files.size(input);
+                modified = Files.getLastModifiedTime(input).toMillis();
+            }
+            catch(IOException ex)
+                { it.remove(); continue; }
+
+            final Path marker = input.resolveSibling
+                            (input.getFileName().toString() + MARKER_EXTENSION);
+            boolean complete = Files.exists(marker);
+
+            if ( ( complete == false )
+                    && ( ( size != state[0] ) || ( modified != state[1] ) ) )
+            {
+                state[0] = size;
+                state[1] = modified;
+                state[2] = now;
+                continue;
+            }
+            if ( ( complete == false ) && ( now - state[2] < this.quiet ) )
+                { continue; }
+            if ( this.workers.tryAcquire() == false ) { return; }
+
+            it.remove();
+            this.converting.add(input);
+
+            try
+            {
+                this.pool.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        try
+                            { convert(input, marker); }
+                        finally
+                            { converting.remove(input); workers.release(); }
+                    }
+                });
+            }
+            catch(RejectedExecutionException ex)
+            {
+                // The watcher is being closed.
+                this.converting.remove(input);
+                this.workers.release();
+                return;
+            }
+
+        }
+
+    }
+
+    /**
+     * Converts the given input file and moves it to the done (or the failed)
+     * directory of its spool directory. In case several spool directories are
+     * watched, the name of the output starts with the name of the spool
+     * directory of the input; the conversions into the same output file (of
+     * an input dropped again) run one after the other.
+     *
+     * @param input The input file.
+     * @param marker The marker of the input file, deleted if it exists.
+     */
+    protected void convert(final Path input, final Path marker)
+    {
+
+        String name = input.getFileName().toString();
+        String base = name.substring(0, name.length()
+                                        - INPUT_EXTENSION.length());
+        if ( this.directories.size() > 1 )
+            { base = input.getParent().getFileName() + "." + base; }
+        Path out = this.output.resolve(base + "." + this.pipeline.getFormat());
+        Path part = null;
+        String target = DONE_DIRECTORY;
+
+        try
+        {
+            part = Files.createTempFile(this.output, base + ".",
+                                                        PARTIAL_EXTENSION);
+            synchronized(this.outputLocks[( out.hashCode() & 0x7fffffff )
+                                                    % OUTPUT_LOCKS])
+            {
+                this.write(input, part);
+                Files.move(part, out, StandardCopyOption.REPLACE_EXISTING,
+                                        StandardCopyOption.ATOMIC_MOVE);
+            }
+            this.converted.incrementAndGet();
+            Logger.getLogger(FolderWatcher.class.getName())
+                        .log(Level.INFO, "Converted {0} into {1}"
+                                            , new Object[] { input, out });
+        }
+        catch(Exception ex)
+        {
+            target = FAILED_DIRECTORY;
+            this.failed.incrementAndGet();
+            Logger.getLogger(FolderWatcher.class.getName())
+                        .log(Level.WARNING, "Could not convert " + input, ex);
+        }
+
+        try
+        {
+            if ( part != null ) { Files.deleteIfExists(part); }
+            Files.deleteIfExists(marker);
+            Files.move(input, input.resolveSibling(target).resolve(name),
+                                StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch(IOException ex)
+        {
+            Logger.getLogger(FolderWatcher.class.getName())
+                        .log(Level.WARNING, ex.getMessage(), ex);
+        }
+
+    }
+
+    /**
+     * Writes the output document of the given input file.
+     *
+     * @param input The input file.
+     * @param output The output file.
+     * @throws IOException In case any IO problem occurs.
+     */
+    protected void write(final Path input, final Path output)
+        throws IOException
+    {
+
+        OutputStream os = new BufferedOutputStream
+                (Files.newOutputStream(output), OutputSinks.FILE_BUFFER_SIZE);
+        try
+            { this.pipeline.run(input.toFile(), os); }
+        finally
+            { os.close(); }
+
+    }
+
+    /**
+     * Getter for the number of files converted.
+     *
+     * @return The number of files.
+     */
+    public long getConverted()
+        { return(this.converted.get()); }
+
+    /**
+     * Getter for the number of files that could not be converted.
+     *
+     * @return The number of files.
+     */
+    public long getFailed()
+        { return(this.failed.get()); }
+
+    /**
+     * Stops watching the directories, waiting for the conversions already
+     * started.
+     *
+     * @throws IOException In case the watch service cannot be closed.
+     */
+    @Override
+    public void close()
+        throws IOException
+    {
+
+        this.watcher.close();
+        this.pool.shutdown();
+
+        try
+            { this.pool.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS); }
+        catch(InterruptedException ex)
+            { Thread.currentThread().interrupt(); }
+
+    }
+
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>> main ()
+    // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
+
+    /** Option with the comma separated list of spool directories. */
+    public final static String __WATCH_OPTION = "watch";
+    /** Option with the directory for the outputs. */
+    public final static String __OUTPUT_OPTION = "output";
+    /** Option with the quiet period, in milliseconds. */
+    public final static String __QUIET_OPTION = "quiet";
+
+    /** Wrong arguments exception message. */
+    public final static String __WRONG_ARGS_EX
+            = "Wrong arguments, usage: FolderWatcher "
+                + "--watch=spool1[,spool2,...] --output=directory "
+                + "[--format=kml|geojson|ndjson|int|archive|statistics] "
+                + "[--executor=platform|virtual] [--threads=N] "
+                + "[--quiet=" + DEFAULT_QUIET + "] "
+                + "[--coordinate-decimals=N] [--value-decimals=N]";
+
+    /**
+     * Method for running the daemon from the command line; it keeps running
+     * until the JVM is stopped.
+     *
+     * @param args Set of args given from the command line.
+     */
+    public static void main(String[] args)
+    {
+
+        try
+        {
+
+            Map<String, String> options = new HashMap<String, String>();
+            for ( String a_i : args )
+            {
+                int sep = a_i.indexOf(SensorLocator.__OPTION_SEPARATOR);
+                if ( ( a_i.startsWith(SensorLocator.__OPTION_PREFIX) == false )
+                        || ( sep < 0 ) )
+                    { throw(new IllegalArgumentException(__WRONG_ARGS_EX)); }
+                options.put(a_i.substring
+                                (SensorLocator.__OPTION_PREFIX.length(), sep),
+                            a_i.substring(sep + 1));
+            }
+
+            if ( ( options.get(__WATCH_OPTION) == null )
+                    || ( options.get(__OUTPUT_OPTION) == null ) )
+                { throw(new IllegalArgumentException(__WRONG_ARGS_EX)); }
+
+            List<File> directories = new ArrayList<File>();
+            for ( String d_i : options.get(__WATCH_OPTION)
+                                    .split(SensorLocator.MERGE_SEPARATOR) )
+                { directories.add(new File(d_i.trim())); }
+
+            String format = options.get(SensorLocator.__FORMAT_OPTION);
+            String executor = options.get(SensorLocator.__EXECUTOR_OPTION);
+            if ( executor == null )
+                { executor = WorkerThreads.PLATFORM_EXECUTOR; }
+            Pipeline pipeline = Pipeline.builder()
+                .format(( format == null ) ? OutputSinks.KML_FORMAT : format)
+                .formatter(new DecimalFormatter
+                        (   getInt(options,
+                                SensorLocator.__COORDINATE_DECIMALS_OPTION,
+                                DecimalFormatter.SHORTEST),
+                            getInt(options,
+                                SensorLocator.__VALUE_DECIMALS_OPTION,
+                                DecimalFormatter.SHORTEST)  ))
+                .build();
+            final FolderWatcher watcher = new FolderWatcher
+                (   directories, new File(options.get(__OUTPUT_OPTION)),
+                    pipeline, executor,
+                    getInt(options, SensorLocator.__THREADS_OPTION,
+                            WorkerThreads.getDefaultThreads(executor)),
+                    getInt(options, __QUIET_OPTION, (int) DEFAULT_QUIET)  );
+
+            Runtime.getRuntime().addShutdownHook(new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                        { watcher.close(); }
+                    catch(IOException ex)
+                    {
+                        Logger.getLogger(FolderWatcher.class.getName())
+                                .log(Level.WARNING, ex.getMessage(), ex);
+                    }
+                }
+            });
+
+            Logger.getLogger(FolderWatcher.class.getName())
+                        .log(Level.INFO, "Watching {0}", directories);
+            watcher.run();
+
+        }
+        catch (Exception ex)
+        {
+            Logger.getLogger(FolderWatcher.class.getName())
+                        .log(Level.SEVERE, ex.getMessage(), ex);
+            System.exit(-1);
+        }
+
+    }
+
+    /**
+     * Returns the value of the given option as an integer.
+     *
+     * @param options The options, (name, value).
+     * @param name Name of the option.
+     * @param defaultValue Value to be returned if the option was not given.
+     * @return The value of the option.
+     * @throws IllegalArgumentException In case the value is not an integer.
+     */
+    protected static int getInt
+            (   final Map<String, String> options, final String name,
+                final int defaultValue  )
+    {
+
+        String value = options.get(name);
+        if ( value == null ) { return(defaultValue); }
+
+        try
+            { return(Integer.parseInt(value)); }
+        catch(NumberFormatException ex)
+        {
+            throw(new IllegalArgumentException("Option --" + name
+                                                + " must be an integer, "
+                                                + "value = " + value));
+        }
+
+    }
+
+}
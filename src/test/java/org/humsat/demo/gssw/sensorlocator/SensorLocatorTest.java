@@ -24,16 +24,90 @@ package org.humsat.demo.gssw.sensorlocator;
 import cx.ath.rtubio.javalib.pojos.FileHelper;
 import org.junit.*;
 import java.util.logging.Logger;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 import junit.framework.Assert;
 import junit.framework.TestCase;
+import org.humsat.demo.gssw.sensorlocator.alert.Alert;
+import org.humsat.demo.gssw.sensorlocator.alert.AlertEngine;
+import org.humsat.demo.gssw.sensorlocator.alert.AlertListener;
+import org.humsat.demo.gssw.sensorlocator.alert.AlertRule;
+import org.humsat.demo.gssw.sensorlocator.archive.ArchiveReader;
+import org.humsat.demo.gssw.sensorlocator.archive.ArchiveWriter;
+import org.humsat.demo.gssw.sensorlocator.cache.ResultCache;
 import org.humsat.demo.gssw.sensorlocator.csv.CSVHelper;
+import org.humsat.demo.gssw.sensorlocator.csv.RecordLog;
+import org.humsat.demo.gssw.sensorlocator.csv.RecordLogReader;
+import org.humsat.demo.gssw.sensorlocator.csv.RecordLogWriter;
+import org.humsat.demo.gssw.sensorlocator.csv.SensorDataMerger;
+import org.humsat.demo.gssw.sensorlocator.csv.SensorDataReader;
+import org.humsat.demo.gssw.sensorlocator.csv.SensorDataSource;
 import org.humsat.demo.gssw.sensorlocator.data.DataField;
+import org.humsat.demo.gssw.sensorlocator.data.DecimalFormatter;
 import org.humsat.demo.gssw.sensorlocator.kml.KMLNode;
+import org.humsat.demo.gssw.sensorlocator.geofence.Geofence;
+import org.humsat.demo.gssw.sensorlocator.geofence.Polygon;
+import org.humsat.demo.gssw.sensorlocator.geofence.WKTReader;
+import org.humsat.demo.gssw.sensorlocator.heatmap.Heatmap;
+import org.humsat.demo.gssw.sensorlocator.index.SpatialIndex;
+import org.humsat.demo.gssw.sensorlocator.pipeline.Pipeline;
+import org.humsat.demo.gssw.sensorlocator.pipeline.StagedRunner;
+import org.humsat.demo.gssw.sensorlocator.server.SensorLocatorServer;
+import org.humsat.demo.gssw.sensorlocator.store.ReadingStore;
+import org.humsat.demo.gssw.sensorlocator.index.TimeIndex;
+import org.humsat.demo.gssw.sensorlocator.kml.KMLUpdateWriter;
+import org.humsat.demo.gssw.sensorlocator.kml.ParallelKMLWriter;
+import org.humsat.demo.gssw.sensorlocator.output.OutputSink;
+import org.humsat.demo.gssw.sensorlocator.kml.SimpleKMLWriter;
+import org.humsat.demo.gssw.sensorlocator.kml.TrackKMLWriter;
+import org.humsat.demo.gssw.sensorlocator.kml.WindowKMLWriter;
 import org.humsat.demo.gssw.sensorlocator.data.SensorData;
+import org.humsat.demo.gssw.sensorlocator.dedup.FrameDeduplicator;
+import org.humsat.demo.gssw.sensorlocator.output.OutputSinks;
+import org.humsat.demo.gssw.sensorlocator.sort.ExternalSorter;
+import org.humsat.demo.gssw.sensorlocator.stats.FieldStatistics;
+import org.humsat.demo.gssw.sensorlocator.stats.SensorStatistics;
+import org.humsat.demo.gssw.sensorlocator.stats.TimeWindow;
+import org.humsat.demo.gssw.sensorlocator.stats.WindowAggregator;
+import org.humsat.demo.gssw.sensorlocator.stats.WindowListener;
+import org.humsat.demo.gssw.sensorlocator.track.Track;
+import org.humsat.demo.gssw.sensorlocator.track.TrackSimplifier;
+import org.humsat.demo.gssw.sensorlocator.util.BloomFilter;
+import org.humsat.demo.gssw.sensorlocator.util.LongHashSet;
+import org.humsat.demo.gssw.sensorlocator.util.WorkerThreads;
+import org.humsat.demo.gssw.sensorlocator.watch.FolderWatcher;
 
 /**
  * JUNIT test class for the SensorLocator class.
@@ -143,4 +217,1882 @@ public class SensorLocatorTest
         
     }
     
+    /**
+     * Test for verifying that only the changes are published as a KML update
+     * once a previous state is available.
+     */
+    @Test
+    public void test__kmlUpdate()
+            throws IOException
+    {
+        
+        System.out.println(">>>>>>>>>> test__kmlUpdate <<<<<<<<<");
+        
+        File input = FileHelper.checkInputFile(CSV_TEST_FILE_4);
+        List<KMLNode> nodes = SensorLocator.createKMLNodes
+                                    (CSVHelper.readSensorData(input));
+        Set<String> ids = new HashSet<String>();
+        for ( KMLNode k_i : nodes ) { ids.add(k_i.getId()); }
+        
+        File state = File.createTempFile("sensorlocator", ".state");
+        state.delete();
+        
+        KMLUpdateWriter first = new KMLUpdateWriter("output.kml");
+        first.loadState(state);
+        first.addKMLNodes(nodes);
+        ByteArrayOutputStream update = new ByteArrayOutputStream();
+        first.writeUpdate(update);
+        first.saveState(state);
+        Assert.assertFalse(first.hasPublishedState());
+        Assert.assertEquals(ids.size(), first.getCreated());
+        Assert.assertFalse(update.toString("UTF-8").contains("<Create>"));
+        
+        KMLUpdateWriter same = new KMLUpdateWriter("output.kml");
+        same.loadState(state);
+        same.addKMLNodes(nodes);
+        same.writeUpdate(new ByteArrayOutputStream());
+        Assert.assertTrue(same.hasPublishedState());
+        Assert.assertEquals(0, same.getCreated());
+        Assert.assertEquals(0, same.getChanged());
+        Assert.assertEquals(0, same.getDeleted());
+        
+        String removed = nodes.get(0).getId();
+        List<KMLNode> subset = new ArrayList<KMLNode>();
+        for ( KMLNode k_i : nodes )
+            { if ( k_i.getId().equals(removed) == false ) subset.add(k_i); }
+        
+        KMLUpdateWriter less = new KMLUpdateWriter("output.kml");
+        less.loadState(state);
+        less.addKMLNodes(subset);
+        update.reset();
+        less.writeUpdate(update);
+        Assert.assertEquals(0, less.getCreated());
+        Assert.assertEquals(1, less.getDeleted());
+        Assert.assertTrue(update.toString("UTF-8").contains
+                                ("<targetHref>output.kml</targetHref>"));
+        
+        // The complete document, the target of the updates, is written on
+        // every run.
+        ByteArrayOutputStream document = new ByteArrayOutputStream();
+        less.writeDocument(document);
+        String kml = document.toString("UTF-8");
+        Assert.assertTrue(kml.contains("id=\"" + KMLUpdateWriter.DOCUMENT_ID
+                                        + "\""));
+        Assert.assertEquals(ids.size() - 1,
+                                kml.split("<Placemark ", -1).length - 1);
+        Assert.assertEquals("out/output.kml", KMLUpdateWriter.getTargetHref
+                        (new File("update.kml"), new File("out/output.kml")));
+        
+        state.delete();
+        
+    }
+    
+    /**
+     * Test for verifying that the GeoJSON and NDJSON writers generate one
+     * feature per KML node.
+     */
+    @Test
+    public void test__geoJSON()
+            throws IOException
+    {
+        
+        System.out.println(">>>>>>>>>> test__geoJSON <<<<<<<<<");
+        
+        File input = FileHelper.checkInputFile(CSV_TEST_FILE_4);
+        List<KMLNode> nodes = SensorLocator.createKMLNodes
+                                    (CSVHelper.readSensorData(input));
+        
+        ByteArrayOutputStream geojson = new ByteArrayOutputStream();
+        OutputSinks.write(OutputSinks.createOutputSink
+                            (OutputSinks.GEOJSON_FORMAT), nodes, geojson);
+        String g = geojson.toString("UTF-8");
+        Assert.assertTrue(g.startsWith("{\"type\":\"FeatureCollection\""));
+        Assert.assertEquals(nodes.size(),
+                                g.split("\"type\":\"Feature\"").length - 1);
+        
+        ByteArrayOutputStream ndjson = new ByteArrayOutputStream();
+        OutputSinks.write(OutputSinks.createOutputSink
+                            (OutputSinks.NDJSON_FORMAT), nodes, ndjson);
+        String[] lines = ndjson.toString("UTF-8").split("\n");
+        Assert.assertEquals(nodes.size(), lines.length);
+        
+    }
+    
+    /**
+     * Test for verifying that the parallel KML writer generates exactly the
+     * same document as the simple KML writer.
+     */
+    @Test
+    public void test__parallelKML()
+            throws IOException
+    {
+        
+        System.out.println(">>>>>>>>>> test__parallelKML <<<<<<<<<");
+        
+        File input = FileHelper.checkInputFile(CSV_TEST_FILE_4);
+        List<KMLNode> nodes = SensorLocator.createKMLNodes
+                                    (CSVHelper.readSensorData(input));
+        
+        ByteArrayOutputStream simple = new ByteArrayOutputStream();
+        OutputSinks.write(new SimpleKMLWriter(), nodes, simple);
+        
+        ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+        OutputSinks.write(new ParallelKMLWriter(3, 2), nodes, parallel);
+        
+        Assert.assertEquals(simple.toString("UTF-8"),
+                                parallel.toString("UTF-8"));
+        
+    }
+    
+    /**
+     * Test for verifying the fixed-precision formatting of values.
+     */
+    @Test
+    public void test__decimalFormatter()
+    {
+        
+        System.out.println(">>>>>>>>>> test__decimalFormatter <<<<<<<<<");
+        
+        float[] values = { 0.0f, 3.14159f, -71.22f, -6.96f, 233.46f, 92.0f,
+                           -0.001f, 1234567.8f, 0.5001f };
+        
+        for ( int d = 0; d <= 6; d++ )
+        {
+            for ( float v : values )
+            {
+                String expected = String.format
+                        (Locale.ROOT, "%." + d + "f", (double) v);
+                if ( expected.matches("-0[.]?0*") == true )
+                    { expected = expected.substring(1); }
+                String current = DecimalFormatter.append
+                        (new StringBuilder(), v, d).toString();
+                Assert.assertEquals(expected, current);
+            }
+        }
+        
+        Assert.assertEquals("-71.22", DecimalFormatter.append
+                (new StringBuilder(), -71.22f, DecimalFormatter.SHORTEST)
+                    .toString());
+        
+    }
+    
+    /**
+     * Test of the spatial index: results of the queries are compared with the
+     * ones obtained by brute force.
+     */
+    @Test
+    public void test__spatialIndex()
+            throws IOException
+    {
+        
+        System.out.println(">>>>>>>>>> test__spatialIndex <<<<<<<<<");
+        
+        int n = 5000;
+        Random random = new Random(1234);
+        float[] lats = new float[n];
+        float[] lons = new float[n];
+        List<Integer> items = new ArrayList<Integer>();
+        
+        for ( int i = 0; i < n; i++ )
+        {
+            lats[i] = (float) ( random.nextDouble() * 180.0 - 90.0 );
+            lons[i] = (float) ( random.nextDouble() * 360.0 - 180.0 );
+            items.add(i);
+        }
+        
+        SpatialIndex<Integer> index
+                = new SpatialIndex<Integer>(lats, lons, items, 4);
+        Assert.assertEquals(n, index.size());
+        
+        Set<Integer> expected = new HashSet<Integer>();
+        for ( int i = 0; i < n; i++ )
+        {
+            if ( ( lats[i] >= -10 ) && ( lats[i] <= 20 )
+                    && ( ( lons[i] >= 170 ) || ( lons[i] <= -160 ) ) )
+                { expected.add(i); }
+        }
+        Assert.assertEquals(expected, new HashSet<Integer>
+                                        (index.queryBox(-10, 170, 20, -160)));
+        
+        expected.clear();
+        for ( int i = 0; i < n; i++ )
+        {
+            if ( SpatialIndex.distance(42.0, 179.0, lats[i], lons[i]) <= 1.5e6 )
+                { expected.add(i); }
+        }
+        Assert.assertEquals(expected, new HashSet<Integer>
+                                        (index.queryRadius(42.0, 179.0, 1.5e6)));
+        
+        List<Integer> nearest = index.nearest(-33.0, -70.0, 10);
+        Assert.assertEquals(10, nearest.size());
+        double last = 0.0;
+        for ( Integer i : nearest )
+        {
+            double d = SpatialIndex.distance(-33.0, -70.0, lats[i], lons[i]);
+            Assert.assertTrue(d >= last);
+            last = d;
+        }
+        for ( int i = 0; i < n; i++ )
+        {
+            if ( nearest.contains(i) == true ) { continue; }
+            Assert.assertTrue(SpatialIndex.distance
+                                (-33.0, -70.0, lats[i], lons[i]) >= last);
+        }
+        
+        // Nearest items across the antimeridian, against a brute-force scan.
+        List<Double> distances = new ArrayList<Double>();
+        for ( int i = 0; i < n; i++ )
+            { distances.add(SpatialIndex.distance(10.0, 179.9,
+                                                    lats[i], lons[i])); }
+        Collections.sort(distances);
+        nearest = index.nearest(10.0, 179.9, 10);
+        Assert.assertEquals(10, nearest.size());
+        for ( int i = 0; i < nearest.size(); i++ )
+        {
+            Assert.assertEquals(distances.get(i), SpatialIndex.distance
+                            (10.0, 179.9, lats[nearest.get(i)],
+                                lons[nearest.get(i)]), 1e-6);
+        }
+        
+        List<KMLNode> nodes = SensorLocator.createKMLNodes
+                    (CSVHelper.readSensorData(new File(CSV_TEST_FILE_4)));
+        SpatialIndex<KMLNode> k_index
+                = SpatialIndex.createSpatialIndex(nodes, 2);
+        Assert.assertEquals(nodes.size(), k_index.queryBox
+                                            (-90, -180, 90, 180).size());
+        Assert.assertEquals(nodes.get(0), k_index.nearest
+                (   nodes.get(0).getPosition().latitude,
+                    nodes.get(0).getPosition().longitude, 1 ).get(0) );
+        
+    }
+    
+    /**
+     * Test of the geofence: the grid-accelerated test must give the same
+     * result as testing every polygon.
+     */
+    @Test
+    public void test__geofence()
+    {
+        
+        System.out.println(">>>>>>>>>> test__geofence <<<<<<<<<");
+        
+        Polygon square = WKTReader.parsePolygon
+                ("POLYGON ((-10 -10, 10 -10, 10 10, -10 10, -10 -10), "
+                    + "(-5 -5, 5 -5, 5 5, -5 5, -5 -5))");
+        Assert.assertEquals(2, square.getRings());
+        Assert.assertTrue(square.contains(7.0, 7.0));
+        Assert.assertFalse(square.contains(0.0, 0.0));
+        Assert.assertFalse(square.contains(20.0, 0.0));
+        
+        Random random = new Random(4321);
+        List<Polygon> polygons = new ArrayList<Polygon>();
+        polygons.add(square);
+        
+        for ( int p = 0; p < 50; p++ )
+        {
+            int n = 3 + random.nextInt(40);
+            float c_lat = (float) ( random.nextDouble() * 120.0 - 60.0 );
+            float c_lon = (float) ( random.nextDouble() * 300.0 - 150.0 );
+            float[] lats = new float[n];
+            float[] lons = new float[n];
+            for ( int i = 0; i < n; i++ )
+            {
+                double a = 2 * Math.PI * i / n;
+                double r = 1.0 + random.nextDouble() * 15.0;
+                lats[i] = (float) ( c_lat + r * Math.sin(a) );
+                lons[i] = (float) ( c_lon + r * Math.cos(a) );
+            }
+            Polygon polygon = new Polygon();
+            polygon.addRing(lons, lats);
+            polygons.add(polygon);
+        }
+        
+        Geofence geofence = new Geofence(polygons);
+        System.out.println("*** geofence = " + geofence);
+        Assert.assertTrue(geofence.countCells(Geofence.INSIDE) > 0);
+        
+        for ( int i = 0; i < 100000; i++ )
+        {
+            double lat = random.nextDouble() * 160.0 - 80.0;
+            double lon = random.nextDouble() * 340.0 - 170.0;
+            boolean expected = false;
+            for ( Polygon p_i : polygons )
+                { if ( p_i.contains(lat, lon) ) { expected = true; break; } }
+            Assert.assertEquals(expected, geofence.contains(lat, lon));
+        }
+        
+    }
+    
+    /**
+     * Test of the time index: the records found through the index must be
+     * the same ones found by filtering all the records.
+     */
+    @Test
+    public void test__timeIndex()
+            throws IOException
+    {
+        
+        System.out.println(">>>>>>>>>> test__timeIndex <<<<<<<<<");
+        
+        File input = FileHelper.checkInputFile(CSV_TEST_FILE_4);
+        TimeIndex built = new TimeIndex();
+        List<SensorData> all = CSVHelper.readSensorData(input, built);
+        Assert.assertTrue(built.isValidFor(input));
+        
+        File file = File.createTempFile("sensorlocator", 
+                                        TimeIndex.INDEX_FILE_EXTENSION);
+        built.save(file);
+        TimeIndex index = TimeIndex.load(file);
+        file.delete();
+        
+        Assert.assertTrue(index.isValidFor(input));
+        Assert.assertTrue(Arrays.equals(built.getSensorIds(),
+                                        index.getSensorIds()));
+        
+        int total = 0;
+        for ( int id : index.getSensorIds() ) { total += index.count(id); }
+        Assert.assertEquals(all.size(), total);
+        
+        SensorData first = all.get(0);
+        long from = first.getTimestamp() - 1000;
+        long to = first.getTimestamp();
+        List<String> expected = new ArrayList<String>();
+        for ( SensorData sd_i : all )
+        {
+            if ( ( sd_i.getSensorId() == first.getSensorId() )
+                    && ( sd_i.getTimestamp() >= from )
+                    && ( sd_i.getTimestamp() <= to ) )
+                { expected.add(sd_i.toString()); }
+        }
+        
+        List<String> current = new ArrayList<String>();
+        for ( SensorData sd_i : index.query
+                                (input, first.getSensorId(), from, to) )
+            { current.add(sd_i.toString()); }
+        
+        Assert.assertFalse(expected.isEmpty());
+        Assert.assertEquals(expected, current);
+        Assert.assertTrue(index.query(input, first.getSensorId(), 
+                                        to + 1, to + 1000).isEmpty());
+        
+        // The index is persisted by the reading of the whole input, so that
+        // the later runs that select a sensor find it.
+        File copy = File.createTempFile("sensorlocator", ".csv");
+        Files.copy(input.toPath(), copy.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        File output = File.createTempFile("sensorlocator", ".kml");
+        Assert.assertFalse(TimeIndex.isIndexed(copy));
+        Assert.assertEquals(all.size(),
+                    new SensorLocator(copy, output).readSensorData().size());
+        Assert.assertTrue(TimeIndex.isIndexed(copy));
+        Assert.assertTrue(Arrays.equals(index.getSensorIds(),
+                        TimeIndex.build(copy).getSensorIds()));
+        
+        Map<String, String> options = new HashMap<String, String>();
+        options.put(SensorLocator.__SENSOR_OPTION, "" + first.getSensorId());
+        options.put(SensorLocator.__FROM_OPTION, "" + from);
+        options.put(SensorLocator.__TO_OPTION, "" + to);
+        current.clear();
+        for ( SensorData sd_i : new SensorLocator(copy, output, options)
+                                                        .readSensorData() )
+            { current.add(sd_i.toString()); }
+        Assert.assertEquals(expected, current);
+        
+        TimeIndex.getIndexFile(copy).delete();
+        copy.delete();
+        output.delete();
+        
+    }
+    
+    /**
+     * Test of the statistics: merged partial aggregations must give the same
+     * results as a single one, and both as the direct computation.
+     */
+    @Test
+    public void test__statistics()
+            throws IOException
+    {
+        
+        System.out.println(">>>>>>>>>> test__statistics <<<<<<<<<");
+        
+        FieldStatistics a = new FieldStatistics();
+        FieldStatistics b = new FieldStatistics();
+        FieldStatistics all = new FieldStatistics();
+        double[] values = { 2.0, 4.0, 4.0, 4.0, 5.0, 5.0, 7.0, 9.0 };
+        for ( int i = 0; i < values.length; i++ )
+        {
+            all.add(values[i]);
+            if ( i < 3 ) { a.add(values[i]); } else { b.add(values[i]); }
+        }
+        a.merge(b);
+        
+        Assert.assertEquals(8, a.getCount());
+        Assert.assertEquals(5.0, a.getMean(), 1e-12);
+        Assert.assertEquals(Math.sqrt(32.0 / 7.0), a.getStdDev(), 1e-12);
+        Assert.assertEquals(all.getStdDev(), a.getStdDev(), 1e-12);
+        Assert.assertEquals(2.0, a.getMin(), 0.0);
+        Assert.assertEquals(9.0, a.getMax(), 0.0);
+        
+        List<SensorData> sensors = CSVHelper.readSensorData
+                                    (new File(CSV_TEST_FILE_4));
+        SensorStatistics single = SensorStatistics.aggregate(sensors, 1);
+        SensorStatistics parallel = SensorStatistics.aggregate(sensors, 3);
+        
+        Assert.assertTrue(single.size() > 0);
+        Assert.assertEquals(single.size(), parallel.size());
+        
+        StringWriter s_csv = new StringWriter();
+        StringWriter p_csv = new StringWriter();
+        single.writeCSV(s_csv);
+        parallel.writeCSV(p_csv);
+        Assert.assertEquals(s_csv.toString(), p_csv.toString());
+        Assert.assertTrue(s_csv.toString()
+                            .startsWith(SensorStatistics.CSV_HEADER));
+        
+        SensorData first = sensors.get(0);
+        DataField field = first.getDataFields().get(1);
+        FieldStatistics s = single.get(first.getSensorId(), field.type, 0);
+        Assert.assertNotNull(s);
+        Assert.assertTrue(s.getCount() >= 1);
+        
+        SimpleKMLWriter writer = new SimpleKMLWriter();
+        writer.setStatistics(single);
+        // Each sensor of the input has a single reading, so they are given
+        // twice.
+        List<KMLNode> nodes = SensorLocator.createKMLNodes(sensors);
+        nodes.addAll(SensorLocator.createKMLNodes(sensors));
+        writer.addKMLNodes(nodes);
+        String kml = writer.toString();
+        Assert.assertTrue(kml.contains("<ExtendedData>"));
+        
+        // One summary per sensor, not one per reading.
+        int[] ids = single.getSensorIds();
+        Assert.assertTrue(ids.length > 0);
+        Assert.assertTrue(ids.length < nodes.size());
+        Assert.assertEquals(ids.length, kml.split("<ExtendedData>").length - 1);
+        Assert.assertEquals(nodes.size() + ids.length,
+                                kml.split("<Placemark>").length - 1);
+        
+        // The parallel writer generates the same document.
+        for ( int threads : new int[] { 1, 3 } )
+        {
+            ParallelKMLWriter pkw = new ParallelKMLWriter(threads, 7);
+            pkw.setStatistics(single);
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            pkw.begin(os);
+            for ( KMLNode k_i : nodes ) { pkw.write(k_i); }
+            pkw.end();
+            Assert.assertEquals(kml, os.toString("UTF-8"));
+        }
+        
+    }
+    
+    /**
+     * Test of the windowed aggregation: windows are closed in order once the
+     * allowed lateness has passed, and late readings are dropped.
+     */
+    @Test
+    public void test__windows()
+            throws IOException
+    {
+        
+        System.out.println(">>>>>>>>>> test__windows <<<<<<<<<");
+        
+        List<SensorData> sensors = CSVHelper.readSensorData
+                                    (new File(CSV_TEST_FILE_4));
+        SensorData sd = sensors.get(0);
+        final List<TimeWindow> closed = new ArrayList<TimeWindow>();
+        WindowListener listener = new WindowListener()
+        {
+            @Override
+            public void windowClosed(TimeWindow window)
+                { closed.add(window); }
+        };
+        
+        // Same reading replayed at increasing timestamps, tumbling windows.
+        WindowAggregator tumbling = new WindowAggregator(10, 10, 5, listener);
+        int[] ts = { 100, 104, 109, 111, 107, 125, 103, 140 };
+        for ( int t : ts )
+        {
+            sd.initialize(t, sd.getSensorId(), 0, sd.getDataFields());
+            tumbling.add(sd);
+        }
+        
+        Assert.assertEquals(1, tumbling.getDropped());
+        Assert.assertEquals(3, closed.size());
+        Assert.assertEquals(100, closed.get(0).getStart());
+        Assert.assertEquals(110, closed.get(1).getStart());
+        Assert.assertEquals(120, closed.get(2).getStart());
+        Assert.assertEquals(1, tumbling.getOpenWindows());
+        
+        long key = closed.get(0).getStatistics().getKeys(sd.getSensorId())[0];
+        Assert.assertEquals(4, closed.get(0).getStatistics().get(key)
+                                                .getCount());
+        
+        tumbling.flush();
+        Assert.assertEquals(4, closed.size());
+        Assert.assertEquals(0, tumbling.getOpenWindows());
+        Assert.assertFalse(Float.isNaN(closed.get(3).getLatitude()));
+        
+        // Sliding windows: each reading belongs to size / slide windows.
+        closed.clear();
+        WindowAggregator sliding = new WindowAggregator(30, 10, 0, listener);
+        sd.initialize(100, sd.getSensorId(), 0, sd.getDataFields());
+        sliding.add(sd);
+        sliding.flush();
+        Assert.assertEquals(3, closed.size());
+        Assert.assertEquals(80, closed.get(0).getStart());
+        Assert.assertEquals(100, closed.get(2).getStart());
+        
+        // The placemarks are written as the windows close.
+        ByteArrayOutputStream kml = new ByteArrayOutputStream();
+        WindowKMLWriter writer = new WindowKMLWriter(0L,
+                                                DecimalFormatter.DEFAULT);
+        writer.begin(kml);
+        int header = kml.size();
+        WindowAggregator streamed = new WindowAggregator(10, 10, 0, writer);
+        sd.initialize(100, sd.getSensorId(), 0, sd.getDataFields());
+        streamed.add(sd);
+        Assert.assertEquals(header, kml.size());
+        sd.initialize(125, sd.getSensorId(), 0, sd.getDataFields());
+        streamed.add(sd);
+        Assert.assertTrue(kml.size() > header);
+        streamed.flush();
+        writer.end();
+        Assert.assertEquals(2, writer.getPlacemarks());
+        Assert.assertTrue(kml.toString("UTF-8").endsWith("</kml>\r\n"));
+        
+        // Streamed runs aggregate the windows without the batch path, and
+        // give the same windows as the batch one.
+        File output = File.createTempFile("sensorlocator", ".kml");
+        String[] extensions = { ".csv", SensorLocator.KML_EXTENSION };
+        for ( String ext : extensions )
+        {
+            
+            File batch_f = File.createTempFile("windows", ext);
+            File stream_f = File.createTempFile("windows", ext);
+            Map<String, String> options = new HashMap<String, String>();
+            options.put(SensorLocator.__WINDOW_OPTION, "600");
+            options.put(SensorLocator.__LATENESS_OPTION, "60");
+            
+            options.put(SensorLocator.__WINDOWS_OPTION, batch_f.getPath());
+            SensorLocator sl = new SensorLocator(new File(CSV_TEST_FILE_4),
+                                                    output, options);
+            Assert.assertFalse(sl.isStreaming());
+            sl.writeWindows(sl.readSensorData());
+            
+            options.put(SensorLocator.__WINDOWS_OPTION, stream_f.getPath());
+            options.put(SensorLocator.__STAGED_OPTION, "");
+            sl = new SensorLocator(new File(CSV_TEST_FILE_4), output, options);
+            Assert.assertTrue(sl.isStreaming());
+            sl.writeStreamingOutput();
+            
+            Assert.assertTrue(stream_f.length() > 0);
+            Assert.assertTrue(Arrays.equals
+                                (Files.readAllBytes(batch_f.toPath()),
+                                    Files.readAllBytes(stream_f.toPath())));
+            batch_f.delete();
+            stream_f.delete();
+            
+        }
+        output.delete();
+        
+    }
+    
+    /**
+     * Test of the alert engine: fixed thresholds and deviations from the
+     * baseline of a value.
+     */
+    @Test
+    public void test__alerts()
+            throws IOException
+    {
+        
+        System.out.println(">>>>>>>>>> test__alerts <<<<<<<<<");
+        
+        List<SensorData> sensors = CSVHelper.readSensorData
+                                    (new File(CSV_TEST_FILE_4));
+        SensorData sd = sensors.get(0);
+        DataField df = null;
+        for ( DataField df_i : sd.getDataFields() )
+        {
+            if ( df_i.type.equals(DataField.POSITION_F_CODE) == false )
+                { df = df_i; break; }
+        }
+        Assert.assertNotNull(df);
+        
+        String unit = DataField.VALUES_PER_CODE.get(df.type).get(0);
+        float v = df.values.get(0).get(unit);
+        final List<Alert> raised = new ArrayList<Alert>();
+        AlertListener listener = new AlertListener()
+        {
+            @Override
+            public void alertRaised(Alert alert)
+                { raised.add(alert); }
+        };
+        
+        List<AlertRule> rules = new ArrayList<AlertRule>();
+        rules.add(AlertRule.parseAlertRule(df.type + " > " + ( v - 1 )));
+        rules.add(AlertRule.parseAlertRule(df.type + ".0 < " + ( v - 1 )));
+        rules.add(AlertRule.parseAlertRule(df.type + " sigma 3"));
+        AlertEngine engine = new AlertEngine(rules, 0.5, 3, listener);
+        
+        engine.evaluate(sd);
+        Assert.assertEquals(1, raised.size());
+        Assert.assertEquals(sd.getSensorId(), raised.get(0).getSensorId());
+        Assert.assertEquals(v, (float) raised.get(0).getValue());
+        Assert.assertFalse(Float.isNaN(raised.get(0).getLatitude()));
+        
+        // Small oscillations build the baseline, a spike deviates from it.
+        raised.clear();
+        float[] values = { v + 1, v - 1, v + 1, v - 1, v + 100 };
+        for ( float v_i : values )
+        {
+            df.values.get(0).put(unit, v_i);
+            engine.evaluate(sd);
+        }
+        Assert.assertEquals(5, engine.getAlerts());
+        Assert.assertEquals(AlertRule.SIGMA, raised.get(raised.size() - 1)
+                                                .getRule().getOperator());
+        Assert.assertEquals(6, engine.getReadings());
+        
+        try
+        {
+            AlertRule.parseAlertRule(df.type + " == 1");
+            Assert.fail("Wrong operator accepted.");
+        }
+        catch(IllegalArgumentException ex) {}
+        
+    }
+    
+    /**
+     * Test of the elimination of duplicated frames: primitive set, Bloom
+     * filter, spilled runs and reading of an input with repeated records.
+     */
+    @Test
+    public void test__dedup()
+            throws IOException
+    {
+        
+        System.out.println(">>>>>>>>>> test__dedup <<<<<<<<<");
+        
+        Random random = new Random(37);
+        LongHashSet set = new LongHashSet();
+        Set<Long> reference = new HashSet<Long>();
+        BloomFilter bloom = new BloomFilter(1000, 0.01);
+        
+        for ( int i = 0; i < 1000; i++ )
+        {
+            long v = ( i == 0 ) ? 0L : random.nextInt(700);
+            Assert.assertEquals(reference.add(v), set.add(v));
+            bloom.put(v);
+        }
+        Assert.assertEquals(reference.size(), set.size());
+        for ( long v : reference )
+        {
+            Assert.assertTrue(set.contains(v));
+            Assert.assertTrue(bloom.mightContain(v));
+        }
+        Assert.assertFalse(set.contains(700L));
+        
+        Assert.assertEquals(FrameDeduplicator.hash("560", "469073685",
+                                                    "50:31:38:2e"),
+                            FrameDeduplicator.hash("560", "469073685",
+                                                    "\"5031382E\""));
+        Assert.assertTrue(FrameDeduplicator.hash("560", "469073685", "50")
+                            != FrameDeduplicator.hash("561", "469073685",
+                                                        "50"));
+        
+        // A small memory limit forces spilling the hashes to disk.
+        FrameDeduplicator dedup = new FrameDeduplicator(16, null);
+        for ( long h = 1; h <= 100; h++ )
+            { Assert.assertFalse(dedup.isDuplicate(h * 7919)); }
+        Assert.assertTrue(dedup.getRuns() > 0);
+        for ( long h = 1; h <= 100; h++ )
+            { Assert.assertTrue(dedup.isDuplicate(h * 7919)); }
+        Assert.assertFalse(dedup.isDuplicate(7918));
+        Assert.assertEquals(100, dedup.getDuplicates());
+        dedup.close();
+        
+        // The same records received by two ground stations.
+        File input = FileHelper.checkInputFile(CSV_TEST_FILE_4);
+        List<String> lines = Files.readAllLines
+                            (input.toPath(), StandardCharsets.ISO_8859_1);
+        List<String> twice = new ArrayList<String>(lines);
+        twice.addAll(lines.subList(1, lines.size()));
+        File merged = File.createTempFile("sensorlocator", ".csv");
+        Files.write(merged.toPath(), twice, StandardCharsets.ISO_8859_1);
+        
+        List<SensorData> all = CSVHelper.readSensorData(input);
+        dedup = new FrameDeduplicator();
+        List<SensorData> unique = CSVHelper.readSensorData
+                                            (merged, null, dedup);
+        dedup.close();
+        merged.delete();
+        
+        Assert.assertEquals(all.size(), unique.size());
+        Assert.assertEquals(all.size(), dedup.getDuplicates());
+        
+    }
+    
+    /**
+     * Test of the merge by timestamp of several inputs, each of them ordered
+     * by timestamp.
+     */
+    @Test
+    public void test__merge()
+            throws IOException
+    {
+        
+        System.out.println(">>>>>>>>>> test__merge <<<<<<<<<");
+        
+        File input = FileHelper.checkInputFile(CSV_TEST_FILE_4);
+        final Map<String, Integer> indexes
+                = CSVHelper.readSensorDataIndexes(input);
+        final int required = CSVHelper.getFieldsRequired(indexes);
+        List<String> lines = Files.readAllLines
+                            (input.toPath(), StandardCharsets.ISO_8859_1);
+        
+        // Records sorted by timestamp, dealt alternately to two inputs.
+        List<String> records = new ArrayList<String>();
+        final Map<String, Integer> timestamps
+                = new HashMap<String, Integer>();
+        for ( String l_i : lines.subList(1, lines.size()) )
+        {
+            SensorData sd_i = CSVHelper.parseSensorData
+                                            (l_i, indexes, required);
+            if ( sd_i == null ) { continue; }
+            records.add(l_i);
+            timestamps.put(l_i, sd_i.getTimestamp());
+        }
+        Collections.sort(records, new Comparator<String>()
+        {
+            @Override
+            public int compare(String a, String b)
+                { return(timestamps.get(a).compareTo(timestamps.get(b))); }
+        });
+        
+        List<File> inputs = new ArrayList<File>();
+        for ( int i = 0; i < 2; i++ )
+        {
+            List<String> part = new ArrayList<String>();
+            part.add(lines.get(0));
+            for ( int j = i; j < records.size(); j += 2 )
+                { part.add(records.get(j)); }
+            File f = File.createTempFile("sensorlocator", ".csv");
+            Files.write(f.toPath(), part, StandardCharsets.ISO_8859_1);
+            inputs.add(f);
+        }
+        
+        SensorDataMerger merger = new SensorDataMerger(inputs, null);
+        List<SensorData> merged = merger.readAll();
+        merger.close();
+        for ( File f : inputs ) { f.delete(); }
+        
+        Assert.assertEquals(records.size(), merged.size());
+        Assert.assertEquals(records.size(), merger.getMerged());
+        for ( int i = 1; i < merged.size(); i++ )
+        {
+            Assert.assertTrue(merged.get(i - 1).getTimestamp()
+                                <= merged.get(i).getTimestamp());
+        }
+        
+    }
+    
+    /**
+     * Test of the external sort: order by (sensor id, timestamp), stability
+     * and round trip of the data fields through several spilled runs.
+     */
+    @Test
+    public void test__externalSort()
+            throws IOException
+    {
+        
+        System.out.println(">>>>>>>>>> test__externalSort <<<<<<<<<");
+        
+        List<SensorData> sensors = CSVHelper.readSensorData
+                                    (new File(CSV_TEST_FILE_4));
+        Random random = new Random(39);
+        ExternalSorter sorter = new ExternalSorter(1024 * 1024, 3, null);
+        int n = 60000;
+        
+        // The data length keeps the order of arrival, for checking stability.
+        for ( int i = 0; i < n; i++ )
+        {
+            SensorData sd_i = sensors.get(i % sensors.size());
+            sorter.add(SensorData.createSensorData
+                            (   random.nextInt(500) - 50, random.nextInt(20),
+                                i, sd_i.getDataFields() ));
+        }
+        sorter.sort();
+        Assert.assertTrue(sorter.getRuns() > 1);
+        
+        SensorData previous = null;
+        SensorData sd = null;
+        int read = 0;
+        
+        while ( ( sd = sorter.read() ) != null )
+        {
+            
+            if ( previous != null )
+            {
+                long a = ExternalSorter.key(previous.getSensorId(),
+                                            previous.getTimestamp());
+                long b = ExternalSorter.key(sd.getSensorId(),
+                                            sd.getTimestamp());
+                Assert.assertTrue( ( a < b ) || ( ( a == b )
+                        && ( previous.getDataLength()
+                                < sd.getDataLength() ) ) );
+                Assert.assertTrue( ( previous.getSensorId()
+                                        < sd.getSensorId() )
+                        || ( previous.getTimestamp() <= sd.getTimestamp() ) );
+            }
+            
+            SensorData original = sensors.get
+                                (sd.getDataLength() % sensors.size());
+            Assert.assertEquals(original.getDataFields().toString(),
+                                sd.getDataFields().toString());
+            previous = sd;
+            read++;
+            
+        }
+        
+        sorter.close();
+        Assert.assertEquals(n, read);
+        
+    }
+    
+    /**
+     * Test of the simplification of tracks: a dense and noisy L-shaped path
+     * is reduced to a few vertices that keep its corner.
+     */
+    @Test
+    public void test__tracks()
+            throws IOException
+    {
+        
+        System.out.println(">>>>>>>>>> test__tracks <<<<<<<<<");
+        
+        // 1000 points every ~1 m with ~1 m of noise: 500 north, 500 east.
+        Random random = new Random(40);
+        int n = 1000;
+        float[] lats = new float[n];
+        float[] lons = new float[n];
+        double step = 1.0 / 111195.0;
+        for ( int i = 0; i < n; i++ )
+        {
+            double noise = ( random.nextDouble() - 0.5 ) * 2 * step;
+            lats[i] = (float) ( 42.0 + Math.min(i, 499) * step + noise );
+            lons[i] = (float) ( -8.0 + Math.max(0, i - 499) * step * 1.35
+                                    + noise );
+        }
+        
+        int[] kept = TrackSimplifier.simplify(lats, lons, n, 10.0);
+        Assert.assertTrue(kept.length * 10 <= n);
+        Assert.assertEquals(0, kept[0]);
+        Assert.assertEquals(n - 1, kept[kept.length - 1]);
+        boolean corner = false;
+        for ( int k_i : kept ) { corner |= Math.abs(k_i - 499) < 10; }
+        Assert.assertTrue(corner);
+        
+        // No tolerance keeps every vertex that is not exactly on the line.
+        Assert.assertEquals(3, TrackSimplifier.simplify
+                        (   new float[] { 0f, 1f, 0f },
+                            new float[] { 0f, 1f, 2f }, 3, 0.0 ).length);
+        
+        // A straight track that crosses the antimeridian is reduced to its
+        // ends, not kept as a jump around the whole globe.
+        float[] crossing = { 179.8f, 179.9f, -180.0f, -179.9f, -179.8f };
+        Assert.assertEquals(2, TrackSimplifier.simplify
+                        (   new float[] { 10f, 10f, 10f, 10f, 10f },
+                            crossing, 5, 10.0 ).length);
+        Assert.assertEquals(180.0f, TrackSimplifier.unwrap(179.9f, -180.0f),
+                                1e-3f);
+        Assert.assertEquals(-179.5f, TrackSimplifier.unwrap(-179.8f, -179.5f),
+                                0.0f);
+        Assert.assertEquals(-180.5f, TrackSimplifier.unwrap(-179.8f, 179.5f),
+                                1e-3f);
+        
+        // One track per sensor, written as a folder.
+        List<KMLNode> nodes = SensorLocator.createKMLNodes
+                    (CSVHelper.readSensorData(new File(CSV_TEST_FILE_4)));
+        Set<Integer> ids = new HashSet<Integer>();
+        for ( KMLNode k_i : nodes ) { ids.add(k_i.getParent().getSensorId()); }
+        List<Track> tracks = Track.createTracks(nodes);
+        Assert.assertEquals(ids.size(), tracks.size());
+        
+        TrackKMLWriter writer = new TrackKMLWriter
+                (TrackKMLWriter.NO_EPOCH, DecimalFormatter.DEFAULT);
+        for ( Track t_i : tracks ) { t_i.simplify(10.0); }
+        writer.addTracks(tracks);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        writer.writeXML(baos);
+        String kml = baos.toString("UTF-8");
+        Assert.assertEquals(tracks.size(), kml.split("<Folder>").length - 1);
+        
+    }
+    
+    /**
+     * Test of the heatmaps: binning, parallel smoothing and rendering.
+     */
+    @Test
+    public void test__heatmap()
+            throws IOException
+    {
+        
+        System.out.println(">>>>>>>>>> test__heatmap <<<<<<<<<");
+        
+        Heatmap[] maps = new Heatmap[2];
+        for ( int i = 0; i < maps.length; i++ )
+        {
+            maps[i] = new Heatmap(0.0, 0.0, 1.0, 1.0, 64, 96);
+            Assert.assertTrue(maps[i].add(0.9, 0.1, 10.0f));
+            Assert.assertTrue(maps[i].add(0.9, 0.12, 20.0f));
+            Assert.assertTrue(maps[i].add(0.1, 0.9, 30.0f));
+            Assert.assertFalse(maps[i].add(1.5, 0.5, 40.0f));
+            maps[i].smooth(4, ( i == 0 ) ? 1 : 3);
+        }
+        
+        float[] values = maps[0].getValues();
+        Assert.assertTrue(Arrays.equals(values, maps[1].getValues()));
+        Assert.assertEquals(3, maps[0].getReadings());
+        
+        // Row 0 is the north, the first two readings average to 15.
+        int near = (int) ( ( 1.0 - 0.9 ) * 96 ) * 64 + (int) ( 0.11 * 64 );
+        Assert.assertEquals(15.0f, values[near], 1.0f);
+        Assert.assertTrue(Float.isNaN(values[48 * 64 + 32]));
+        float[] range = maps[0].getRange();
+        Assert.assertTrue( ( range[0] > 9.99f ) && ( range[1] < 30.01f ) );
+        
+        java.awt.image.BufferedImage image
+                                = maps[0].render(range[0], range[1]);
+        Assert.assertEquals(64, image.getWidth());
+        Assert.assertEquals(96, image.getHeight());
+        Assert.assertEquals(0, image.getRGB(32, 48) >>> 24);
+        Assert.assertEquals(Heatmap.ALPHA, image.getRGB(7, 9) >>> 24);
+        
+        List<SensorData> sensors = CSVHelper.readSensorData
+                                    (new File(CSV_TEST_FILE_4));
+        Heatmap h = Heatmap.createHeatmap
+                        (sensors, DataField.TEMPERATURE_F_CODE, 0, 32);
+        Assert.assertNotNull(h);
+        Assert.assertTrue(h.getReadings() > 0);
+        
+    }
+    
+    /**
+     * Test of the HTTP server: uploads, files of the root directory and
+     * errors.
+     */
+    @Test
+    public void test__server()
+            throws Exception
+    {
+        
+        System.out.println(">>>>>>>>>> test__server <<<<<<<<<");
+        
+        File csv = new File(CSV_TEST_FILE_4);
+        int expected = SensorLocator.createKMLNodes
+                            (CSVHelper.readSensorData(csv)).size();
+        Assert.assertTrue(expected > 0);
+        
+        SensorLocatorServer server = new SensorLocatorServer
+                (new InetSocketAddress("127.0.0.1", 0), 2, 4,
+                    new File(TEST_FILES_PATH));
+        server.start();
+        String base = "http://127.0.0.1:" + server.getPort()
+                        + SensorLocatorServer.CONVERT_PATH;
+        
+        try
+        {
+            
+            // Upload, several times through the same (kept alive) connection.
+            for ( int i = 0; i < 3; i++ )
+            {
+                HttpURLConnection c = (HttpURLConnection)
+                            URI.create(base + "?format=geojson").toURL()
+                                .openConnection();
+                c.setRequestMethod("POST");
+                c.setDoOutput(true);
+                OutputStream os = c.getOutputStream();
+                os.write(Files.readAllBytes(csv.toPath()));
+                os.close();
+                Assert.assertEquals(200, c.getResponseCode());
+                Assert.assertEquals("application/geo+json",
+                                        c.getContentType());
+                String body = new String(readAll(c.getInputStream()),
+                                            StandardCharsets.UTF_8);
+                Assert.assertTrue(body.startsWith
+                                        ("{\"type\":\"FeatureCollection\""));
+                Assert.assertEquals(expected,
+                                body.split("\"type\":\"Feature\"", -1).length
+                                    - 1);
+            }
+            
+            // File of the root directory, as KMZ.
+            HttpURLConnection c = (HttpURLConnection) URI.create
+                    (base + "?format=kmz&file=" + csv.getName()).toURL()
+                        .openConnection();
+            Assert.assertEquals(200, c.getResponseCode());
+            ZipInputStream zip = new ZipInputStream(c.getInputStream());
+            ZipEntry entry = zip.getNextEntry();
+            Assert.assertEquals(SensorLocatorServer.KMZ_ENTRY, entry.getName());
+            String kml = new String(readAll(zip), StandardCharsets.UTF_8);
+            zip.close();
+            Assert.assertEquals(expected,
+                                    kml.split("<Placemark>", -1).length - 1);
+            
+            String[][] errors =
+            {
+                { "?file=../../pom.xml", "403" },
+                { "?file=missing.csv", "404" },
+                { "?file=" + csv.getName() + "&format=shp", "400" },
+                { "?file=" + csv.getName() + "&sensor=x", "400" },
+                { "", "400" }
+            };
+            for ( String[] e_i : errors )
+            {
+                c = (HttpURLConnection) URI.create(base + e_i[0]).toURL()
+                                            .openConnection();
+                Assert.assertEquals(Integer.parseInt(e_i[1]),
+                                        c.getResponseCode());
+                c.disconnect();
+            }
+            
+            // An upload cut once the response has started: the connection is
+            // dropped, without the last chunk of the response.
+            byte[] upload = Files.readAllBytes(csv.toPath());
+            Socket socket = new Socket("127.0.0.1", server.getPort());
+            try
+            {
+                OutputStream os = socket.getOutputStream();
+                os.write(( "POST " + SensorLocatorServer.CONVERT_PATH
+                            + " HTTP/1.1\r\nHost: 127.0.0.1\r\n"
+                            + "Content-Length: " + ( 2 * upload.length )
+                            + "\r\n\r\n" )
+                                .getBytes(StandardCharsets.US_ASCII));
+                os.write(upload);
+                os.flush();
+                InputStream in = socket.getInputStream();
+                byte[] status = new byte[12];
+                int n = 0;
+                while ( n < status.length )
+                    { n += in.read(status, n, status.length - n); }
+                Assert.assertEquals("HTTP/1.1 200",
+                            new String(status, StandardCharsets.US_ASCII));
+                socket.shutdownOutput();
+                String response = new String(readAll(in),
+                                                StandardCharsets.US_ASCII);
+                Assert.assertFalse(response.endsWith("\r\n0\r\n\r\n"));
+            }
+            finally
+                { socket.close(); }
+            
+        }
+        finally
+            { server.stop(); }
+        
+    }
+    
+    /**
+     * Reads the whole given stream, without closing it.
+     * 
+     * @param in The input stream.
+     * @return The bytes read.
+     * @throws IOException In case any IO problem occurs.
+     */
+    protected static byte[] readAll(final InputStream in)
+            throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n = 0;
+        while ( ( n = in.read(buffer) ) > 0 ) { out.write(buffer, 0, n); }
+        return(out.toByteArray());
+    }
+    
+    /**
+     * Test of the watch-folder daemon: complete, marked and invalid inputs.
+     */
+    @Test
+    public void test__watchFolder()
+            throws Exception
+    {
+        
+        System.out.println(">>>>>>>>>> test__watchFolder <<<<<<<<<");
+        
+        File csv = new File(CSV_TEST_FILE_4);
+        int expected = SensorLocator.createKMLNodes
+                            (CSVHelper.readSensorData(csv)).size();
+        
+        File spool = Files.createTempDirectory("spool").toFile();
+        File output = new File(spool, "maps");
+        FolderWatcher watcher = new FolderWatcher
+                (Arrays.asList(spool), output, Pipeline.builder().build(),
+                    2, 200L);
+        Thread t = new Thread(watcher);
+        t.start();
+        
+        try
+        {
+            
+            Files.copy(csv.toPath(), new File(spool, "pass.csv").toPath());
+            Files.write(new File(spool, "empty.csv").toPath(), new byte[0]);
+            Files.copy(csv.toPath(), new File(spool, "late.csv").toPath());
+            Files.write(new File(spool, "late.csv"
+                            + FolderWatcher.MARKER_EXTENSION).toPath(),
+                        new byte[0]);
+            
+            long deadline = System.currentTimeMillis() + 20000L;
+            while ( ( watcher.getConverted() + watcher.getFailed() < 3 )
+                    && ( System.currentTimeMillis() < deadline ) )
+                { Thread.sleep(50L); }
+            
+        }
+        finally
+            { watcher.close(); t.join(); }
+        
+        Assert.assertEquals(2, watcher.getConverted());
+        Assert.assertEquals(1, watcher.getFailed());
+        
+        for ( String n_i : new String[] { "pass", "late" } )
+        {
+            String kml = new String(Files.readAllBytes
+                                (new File(output, n_i + ".kml").toPath()),
+                            StandardCharsets.UTF_8);
+            Assert.assertEquals(expected,
+                                    kml.split("<Placemark>", -1).length - 1);
+            Assert.assertTrue(new File(spool, FolderWatcher.DONE_DIRECTORY
+                                + File.separator + n_i + ".csv").exists());
+        }
+        Assert.assertTrue(new File(spool, FolderWatcher.FAILED_DIRECTORY
+                                    + File.separator + "empty.csv").exists());
+        Assert.assertEquals(2, output.list().length);
+        Assert.assertFalse(new File(spool, "late.csv"
+                                + FolderWatcher.MARKER_EXTENSION).exists());
+        
+    }
+    
+    /**
+     * Test of the embeddable pipeline: repeated runs, filters, sources and
+     * sinks, without files being created.
+     */
+    @Test
+    public void test__pipeline()
+            throws Exception
+    {
+        
+        System.out.println(">>>>>>>>>> test__pipeline <<<<<<<<<");
+        
+        File csv = new File(CSV_TEST_FILE_4);
+        List<SensorData> sensors = CSVHelper.readSensorData(csv);
+        List<KMLNode> nodes = SensorLocator.createKMLNodes(sensors);
+        String[] before = new File(".").list();
+        
+        Pipeline.Builder builder = Pipeline.builder().format("ndjson");
+        Pipeline all = builder.build();
+        for ( int i = 0; i < 2; i++ )
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Pipeline.Result r = all.run(csv, out);
+            Assert.assertEquals(sensors.size(), r.getRead());
+            Assert.assertEquals(nodes.size(), r.getWritten());
+            Assert.assertNull(r.getStatistics());
+            Assert.assertEquals(nodes.size(), new String(out.toByteArray(),
+                            StandardCharsets.UTF_8).split("\n").length);
+        }
+        
+        // Sensor and region filters, from a stream and with statistics.
+        KMLNode first = nodes.get(0);
+        int id = first.getParent().getSensorId();
+        float lat = first.getPosition().latitude;
+        float lon = first.getPosition().longitude;
+        int expected = 0;
+        for ( KMLNode k_i : nodes )
+        {
+            if ( ( k_i.getParent().getSensorId() == id )
+                    && ( SpatialIndex.distance(lat, lon,
+                                k_i.getPosition().latitude,
+                                k_i.getPosition().longitude) <= 1000.0 ) )
+                { expected++; }
+        }
+        Pipeline near = builder.sensor(id, Integer.MIN_VALUE,
+                                        Integer.MAX_VALUE)
+                            .near(lat, lon, 1000.0).statistics(true).build();
+        Pipeline.Result r = near.run
+                (Files.newInputStream(csv.toPath()), new ByteArrayOutputStream());
+        Assert.assertEquals(expected, r.getWritten());
+        Assert.assertTrue(r.getStatistics().size() > 0);
+        
+        // The builder does not change the pipelines already built.
+        Assert.assertEquals(nodes.size(), all.run(csv,
+                                new ByteArrayOutputStream()).getWritten());
+        
+        // Boxes across the antimeridian, as in the spatial index.
+        SpatialIndex<KMLNode> index = SpatialIndex.createSpatialIndex(nodes, 2);
+        Assert.assertEquals(index.queryBox(-90, 0, 90, -60).size(),
+                Pipeline.builder().boundingBox(-90, 0, 90, -60).build()
+                        .run(csv, new ByteArrayOutputStream()).getWritten());
+        Assert.assertTrue(index.queryBox(-90, 0, 90, -60).size() > 0);
+        
+        // Intermediate and statistics sinks.
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        File log = File.createTempFile("pipeline", ".int");
+        Pipeline.builder().format("int").build().run(csv, log);
+        Assert.assertEquals(nodes.get(0).getParent().toString(),
+                            SensorLocator.readIntermediateFile(log).get(0)
+                                                                .toString());
+        log.delete();
+        Pipeline.builder().format("statistics").build().run(csv, out);
+        Assert.assertTrue(new String(out.toByteArray(),
+                            StandardCharsets.UTF_8).startsWith
+                                (SensorStatistics.CSV_HEADER));
+        
+        try
+        {
+            Pipeline.builder().format("shp");
+            Assert.fail("Unsupported format accepted.");
+        }
+        catch(IllegalArgumentException ex) {}
+        
+        Assert.assertTrue(Arrays.equals(before, new File(".").list()));
+        
+    }
+    
+    /**
+     * Test of the staged runs: same output as the sequential runs, with
+     * queues much smaller than the input, and failures propagated.
+     */
+    @Test
+    public void test__staged()
+            throws Exception
+    {
+        
+        System.out.println(">>>>>>>>>> test__staged <<<<<<<<<");
+        
+        List<String> lines = Files.readAllLines
+                    (new File(CSV_TEST_FILE_4).toPath(), StandardCharsets.UTF_8);
+        List<String> big = new ArrayList<String>();
+        big.add(lines.get(0));
+        for ( int i = 0; i < 200; i++ )
+            { big.addAll(lines.subList(1, lines.size())); }
+        File csv = File.createTempFile("staged", ".csv");
+        csv.deleteOnExit();
+        Files.write(csv.toPath(), big, StandardCharsets.UTF_8);
+        
+        for ( String f_i : new String[] { "kml", "ndjson" } )
+        {
+            
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            Pipeline.Result r = Pipeline.builder().format(f_i).build()
+                                    .run(csv, expected);
+            Assert.assertTrue(r.getWritten() > 1000);
+            
+            ByteArrayOutputStream actual = new ByteArrayOutputStream();
+            Pipeline staged = Pipeline.builder().format(f_i).staged(1).build();
+            Pipeline.Result s = staged.run(csv, actual);
+            Assert.assertEquals(r.getRead(), s.getRead());
+            Assert.assertEquals(r.getWritten(), s.getWritten());
+            Assert.assertTrue(Arrays.equals(expected.toByteArray(),
+                                            actual.toByteArray()));
+            
+            // Sources other than a single CSV file.
+            actual.reset();
+            SensorDataMerger merger = new SensorDataMerger
+                                        (Arrays.asList(csv), null);
+            staged.run(merger, actual);
+            merger.close();
+            Assert.assertTrue(Arrays.equals(expected.toByteArray(),
+                                            actual.toByteArray()));
+            
+        }
+        
+        // The KML sink writes the placemarks before the end of the document.
+        List<KMLNode> nodes = SensorLocator.createKMLNodes
+                                    (CSVHelper.readSensorData(csv));
+        OutputSink sink = Pipeline.builder().build().createOutputSink();
+        ByteArrayOutputStream partial = new ByteArrayOutputStream();
+        sink.begin(partial);
+        int header = partial.size();
+        for ( int i = 0; i < 8 * ParallelKMLWriter.DEFAULT_BATCH_SIZE; i++ )
+            { sink.write(nodes.get(i % nodes.size())); }
+        Assert.assertTrue(partial.size() > header);
+        sink.end();
+        
+        // A failing writer stops the other stages.
+        final long[] written = { 0L };
+        OutputSink failing = new OutputSink()
+        {
+            @Override
+            public void begin(OutputStream os) {}
+            @Override
+            public void write(KMLNode node)
+                throws IOException
+            {
+                if ( ++written[0] > 300 )
+                    { throw(new IOException("Disk full.")); }
+            }
+            @Override
+            public void end() {}
+            @Override
+            public void abort() {}
+        };
+        SensorDataReader reader = new SensorDataReader(csv, null);
+        try
+        {
+            new StagedRunner(Pipeline.builder().build(), 1)
+                    .run(reader, failing, new Pipeline.Result());
+            Assert.fail("The failure of the writer was not propagated.");
+        }
+        catch(IOException ex)
+            { Assert.assertEquals("Disk full.", ex.getMessage()); }
+        finally
+            { reader.close(); }
+        
+    }
+    
+    /**
+     * Test of the virtual thread executor, with many concurrent requests to a
+     * server that runs each of them on a virtual thread.
+     */
+    @Test
+    public void test__virtualThreads()
+            throws Exception
+    {
+        
+        System.out.println(">>>>>>>>>> test__virtualThreads <<<<<<<<<");
+        
+        try
+        {
+            WorkerThreads.createExecutor("green", 1, "test-");
+            Assert.fail("Executor not supported.");
+        }
+        catch(IllegalArgumentException ex) {}
+        
+        ExecutorService clients = WorkerThreads.createExecutor
+                            (WorkerThreads.VIRTUAL_EXECUTOR, 0, "test-");
+        Assert.assertTrue(clients.submit(new Callable<Boolean>()
+        {
+            @Override
+            public Boolean call()
+                { return(Thread.currentThread().isVirtual()); }
+        }).get());
+        
+        final File csv = new File(CSV_TEST_FILE_4);
+        final int expected = SensorLocator.createKMLNodes
+                            (CSVHelper.readSensorData(csv)).size();
+        SensorLocatorServer server = new SensorLocatorServer
+                (new InetSocketAddress("127.0.0.1", 0),
+                    WorkerThreads.VIRTUAL_EXECUTOR, 64, 0, null);
+        server.start();
+        final String base = "http://127.0.0.1:" + server.getPort()
+                        + SensorLocatorServer.CONVERT_PATH + "?format=ndjson";
+        
+        try
+        {
+            
+            List<Future<Integer>> responses = new ArrayList<Future<Integer>>();
+            for ( int i = 0; i < 200; i++ )
+            {
+                responses.add(clients.submit(new Callable<Integer>()
+                {
+                    @Override
+                    public Integer call()
+                        throws IOException
+                    {
+                        HttpURLConnection c = (HttpURLConnection)
+                                URI.create(base).toURL().openConnection();
+                        c.setRequestMethod("POST");
+                        c.setDoOutput(true);
+                        OutputStream os = c.getOutputStream();
+                        os.write(Files.readAllBytes(csv.toPath()));
+                        os.close();
+                        Assert.assertEquals(200, c.getResponseCode());
+                        String body = new String(readAll(c.getInputStream()),
+                                                    StandardCharsets.UTF_8);
+                        return(body.split("\n").length);
+                    }
+                }));
+            }
+            for ( Future<Integer> r_i : responses )
+                { Assert.assertEquals(expected, r_i.get().intValue()); }
+            
+        }
+        finally
+            { server.stop(); clients.shutdown(); }
+        
+    }
+    
+    /**
+     * Converts the given input through the given cache.
+     */
+    private static boolean runCached
+            (   final ResultCache cache, final Pipeline pipeline,
+                final File input, final File output )
+        throws IOException
+    {
+        FileChannel out = FileChannel.open(output.toPath(),
+                                        StandardOpenOption.CREATE,
+                                        StandardOpenOption.WRITE,
+                                        StandardOpenOption.TRUNCATE_EXISTING);
+        try
+            { return(cache.run(pipeline, input, out)); }
+        finally
+            { out.close(); }
+    }
+    
+    /**
+     * Test of the cache of the converted documents: hits by path and by
+     * contents, options, persistence and eviction.
+     */
+    @Test
+    public void test__resultCache()
+            throws Exception
+    {
+        
+        System.out.println(">>>>>>>>>> test__resultCache <<<<<<<<<");
+        
+        File directory = Files.createTempDirectory("cache").toFile();
+        File csv = new File(CSV_TEST_FILE_4);
+        File copy = File.createTempFile("cache", ".csv");
+        Files.copy(csv.toPath(), copy.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        File expected = File.createTempFile("cache", ".json");
+        File output = File.createTempFile("cache", ".json");
+        
+        Pipeline geojson = Pipeline.builder()
+                                .format(OutputSinks.GEOJSON_FORMAT).build();
+        geojson.run(csv, expected);
+        byte[] document = Files.readAllBytes(expected.toPath());
+        
+        ResultCache cache = new ResultCache(directory, 1024L * 1024L);
+        Assert.assertFalse(runCached(cache, geojson, csv, output));
+        Assert.assertTrue(Arrays.equals(document,
+                                    Files.readAllBytes(output.toPath())));
+        Assert.assertTrue(runCached(cache, geojson, csv, output));
+        Assert.assertTrue(Arrays.equals(document,
+                                    Files.readAllBytes(output.toPath())));
+        Assert.assertEquals(1, cache.getEntries());
+        Assert.assertEquals(document.length, cache.getSize());
+        
+        // Same contents by another path: converted, but stored only once.
+        Assert.assertFalse(runCached(cache, geojson, copy, output));
+        Assert.assertTrue(Arrays.equals(document,
+                                    Files.readAllBytes(output.toPath())));
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(2, cache.getMisses());
+        Assert.assertEquals(1, cache.getEntries());
+        Assert.assertEquals(document.length, cache.getSize());
+        Assert.assertTrue(runCached(cache, geojson, copy, output));
+        Assert.assertEquals(1, cache.getEntries());
+        
+        // Other options, other document.
+        Pipeline kml = Pipeline.builder().build();
+        Assert.assertFalse(runCached(cache, kml, csv, output));
+        Assert.assertTrue(new String(Files.readAllBytes(output.toPath()),
+                            StandardCharsets.UTF_8).contains("<Placemark>"));
+        Assert.assertEquals(2, cache.getEntries());
+        Assert.assertEquals(2, cache.getHits());
+        Assert.assertEquals(3, cache.getMisses());
+        
+        // Modified input, converted again.
+        Assert.assertTrue(copy.setLastModified
+                                    (copy.lastModified() - 60000L));
+        Assert.assertFalse(runCached(cache, geojson, copy, output));
+        
+        // The cache survives a restart; the least recently used document is
+        // evicted once the limit is reduced.
+        cache = new ResultCache(directory, 1024L * 1024L);
+        Assert.assertEquals(2, cache.getEntries());
+        Thread.sleep(20L);
+        Assert.assertTrue(runCached(cache, geojson, csv, output));
+        cache = new ResultCache(directory, document.length);
+        Assert.assertEquals(1, cache.getEntries());
+        Assert.assertTrue(runCached(cache, geojson, copy, output));
+        Assert.assertFalse(runCached(cache, kml, csv, output));
+        Assert.assertTrue(cache.getSize() <= document.length);
+        Assert.assertFalse(runCached(cache, geojson, csv, output));
+        
+        for ( File f_i : directory.listFiles() ) { f_i.delete(); }
+        directory.delete();
+        copy.delete();
+        expected.delete();
+        output.delete();
+        
+    }
+    
+    /**
+     * Test of the intermediate file: binary log, sparse index and reading
+     * back the decoded records.
+     */
+    @Test
+    public void test__recordLog()
+            throws Exception
+    {
+        
+        System.out.println(">>>>>>>>>> test__recordLog <<<<<<<<<");
+        
+        List<SensorData> sensors = CSVHelper.readSensorData
+                                                (new File(CSV_TEST_FILE_4));
+        Assert.assertTrue(sensors.size() > 4);
+        
+        File file = File.createTempFile("sensorlocator", ".int");
+        SensorLocator.writeIntermediateFile(file, sensors);
+        List<SensorData> read = SensorLocator.readIntermediateFile(file);
+        Assert.assertEquals(sensors.size(), read.size());
+        for ( int i = 0; i < sensors.size(); i++ )
+        {
+            Assert.assertEquals(sensors.get(i).toString(),
+                                    read.get(i).toString());
+            Assert.assertEquals(sensors.get(i).getDataFields().get(0).value,
+                            read.get(i).getDataFields().get(0).value);
+        }
+        
+        // Small blocks, read sequentially and by range of time.
+        RecordLogWriter writer = new RecordLogWriter
+                                    (new FileOutputStream(file), 2);
+        int min = Integer.MAX_VALUE;
+        for ( SensorData sd_i : sensors )
+        {
+            writer.write(sd_i);
+            min = Math.min(min, sd_i.getTimestamp());
+        }
+        writer.close();
+        
+        RecordLogReader reader = new RecordLogReader(file);
+        try
+        {
+            Assert.assertEquals(sensors.size(), reader.getRecords());
+            Assert.assertEquals(( sensors.size() + 1 ) / 2,
+                                    reader.getBlocks());
+            SensorData sd = null;
+            int n = 0;
+            while ( ( sd = reader.read() ) != null )
+            {
+                Assert.assertEquals(sensors.get(n).toString(),
+                                        sd.toString());
+                n++;
+            }
+            Assert.assertEquals(sensors.size(), n);
+            List<SensorData> first = reader.read(min, min);
+            Assert.assertFalse(first.isEmpty());
+            for ( SensorData f_i : first )
+                { Assert.assertEquals(min, f_i.getTimestamp()); }
+            Assert.assertTrue(reader.read(Integer.MIN_VALUE, min - 1)
+                                                            .isEmpty());
+        }
+        finally
+            { reader.close(); }
+        
+        // Incomplete logs are rejected.
+        RecordLogWriter partial = new RecordLogWriter
+                                    (new FileOutputStream(file));
+        partial.write(sensors.get(0));
+        try
+        {
+            new RecordLogReader(file).close();
+            Assert.fail("Incomplete log accepted.");
+        }
+        catch(IOException ex) {}
+        partial.close();
+        Assert.assertEquals(1, SensorLocator.readIntermediateFile(file)
+                                                                .size());
+        
+        // Aborted logs are rejected.
+        partial = new RecordLogWriter(new FileOutputStream(file));
+        partial.write(sensors.get(0));
+        partial.abort();
+        try
+        {
+            new RecordLogReader(file).close();
+            Assert.fail("Aborted log accepted.");
+        }
+        catch(IOException ex) {}
+        SensorLocator.writeIntermediateFile(file, sensors.subList(0, 1));
+        
+        DataOutputStream varints = new DataOutputStream
+                                            (new ByteArrayOutputStream());
+        Assert.assertEquals(1, RecordLog.writeVarint(varints, 127));
+        Assert.assertEquals(2, RecordLog.writeVarint(varints, 128));
+        Assert.assertEquals(5, RecordLog.writeVarint(varints, -1));
+        file.delete();
+        
+    }
+    
+    /**
+     * Test of the store of readings: appends, pruned scans, compaction and
+     * documents written directly from a scan.
+     */
+    @Test
+    public void test__readingStore()
+            throws Exception
+    {
+        
+        System.out.println(">>>>>>>>>> test__readingStore <<<<<<<<<");
+        
+        List<SensorData> sensors = CSVHelper.readSensorData
+                                                (new File(CSV_TEST_FILE_4));
+        File dir = Files.createTempDirectory("sensorlocator-store").toFile();
+        
+        // Each batch writes (at least) a segment, the small segments are
+        // compacted later.
+        ReadingStore store = new ReadingStore(dir, 0L);
+        int third = ( sensors.size() + 2 ) / 3;
+        for ( int i = 0; i < sensors.size(); i += third )
+        {
+            store.append(sensors.subList
+                            (i, Math.min(sensors.size(), i + third)));
+        }
+        Assert.assertEquals(sensors.size(), store.getRecords());
+        int segments = store.getSegments();
+        Assert.assertTrue(segments > 1);
+        
+        // The readings of the store, in the order of the scans.
+        final ReadingStore s = store;
+        List<SensorData> sorted = new ArrayList<SensorData>(sensors);
+        Collections.sort(sorted, new Comparator<SensorData>()
+        {
+            @Override
+            public int compare(final SensorData a, final SensorData b)
+            {
+                int c = Long.compare(s.getDay(a.getTimestamp()),
+                                        s.getDay(b.getTimestamp()));
+                if ( c != 0 ) { return(c); }
+                return(Long.compare
+                        (ExternalSorter.key(a.getSensorId(), a.getTimestamp()),
+                         ExternalSorter.key(b.getSensorId(), b.getTimestamp()))
+                );
+            }
+        });
+        Assert.assertEquals(sorted.toString(),
+                        scanAll(store, Pipeline.ALL_SENSORS).toString());
+        
+        // Scans by sensor and by time.
+        SensorData first = sorted.get(0);
+        for ( SensorData sd_i : scanAll(store, first.getSensorId()) )
+            { Assert.assertEquals(first.getSensorId(), sd_i.getSensorId()); }
+        SensorDataSource scan = store.scan(Pipeline.ALL_SENSORS,
+                            first.getTimestamp(), first.getTimestamp());
+        SensorData sd = null;
+        int n = 0;
+        while ( ( sd = scan.read() ) != null )
+        {
+            Assert.assertEquals(first.getTimestamp(), sd.getTimestamp());
+            n++;
+        }
+        scan.close();
+        Assert.assertTrue(n > 0);
+        
+        // Compaction, the readings do not change.
+        Assert.assertTrue(store.compact() > 1);
+        Assert.assertTrue(store.getSegments() < segments);
+        Assert.assertEquals(sorted.toString(),
+                        scanAll(store, Pipeline.ALL_SENSORS).toString());
+        store.close();
+        
+        store = new ReadingStore(dir, 0L);
+        Assert.assertEquals(sensors.size(), store.getRecords());
+        Assert.assertEquals(sorted.toString(),
+                        scanAll(store, Pipeline.ALL_SENSORS).toString());
+        
+        // Documents written from the store.
+        File file = File.createTempFile("sensorlocator", ".int");
+        SensorLocator.writeIntermediateFile(file, sorted);
+        Pipeline pipeline = Pipeline.builder().format("geojson").build();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        RecordLogReader reader = new RecordLogReader(file);
+        pipeline.run(reader, expected);
+        reader.close();
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        scan = store.scan(Pipeline.ALL_SENSORS,
+                            Integer.MIN_VALUE, Integer.MAX_VALUE);
+        pipeline.run(scan, actual);
+        scan.close();
+        Assert.assertEquals(expected.toString("UTF-8"),
+                                actual.toString("UTF-8"));
+        store.close();
+        
+        // Days before the epoch, the names of the segments start by '-'.
+        for ( File f_i : dir.listFiles() ) { f_i.delete(); }
+        store = new ReadingStore(dir, 2L * Integer.MIN_VALUE);
+        Assert.assertTrue(store.getDay(first.getTimestamp()) < 0);
+        store.append(sensors);
+        store.close();
+        store = new ReadingStore(dir, 2L * Integer.MIN_VALUE);
+        store.append(sensors);
+        Assert.assertEquals(2 * sensors.size(), store.getRecords());
+        store.close();
+        
+        file.delete();
+        for ( File f_i : dir.listFiles() ) { f_i.delete(); }
+        dir.delete();
+        
+    }
+    
+    /**
+     * Reads all the readings of the given sensor from the given store.
+     * 
+     * @param store The store.
+     * @param sensor The sensor id.
+     * @return The readings.
+     * @throws IOException In case the store cannot be read.
+     */
+    private static List<SensorData> scanAll
+            (final ReadingStore store, final int sensor)
+        throws IOException
+    {
+        List<SensorData> result = new ArrayList<SensorData>();
+        SensorDataSource scan = store.scan
+                        (sensor, Integer.MIN_VALUE, Integer.MAX_VALUE);
+        SensorData sd = null;
+        while ( ( sd = scan.read() ) != null ) { result.add(sd); }
+        scan.close();
+        return(result);
+    }
+    
+    /**
+     * Test of the columnar archive: lossless round trip, pruned reads and
+     * documents written directly from the archive.
+     */
+    @Test
+    public void test__columnArchive()
+            throws Exception
+    {
+        
+        System.out.println(">>>>>>>>>> test__columnArchive <<<<<<<<<");
+        
+        List<SensorData> sensors = CSVHelper.readSensorData
+                                                (new File(CSV_TEST_FILE_4));
+        File file = File.createTempFile("sensorlocator", ".archive");
+        ArchiveWriter writer = new ArchiveWriter(new FileOutputStream(file), 4);
+        for ( SensorData sd_i : sensors ) { writer.write(sd_i); }
+        writer.close();
+        
+        File log = File.createTempFile("sensorlocator", ".int");
+        
+        // The readings are grouped by sensor, the same ones and values.
+        ArchiveReader reader = new ArchiveReader(file);
+        List<SensorData> read = null;
+        try
+        {
+            Assert.assertEquals(sensors.size(), reader.getRecords());
+            Assert.assertTrue(reader.getBlocks() > 1);
+            read = reader.readAll();
+            List<String> expected = new ArrayList<String>();
+            List<String> actual = new ArrayList<String>();
+            for ( int i = 0; i < sensors.size(); i++ )
+            {
+                expected.add(sensors.get(i).toString()
+                            + sensors.get(i).getDataFields().get(0).value);
+                actual.add(read.get(i).toString()
+                            + read.get(i).getDataFields().get(0).value);
+            }
+            Collections.sort(expected);
+            Collections.sort(actual);
+            Assert.assertEquals(expected, actual);
+            
+            SensorData first = read.get(0);
+            List<SensorData> one = reader.read(first.getSensorId(),
+                                first.getTimestamp(), first.getTimestamp());
+            Assert.assertFalse(one.isEmpty());
+            for ( SensorData sd_i : one )
+            {
+                Assert.assertEquals(first.getSensorId(), sd_i.getSensorId());
+                Assert.assertEquals(first.getTimestamp(), sd_i.getTimestamp());
+            }
+        }
+        finally
+            { reader.close(); }
+        
+        // Documents written from the archive.
+        SensorLocator.writeIntermediateFile(log, read);
+        Pipeline pipeline = Pipeline.builder().format("geojson").build();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        RecordLogReader logReader = new RecordLogReader(log);
+        pipeline.run(logReader, expected);
+        logReader.close();
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        pipeline.run(file, actual);
+        Assert.assertEquals(expected.toString("UTF-8"),
+                                actual.toString("UTF-8"));
+        
+        // A slowly changing series, read back grouped by sensor.
+        List<SensorData> series = new ArrayList<SensorData>();
+        for ( int i = 0; i < 3000; i++ )
+        {
+            series.add(SensorData.createSensorData
+                    (1000000 + 60 * ( i / 3 ), 600 + i % 3, 32,
+                        SensorData.readDataFields
+                                ("P42.25,-8.4" + ( 1 + i % 3 )
+                                    + ";T" + ( 20 + i / 300 ) + ".5")));
+        }
+        writer = new ArchiveWriter(new FileOutputStream(file));
+        for ( SensorData sd_i : series ) { writer.write(sd_i); }
+        writer.close();
+        SensorLocator.writeIntermediateFile(log, series);
+        Assert.assertTrue(10 * file.length() < log.length());
+        
+        Collections.sort(series, new Comparator<SensorData>()
+        {
+            @Override
+            public int compare(final SensorData a, final SensorData b)
+                { return(Integer.compare(a.getSensorId(), b.getSensorId())); }
+        });
+        reader = new ArchiveReader(file);
+        try
+            { Assert.assertEquals(series.toString(),
+                                    reader.readAll().toString()); }
+        finally
+            { reader.close(); }
+        
+        // Readings without a position are archived too, by the sequential
+        // and by the staged runs; only the maps need a position.
+        List<SensorData> mixed = new ArrayList<SensorData>();
+        mixed.add(SensorData.createSensorData(1000000, 7, 32,
+                                    SensorData.readDataFields("T21.5")));
+        mixed.add(SensorData.createSensorData(1000060, 7, 32,
+                        SensorData.readDataFields("P42.25,-8.41;T21.75")));
+        SensorLocator.writeIntermediateFile(log, mixed);
+        for ( int staged : new int[] { 0, 1 } )
+        {
+            Pipeline archiving = Pipeline.builder()
+                                    .format(OutputSinks.ARCHIVE_FORMAT)
+                                    .staged(staged).build();
+            RecordLogReader source = new RecordLogReader(log);
+            OutputStream os = new FileOutputStream(file);
+            try
+                { Assert.assertEquals(2, archiving.run(source, os)
+                                                        .getWritten()); }
+            finally
+                { os.close(); source.close(); }
+            reader = new ArchiveReader(file);
+            try
+                { Assert.assertEquals(mixed.toString(),
+                                        reader.readAll().toString()); }
+            finally
+                { reader.close(); }
+            
+            Pipeline logging = Pipeline.builder()
+                                    .format(OutputSinks.INTERMEDIATE_FORMAT)
+                                    .staged(staged).build();
+            ArchiveReader archived = new ArchiveReader(file);
+            os = new FileOutputStream(log);
+            try
+                { Assert.assertEquals(2, logging.run(archived, os)
+                                                        .getWritten()); }
+            finally
+                { os.close(); archived.close(); }
+            Assert.assertEquals(mixed.toString(),
+                    SensorLocator.readIntermediateFile(log).toString());
+        }
+        logReader = new RecordLogReader(log);
+        Assert.assertEquals(1, pipeline.run(logReader,
+                            new ByteArrayOutputStream()).getWritten());
+        logReader.close();
+        
+        file.delete();
+        log.delete();
+        
+    }
+    
 }